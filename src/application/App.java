@@ -1,12 +1,15 @@
 package application;
 
-import application.model.SunBed;
+import application.model.PersistenceMode;
 import application.model.SunBedCollection;
-import application.util.AccessDataFile;
+import application.util.PhaseTimer;
 import application.util.View;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javafx.application.Platform;
 
 import javafx.application.Application;
 import javafx.stage.Stage;
@@ -25,8 +28,16 @@ import javafx.fxml.FXMLLoader;
  */
 public class App extends Application {
 
-	// private static final String FILE_NAME_AND_LOCATION = "sunloungers.ser";
-	private static final String FILE_NAME_AND_LOCATION = "sunloungers.xml";
+	// Data files bigger than this are loaded while the window opens
+	private static final long BACKGROUND_LOAD_BYTES = 1024 * 1024;
+	// How often the metrics summary is logged
+	private static final long METRICS_LOG_SECONDS = 60;
+	private static final Logger LOGGER = LogManager.getLogger(App.class);
+
+	private static final PhaseTimer startup = new PhaseTimer();
+	private static long launchNanos;
+	// Loading the sun beds and drawing the first frame, reported once both are done
+	private static final AtomicInteger startupPhasesLeft = new AtomicInteger(2);
 
 	/** 
 	 * @param primaryStage
@@ -50,6 +61,19 @@ public class App extends Application {
 		
 			primaryStage.setTitle("Sun Bed Manager");
 			primaryStage.setScene(scene);
+			scene.addPostLayoutPulseListener(new Runnable() {
+				private boolean seen;
+
+				@Override
+				public void run() {
+					if (!seen) {
+						seen = true;
+						startup.record("first frame", launchNanos);
+						startupPhaseDone();
+						Platform.runLater(() -> scene.removePostLayoutPulseListener(this));
+					}
+				}
+			});
 			primaryStage.show();
 
 			View.centerOnScreen(primaryStage);
@@ -62,33 +86,111 @@ public class App extends Application {
 
 	/**
 	 * Before calling the JavaFX launch, ensure we can find and open the file used
-	 * to hold the data. First try opening, if that fails, try creating and then
-	 * opening the file. If that fails then terminate the program.
+	 * to hold the data. First try opening, which also replays the journal of
+	 * changes made since the file was last written. If that fails and there is
+	 * no data file or journal, try creating the file. If there is one, or the
+	 * file can not be created, then terminate the program, leaving the files as
+	 * they are.
+	 * <p>
+	 * A large data file is read in the background instead, while the window
+	 * opens. The time taken by each phase of starting up is printed once the sun
+	 * beds are loaded and the first frame is drawn.
 	 * 
 	 * @param args
 	 */
 	public static void main(String[] args) {
+		SunBedCollection beds = SunBedCollection.getInstance();
+		// Attendants toggle many beds in quick succession, let those share a write
+		beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+		watchMetrics(beds);
+
 		// Access the file containing data for the application
-		List<SunBed> sunBedsToAdd;
-		try {
-			sunBedsToAdd = AccessDataFile.readData(FILE_NAME_AND_LOCATION);
-			for (int i = 1; i < sunBedsToAdd.size(); i++) {
-				SunBedCollection.getInstance().addSunBed();
-			}
+		if (beds.getStoredBytes() > BACKGROUND_LOAD_BYTES) {
+			beds.readDataFromFileInBackground(startup).whenComplete((loaded, e) -> {
+				if (e != null) {
+					readFailed(beds, e);
+				}
+				keepHistory(beds);
+				startupPhaseDone();
+			});
 		}
 
-		catch (Exception e) {
+		else {
 			try {
-				sunBedsToAdd = new ArrayList<SunBed>();
-				AccessDataFile.writeData(sunBedsToAdd, FILE_NAME_AND_LOCATION);
-				sunBedsToAdd = AccessDataFile.readData(FILE_NAME_AND_LOCATION);
+				beds.readDataFromFile(startup);
 			}
 
-			catch (Exception ex) {
-				ex.printStackTrace();
-				System.exit(0);
+			catch (Exception e) {
+				readFailed(beds, e);
 			}
+			keepHistory(beds);
+			startupPhaseDone();
 		}
+		launchNanos = System.nanoTime();
 		launch(args);
 	}
+
+	/**
+	 * Called when the data file could not be read. Only if there is nothing
+	 * stored is a new file created, the sun beds in a file that is damaged or
+	 * can not be read are never written over with an empty collection.
+	 */
+	private static void readFailed(SunBedCollection beds, Throwable e) {
+		if (beds.getStoredBytes() > 0) {
+			LOGGER.error("Reading the data file failed! Nothing was changed, fix or move the data file and its"
+					+ " journal.", e);
+			System.exit(1);
+		}
+		createDataFile();
+	}
+
+	/**
+	 * Called when there is no data file to read. Try creating the file, if that
+	 * fails then terminate the program.
+	 */
+	private static void createDataFile() {
+		try {
+			SunBedCollection.getInstance().writeDataToFile();
+		}
+
+		catch (Exception ex) {
+			ex.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Shows the metrics of the sun beds in JConsole and logs them every
+	 * minute. The application runs without them if JMX refuses them.
+	 */
+	private static void watchMetrics(SunBedCollection beds) {
+		try {
+			beds.getMetrics().register();
+		}
+
+		catch (Exception e) {
+			LOGGER.warn("Metrics not available over JMX: {}", e.getMessage());
+		}
+		beds.getMetrics().startLogging(METRICS_LOG_SECONDS);
+	}
+
+	/**
+	 * Records the bookings for the occupancy reports, once the sun beds are
+	 * loaded. The application runs without it if the history can not be read.
+	 */
+	private static void keepHistory(SunBedCollection beds) {
+		try {
+			beds.getHistory();
+		}
+
+		catch (Exception e) {
+			LOGGER.warn("Occupancy history not kept: {}", e.getMessage());
+		}
+	}
+
+	private static void startupPhaseDone() {
+		if (startupPhasesLeft.decrementAndGet() == 0) {
+			LOGGER.info("Startup: {}", startup.summary());
+		}
+	}
 }
@@ -1,13 +1,25 @@
 package application;
 
+import java.util.Arrays;
+
+import application.cli.BatchCommands;
+import application.server.BookingServer;
 
 /**
- * Launches the JavaFX main class
+ * Launches the JavaFX main class, or with <code>--server [port]</code> the
+ * headless HTTP booking service instead, or with a command such as
+ * <code>status</code> runs it without JavaFX, see <code>BatchCommands</code>
  * @author 
  */
 public class Launcher {
 
     public static void main(String[] args) {
-        App.main(args);
+        if (args.length > 0 && args[0].equals("--server")) {
+            BookingServer.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (BatchCommands.isCommandLine(args)) {
+            BatchCommands.main(args);
+        } else {
+            App.main(args);
+        }
     }
-}
\ No newline at end of file
+}
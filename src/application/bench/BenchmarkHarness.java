@@ -0,0 +1,252 @@
+package application.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A small benchmark harness in the spirit of JMH, for a project without a
+ * build that could pull JMH in. Each benchmark is warmed up, then timed over a
+ * number of fixed length iterations, and the average time per operation is
+ * reported with a 99.9% confidence interval.
+ * <p>
+ * Results are saved as JSON, one result per line, with the field names JMH
+ * uses, so runs can be compared with <code>compare()</code> or any JSON tool.
+ *
+ */
+public class BenchmarkHarness {
+
+	// Shortest time one call to Operation.run() is allowed to take
+	private static final long MIN_CALL_NANOS = 10_000_000L;
+	private static final long MAX_OPS_PER_CALL = 1L << 30;
+
+	private static final Pattern RESULT = Pattern.compile(
+			"\"benchmark\"\\s*:\\s*\"([^\"]+)\".*\"beds\"\\s*:\\s*(\\d+).*\"score\"\\s*:\\s*([0-9.eE+-]+)");
+
+	/**
+	 * The code being measured.
+	 */
+	public interface Operation {
+		/**
+		 * Runs the operation <code>ops</code> times.
+		 *
+		 * @param ops How many times to run it
+		 * @return long Anything derived from the work, so it is not optimised away
+		 */
+		long run(long ops) throws Exception;
+	}
+
+	/**
+	 * The average time of one operation of one benchmark.
+	 */
+	public static final class Result {
+		private final String benchmark;
+		private final int beds;
+		private final double score;
+		private final double scoreError;
+		private final int iterations;
+
+		Result(String benchmark, int beds, double score, double scoreError, int iterations) {
+			this.benchmark = benchmark;
+			this.beds = beds;
+			this.score = score;
+			this.scoreError = scoreError;
+			this.iterations = iterations;
+		}
+
+		public String getBenchmark() {
+			return benchmark;
+		}
+
+		public int getBeds() {
+			return beds;
+		}
+
+		/**
+		 * @return double Nanoseconds per operation
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * @return double Half the width of the 99.9% confidence interval
+		 */
+		public double getScoreError() {
+			return scoreError;
+		}
+
+		String key() {
+			return benchmark + "@" + beds;
+		}
+
+		String toJson() {
+			return String.format(Locale.ROOT,
+					"{\"benchmark\": \"%s\", \"mode\": \"avgt\", \"params\": {\"beds\": %d}, "
+							+ "\"measurementIterations\": %d, \"score\": %.3f, \"scoreError\": %.3f, \"scoreUnit\": \"ns/op\"}",
+					benchmark, beds, iterations, score, scoreError);
+		}
+	}
+
+	private final int warmUpIterations;
+	private final int iterations;
+	private final long iterationNanos;
+	private final List<Result> results = new ArrayList<>();
+	// Written so the JIT cannot drop the work being measured
+	private volatile long sink;
+
+	/**
+	 * @param warmUpIterations Iterations run and thrown away first
+	 * @param iterations       Iterations measured
+	 * @param iterationMillis  How long each iteration runs for
+	 */
+	public BenchmarkHarness(int warmUpIterations, int iterations, long iterationMillis) {
+		this.warmUpIterations = warmUpIterations;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1_000_000L;
+	}
+
+	/**
+	 * Measures one benchmark, prints its result and keeps it for
+	 * <code>writeJson()</code>.
+	 *
+	 * @param benchmark The name of the benchmark
+	 * @param beds      The number of sun beds it was run with
+	 * @param operation The code to measure
+	 * @return Result The time per operation
+	 * @throws Exception Whatever the operation throws
+	 */
+	public Result measure(String benchmark, int beds, Operation operation) throws Exception {
+		long ops = calibrate(operation);
+		for (int i = 0; i < warmUpIterations; i++) {
+			iteration(operation, ops);
+		}
+		double[] samples = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			samples[i] = iteration(operation, ops);
+		}
+
+		double mean = 0;
+		for (double sample : samples) {
+			mean += sample;
+		}
+		mean /= samples.length;
+		double variance = 0;
+		for (double sample : samples) {
+			variance += (sample - mean) * (sample - mean);
+		}
+		double error = samples.length > 1 ? 3.291 * Math.sqrt(variance / (samples.length - 1) / samples.length)
+				: Double.NaN;
+
+		Result result = new Result(benchmark, beds, mean, error, samples.length);
+		results.add(result);
+		System.out.printf(Locale.ROOT, "%-32s %9d %16.1f +- %-12.1f ns/op%n", benchmark, beds, mean, error);
+		return result;
+	}
+
+	/**
+	 * Finds how many operations one call must run to take at least
+	 * <code>MIN_CALL_NANOS</code>, so timer overhead does not matter.
+	 */
+	private long calibrate(Operation operation) throws Exception {
+		long ops = 1;
+		while (true) {
+			long start = System.nanoTime();
+			sink += operation.run(ops);
+			long elapsed = System.nanoTime() - start;
+			if (elapsed >= MIN_CALL_NANOS || ops >= MAX_OPS_PER_CALL) {
+				return ops;
+			}
+			ops *= elapsed < MIN_CALL_NANOS / 100 ? 16 : 2;
+		}
+	}
+
+	/**
+	 * @return double Nanoseconds per operation over one iteration
+	 */
+	private double iteration(Operation operation, long ops) throws Exception {
+		long done = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			sink += operation.run(ops);
+			done += ops;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < iterationNanos);
+		return (double) elapsed / done;
+	}
+
+	/**
+	 * @return List<Result> Every result measured so far
+	 */
+	public List<Result> getResults() {
+		return results;
+	}
+
+	/**
+	 * Writes the results as a JSON array with one result per line.
+	 *
+	 * @param file Where to write them
+	 * @throws IOException
+	 */
+	public void writeJson(Path file) throws IOException {
+		StringBuilder json = new StringBuilder("[\n");
+		for (int i = 0; i < results.size(); i++) {
+			json.append("  ").append(results.get(i).toJson()).append(i < results.size() - 1 ? ",\n" : "\n");
+		}
+		json.append("]\n");
+		Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads the scores of a file written by <code>writeJson()</code>.
+	 *
+	 * @param file The file to read
+	 * @return Map<String, Double> Nanoseconds per operation by
+	 *         <code>benchmark@beds</code>
+	 * @throws IOException
+	 */
+	public static Map<String, Double> readJson(Path file) throws IOException {
+		Map<String, Double> scores = new LinkedHashMap<>();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			Matcher m = RESULT.matcher(line);
+			if (m.find()) {
+				scores.put(m.group(1) + "@" + m.group(2), Double.parseDouble(m.group(3)));
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Prints how each result compares with the same benchmark in a baseline.
+	 *
+	 * @param baseline  Scores read with <code>readJson()</code>
+	 * @param tolerance How much slower, as a fraction, counts as a regression
+	 * @return int The number of regressions
+	 */
+	public int compare(Map<String, Double> baseline, double tolerance) {
+		int regressions = 0;
+		System.out.printf("%n%-42s %14s %14s %9s%n", "benchmark@beds", "baseline", "now", "change");
+		for (Result result : results) {
+			Double before = baseline.get(result.key());
+			if (before == null) {
+				System.out.printf(Locale.ROOT, "%-42s %14s %14.1f %9s%n", result.key(), "-", result.getScore(), "new");
+				continue;
+			}
+			double change = result.getScore() / before - 1;
+			boolean regressed = change > tolerance;
+			regressions += regressed ? 1 : 0;
+			System.out.printf(Locale.ROOT, "%-42s %14.1f %14.1f %+8.1f%%%s%n", result.key(), before, result.getScore(),
+					change * 100, regressed ? "  REGRESSION" : "");
+		}
+		return regressions;
+	}
+}
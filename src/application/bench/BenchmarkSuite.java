@@ -0,0 +1,670 @@
+package application.bench;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import application.model.OccupancyHistory;
+import application.model.OccupancyRollup;
+import application.model.PersistenceMode;
+import application.model.SunBed;
+import application.model.SunBedCollection;
+import application.model.SunBedZones;
+import application.model.UndoHistory;
+import application.util.AccessDataFile;
+import application.util.SnapshotFile;
+import application.util.SunBedXmlCodec;
+import application.util.XMLDataExchange;
+import application.view.SunBedGridView;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+
+/**
+ * Benchmarks of the hot paths of the application, run with
+ * <code>BenchmarkHarness</code>:
+ * <ul>
+ * <li><code>model.*</code> - <code>toggleSunBed()</code>,
+ * <code>getCountFree()</code>, <code>setAllSunBedsToFree()</code> after a
+ * toggle, and <code>findFreeRun()</code> and <code>findFreeBlock()</code>
+ * searching a beach where no group fits, on collections of 100 to 1,000,000
+ * sun beds</li>
+ * <li><code>persistence.*</code> - reading and writing the XML file of
+ * <code>XMLDataExchange</code> and <code>SunBedXmlCodec</code>, the serialized file of
+ * <code>AccessDataFile</code> and the binary snapshot</li>
+ * <li><code>startup.readDataFromFile</code> - the restore path of
+ * <code>App.main()</code>, a snapshot plus a journal of 10,000 changes</li>
+ * <li><code>reservations.*</code> - hourly reservations over a season of 180
+ * days, each sun bed reserved for one to three spans of two to four hours
+ * between 9:00 and 19:00 on most days: which sun beds are free 14:00 to
+ * 16:00, the next free hour of a sun bed from 9:00, and reserving and
+ * cancelling an hour</li>
+ * <li><code>zones.*</code> - the same number of sun beds as
+ * <code>startup.*</code> split over eight zones: reading them all, in
+ * parallel, and counting the free sun beds of each zone and in total</li>
+ * <li><code>rollup.*</code> - <code>toggleSunBed()</code> with an
+ * <code>OccupancyRollup</code> of rows of 50 keeping count, and counting the
+ * free sun beds of a range of 5 rows and of a price tier with it</li>
+ * <li><code>undo.*</code> - <code>toggleSunBed()</code> with an
+ * <code>UndoHistory</code> keeping every step, and undoing and redoing a
+ * toggle</li>
+ * <li><code>history.*</code> - the occupancy history of a season of 180 days,
+ * each sun bed booked and freed four times a day between 9:00 and 19:00, so
+ * 1,440,000 events for 1,000 sun beds: the occupancy curve of a day, and the
+ * utilization of every sun bed and the peak hour over the season</li>
+ * <li><code>view.*</code> - a layout pass of the sun bed grid after
+ * <code>drawSunBeds()</code> and after a toggle. Needs a JavaFX toolkit, for
+ * a headless run use Monocle:
+ * <code>-Dglass.platform=Monocle -Dmonocle.platform=Headless -Dprism.order=sw</code>.
+ * Skipped if the toolkit can not start.</li>
+ * </ul>
+ * <p>
+ * Usage:
+ * <code>BenchmarkSuite [--quick] [--only prefix] [--out results.json] [--baseline old.json] [--tolerance 0.10]</code>
+ * <p>
+ * The results are written to <code>--out</code>, by default
+ * <code>bench-results.json</code>. Keep the file of a release as the baseline
+ * for the next one: with <code>--baseline</code> every result is compared with
+ * it and the exit status is 1 if any benchmark is slower by more than
+ * <code>--tolerance</code>.
+ *
+ */
+public class BenchmarkSuite {
+
+	private static final int[] MODEL_SIZES = { 100, 1_000, 10_000, 100_000, 1_000_000 };
+	private static final int[] QUICK_MODEL_SIZES = { 100, 10_000, 1_000_000 };
+	// XML takes seconds per write beyond this
+	private static final int[] FILE_SIZES = { 100, 1_000, 10_000 };
+	private static final int[] QUICK_FILE_SIZES = { 1_000 };
+	private static final int[] STARTUP_SIZES = { 1_000, 100_000, 1_000_000 };
+	private static final int[] VIEW_SIZES = { 100, 10_000, 1_000_000 };
+	private static final int JOURNALED_CHANGES = 10_000;
+	private static final int[] RESERVATION_SIZES = { 1_000, 5_000, 10_000 };
+	private static final int SEASON_DAYS = 180;
+	private static final int ROW_LENGTH = 50;
+	private static final int[] HISTORY_SIZES = { 1_000, 10_000 };
+	private static final int HISTORY_TOGGLES_PER_BED = 8;
+	private static final String[] ZONES = { "pool", "front-row", "vip", "north", "south", "east", "west", "bar" };
+
+	private static String only = "";
+
+	public static void main(String[] args) throws Exception {
+		boolean quick = false;
+		Path out = Paths.get("bench-results.json");
+		Path baseline = null;
+		double tolerance = 0.10;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--quick":
+				quick = true;
+				break;
+			case "--only":
+				only = args[++i];
+				break;
+			case "--out":
+				out = Paths.get(args[++i]);
+				break;
+			case "--baseline":
+				baseline = Paths.get(args[++i]);
+				break;
+			case "--tolerance":
+				tolerance = Double.parseDouble(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+
+		BenchmarkHarness harness = quick ? new BenchmarkHarness(1, 3, 200) : new BenchmarkHarness(3, 5, 1000);
+		Path dir = Files.createTempDirectory("sunbed-bench");
+		try {
+			model(harness, dir, quick ? QUICK_MODEL_SIZES : MODEL_SIZES);
+			persistence(harness, dir, quick ? QUICK_FILE_SIZES : FILE_SIZES);
+			startup(harness, dir, quick ? new int[] { 100_000 } : STARTUP_SIZES);
+			reservations(harness, dir, quick ? new int[] { 5_000 } : RESERVATION_SIZES);
+			zones(harness, dir, quick ? new int[] { 100_000 } : STARTUP_SIZES);
+			rollup(harness, dir, quick ? QUICK_MODEL_SIZES : MODEL_SIZES);
+			undo(harness, dir, quick ? QUICK_MODEL_SIZES : MODEL_SIZES);
+			history(harness, dir, quick ? new int[] { 1_000 } : HISTORY_SIZES);
+			view(harness, quick ? new int[] { 10_000 } : VIEW_SIZES);
+		} finally {
+			deleteAll(dir);
+		}
+
+		harness.writeJson(out);
+		System.out.println("Results written to " + out.toAbsolutePath());
+		int regressions = 0;
+		if (baseline != null) {
+			regressions = harness.compare(BenchmarkHarness.readJson(baseline), tolerance);
+			System.out.println(regressions == 0 ? "No regressions" : regressions + " regressions");
+		}
+		System.exit(regressions == 0 ? 0 : 1);
+	}
+
+	private static boolean selected(String benchmark) {
+		return benchmark.startsWith(only);
+	}
+
+	/**
+	 * The model as the application uses it, with group commit.
+	 */
+	private static void model(BenchmarkHarness harness, Path dir, int[] sizes) throws Exception {
+		for (int n : sizes) {
+			SunBedCollection beds = SunBedCollection.forFile(dir.resolve("model-" + n + ".dat"));
+			beds.readDataFromFile();
+			beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+			beds.addSunBeds(n);
+			// The IDs of a new collection run from 1
+			int[] next = { 0 };
+
+			if (selected("model.toggleSunBed")) {
+				harness.measure("model.toggleSunBed", n, ops -> {
+					int bed = next[0];
+					for (long i = 0; i < ops; i++) {
+						beds.toggleSunBed(bed + 1);
+						bed += 7919;
+						if (bed >= n) {
+							bed %= n;
+						}
+					}
+					next[0] = bed;
+					return bed;
+				});
+			}
+			if (selected("model.getCountFree")) {
+				harness.measure("model.getCountFree", n, ops -> {
+					long free = 0;
+					for (long i = 0; i < ops; i++) {
+						free += beds.getCountFree();
+					}
+					return free;
+				});
+			}
+			if (selected("model.setAllSunBedsToFree")) {
+				harness.measure("model.setAllSunBedsToFree", n, ops -> {
+					for (long i = 0; i < ops; i++) {
+						beds.toggleSunBed((int) (i % n) + 1);
+						beds.setAllSunBedsToFree();
+					}
+					return beds.getCountFree();
+				});
+			}
+			if (selected("model.findFree")) {
+				// Two of every three booked, so no group fits and the whole
+				// beach is searched
+				int[] booked = new int[n - (n + 2) / 3];
+				for (int i = 0, b = 0; i < n; i++) {
+					if (i % 3 != 0) {
+						booked[b++] = beds.getID(i);
+					}
+				}
+				beds.setAllSunBedsToFree();
+				beds.setBooked(booked, true);
+				harness.measure("model.findFreeRun", n, ops -> {
+					long found = 0;
+					for (long i = 0; i < ops; i++) {
+						found += beds.findFreeRun(4);
+					}
+					return found;
+				});
+				harness.measure("model.findFreeBlock", n, ops -> {
+					long found = 0;
+					for (long i = 0; i < ops; i++) {
+						found += beds.findFreeBlock(2, 3, 6);
+					}
+					return found;
+				});
+			}
+			beds.close();
+		}
+	}
+
+	private static void persistence(BenchmarkHarness harness, Path dir, int[] sizes) throws Exception {
+		for (int n : sizes) {
+			List<SunBed> list = new ArrayList<>(n);
+			long[] booked = new long[SnapshotFile.words(n)];
+			int[] ids = new int[n];
+			for (int i = 0; i < n; i++) {
+				SunBed s = new SunBed();
+				if (i % 3 == 0) {
+					s.setBooked(true);
+					booked[i >>> 6] |= 1L << i;
+				}
+				ids[i] = s.getID();
+				list.add(s);
+			}
+			SnapshotFile.Contents contents = new SnapshotFile.Contents(n, booked, ids);
+			String xml = dir.resolve("beds.xml").toString();
+			String ser = dir.resolve("beds.ser").toString();
+			Path dat = dir.resolve("beds.dat");
+
+			if (selected("persistence.xml")) {
+				harness.measure("persistence.xml.write", n, ops -> {
+					for (long i = 0; i < ops; i++) {
+						XMLDataExchange.writeData(list, xml);
+					}
+					return ops;
+				});
+				harness.measure("persistence.xml.read", n, ops -> {
+					long read = 0;
+					for (long i = 0; i < ops; i++) {
+						read += ((List<?>) XMLDataExchange.readData(xml)).size();
+					}
+					return read;
+				});
+			}
+			if (selected("persistence.stax")) {
+				Path staxXml = dir.resolve("beds-stax.xml");
+				harness.measure("persistence.stax.write", n, ops -> {
+					for (long i = 0; i < ops; i++) {
+						SunBedXmlCodec.writeData(list, staxXml);
+					}
+					return ops;
+				});
+				harness.measure("persistence.stax.read", n, ops -> {
+					long read = 0;
+					for (long i = 0; i < ops; i++) {
+						read += SunBedXmlCodec.readData(staxXml, b -> {
+						});
+					}
+					return read;
+				});
+			}
+			if (selected("persistence.serialized")) {
+				harness.measure("persistence.serialized.write", n, ops -> {
+					for (long i = 0; i < ops; i++) {
+						AccessDataFile.writeData(list, ser);
+					}
+					return ops;
+				});
+				harness.measure("persistence.serialized.read", n, ops -> {
+					long read = 0;
+					for (long i = 0; i < ops; i++) {
+						read += AccessDataFile.readData(ser).size();
+					}
+					return read;
+				});
+			}
+			if (selected("persistence.snapshot")) {
+				harness.measure("persistence.snapshot.write", n, ops -> {
+					for (long i = 0; i < ops; i++) {
+						SnapshotFile.writeData(contents, dat);
+					}
+					return ops;
+				});
+				harness.measure("persistence.snapshot.read", n, ops -> {
+					long read = 0;
+					for (long i = 0; i < ops; i++) {
+						read += SnapshotFile.readData(dat).getCount();
+					}
+					return read;
+				});
+			}
+		}
+	}
+
+	/**
+	 * What <code>App.main()</code> does before the window opens.
+	 */
+	private static void startup(BenchmarkHarness harness, Path dir, int[] sizes) throws Exception {
+		if (!selected("startup.readDataFromFile")) {
+			return;
+		}
+		for (int n : sizes) {
+			Path dataFile = dir.resolve("startup-" + n + ".dat");
+			SunBedCollection beds = SunBedCollection.forFile(dataFile);
+			beds.readDataFromFile();
+			beds.setJournalCompactionThreshold(Long.MAX_VALUE);
+			beds.addSunBeds(n);
+			beds.writeDataToFile();
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			beds.batch(m -> {
+				for (int i = 0; i < JOURNALED_CHANGES; i++) {
+					m.toggleSunBed(random.nextInt(n) + 1);
+				}
+			});
+			beds.close();
+
+			harness.measure("startup.readDataFromFile", n, ops -> {
+				long count = 0;
+				for (long i = 0; i < ops; i++) {
+					SunBedCollection restored = SunBedCollection.forFile(dataFile);
+					restored.readDataFromFile();
+					count += restored.getCountFree();
+					restored.close();
+				}
+				return count;
+			});
+		}
+	}
+
+	/**
+	 * A beach taking advance bookings for a season.
+	 */
+	private static void reservations(BenchmarkHarness harness, Path dir, int[] sizes) throws Exception {
+		if (!selected("reservations")) {
+			return;
+		}
+		for (int n : sizes) {
+			SunBedCollection beds = SunBedCollection.forFile(dir.resolve("reservations-" + n + ".dat"));
+			beds.readDataFromFile();
+			beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+			beds.setJournalCompactionThreshold(Long.MAX_VALUE);
+			beds.addSunBeds(n);
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int day = 0; day < SEASON_DAYS; day++) {
+				for (int id = 1; id <= n; id++) {
+					for (int spans = random.nextInt(4); spans > 0; spans--) {
+						int from = 9 + random.nextInt(8);
+						beds.reserve(id, day, from, Math.min(19, from + 2 + random.nextInt(3)));
+					}
+				}
+			}
+			beds.writeDataToFile();
+
+			int[] next = { 0 };
+			harness.measure("reservations.findFreeSunBeds", n, ops -> {
+				long free = 0;
+				for (long i = 0; i < ops; i++) {
+					free += beds.findFreeSunBeds(next[0]++ % SEASON_DAYS, 14, 16).length;
+				}
+				return free;
+			});
+			harness.measure("reservations.nextFreeHour", n, ops -> {
+				long hours = 0;
+				for (long i = 0; i < ops; i++) {
+					hours += beds.nextFreeHour(next[0]++ % n + 1, 0, 9);
+				}
+				return hours;
+			});
+			harness.measure("reservations.reserve", n, ops -> {
+				for (long i = 0; i < ops; i++) {
+					int bed = next[0]++ % n + 1;
+					beds.reserve(bed, bed % SEASON_DAYS, 21, 22);
+					beds.cancelReservation(bed, bed % SEASON_DAYS, 21, 22);
+				}
+				return ops;
+			});
+			beds.close();
+		}
+	}
+
+	/**
+	 * A beach split into zones, each with its own data file and journal.
+	 */
+	private static void zones(BenchmarkHarness harness, Path dir, int[] sizes) throws Exception {
+		if (!selected("zones")) {
+			return;
+		}
+		for (int n : sizes) {
+			Path zoneDir = dir.resolve("zones-" + n);
+			SunBedZones zones = SunBedZones.forDirectory(zoneDir);
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (String name : ZONES) {
+				SunBedCollection zone = zones.addZone(name);
+				zone.setJournalCompactionThreshold(Long.MAX_VALUE);
+				zone.addSunBeds(n / ZONES.length);
+				zone.writeDataToFile();
+				zone.batch(m -> {
+					for (int i = 0; i < JOURNALED_CHANGES / ZONES.length; i++) {
+						m.toggleSunBed(random.nextInt(n / ZONES.length) + 1);
+					}
+				});
+			}
+			zones.close();
+
+			harness.measure("zones.readDataFromFile", n, ops -> {
+				long count = 0;
+				for (long i = 0; i < ops; i++) {
+					SunBedZones restored = SunBedZones.forDirectory(zoneDir);
+					restored.readDataFromFile();
+					count += restored.getCountFree();
+					restored.close();
+				}
+				return count;
+			});
+			zones.readDataFromFile();
+			harness.measure("zones.getOccupancyByZone", n, ops -> {
+				long free = 0;
+				for (long i = 0; i < ops; i++) {
+					free += zones.getOccupancyByZone().size();
+				}
+				return free;
+			});
+			harness.measure("zones.getTotalOccupancy", n, ops -> {
+				long free = 0;
+				for (long i = 0; i < ops; i++) {
+					free += zones.getTotalOccupancy().getCountFree();
+				}
+				return free;
+			});
+			zones.close();
+		}
+	}
+
+	/**
+	 * The model with a rollup of its rows, as a dashboard would keep.
+	 */
+	private static void rollup(BenchmarkHarness harness, Path dir, int[] sizes) throws Exception {
+		if (!selected("rollup")) {
+			return;
+		}
+		for (int n : sizes) {
+			SunBedCollection beds = SunBedCollection.forFile(dir.resolve("rollup-" + n + ".dat"));
+			beds.readDataFromFile();
+			beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+			beds.addSunBeds(n);
+			OccupancyRollup rollup = beds.getRollup(ROW_LENGTH);
+			int rows = rollup.getRowCount();
+			rollup.addTier("front", 0, Math.min(rows, 3) - 1);
+			rollup.addTier("back", Math.max(0, rows - 3), rows - 1);
+			int[] next = { 0 };
+
+			harness.measure("rollup.toggleSunBed", n, ops -> {
+				int bed = next[0];
+				for (long i = 0; i < ops; i++) {
+					beds.toggleSunBed(bed + 1);
+					bed += 7919;
+					if (bed >= n) {
+						bed %= n;
+					}
+				}
+				next[0] = bed;
+				return bed;
+			});
+			harness.measure("rollup.getCountFree", n, ops -> {
+				long free = 0;
+				for (long i = 0; i < ops; i++) {
+					int from = (int) (i % rows);
+					free += rollup.getCountFree(from, from + 4);
+				}
+				return free;
+			});
+			harness.measure("rollup.getTierOccupancy", n, ops -> {
+				long free = 0;
+				for (long i = 0; i < ops; i++) {
+					free += rollup.getTierOccupancy("back").getCountFree();
+				}
+				return free;
+			});
+			beds.close();
+		}
+	}
+
+	/**
+	 * The model with an undo history, as the window keeps.
+	 */
+	private static void undo(BenchmarkHarness harness, Path dir, int[] sizes) throws Exception {
+		if (!selected("undo")) {
+			return;
+		}
+		for (int n : sizes) {
+			SunBedCollection beds = SunBedCollection.forFile(dir.resolve("undo-" + n + ".dat"));
+			beds.readDataFromFile();
+			beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+			beds.addSunBeds(n);
+			UndoHistory history = beds.getUndoHistory();
+			int[] next = { 0 };
+
+			harness.measure("undo.toggleSunBed", n, ops -> {
+				int bed = next[0];
+				for (long i = 0; i < ops; i++) {
+					beds.toggleSunBed(bed + 1);
+					bed += 7919;
+					if (bed >= n) {
+						bed %= n;
+					}
+				}
+				next[0] = bed;
+				return bed;
+			});
+			harness.measure("undo.undoRedo", n, ops -> {
+				long undone = 0;
+				for (long i = 0; i < ops; i++) {
+					undone += history.undo() ? 1 : 0;
+					undone += history.redo() ? 1 : 0;
+				}
+				return undone;
+			});
+			beds.close();
+		}
+	}
+
+	/**
+	 * A season of bookings recorded in the occupancy history, written through
+	 * <code>record()</code> as the collection would.
+	 */
+	private static void history(BenchmarkHarness harness, Path dir, int[] sizes) throws Exception {
+		if (!selected("history")) {
+			return;
+		}
+		long season = LocalDate.of(2026, 5, 1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		for (int n : sizes) {
+			OccupancyHistory history = OccupancyHistory.open(dir.resolve("history-" + n));
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			boolean[] booked = new boolean[n + 1];
+			int events = n * HISTORY_TOGGLES_PER_BED;
+			long open = 9 * 3_600_000L;
+			long step = 10 * 3_600_000L / events;
+			for (int day = 0; day < SEASON_DAYS; day++) {
+				long start = season + day * 24 * 3_600_000L;
+				history.startDay(day, start + open);
+				for (int i = 0; i < events; i++) {
+					int id = random.nextInt(n) + 1;
+					booked[id] = !booked[id];
+					history.record(start + open + i * step, id, booked[id]);
+				}
+				for (int id = 1; id <= n; id++) {
+					booked[id] = false;
+					history.record(start + open + events * step, id, false);
+				}
+			}
+			history.startDay(SEASON_DAYS, season + SEASON_DAYS * 24 * 3_600_000L);
+			history.flush();
+
+			int[] next = { 0 };
+			harness.measure("history.getOccupancyCurve", n, ops -> {
+				double sum = 0;
+				for (long i = 0; i < ops; i++) {
+					sum += history.getOccupancyCurve(next[0]++ % SEASON_DAYS)[14];
+				}
+				return (long) sum;
+			});
+			harness.measure("history.getUtilization", n, ops -> {
+				double sum = 0;
+				for (long i = 0; i < ops; i++) {
+					sum += history.getUtilization(0, SEASON_DAYS - 1)[1];
+				}
+				return (long) sum;
+			});
+			harness.measure("history.getPeakHour", n, ops -> {
+				long hours = 0;
+				for (long i = 0; i < ops; i++) {
+					hours += history.getPeakHour(0, SEASON_DAYS - 1);
+				}
+				return hours;
+			});
+			history.close();
+		}
+	}
+
+	/**
+	 * Lays the grid out on the JavaFX application thread, as a pulse would.
+	 */
+	private static void view(BenchmarkHarness harness, int[] sizes) throws Exception {
+		if (!selected("view")) {
+			return;
+		}
+		try {
+			Platform.startup(() -> {
+			});
+		} catch (IllegalStateException alreadyStarted) {
+			// Fine, use it
+		} catch (RuntimeException | Error e) {
+			System.out.println("view benchmarks skipped, the JavaFX toolkit did not start: " + e);
+			return;
+		}
+
+		for (int n : sizes) {
+			FutureTask<Void> task = new FutureTask<>(() -> {
+				SunBedGridView grid = new SunBedGridView();
+				Scene scene = new Scene(grid, 675, 750);
+				URL css = SunBedGridView.class.getResource("/application/resources/css/mainStyle.css");
+				if (css != null) {
+					scene.getStylesheets().add(css.toExternalForm());
+				}
+				boolean[] booked = new boolean[n];
+				grid.setBookedLookup(i -> booked[i]);
+				grid.setSunBedCount(n);
+				grid.applyCss();
+				grid.layout();
+
+				int[] round = { 0 };
+				harness.measure("view.drawSunBeds", n, ops -> {
+					for (long i = 0; i < ops; i++) {
+						grid.setSunBedCount((round[0]++ & 1) == 0 ? n - 1 : n);
+						grid.layout();
+					}
+					return grid.getColumns();
+				});
+				harness.measure("view.toggleSunBed", n, ops -> {
+					int visible = Math.min(n, grid.getColumns() * 4);
+					for (long i = 0; i < ops; i++) {
+						int bed = round[0]++ % visible;
+						booked[bed] = !booked[bed];
+						grid.updateSunBed(bed);
+						grid.layout();
+					}
+					return grid.getColumns();
+				});
+				return null;
+			});
+			Platform.runLater(task);
+			try {
+				task.get();
+			} catch (Exception e) {
+				System.out.println("view benchmarks failed at " + n + " sun beds: " + e.getCause());
+				break;
+			}
+		}
+		Platform.exit();
+	}
+
+	private static void deleteAll(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			// Deepest first, so a directory is empty by the time it is deleted
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				// The compactor may have just deleted a retired journal
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package application.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import application.model.PersistenceMode;
+import application.model.StorageMode;
+import application.model.SunBedCollection;
+import application.server.BookingServer;
+
+/**
+ * Loads the HTTP booking service the way kiosks would and reports the
+ * throughput and the latency percentiles. Each thread is a kiosk sending one
+ * request after another: mostly polls of the free count and the list of sun
+ * beds with <code>If-None-Match</code>, and toggles of random sun beds.
+ * <p>
+ * Unless given a URL it starts its own server on localhost, with a data file
+ * of its own that is deleted afterwards.
+ * <p>
+ * Usage:
+ * <code>BookingLoadGenerator [--url http://host:port/sunbeds] [--threads n] [--seconds s] [--beds n] [--toggles percent]</code>,
+ * by default 16 threads for 10 seconds on 1,000 sun beds, 20% toggles.
+ *
+ */
+public class BookingLoadGenerator {
+
+	private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+	public static void main(String[] args) throws Exception {
+		String url = null;
+		int threads = 16;
+		int seconds = 10;
+		int sunBeds = 1_000;
+		int togglePercent = 20;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--url":
+				url = args[i + 1];
+				break;
+			case "--threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			case "--seconds":
+				seconds = Integer.parseInt(args[i + 1]);
+				break;
+			case "--beds":
+				sunBeds = Integer.parseInt(args[i + 1]);
+				break;
+			case "--toggles":
+				togglePercent = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				System.out.println("Unknown option " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		Path dir = null;
+		SunBedCollection beds = null;
+		BookingServer server = null;
+		if (url == null) {
+			dir = Files.createTempDirectory("sunbed-load");
+			beds = SunBedCollection.forFile(dir.resolve("load.dat"));
+			beds.setStorageMode(StorageMode.CONCURRENT);
+			beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+			beds.readDataFromFile();
+			beds.addSunBeds(sunBeds);
+			server = BookingServer.start(beds, 0);
+			url = "http://localhost:" + server.getPort() + "/sunbeds";
+		}
+		try {
+			run(url, threads, seconds, togglePercent);
+		} finally {
+			if (server != null) {
+				server.stop();
+				beds.close();
+				try (Stream<Path> files = Files.walk(dir)) {
+					for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+						Files.delete(file);
+					}
+				}
+			}
+		}
+	}
+
+	private static void run(String url, int threads, int seconds, int togglePercent) throws Exception {
+		String list;
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			list = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		List<Integer> found = new ArrayList<>();
+		for (Matcher m = ID.matcher(list); m.find();) {
+			found.add(Integer.parseInt(m.group(1)));
+		}
+		if (found.isEmpty()) {
+			System.out.println("No sun beds at " + url);
+			return;
+		}
+		int[] ids = found.stream().mapToInt(Integer::intValue).toArray();
+		System.out.printf("%d threads for %d s against %s (%d sun beds, %d%% toggles)%n", threads, seconds, url,
+				ids.length, togglePercent);
+
+		// Warm up the server and the client for a tenth of the run
+		Kiosk[] kiosks = new Kiosk[threads];
+		runKiosks(url, ids, kiosks, Math.max(1000, seconds * 100L), togglePercent);
+		long elapsed = runKiosks(url, ids, kiosks, seconds * 1000L, togglePercent);
+
+		long[] all = new long[0];
+		long notModified = 0;
+		long ok = 0;
+		long failed = 0;
+		for (Kiosk kiosk : kiosks) {
+			int at = all.length;
+			all = Arrays.copyOf(all, at + kiosk.count);
+			System.arraycopy(kiosk.latencies, 0, all, at, kiosk.count);
+			notModified += kiosk.notModified;
+			ok += kiosk.ok;
+			failed += kiosk.failed;
+		}
+		Arrays.sort(all);
+		System.out.printf("%d requests in %.1f s: %.0f requests/s%n", all.length, elapsed / 1e9,
+				all.length / (elapsed / 1e9));
+		System.out.printf("200: %d, 304: %d, failed: %d%n", ok, notModified, failed);
+		System.out.printf("latency p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+				percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, percentile(all, 0.999) / 1e6,
+				all.length == 0 ? 0 : all[all.length - 1] / 1e6);
+	}
+
+	/**
+	 * @return long How long the kiosks ran, in nanoseconds
+	 */
+	private static long runKiosks(String url, int[] ids, Kiosk[] kiosks, long millis,
+			int togglePercent) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> running = new ArrayList<>();
+		for (int t = 0; t < kiosks.length; t++) {
+			Kiosk kiosk = new Kiosk(url, ids, togglePercent);
+			kiosks[t] = kiosk;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+					kiosk.run(System.nanoTime() + millis * 1_000_000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}, "kiosk-" + t);
+			thread.start();
+			running.add(thread);
+		}
+		long started = System.nanoTime();
+		start.countDown();
+		for (Thread thread : running) {
+			thread.join();
+		}
+		return System.nanoTime() - started;
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+	}
+
+	/**
+	 * One kiosk, keeping the ETags it was sent like a browser would. The
+	 * connections are kept alive and reused by <code>HttpURLConnection</code>.
+	 */
+	private static final class Kiosk {
+		private final String url;
+		private final int[] ids;
+		private final int togglePercent;
+		private String freeTag;
+		private String listTag;
+		private long[] latencies = new long[1 << 14];
+		private int count;
+		private long ok;
+		private long notModified;
+		private long failed;
+
+		Kiosk(String url, int[] ids, int togglePercent) {
+			this.url = url;
+			this.ids = ids;
+			this.togglePercent = togglePercent;
+		}
+
+		void run(long until) {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			while (System.nanoTime() < until) {
+				int dice = random.nextInt(100);
+				long started = System.nanoTime();
+				try {
+					if (dice < togglePercent) {
+						int id = ids[random.nextInt(ids.length)];
+						HttpURLConnection toggle = (HttpURLConnection) new URL(url + "/" + id + "/toggle")
+								.openConnection();
+						toggle.setRequestMethod("POST");
+						send(toggle);
+					} else if (dice < togglePercent + (100 - togglePercent) / 8) {
+						listTag = poll(url, listTag);
+					} else {
+						freeTag = poll(url + "/free", freeTag);
+					}
+				} catch (IOException e) {
+					failed++;
+				}
+				if (count == latencies.length) {
+					latencies = Arrays.copyOf(latencies, count * 2);
+				}
+				latencies[count++] = System.nanoTime() - started;
+			}
+		}
+
+		private String poll(String target, String etag) throws IOException {
+			HttpURLConnection poll = (HttpURLConnection) new URL(target).openConnection();
+			if (etag != null) {
+				poll.setRequestProperty("If-None-Match", etag);
+			}
+			send(poll);
+			String sent = poll.getHeaderField("ETag");
+			return sent != null ? sent : etag;
+		}
+
+		/**
+		 * Reads the whole response, so the connection can be reused.
+		 */
+		private void send(HttpURLConnection connection) throws IOException {
+			int status = connection.getResponseCode();
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				try (in) {
+					in.readAllBytes();
+				}
+			}
+			if (status == 304) {
+				notModified++;
+			} else if (status == 200) {
+				ok++;
+			} else {
+				failed++;
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package application.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares how long a fresh JVM takes to start the window with how long it
+ * takes to run a command without it, see <code>BatchCommands</code>. Each
+ * run is a new process started the way a script would start it, timed from
+ * starting the process: the command until the process exits, the window
+ * until it prints its <code>Startup:</code> line after the first frame, when
+ * it is stopped.
+ * <p>
+ * Both read the same data file in a directory of their own, which is deleted
+ * afterwards. The window needs a JavaFX toolkit, for a headless run pass the
+ * Monocle properties, which are handed on to the window's JVM:
+ * <code>-Dglass.platform=Monocle -Dmonocle.platform=Headless -Dprism.order=sw</code>.
+ * The window is skipped if it does not start.
+ * <p>
+ * Usage: <code>ColdStartBenchmark [--runs n] [--beds n]</code>, by default 5
+ * runs each on 10,000 sun beds.
+ *
+ */
+public class ColdStartBenchmark {
+
+	private static final long TIMEOUT_SECONDS = 60;
+
+	public static void main(String[] args) throws Exception {
+		int runs = 5;
+		int sunBeds = 10_000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--runs":
+				runs = Integer.parseInt(args[i + 1]);
+				break;
+			case "--beds":
+				sunBeds = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+
+		Path dir = Files.createTempDirectory("sunbed-coldstart");
+		try {
+			run(dir, false, "add", Integer.toString(sunBeds));
+			List<Long> commands = new ArrayList<>();
+			List<Long> windows = new ArrayList<>();
+			for (int i = 0; i < runs; i++) {
+				commands.add(run(dir, false, "status"));
+			}
+			for (int i = 0; i < runs; i++) {
+				long millis = run(dir, true);
+				if (millis < 0) {
+					System.out.println("The window did not start, skipped");
+					break;
+				}
+				windows.add(millis);
+			}
+			report("status command", commands);
+			if (!windows.isEmpty()) {
+				report("window", windows);
+			}
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+					Files.delete(p);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts <code>Launcher</code> in a JVM of its own.
+	 *
+	 * @return long Milliseconds until the command finished or the window drew
+	 *         its first frame, -1 if the window did not
+	 */
+	private static long run(Path dir, boolean window, String... command) throws IOException, InterruptedException {
+		List<String> line = new ArrayList<>();
+		line.add(ProcessHandle.current().info().command().orElse("java"));
+		if (window) {
+			for (String name : System.getProperties().stringPropertyNames()) {
+				if (name.startsWith("glass.") || name.startsWith("monocle.") || name.startsWith("prism.")) {
+					line.add("-D" + name + "=" + System.getProperty(name));
+				}
+			}
+		}
+		line.add("-cp");
+		line.add(System.getProperty("java.class.path"));
+		line.add("application.Launcher");
+		line.addAll(Arrays.asList(command));
+		ProcessBuilder builder = new ProcessBuilder(line).directory(dir.toFile()).redirectErrorStream(true);
+
+		long start = System.nanoTime();
+		Process process = builder.start();
+		// Stopped if it hangs, e.g. with no display to open the window on
+		CompletableFuture.delayedExecutor(TIMEOUT_SECONDS, TimeUnit.SECONDS).execute(process::destroyForcibly);
+		long millis = -1;
+		try (BufferedReader output = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			if (window) {
+				// The window only says when it is up, it does not exit
+				for (String text = output.readLine(); text != null; text = output.readLine()) {
+					if (text.startsWith("Startup:")) {
+						millis = (System.nanoTime() - start) / 1_000_000;
+						break;
+					}
+				}
+				process.destroy();
+			} else {
+				while (output.readLine() != null) {
+					// Drained so the process never blocks on a full pipe
+				}
+			}
+			process.waitFor();
+		}
+		if (!window) {
+			if (process.exitValue() != 0) {
+				throw new IllegalStateException("Launcher " + String.join(" ", command) + " exited with "
+						+ process.exitValue());
+			}
+			millis = (System.nanoTime() - start) / 1_000_000;
+		}
+		return millis;
+	}
+
+	private static void report(String what, List<Long> millis) {
+		long[] sorted = millis.stream().mapToLong(Long::longValue).sorted().toArray();
+		System.out.printf("%-16s %d runs, median %d ms, best %d ms, worst %d ms%n", what, sorted.length,
+				sorted[sorted.length / 2], sorted[0], sorted[sorted.length - 1]);
+	}
+}
@@ -0,0 +1,99 @@
+package application.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import application.model.SunBed;
+import application.util.SnapshotFile;
+import application.util.SunBedXmlCodec;
+import application.util.XMLDataExchange;
+
+/**
+ * Compares the XML data file written by <code>XMLDataExchange</code>, the same
+ * file read and written by <code>SunBedXmlCodec</code>, and the binary snapshot
+ * written by <code>SnapshotFile</code>. Prints the file size and the average
+ * write and read time of each.
+ * <p>
+ * Usage: <code>SnapshotFormatBenchmark [sunBeds] [iterations]</code>, by default
+ * 100000 sun beds and 5 measured iterations after 3 warm up iterations.
+ *
+ */
+public class SnapshotFormatBenchmark {
+
+	private static final int WARM_UP_ITERATIONS = 3;
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		List<SunBed> beds = new ArrayList<>(count);
+		long[] booked = new long[SnapshotFile.words(count)];
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			SunBed s = new SunBed();
+			if (i % 3 == 0) {
+				s.setBooked(true);
+				booked[i >>> 6] |= 1L << i;
+			}
+			ids[i] = s.getID();
+			beds.add(s);
+		}
+		SnapshotFile.Contents contents = new SnapshotFile.Contents(count, booked, ids);
+
+		Path dir = Files.createTempDirectory("sunbed-bench");
+		Path xml = dir.resolve("sunloungers.xml");
+		Path dat = dir.resolve("sunloungers.dat");
+
+		try {
+			System.out.printf("%,d sun beds, %d iterations%n", count, iterations);
+			System.out.printf("%-8s %14s %10s %12s %12s%n", "format", "bytes", "bytes/bed", "write ms", "read ms");
+
+			double xmlWrite = time(iterations, () -> XMLDataExchange.writeData(beds, xml.toString()));
+			double xmlRead = time(iterations, () -> XMLDataExchange.readData(xml.toString()));
+			report("xml", Files.size(xml), count, xmlWrite, xmlRead);
+
+			double staxWrite = time(iterations, () -> SunBedXmlCodec.writeData(beds, xml));
+			double staxRead = time(iterations, () -> SunBedXmlCodec.readData(xml, b -> {
+			}));
+			report("stax", Files.size(xml), count, staxWrite, staxRead);
+
+			double datWrite = time(iterations, () -> SnapshotFile.writeData(contents, dat));
+			double datRead = time(iterations, () -> SnapshotFile.readData(dat));
+			report("binary", Files.size(dat), count, datWrite, datRead);
+
+			System.out.printf("stax is %.1fx faster to write and %.1fx faster to read than xml%n",
+					xmlWrite / staxWrite, xmlRead / staxRead);
+			System.out.printf("binary is %.1fx faster to write and %.1fx faster to read than xml%n",
+					xmlWrite / datWrite, xmlRead / datRead);
+		} finally {
+			Files.deleteIfExists(xml);
+			Files.deleteIfExists(dat);
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	private interface Task {
+		void run() throws IOException;
+	}
+
+	/**
+	 * @return double The average time of one run in milliseconds
+	 */
+	private static double time(int iterations, Task task) throws IOException {
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+			task.run();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			task.run();
+		}
+		return (System.nanoTime() - start) / 1e6 / iterations;
+	}
+
+	private static void report(String format, long bytes, int count, double writeMillis, double readMillis) {
+		System.out.printf("%-8s %,14d %10.1f %12.2f %12.2f%n", format, bytes, (double) bytes / Math.max(count, 1),
+				writeMillis, readMillis);
+	}
+}
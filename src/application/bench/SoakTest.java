@@ -0,0 +1,446 @@
+package application.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import application.model.PersistenceMode;
+import application.model.StorageMode;
+import application.model.SunBedCollection;
+import application.model.SunBedMetrics;
+import application.util.LatencyHistogram;
+
+/**
+ * Runs attendants against a <code>SunBedCollection</code> in this JVM, with
+ * its journal on disk, for as long as asked, to find how much load it takes
+ * before latency suffers. Each attendant is a thread doing a mix of toggles,
+ * bookings, releases, free counts and resets of the whole beach.
+ * <p>
+ * Every attendant works to a schedule, <code>--rate</code> operations a
+ * second. An operation that starts late because the one before was slow is
+ * timed from when it should have started, so a stall counts against every
+ * operation it held up and not only the one that stalled (coordinated
+ * omission). How long each operation itself took is reported as well, as
+ * service time. With <code>--rate 0</code> the attendants go as fast as they
+ * can and the two are the same.
+ * <p>
+ * Every <code>--interval</code> seconds the throughput, p99 of each operation
+ * and the heap and garbage collection of the interval are printed, so a long
+ * soak shows a trend. At the end each operation is reported with its
+ * throughput and p50, p99, p99.9 and maximum latency, within 12.5%, see
+ * <code>LatencyHistogram</code>, followed by the journal writes, the peak heap
+ * and the time spent in garbage collection.
+ * <p>
+ * Usage:
+ * <code>SoakTest [--attendants n] [--seconds s] [--warmup s] [--rate ops/s] [--beds n] [--mix toggle=40,book=25,release=25,count=9.9,reset=0.1] [--storage CONCURRENT] [--persistence GROUP_COMMIT] [--interval s] [--virtual]</code>,
+ * by default 50 attendants doing 100 operations a second each for 60 seconds
+ * after 5 seconds of warming up, on 1,000 sun beds. A day of the beach is
+ * <code>--seconds 36000</code>. <code>--virtual</code> runs the attendants on
+ * virtual threads where the JVM has them. Exits with status 1 if any
+ * operation failed.
+ *
+ */
+public class SoakTest {
+
+	private enum Operation {
+		TOGGLE, BOOK, RELEASE, COUNT, RESET
+	}
+
+	private static final Operation[] OPERATIONS = Operation.values();
+
+	private static int attendants = 50;
+	private static int seconds = 60;
+	private static int warmUpSeconds = 5;
+	private static double rate = 100;
+	private static int sunBeds = 1_000;
+	private static double[] mix = { 40, 25, 25, 9.9, 0.1 };
+	private static StorageMode storageMode = StorageMode.CONCURRENT;
+	private static PersistenceMode persistenceMode = PersistenceMode.GROUP_COMMIT;
+	private static int intervalSeconds = 10;
+	private static boolean virtual;
+	private static boolean onVirtualThreads;
+
+	// Swapped for a new one at the end of warming up, so it is not counted
+	private static volatile Histograms total = new Histograms();
+	private static volatile Histograms interval = new Histograms();
+	private static volatile boolean running = true;
+
+	/**
+	 * The latencies of every operation over some period.
+	 */
+	private static final class Histograms {
+		private final LatencyHistogram[] corrected = new LatencyHistogram[OPERATIONS.length];
+		private final LatencyHistogram[] service = new LatencyHistogram[OPERATIONS.length];
+		private final AtomicLong[] errors = new AtomicLong[OPERATIONS.length];
+		private final long started = System.nanoTime();
+
+		Histograms() {
+			for (int i = 0; i < OPERATIONS.length; i++) {
+				corrected[i] = new LatencyHistogram();
+				service[i] = new LatencyHistogram();
+				errors[i] = new AtomicLong();
+			}
+		}
+
+		void record(int op, long intended, long began, long ended) {
+			corrected[op].record(ended - intended);
+			service[op].record(ended - began);
+		}
+
+		long count() {
+			long count = 0;
+			for (LatencyHistogram h : corrected) {
+				count += h.getCount();
+			}
+			return count;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--attendants":
+				attendants = Integer.parseInt(args[++i]);
+				break;
+			case "--seconds":
+				seconds = Integer.parseInt(args[++i]);
+				break;
+			case "--warmup":
+				warmUpSeconds = Integer.parseInt(args[++i]);
+				break;
+			case "--rate":
+				rate = Double.parseDouble(args[++i]);
+				break;
+			case "--beds":
+				sunBeds = Integer.parseInt(args[++i]);
+				break;
+			case "--mix":
+				mix = parseMix(args[++i]);
+				break;
+			case "--storage":
+				storageMode = StorageMode.valueOf(args[++i]);
+				break;
+			case "--persistence":
+				persistenceMode = PersistenceMode.valueOf(args[++i]);
+				break;
+			case "--interval":
+				intervalSeconds = Integer.parseInt(args[++i]);
+				break;
+			case "--virtual":
+				virtual = true;
+				break;
+			default:
+				System.out.println("Unknown option " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		Path dir = Files.createTempDirectory("sunbed-soak");
+		SunBedCollection beds = SunBedCollection.forFile(dir.resolve("soak.dat"));
+		beds.setStorageMode(storageMode);
+		beds.setPersistenceMode(persistenceMode);
+		beds.readDataFromFile();
+		beds.addSunBeds(sunBeds);
+		int[] ids = new int[sunBeds];
+		for (int i = 0; i < sunBeds; i++) {
+			ids[i] = beds.getID(i);
+		}
+		long errors;
+		try {
+			errors = run(beds, ids);
+		} finally {
+			beds.close();
+			try (Stream<Path> files = Files.walk(dir)) {
+				for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+					Files.delete(file);
+				}
+			}
+		}
+		System.exit(errors == 0 ? 0 : 1);
+	}
+
+	/**
+	 * @return long How many operations failed
+	 */
+	private static long run(SunBedCollection beds, int[] ids) throws InterruptedException {
+		ExecutorService executor = attendantExecutor();
+		System.out.printf("%d attendants on %s for %d s at %s, %d sun beds, %s, %s, mix %s%n", attendants,
+				onVirtualThreads ? "virtual threads" : "threads", seconds,
+				rate > 0 ? rate + " operations/s each" : "full speed", sunBeds, storageMode, persistenceMode, mixText());
+
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(attendants);
+		for (int a = 0; a < attendants; a++) {
+			executor.execute(() -> {
+				try {
+					start.await();
+					attend(beds, ids);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		start.countDown();
+		Thread.sleep(warmUpSeconds * 1000L);
+
+		SunBedMetrics metrics = beds.getMetrics();
+		long writes = metrics.getWriteCount();
+		long bytes = metrics.getBytesWritten();
+		Gc gcAtStart = new Gc();
+		resetPeakHeap();
+		interval = new Histograms();
+		total = new Histograms();
+		long end = System.nanoTime() + seconds * 1_000_000_000L;
+		Gc gcAtInterval = gcAtStart;
+		for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+			long sleep = Math.min(end - now, intervalSeconds * 1_000_000_000L);
+			TimeUnit.NANOSECONDS.sleep(sleep);
+			Histograms finished = interval;
+			interval = new Histograms();
+			Gc gc = new Gc();
+			printInterval(finished, gc.since(gcAtInterval));
+			gcAtInterval = gc;
+		}
+		running = false;
+		done.await();
+		executor.shutdown();
+		Histograms measured = total;
+		long elapsed = System.nanoTime() - measured.started;
+		return printTotal(measured, elapsed, new Gc().since(gcAtStart), metrics.getWriteCount() - writes,
+				metrics.getBytesWritten() - bytes);
+	}
+
+	/**
+	 * One attendant, working to a schedule until the run ends.
+	 */
+	private static void attend(SunBedCollection beds, int[] ids) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		double weights = 0;
+		for (double w : mix) {
+			weights += w;
+		}
+		long period = rate > 0 ? (long) (1e9 / rate) : 0;
+		// Attendants start spread over a period so they are not in step
+		long intended = System.nanoTime() + (period > 0 ? random.nextLong(period) : 0);
+		while (running) {
+			long now = System.nanoTime();
+			if (period > 0) {
+				if (intended > now) {
+					LockSupport.parkNanos(intended - now);
+				}
+			} else {
+				intended = now;
+			}
+			int op = pick(random.nextDouble() * weights);
+			int id = ids[random.nextInt(ids.length)];
+			long started = System.nanoTime();
+			try {
+				switch (OPERATIONS[op]) {
+				case TOGGLE:
+					beds.toggleSunBed(id);
+					break;
+				case BOOK:
+					beds.book(id);
+					break;
+				case RELEASE:
+					beds.release(id);
+					break;
+				case COUNT:
+					beds.getCountFree();
+					break;
+				case RESET:
+					beds.setAllSunBedsToFree();
+					break;
+				}
+				long ended = System.nanoTime();
+				total.record(op, intended, started, ended);
+				interval.record(op, intended, started, ended);
+			} catch (RuntimeException e) {
+				total.errors[op].incrementAndGet();
+				interval.errors[op].incrementAndGet();
+			}
+			intended += period;
+		}
+	}
+
+	private static int pick(double at) {
+		for (int op = 0; op < mix.length; op++) {
+			at -= mix[op];
+			if (at < 0) {
+				return op;
+			}
+		}
+		return mix.length - 1;
+	}
+
+	private static void printInterval(Histograms h, Gc gc) {
+		double elapsed = (System.nanoTime() - h.started) / 1e9;
+		StringBuilder line = new StringBuilder(String.format("%6.0f ops/s", h.count() / elapsed));
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			if (h.corrected[op].getCount() > 0) {
+				line.append(String.format(", %s p99 %.3f ms", name(op),
+						h.corrected[op].snapshot().getPercentile(99) / 1e6));
+			}
+		}
+		line.append(String.format(", heap %d MB, %d GCs %d ms", heapUsed() >> 20, gc.count, gc.millis));
+		System.out.println(line);
+	}
+
+	/**
+	 * @return long How many operations failed
+	 */
+	private static long printTotal(Histograms h, long elapsed, Gc gc, long writes, long bytes) {
+		double secs = elapsed / 1e9;
+		System.out.printf("%n%d operations in %.1f s: %.0f operations/s%n", h.count(), secs, h.count() / secs);
+		System.out.printf("%-8s %10s %10s %10s %10s %10s %10s  %s%n", "", "ops", "ops/s", "p50 ms", "p99 ms",
+				"p99.9 ms", "max ms", "service p50/p99/p99.9 ms");
+		long errors = 0;
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			LatencyHistogram.Snapshot c = h.corrected[op].snapshot();
+			LatencyHistogram.Snapshot s = h.service[op].snapshot();
+			errors += h.errors[op].get();
+			if (c.getCount() == 0) {
+				continue;
+			}
+			System.out.printf("%-8s %10d %10.0f %10.3f %10.3f %10.3f %10.3f  %.3f/%.3f/%.3f%n", name(op),
+					c.getCount(), c.getCount() / secs, c.getPercentile(50) / 1e6, c.getPercentile(99) / 1e6,
+					c.getPercentile(99.9) / 1e6, c.getMax() / 1e6, s.getPercentile(50) / 1e6,
+					s.getPercentile(99) / 1e6, s.getPercentile(99.9) / 1e6);
+			if (h.errors[op].get() > 0) {
+				System.out.printf("%-8s %d failed%n", name(op), h.errors[op].get());
+			}
+		}
+		System.out.printf("journal: %d writes, %d bytes, %.1f operations per write%n", writes, bytes,
+				writes == 0 ? 0 : (double) h.count() / writes);
+		System.out.printf("heap: %d MB used at the end, %d MB at the peak, %d MB committed%n", heapUsed() >> 20,
+				peakHeap() >> 20, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getCommitted() >> 20);
+		for (Map.Entry<String, long[]> collector : gc.byCollector.entrySet()) {
+			System.out.printf("gc %s: %d collections, %d ms%n", collector.getKey(), collector.getValue()[0],
+					collector.getValue()[1]);
+		}
+		System.out.printf("gc: %d collections, %d ms, %.2f%% of the time%n", gc.count, gc.millis,
+				100.0 * gc.millis / (elapsed / 1e6));
+		if (errors > 0) {
+			System.out.println(errors + " operations failed");
+		}
+		return errors;
+	}
+
+	/**
+	 * How many garbage collections there have been and how long they took.
+	 */
+	private static final class Gc {
+		private final Map<String, long[]> byCollector = new LinkedHashMap<>();
+		private long count;
+		private long millis;
+
+		Gc() {
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				long c = Math.max(0, collector.getCollectionCount());
+				long t = Math.max(0, collector.getCollectionTime());
+				byCollector.put(collector.getName(), new long[] { c, t });
+				count += c;
+				millis += t;
+			}
+		}
+
+		Gc since(Gc earlier) {
+			Gc difference = new Gc();
+			difference.count -= earlier.count;
+			difference.millis -= earlier.millis;
+			for (Map.Entry<String, long[]> collector : difference.byCollector.entrySet()) {
+				long[] before = earlier.byCollector.get(collector.getKey());
+				if (before != null) {
+					collector.getValue()[0] -= before[0];
+					collector.getValue()[1] -= before[1];
+				}
+			}
+			return difference;
+		}
+	}
+
+	private static long heapUsed() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * A virtual thread per attendant with <code>--virtual</code> where the JVM
+	 * has them (Java 21 on), found by reflection, otherwise a thread each.
+	 */
+	private static ExecutorService attendantExecutor() {
+		if (virtual) {
+			try {
+				Method perTask = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				ExecutorService executor = (ExecutorService) perTask.invoke(null);
+				onVirtualThreads = true;
+				return executor;
+			} catch (ReflectiveOperationException e) {
+				System.out.println("No virtual threads in this JVM, using platform threads");
+			}
+		}
+		return Executors.newFixedThreadPool(attendants);
+	}
+
+	private static double[] parseMix(String text) {
+		double[] weights = new double[OPERATIONS.length];
+		for (String part : text.split(",")) {
+			String[] nameAndWeight = part.split("=");
+			if (nameAndWeight.length != 2) {
+				throw new IllegalArgumentException("Expected operation=weight: " + part);
+			}
+			weights[Operation.valueOf(nameAndWeight[0].trim().toUpperCase()).ordinal()] = Double
+					.parseDouble(nameAndWeight[1]);
+		}
+		return weights;
+	}
+
+	private static String mixText() {
+		List<String> parts = new ArrayList<>();
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			if (mix[op] > 0) {
+				parts.add(name(op) + "=" + mix[op]);
+			}
+		}
+		return String.join(",", parts);
+	}
+
+	private static String name(int op) {
+		return OPERATIONS[op].name().toLowerCase();
+	}
+}
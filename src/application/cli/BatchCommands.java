@@ -0,0 +1,254 @@
+package application.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import application.model.PersistenceMode;
+import application.model.SunBed;
+import application.model.SunBedCollection;
+import application.util.PhaseTimer;
+import application.util.SunBedXmlCodec;
+
+/**
+ * Changes the sun beds from scripts, without the JavaFX window. Started with
+ * <code>Launcher</code> and a command, e.g. <code>Launcher status</code> or
+ * <code>Launcher add 20</code>. Nothing of JavaFX is loaded, so a command
+ * runs in the time it takes to start the JVM and read the data file.
+ * <p>
+ * The commands:
+ * <ul>
+ * <li><code>status</code> prints
+ * <code>count=n free=n booked=n day=n</code></li>
+ * <li><code>reset</code> makes every sun bed free</li>
+ * <li><code>end-day</code> ends the day, see
+ * <code>SunBedCollection.endDay()</code></li>
+ * <li><code>add n</code> and <code>remove n</code> add or remove sun beds at
+ * the end</li>
+ * <li><code>book id...</code> and <code>release id...</code> book or free sun
+ * beds, all of them or none if any ID is unknown</li>
+ * <li><code>export file</code> writes the sun beds to an XML file in the
+ * format of <code>sunloungers.xml</code></li>
+ * <li><code>import file</code> replaces the sun beds with those of such a
+ * file</li>
+ * </ul>
+ * <p>
+ * With <code>-</code> instead of a command, commands are read from standard
+ * input one per line, so a script can pipe in many and start the JVM once.
+ * Empty lines and lines starting with <code>#</code> are skipped. The first
+ * command that fails stops the run with exit status 1, the changes made
+ * before it are kept.
+ * <p>
+ * Usage:
+ * <code>Launcher [--file data.dat] [--time] (command [args] | -)</code>. The
+ * sun beds are those of the application unless <code>--file</code> is given.
+ * With <code>--time</code> how long starting up, loading and the commands
+ * took is printed to standard error, to compare with the
+ * <code>Startup:</code> line of the window.
+ *
+ */
+public class BatchCommands {
+	private static final List<String> COMMANDS = Arrays.asList("status", "reset", "end-day", "add", "remove", "book",
+			"release", "export", "import");
+
+	private final SunBedCollection beds;
+	private final PrintStream out;
+
+	/**
+	 * @param beds The sun beds, already read from file
+	 * @param out  Where <code>status</code> prints to
+	 */
+	public BatchCommands(SunBedCollection beds, PrintStream out) {
+		this.beds = beds;
+		this.out = out;
+	}
+
+	/**
+	 * @param args The arguments of <code>Launcher</code>
+	 * @return boolean True if they are a command for this class rather than for
+	 *         the window
+	 */
+	public static boolean isCommandLine(String[] args) {
+		return args.length > 0 && (COMMANDS.contains(args[0]) || args[0].equals("-") || args[0].equals("--file")
+				|| args[0].equals("--time"));
+	}
+
+	/**
+	 * Runs one command.
+	 *
+	 * @param words The command and its arguments
+	 * @throws IllegalArgumentException If there is no such command or its
+	 *                                  arguments are wrong
+	 * @throws IOException              If a file can not be read or written
+	 */
+	public void run(List<String> words) throws IOException {
+		String command = words.get(0);
+		List<String> args = words.subList(1, words.size());
+		switch (command) {
+		case "status":
+			expect(args, 0);
+			int count = beds.getCount();
+			int free = beds.getCountFree();
+			// Not concatenated, bootstrapping string concatenation costs a cold
+			// JVM tens of milliseconds
+			out.println(new StringBuilder("count=").append(count).append(" free=").append(free).append(" booked=")
+					.append(count - free).append(" day=").append(beds.getDay()));
+			break;
+		case "reset":
+			expect(args, 0);
+			beds.setAllSunBedsToFree();
+			break;
+		case "end-day":
+			expect(args, 0);
+			beds.endDay();
+			break;
+		case "add":
+			expect(args, 1);
+			beds.addSunBeds(number(args.get(0)));
+			break;
+		case "remove":
+			expect(args, 1);
+			int n = number(args.get(0));
+			if (n > beds.getCount()) {
+				throw new IllegalArgumentException("There are only " + beds.getCount() + " sun beds");
+			}
+			beds.removeSunBeds(n);
+			break;
+		case "book":
+		case "release":
+			if (args.isEmpty()) {
+				throw new IllegalArgumentException(command + " needs at least one ID");
+			}
+			int[] ids = new int[args.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = number(args.get(i));
+			}
+			beds.setBooked(ids, command.equals("book"));
+			break;
+		case "export":
+			expect(args, 1);
+			SunBedXmlCodec.writeData(beds.getSunBeds(), Paths.get(args.get(0)));
+			break;
+		case "import":
+			expect(args, 1);
+			List<SunBed> imported = SunBedXmlCodec.readData(Paths.get(args.get(0)));
+			beds.setSunBeds(imported);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown command: " + command + ", expected one of " + COMMANDS);
+		}
+	}
+
+	/**
+	 * Runs the commands read from standard input, one per line.
+	 *
+	 * @param input The commands
+	 * @throws IOException If a command fails to read or write a file
+	 */
+	public void runAll(BufferedReader input) throws IOException {
+		int lineNumber = 0;
+		for (String line = input.readLine(); line != null; line = input.readLine()) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			try {
+				run(Arrays.asList(line.split("\\s+")));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		PhaseTimer timer = new PhaseTimer();
+		Path dataFile = null;
+		boolean time = false;
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("--"); i++) {
+			if (args[i].equals("--file") && i + 1 < args.length) {
+				dataFile = Paths.get(args[++i]);
+			} else if (args[i].equals("--time")) {
+				time = true;
+			} else {
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+		List<String> command = new ArrayList<>(Arrays.asList(args).subList(i, args.length));
+		if (command.isEmpty()) {
+			System.err.println("Usage: Launcher [--file data.dat] [--time] (command [args] | -)");
+			System.exit(2);
+		}
+
+		SunBedCollection beds = dataFile == null ? SunBedCollection.getInstance() : SunBedCollection.forFile(dataFile);
+		// Piped commands share writes, close() saves whatever is left
+		beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+		int status = 0;
+		try {
+			beds.readDataFromFile(timer);
+			long t = System.nanoTime();
+			beds.getHistory();
+			t = timer.record("history", t);
+			BatchCommands commands = new BatchCommands(beds, System.out);
+			if (command.size() == 1 && command.get(0).equals("-")) {
+				commands.runAll(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+			} else {
+				commands.run(command);
+			}
+			timer.record("commands", t);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			status = 1;
+		} catch (IOException e) {
+			System.err.println("BatchCommands failed: " + e.getMessage());
+			e.printStackTrace();
+			status = 1;
+		}
+		try {
+			beds.close();
+		} catch (IOException e) {
+			System.err.println("BatchCommands could not save the sun beds: " + e.getMessage());
+			status = 1;
+		}
+		if (time) {
+			System.err.println("Cold start: " + timer.summary() + sinceJvmStart());
+		}
+		System.exit(status);
+	}
+
+	private static void expect(List<String> args, int count) {
+		if (args.size() != count) {
+			throw new IllegalArgumentException("Expected " + count + " arguments but got " + args.size() + ": " + args);
+		}
+	}
+
+	private static int number(String text) {
+		try {
+			int n = Integer.parseInt(text);
+			if (n < 0) {
+				throw new IllegalArgumentException("Not a count or an ID: " + text);
+			}
+			return n;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + text);
+		}
+	}
+
+	/**
+	 * Only asked for with <code>--time</code>, starting JMX takes a while.
+	 *
+	 * @return String How long ago the JVM was started
+	 */
+	private static String sinceJvmStart() {
+		return String.format(", %d ms since the JVM started", ManagementFactory.getRuntimeMXBean().getUptime());
+	}
+}
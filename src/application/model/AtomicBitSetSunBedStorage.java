@@ -0,0 +1,247 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import application.util.SnapshotFile;
+
+/**
+ * Thread safe version of <code>BitSetSunBedStorage</code>. The booked flags
+ * live in chunks of <code>AtomicLongArray</code> words and every change to a
+ * flag is a compare-and-set on its word, so booking never takes a lock and two
+ * threads can never both book the same sun bed.
+ * <p>
+ * Adding and removing sun beds is serialised by a lock. Chunks are never copied
+ * when the storage grows, so a booking cannot be lost to a resize. A booking
+ * that races the removal of its own sun bed clears its bit again and fails with
+ * <code>IndexOutOfBoundsException</code>. Removing a sun bed from the middle
+ * moves the booked bits of every sun bed after it, so it must not run while
+ * sun beds are being booked. <code>SunBedCollection</code> makes sure of that.
+ *
+ */
+class AtomicBitSetSunBedStorage implements SunBedStorage {
+	private static final int CHUNK_SHIFT = 12;
+	private static final int CHUNK_BEDS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_BEDS - 1;
+
+	private static final int SET = 0;
+	private static final int CLEAR = 1;
+	private static final int FLIP = 2;
+
+	/**
+	 * The booked bits and IDs of <code>CHUNK_BEDS</code> sun beds.
+	 */
+	private static final class Chunk {
+		final AtomicLongArray booked = new AtomicLongArray(CHUNK_BEDS >>> 6);
+		final int[] ids = new int[CHUNK_BEDS];
+	}
+
+	private volatile Chunk[] chunks = new Chunk[0];
+	private volatile int size;
+	private final AtomicInteger bookedCount = new AtomicInteger();
+
+	AtomicBitSetSunBedStorage() {
+	}
+
+	AtomicBitSetSunBedStorage(SnapshotFile.Contents contents) {
+		int[] ids = contents.getIds();
+		for (int i = 0; i < contents.getCount(); i++) {
+			add(ids[i], contents.isBooked(i));
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int countBooked() {
+		return bookedCount.get();
+	}
+
+	@Override
+	public boolean isBooked(int index) {
+		checkIndex(index);
+		return (chunks[index >>> CHUNK_SHIFT].booked.get((index & CHUNK_MASK) >>> 6) & (1L << index)) != 0;
+	}
+
+	@Override
+	public boolean setBooked(int index, boolean booked) {
+		return update(index, booked ? SET : CLEAR);
+	}
+
+	@Override
+	public boolean compareAndSet(int index, boolean expect, boolean update) {
+		if (expect == update) {
+			return isBooked(index) == expect;
+		}
+		return update(index, update ? SET : CLEAR) == expect;
+	}
+
+	@Override
+	public boolean toggle(int index) {
+		return !update(index, FLIP);
+	}
+
+	/**
+	 * Changes one booked bit with a compare-and-set loop.
+	 *
+	 * @return boolean The state before the change
+	 */
+	private boolean update(int index, int how) {
+		checkIndex(index);
+		AtomicLongArray words = chunks[index >>> CHUNK_SHIFT].booked;
+		int w = (index & CHUNK_MASK) >>> 6;
+		long bit = 1L << index;
+		long old;
+		long next;
+		do {
+			old = words.get(w);
+			next = how == SET ? old | bit : how == CLEAR ? old & ~bit : old ^ bit;
+		} while (old != next && !words.compareAndSet(w, old, next));
+
+		if (old != next) {
+			bookedCount.addAndGet((next & bit) != 0 ? 1 : -1);
+			if (index >= size) {
+				// The sun bed was removed while we were changing it
+				clearBit(words, w, bit);
+				checkIndex(index);
+			}
+		}
+		return (old & bit) != 0;
+	}
+
+	/**
+	 * Clears a bit, updating the booked count only if this call cleared it.
+	 */
+	private void clearBit(AtomicLongArray words, int w, long bit) {
+		long old;
+		do {
+			old = words.get(w);
+			if ((old & bit) == 0) {
+				return;
+			}
+		} while (!words.compareAndSet(w, old, old & ~bit));
+		bookedCount.decrementAndGet();
+	}
+
+	@Override
+	public int getID(int index) {
+		checkIndex(index);
+		return chunks[index >>> CHUNK_SHIFT].ids[index & CHUNK_MASK];
+	}
+
+	@Override
+	public synchronized void add(int id, boolean booked) {
+		int index = size;
+		if (index >>> CHUNK_SHIFT == chunks.length) {
+			Chunk[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+			grown[chunks.length] = new Chunk();
+			chunks = grown;
+		}
+		Chunk chunk = chunks[index >>> CHUNK_SHIFT];
+		chunk.ids[index & CHUNK_MASK] = id;
+		size = index + 1;
+		if (booked) {
+			setBooked(index, true);
+		}
+	}
+
+	@Override
+	public synchronized void removeLast() {
+		int index = size - 1;
+		checkIndex(index);
+		size = index;
+		clearBit(chunks[index >>> CHUNK_SHIFT].booked, (index & CHUNK_MASK) >>> 6, 1L << index);
+	}
+
+	@Override
+	public synchronized void remove(int index) {
+		checkIndex(index);
+		setBooked(index, false);
+		int last = size - 1;
+		for (int i = index; i < last; i++) {
+			chunks[i >>> CHUNK_SHIFT].ids[i & CHUNK_MASK] = chunks[(i + 1) >>> CHUNK_SHIFT].ids[(i + 1) & CHUNK_MASK];
+		}
+		int w = index >>> 6;
+		int lastWord = last >>> 6;
+		long below = (1L << index) - 1;
+		long word = getWord(w);
+		setWord(w, (word & below) | ((word >>> 1) & ~below));
+		for (; w < lastWord; w++) {
+			long following = getWord(w + 1);
+			setWord(w, getWord(w) | following << 63);
+			setWord(w + 1, following >>> 1);
+		}
+		size = last;
+	}
+
+	@Override
+	public long getBookedWord(int w) {
+		checkIndex(w << 6);
+		return getWord(w);
+	}
+
+	private long getWord(int w) {
+		return chunks[w >>> (CHUNK_SHIFT - 6)].booked.get(w & (CHUNK_MASK >>> 6));
+	}
+
+	private void setWord(int w, long word) {
+		chunks[w >>> (CHUNK_SHIFT - 6)].booked.set(w & (CHUNK_MASK >>> 6), word);
+	}
+
+	@Override
+	public synchronized void freeAll() {
+		for (Chunk chunk : chunks) {
+			for (int w = 0; w < chunk.booked.length(); w++) {
+				long old = chunk.booked.getAndSet(w, 0L);
+				if (old != 0) {
+					bookedCount.addAndGet(-Long.bitCount(old));
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		size = 0;
+		freeAll();
+	}
+
+	@Override
+	public List<SunBed> toList() {
+		int count = size;
+		List<SunBed> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(new SunBed(getID(i), isBooked(i)));
+		}
+		return list;
+	}
+
+	@Override
+	public synchronized SnapshotFile.Contents toContents() {
+		int count = size;
+		Chunk[] current = chunks;
+		long[] booked = new long[SnapshotFile.words(count)];
+		int[] ids = new int[count];
+		for (int w = 0; w < booked.length; w++) {
+			booked[w] = current[w >>> (CHUNK_SHIFT - 6)].booked.get(w & (CHUNK_MASK >>> 6));
+		}
+		if ((count & 63) != 0) {
+			booked[booked.length - 1] &= -1L >>> (64 - (count & 63));
+		}
+		for (int c = 0; c * CHUNK_BEDS < count; c++) {
+			System.arraycopy(current[c].ids, 0, ids, c * CHUNK_BEDS, Math.min(CHUNK_BEDS, count - c * CHUNK_BEDS));
+		}
+		return new SnapshotFile.Contents(count, booked, ids);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+		}
+	}
+}
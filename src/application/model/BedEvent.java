@@ -0,0 +1,114 @@
+package application.model;
+
+/**
+ * One change to the sun beds as published by the change feed of a
+ * <code>SunBedCollection</code>, see <code>BedEventPublisher</code>. Events
+ * are numbered from 1 in the order they are published.
+ * <p>
+ * A booking or freeing of one sun bed is a <code>TOGGLED</code> event with
+ * the sun bed's ID and its state before and after. The other types say that
+ * several sun beds changed at once, at the positions <code>getFrom()</code>
+ * to <code>getTo() - 1</code>, and a subscriber should read the collection
+ * again.
+ *
+ */
+public final class BedEvent {
+	private final long sequence;
+	private final SunBedChange.Type type;
+	private final int id;
+	private final int from;
+	private final int to;
+	private final boolean wasBooked;
+	private final boolean booked;
+	private final long timestamp;
+
+	private BedEvent(long sequence, SunBedChange.Type type, int id, int from, int to, boolean wasBooked,
+			boolean booked, long timestamp) {
+		this.sequence = sequence;
+		this.type = type;
+		this.id = id;
+		this.from = from;
+		this.to = to;
+		this.wasBooked = wasBooked;
+		this.booked = booked;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @param sequence  The number of the event
+	 * @param change    What changed
+	 * @param timestamp When it changed, in milliseconds since the epoch
+	 * @return BedEvent The event
+	 */
+	static BedEvent of(long sequence, SunBedChange change, long timestamp) {
+		boolean toggled = change.getType() == SunBedChange.Type.TOGGLED;
+		return new BedEvent(sequence, change.getType(), change.getID(), change.getFrom(), change.getTo(),
+				toggled && !change.isBooked(), toggled && change.isBooked(), timestamp);
+	}
+
+	/**
+	 * Merges a later event of the same sun bed into this one, keeping the state
+	 * before this one and everything else of the later one.
+	 *
+	 * @param later A later <code>TOGGLED</code> event of the same sun bed
+	 * @return BedEvent The merged event
+	 */
+	BedEvent coalesce(BedEvent later) {
+		return new BedEvent(later.sequence, type, id, later.from, later.to, wasBooked, later.booked,
+				later.timestamp);
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public SunBedChange.Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return int For <code>TOGGLED</code>, the ID of the sun bed, otherwise 0
+	 */
+	public int getID() {
+		return id;
+	}
+
+	public int getFrom() {
+		return from;
+	}
+
+	public int getTo() {
+		return to;
+	}
+
+	/**
+	 * @return boolean For <code>TOGGLED</code>, whether the sun bed was booked
+	 *         before the change
+	 */
+	public boolean wasBooked() {
+		return wasBooked;
+	}
+
+	/**
+	 * @return boolean For <code>TOGGLED</code>, whether the sun bed is booked
+	 *         after the change
+	 */
+	public boolean isBooked() {
+		return booked;
+	}
+
+	/**
+	 * @return long When the change was published, in milliseconds since the
+	 *         epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "#" + sequence + " " + type
+				+ (type == SunBedChange.Type.TOGGLED ? " id=" + id + " " + wasBooked + "->" + booked
+						: " [" + from + ", " + to + ")");
+	}
+}
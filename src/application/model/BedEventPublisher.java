@@ -0,0 +1,368 @@
+package application.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The change feed of a <code>SunBedCollection</code>, got with
+ * <code>getChangeFeed()</code>. Every change is published as a
+ * <code>BedEvent</code> to every subscriber, so dashboards, display boards and
+ * loggers can follow the sun beds without polling.
+ * <p>
+ * Each subscriber has a bounded ring buffer of its own. Publishing an event
+ * only puts it in the buffers, it is delivered to <code>onNext()</code> on a
+ * thread of the feed as the subscriber requests more, so a slow subscriber
+ * holds up no one but itself. When a buffer is full its
+ * <code>OverflowPolicy</code> says what happens: the event is dropped, merged
+ * with one of the same sun bed, or the changing thread waits. A thread waiting
+ * for one subscriber does so after the event is in every buffer, so the
+ * others are still delivered it and can subscribe or close meanwhile.
+ * <p>
+ * Events of one sun bed are published in the order its changes were made.
+ * Changes made at the same moment on different threads may be published in
+ * either order, and with <code>OverflowPolicy.COALESCE</code> a merged event
+ * keeps its place in the buffer, so events of different sun beds may then be
+ * delivered out of sequence.
+ *
+ */
+public class BedEventPublisher implements Flow.Publisher<BedEvent> {
+	public static final int DEFAULT_CAPACITY = 1024;
+	private static final Logger LOGGER = LogManager.getLogger(BedEventPublisher.class);
+
+	private final ExecutorService delivery = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "sunbed-feed");
+		t.setDaemon(true);
+		return t;
+	});
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final AtomicLong dropped = new AtomicLong();
+	// Guarded by the publisher's lock, so every buffer gets the events in the
+	// same order
+	private long sequence;
+	private boolean closed;
+
+	BedEventPublisher() {
+		super();
+	}
+
+	/**
+	 * Subscribes with a buffer of <code>DEFAULT_CAPACITY</code> events that
+	 * drops new events when full.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super BedEvent> subscriber) {
+		subscribe(subscriber, OverflowPolicy.DROP, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Subscribes to the changes made from now on. <code>onSubscribe()</code> and
+	 * every later signal are called on a thread of the feed, one at a time.
+	 *
+	 * @param subscriber The subscriber
+	 * @param policy     What to do with a new event when its buffer is full
+	 * @param capacity   How many events its buffer holds, rounded up to a power
+	 *                   of two
+	 */
+	public synchronized void subscribe(Flow.Subscriber<? super BedEvent> subscriber, OverflowPolicy policy,
+			int capacity) {
+		Objects.requireNonNull(subscriber);
+		Objects.requireNonNull(policy);
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be from 1 to 2^30: " + capacity);
+		}
+		Subscription subscription = new Subscription(subscriber, policy, capacity);
+		if (closed) {
+			subscription.complete();
+		} else {
+			subscriptions.add(subscription);
+		}
+		subscription.signal();
+	}
+
+	/**
+	 * @return int How many subscribers there are
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * @return long How many events have been dropped for all subscribers
+	 *         together because their buffers were full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Publishes no more events. Each subscriber is sent
+	 * <code>onComplete()</code> once it has been delivered what its buffer
+	 * holds. The delivery threads stop on their own once idle.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (Subscription subscription : subscriptions) {
+			subscription.complete();
+			subscription.signal();
+		}
+		subscriptions.clear();
+	}
+
+	/**
+	 * Puts a change in every subscriber's buffer. Called on the thread that made
+	 * the change, costs next to nothing when there are no subscribers.
+	 *
+	 * @param change What changed
+	 */
+	void publish(SunBedChange change) {
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+		BedEvent event;
+		List<Subscription> full = null;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			event = BedEvent.of(++sequence, change, System.currentTimeMillis());
+			for (Subscription subscription : subscriptions) {
+				if (subscription.offer(event)) {
+					if (full == null) {
+						full = new ArrayList<>();
+					}
+					full.add(subscription);
+				}
+			}
+		}
+		if (full != null) {
+			// Waited for without the publisher's lock
+			for (Subscription subscription : full) {
+				subscription.awaitRoom(event);
+			}
+		}
+	}
+
+	/**
+	 * A subscriber, its buffer and how many more events it has requested.
+	 * Signals are sent by <code>run()</code> on the delivery threads, and
+	 * <code>wip</code> makes sure only one of them runs at a time.
+	 */
+	private final class Subscription implements Flow.Subscription, Runnable {
+		private final Flow.Subscriber<? super BedEvent> subscriber;
+		private final OverflowPolicy policy;
+		// Guarded by the subscription's lock
+		private final BedEvent[] ring;
+		private final int mask;
+		private long head;
+		private long tail;
+		// For COALESCE, the slot of the waiting event of each sun bed
+		private final SunBedIdIndex pending;
+		// For BLOCK, the events waiting for room, in order, and the sequence of
+		// the last one that got into the ring
+		private final ArrayDeque<BedEvent> overflow;
+		private long admitted;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled;
+		private volatile boolean completed;
+		private volatile Throwable error;
+		// Only used by the delivery thread
+		private boolean subscribed;
+
+		Subscription(Flow.Subscriber<? super BedEvent> subscriber, OverflowPolicy policy, int capacity) {
+			this.subscriber = subscriber;
+			this.policy = policy;
+			int size = Integer.highestOneBit(capacity);
+			if (size < capacity) {
+				size <<= 1;
+			}
+			ring = new BedEvent[size];
+			mask = size - 1;
+			pending = policy == OverflowPolicy.COALESCE ? new SunBedIdIndex(size) : null;
+			overflow = policy == OverflowPolicy.BLOCK ? new ArrayDeque<>() : null;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("Must request at least one event: " + n);
+				cancel();
+				signal();
+				return;
+			}
+			long r;
+			long u;
+			do {
+				r = requested.get();
+				u = r + n < 0 ? Long.MAX_VALUE : r + n;
+			} while (!requested.compareAndSet(r, u));
+			signal();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+			synchronized (this) {
+				// Frees the publishers waiting for room
+				if (overflow != null) {
+					overflow.clear();
+				}
+				notifyAll();
+			}
+		}
+
+		void complete() {
+			completed = true;
+		}
+
+		/**
+		 * @return boolean True if the buffer is full and the publisher must
+		 *         wait with <code>awaitRoom()</code> for the event to get in
+		 */
+		boolean offer(BedEvent event) {
+			boolean added;
+			boolean full = false;
+			synchronized (this) {
+				if (overflow != null && !cancelled && (tail - head == ring.length || !overflow.isEmpty())) {
+					// Queued behind the events already waiting, to keep the order
+					overflow.addLast(event);
+					added = full = true;
+				} else {
+					added = add(event);
+				}
+			}
+			if (!added) {
+				dropped.incrementAndGet();
+			} else if (requested.get() > 0) {
+				// Otherwise the next request() starts the delivery
+				signal();
+			}
+			return full;
+		}
+
+		/**
+		 * Waits until an event queued by <code>offer()</code> is in the ring,
+		 * or the subscription is cancelled.
+		 */
+		synchronized void awaitRoom(BedEvent event) {
+			while (!cancelled && admitted < event.getSequence()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// Still delivered, only no longer waited for
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @return boolean Whether the event was buffered or merged
+		 */
+		private boolean add(BedEvent event) {
+			if (pending != null) {
+				if (event.getType() != SunBedChange.Type.TOGGLED) {
+					// Nothing is merged across a change of several sun beds
+					pending.clear();
+				} else {
+					int slot = pending.get(event.getID());
+					if (slot >= 0) {
+						ring[slot] = ring[slot].coalesce(event);
+						return true;
+					}
+				}
+			}
+			if (tail - head == ring.length) {
+				return false;
+			}
+			int slot = (int) (tail++ & mask);
+			ring[slot] = event;
+			if (pending != null && event.getType() == SunBedChange.Type.TOGGLED) {
+				pending.put(event.getID(), slot);
+			}
+			return true;
+		}
+
+		private synchronized BedEvent poll() {
+			if (head == tail) {
+				return null;
+			}
+			int slot = (int) (head++ & mask);
+			BedEvent event = ring[slot];
+			ring[slot] = null;
+			if (pending != null && event.getType() == SunBedChange.Type.TOGGLED
+					&& pending.get(event.getID()) == slot) {
+				pending.remove(event.getID());
+			}
+			if (overflow != null && !overflow.isEmpty()) {
+				BedEvent next = overflow.removeFirst();
+				ring[(int) (tail++ & mask)] = next;
+				admitted = next.getSequence();
+				notifyAll();
+			}
+			return event;
+		}
+
+		private synchronized boolean isEmpty() {
+			return head == tail;
+		}
+
+		void signal() {
+			if (wip.getAndIncrement() == 0) {
+				delivery.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drain() {
+			try {
+				if (!subscribed) {
+					subscribed = true;
+					subscriber.onSubscribe(this);
+				}
+				Throwable e = error;
+				if (e != null) {
+					error = null;
+					subscriber.onError(e);
+					return;
+				}
+				while (!cancelled && requested.get() > 0) {
+					BedEvent event = poll();
+					if (event == null) {
+						break;
+					}
+					if (requested.get() != Long.MAX_VALUE) {
+						requested.decrementAndGet();
+					}
+					subscriber.onNext(event);
+				}
+				if (completed && !cancelled && isEmpty()) {
+					cancelled = true;
+					subscriber.onComplete();
+				}
+			} catch (RuntimeException e) {
+				LOGGER.error("BedEventPublisher subscriber failed!", e);
+				cancel();
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import application.util.SnapshotFile;
+
+/**
+ * Keeps the booked flags in a <code>long[]</code> bitset, bit
+ * <code>i % 64</code> of word <code>i / 64</code> for the sun bed at position
+ * <code>i</code>, next to an <code>int[]</code> of IDs. The number of booked sun
+ * beds is updated on every change so counting is O(1). Bits past
+ * <code>size()</code> are always clear.
+ * <p>
+ * Every word is stamped with the epoch it was last written in and only counts
+ * if the stamp is the current epoch, otherwise it reads as all free.
+ * <code>freeAll()</code> just starts a new epoch, so it is O(1) however many
+ * sun beds there are. A stale word is cleared the next time it is written.
+ *
+ */
+class BitSetSunBedStorage implements SunBedStorage {
+	private long[] booked;
+	private int[] stamps;
+	private int epoch;
+	private int[] ids;
+	private int size;
+	private int bookedCount;
+
+	BitSetSunBedStorage() {
+		booked = new long[1];
+		stamps = new int[1];
+		ids = new int[64];
+	}
+
+	/**
+	 * Takes over the arrays of a snapshot without copying them.
+	 *
+	 * @param contents A snapshot
+	 */
+	BitSetSunBedStorage(SnapshotFile.Contents contents) {
+		size = contents.getCount();
+		ids = contents.getIds();
+		booked = contents.getBooked();
+		if (booked.length == 0) {
+			booked = new long[1];
+		}
+		stamps = new int[booked.length];
+		int words = SnapshotFile.words(size);
+		if ((size & 63) != 0) {
+			booked[words - 1] &= -1L >>> (64 - (size & 63));
+		}
+		Arrays.fill(booked, words, booked.length, 0L);
+		for (int w = 0; w < words; w++) {
+			bookedCount += Long.bitCount(booked[w]);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int countBooked() {
+		return bookedCount;
+	}
+
+	/**
+	 * @return long Word <code>w</code> of the bitset, 0 if it is from an earlier
+	 *         epoch
+	 */
+	private long word(int w) {
+		return stamps[w] == epoch ? booked[w] : 0L;
+	}
+
+	private void setWord(int w, long word) {
+		booked[w] = word;
+		stamps[w] = epoch;
+	}
+
+	@Override
+	public boolean isBooked(int index) {
+		Objects.checkIndex(index, size);
+		return (word(index >>> 6) & (1L << index)) != 0;
+	}
+
+	@Override
+	public boolean setBooked(int index, boolean value) {
+		Objects.checkIndex(index, size);
+		long bit = 1L << index;
+		long word = word(index >>> 6);
+		boolean was = (word & bit) != 0;
+		if (was != value) {
+			setWord(index >>> 6, word ^ bit);
+			bookedCount += value ? 1 : -1;
+		}
+		return was;
+	}
+
+	@Override
+	public boolean compareAndSet(int index, boolean expect, boolean update) {
+		if (isBooked(index) != expect) {
+			return false;
+		}
+		setBooked(index, update);
+		return true;
+	}
+
+	@Override
+	public boolean toggle(int index) {
+		Objects.checkIndex(index, size);
+		long word = word(index >>> 6) ^ (1L << index);
+		setWord(index >>> 6, word);
+		boolean now = (word & (1L << index)) != 0;
+		bookedCount += now ? 1 : -1;
+		return now;
+	}
+
+	@Override
+	public long getBookedWord(int w) {
+		Objects.checkIndex(w, SnapshotFile.words(size));
+		return word(w);
+	}
+
+	@Override
+	public int getID(int index) {
+		Objects.checkIndex(index, size);
+		return ids[index];
+	}
+
+	@Override
+	public void add(int id, boolean value) {
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(64, size * 2));
+		}
+		if (size >>> 6 == booked.length) {
+			booked = Arrays.copyOf(booked, booked.length * 2);
+			stamps = Arrays.copyOf(stamps, booked.length);
+		}
+		ids[size] = id;
+		size++;
+		if (value) {
+			setBooked(size - 1, true);
+		}
+	}
+
+	@Override
+	public void removeLast() {
+		Objects.checkIndex(size - 1, size);
+		setBooked(size - 1, false);
+		size--;
+	}
+
+	/**
+	 * Shifts the IDs and the booked bits after <code>index</code> down by one,
+	 * a word at a time.
+	 */
+	@Override
+	public void remove(int index) {
+		Objects.checkIndex(index, size);
+		setBooked(index, false);
+		System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		int w = index >>> 6;
+		int last = (size - 1) >>> 6;
+		long below = (1L << index) - 1;
+		long word = word(w);
+		word = (word & below) | ((word >>> 1) & ~below);
+		for (; w < last; w++) {
+			long following = word(w + 1);
+			setWord(w, word | following << 63);
+			word = following >>> 1;
+		}
+		setWord(last, word);
+		size--;
+	}
+
+	/**
+	 * Starts a new epoch, which frees every sun bed in O(1).
+	 */
+	@Override
+	public void freeAll() {
+		bookedCount = 0;
+		if (++epoch == 0) {
+			// Wrapped round, stamps from 2^32 epochs ago would count again
+			Arrays.fill(booked, 0L);
+			Arrays.fill(stamps, 0);
+		}
+	}
+
+	@Override
+	public void clear() {
+		freeAll();
+		size = 0;
+	}
+
+	/**
+	 * @return List<SunBed> A copy, changes to it do not change the collection
+	 */
+	@Override
+	public List<SunBed> toList() {
+		List<SunBed> list = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(new SunBed(ids[i], isBooked(i)));
+		}
+		return list;
+	}
+
+	@Override
+	public SnapshotFile.Contents toContents() {
+		long[] copy = new long[SnapshotFile.words(size)];
+		for (int w = 0; w < copy.length; w++) {
+			copy[w] = word(w);
+		}
+		return new SnapshotFile.Contents(size, copy, Arrays.copyOf(ids, size));
+	}
+}
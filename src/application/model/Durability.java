@@ -0,0 +1,17 @@
+package application.model;
+
+/**
+ * Whether the changes made to a <code>SunBedCollection</code> have been saved.
+ *
+ */
+public enum Durability {
+	/** Every change has been written to the journal */
+	SAVED,
+	/** Some changes are queued and have not been written yet */
+	PENDING,
+	/**
+	 * The last write failed. The changes are kept in memory and written again
+	 * with the next write.
+	 */
+	FAILED
+}
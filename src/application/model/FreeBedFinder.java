@@ -0,0 +1,161 @@
+package application.model;
+
+import application.util.SnapshotFile;
+
+/**
+ * Finds free sun beds next to each other for group bookings. The booked flags
+ * are read from the <code>SunBedStorage</code> a word at a time and inverted,
+ * so 64 sun beds are checked at once. Where runs of <code>n</code> free sun
+ * beds start is worked out for a whole word with a few shifts: a run of
+ * <code>len + step</code> starts where runs of <code>len</code> start at both
+ * <code>i</code> and <code>i + step</code>, so the length doubles with every
+ * pass.
+ * <p>
+ * A block of sun beds is found on rows of <code>rowLength</code> sun beds,
+ * the sun bed at position <code>p</code> being in row
+ * <code>p / rowLength</code> and column <code>p % rowLength</code>. A block
+ * starts where a run of <code>cols</code> free sun beds starts on
+ * <code>rows</code> rows in a row, so the bitset of run starts is ANDed with
+ * itself <code>rowLength</code> bits further on.
+ * <p>
+ * The storage must not have sun beds added or removed meanwhile,
+ * <code>SunBedCollection</code> holds its layout lock.
+ *
+ */
+final class FreeBedFinder {
+
+	private FreeBedFinder() {
+		throw new IllegalStateException("FreeBedFinder Utility Class");
+	}
+
+	/**
+	 * @param storage The sun beds
+	 * @param n       How many free sun beds are needed, at least 1
+	 * @return int The position of the first sun bed of the first run of
+	 *         <code>n</code> free sun beds, -1 if there is none
+	 */
+	static int findFreeRun(SunBedStorage storage, int n) {
+		int size = storage.size();
+		int words = SnapshotFile.words(size);
+		// The free sun beds at the end of the words so far
+		int runStart = 0;
+		int runLength = 0;
+		for (int w = 0; w < words; w++) {
+			long free = freeWord(storage, w, size);
+			if (runLength == 0) {
+				runStart = w << 6;
+			}
+			int head = Long.numberOfTrailingZeros(~free);
+			if (runLength + head >= n) {
+				return runStart;
+			}
+			if (head == 64) {
+				runLength += 64;
+				continue;
+			}
+			if (n <= 64) {
+				long starts = runStarts(free, n);
+				if (starts != 0) {
+					return (w << 6) + Long.numberOfTrailingZeros(starts);
+				}
+			}
+			runLength = Long.numberOfLeadingZeros(~free);
+			runStart = ((w + 1) << 6) - runLength;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param storage   The sun beds
+	 * @param rows      How many rows the block has, at least 1
+	 * @param cols      How many sun beds each row of the block has, at least 1
+	 * @param rowLength The number of sun beds on each row of the beach
+	 * @return int The position of the top left sun bed of the first block of
+	 *         free sun beds, -1 if there is none
+	 */
+	static int findFreeBlock(SunBedStorage storage, int rows, int cols, int rowLength) {
+		if (cols > rowLength) {
+			return -1;
+		}
+		int size = storage.size();
+		long[] starts = new long[SnapshotFile.words(size)];
+		for (int w = 0; w < starts.length; w++) {
+			starts[w] = freeWord(storage, w, size);
+		}
+		keepRunStarts(starts, cols);
+		for (int w = 0; w < starts.length; w++) {
+			long block = starts[w];
+			for (int k = 1; k < rows && block != 0; k++) {
+				block &= bitsAt(starts, ((long) w << 6) + (long) k * rowLength);
+			}
+			// A run that wraps onto the next row does not count
+			for (; block != 0; block &= block - 1) {
+				int position = (w << 6) + Long.numberOfTrailingZeros(block);
+				if (position % rowLength <= rowLength - cols) {
+					return position;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return long The free flags of word <code>w</code>, sun beds past the end
+	 *         count as booked
+	 */
+	private static long freeWord(SunBedStorage storage, int w, int size) {
+		if (w >= SnapshotFile.words(size)) {
+			return 0L;
+		}
+		long free = ~storage.getBookedWord(w);
+		if ((w + 1) << 6 > size) {
+			free &= -1L >>> (64 - (size & 63));
+		}
+		return free;
+	}
+
+	/**
+	 * @return long The 64 bits from bit <code>from</code> on, 0 past the end
+	 */
+	private static long bitsAt(long[] bits, long from) {
+		long w = from >>> 6;
+		int offset = (int) (from & 63);
+		if (w >= bits.length) {
+			return 0L;
+		}
+		long word = bits[(int) w] >>> offset;
+		if (offset != 0 && w + 1 < bits.length) {
+			word |= bits[(int) w + 1] << (64 - offset);
+		}
+		return word;
+	}
+
+	/**
+	 * Turns a word of free flags into the flags of the sun beds where
+	 * <code>n</code> free sun beds start within the word.
+	 */
+	private static long runStarts(long free, int n) {
+		for (int len = 1; len < n;) {
+			int step = Math.min(len, n - len);
+			free &= free >>> step;
+			len += step;
+		}
+		return free;
+	}
+
+	/**
+	 * Turns a bitset of free sun beds into the bitset of the sun beds where
+	 * <code>cols</code> free sun beds start, as <code>runStarts()</code> does
+	 * for one word.
+	 */
+	private static void keepRunStarts(long[] bits, int cols) {
+		for (int len = 1; len < cols;) {
+			int step = Math.min(len, cols - len);
+			// In place, each word only reads itself and the words after it
+			for (int k = 0; k < bits.length; k++) {
+				bits[k] &= bitsAt(bits, ((long) k << 6) + step);
+			}
+			len += step;
+		}
+	}
+}
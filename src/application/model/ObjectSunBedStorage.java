@@ -0,0 +1,151 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import application.util.SnapshotFile;
+
+/**
+ * Keeps the sun beds as a list of <code>SunBed</code> objects. Counting the
+ * free sun beds scans the list.
+ *
+ */
+class ObjectSunBedStorage implements SunBedStorage {
+	private final List<SunBed> sunBeds;
+
+	ObjectSunBedStorage() {
+		this(new ArrayList<>());
+	}
+
+	/**
+	 * @param sunBeds The list to use, it is not copied
+	 */
+	ObjectSunBedStorage(List<SunBed> sunBeds) {
+		this.sunBeds = sunBeds;
+	}
+
+	ObjectSunBedStorage(SnapshotFile.Contents contents) {
+		this(new ArrayList<>(contents.getCount()));
+		int[] ids = contents.getIds();
+		for (int i = 0; i < contents.getCount(); i++) {
+			sunBeds.add(new SunBed(ids[i], contents.isBooked(i)));
+		}
+	}
+
+	@Override
+	public int size() {
+		return sunBeds.size();
+	}
+
+	@Override
+	public int countBooked() {
+		int count = 0;
+		for (SunBed s : sunBeds) {
+			if (s.isBooked()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public boolean isBooked(int index) {
+		return sunBeds.get(index).isBooked();
+	}
+
+	@Override
+	public boolean setBooked(int index, boolean booked) {
+		SunBed s = sunBeds.get(index);
+		boolean was = s.isBooked();
+		s.setBooked(booked);
+		return was;
+	}
+
+	@Override
+	public boolean compareAndSet(int index, boolean expect, boolean update) {
+		if (isBooked(index) != expect) {
+			return false;
+		}
+		setBooked(index, update);
+		return true;
+	}
+
+	@Override
+	public boolean toggle(int index) {
+		SunBed s = sunBeds.get(index);
+		s.toggleBooked();
+		return s.isBooked();
+	}
+
+	/**
+	 * Puts the word together from up to 64 sun beds.
+	 */
+	@Override
+	public long getBookedWord(int w) {
+		Objects.checkIndex(w << 6, sunBeds.size());
+		long word = 0;
+		int end = Math.min(sunBeds.size(), (w + 1) << 6);
+		for (int i = w << 6; i < end; i++) {
+			if (sunBeds.get(i).isBooked()) {
+				word |= 1L << i;
+			}
+		}
+		return word;
+	}
+
+	@Override
+	public int getID(int index) {
+		return sunBeds.get(index).getID();
+	}
+
+	@Override
+	public void add(int id, boolean booked) {
+		sunBeds.add(new SunBed(id, booked));
+	}
+
+	@Override
+	public void removeLast() {
+		sunBeds.remove(sunBeds.size() - 1);
+	}
+
+	@Override
+	public void remove(int index) {
+		sunBeds.remove(index);
+	}
+
+	@Override
+	public void freeAll() {
+		for (SunBed s : sunBeds) {
+			if (s.isBooked())
+				s.setBooked(false);
+		}
+	}
+
+	@Override
+	public void clear() {
+		sunBeds.clear();
+	}
+
+	/**
+	 * @return List<SunBed> The live list, changes to it change the collection
+	 */
+	@Override
+	public List<SunBed> toList() {
+		return sunBeds;
+	}
+
+	@Override
+	public SnapshotFile.Contents toContents() {
+		int count = sunBeds.size();
+		long[] booked = new long[SnapshotFile.words(count)];
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			SunBed s = sunBeds.get(i);
+			ids[i] = s.getID();
+			if (s.isBooked()) {
+				booked[i >>> 6] |= 1L << i;
+			}
+		}
+		return new SnapshotFile.Contents(count, booked, ids);
+	}
+}
@@ -0,0 +1,747 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import application.util.HistorySegmentFile;
+import application.util.SnapshotFile;
+
+/**
+ * Remembers every time a sun bed was booked or freed, for reports over a whole
+ * season: how occupied the beach was hour by hour, how much each sun bed was
+ * used and which hour is the busiest. Got from a collection with
+ * <code>SunBedCollection.getHistory()</code>, which records its changes from
+ * then on, or opened on its own with <code>open()</code> to query it.
+ * <p>
+ * Each day is a segment of three columns, the times, the sun bed IDs and the
+ * new states, see <code>HistorySegmentFile</code>. The open day is kept in
+ * memory as plain arrays and appended to, and written to
+ * <code>day-N.hist</code> every <code>FLUSH_EVENTS</code> events, by
+ * <code>flush()</code> and when the day ends. A day that has ended is never
+ * written again. Only <code>flush()</code> and <code>close()</code> write on
+ * the thread that calls them, everything else is written by a thread of the
+ * history's own, so a change made on the JavaFX thread never waits for the
+ * disk. A write that fails is reported to the collection's
+ * <code>PersistenceListener</code>s. Queries read the files of the days they need one at a time,
+ * so a season is never loaded into the heap at once.
+ * <p>
+ * Only changes of state are recorded: booking a booked sun bed records
+ * nothing. A segment starts with the sun beds that were already booked when
+ * it opened, at its start time.
+ * <p>
+ * Hours are hours of local time, from the time zone when the segment opened.
+ * A day that runs past midnight adds its small hours to those of the morning.
+ *
+ */
+public class OccupancyHistory {
+	public static final int HOURS = 24;
+	// Written by the flushing thread once this many events are waiting
+	static final int FLUSH_EVENTS = 1 << 16;
+	private static final long HOUR_MILLIS = 3_600_000L;
+	private static final long DAY_MILLIS = HOURS * HOUR_MILLIS;
+	private static final int UNKNOWN_OFFSET = Integer.MIN_VALUE;
+	private static final Pattern SEGMENT_FILE = Pattern.compile("day-(\\d+)\\.hist");
+	private static final Logger LOGGER = LogManager.getLogger(OccupancyHistory.class);
+
+	private final Path directory;
+	private final LongSupplier clock;
+	private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "sunbed-history");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// The open day, guarded by this
+	private int day = -1;
+	private long startMillis;
+	// Looked up when first needed, loading the time zone rules is slow
+	private int zoneOffsetSeconds = UNKNOWN_OFFSET;
+	private long lastMillis;
+	private int count;
+	private int[] gaps = new int[1024];
+	private int[] ids = new int[1024];
+	private long[] states = new long[16];
+	// Which sun beds the history thinks are booked, by ID
+	private final BitSet booked = new BitSet();
+	private int flushedCount;
+	// Days that have ended and are waiting to be written, guarded by this
+	private final Map<Integer, HistorySegmentFile.Segment> sealing = new HashMap<>();
+	// Set by follow(), removed again by close()
+	private SunBedCollection followed;
+	private SunBedChangeListener listener;
+	// Guarded by this, once set nothing more is recorded or written
+	private boolean closed;
+	private volatile BiConsumer<String, Exception> failures = LOGGER::error;
+
+	private OccupancyHistory(Path directory, LongSupplier clock) {
+		this.directory = directory;
+		this.clock = clock;
+	}
+
+	/**
+	 * Opens the history kept in a directory, for querying or recording with
+	 * <code>startDay()</code> and <code>record()</code>.
+	 *
+	 * @param directory Where the segments are, created when the first is
+	 *                  written
+	 * @return OccupancyHistory The history
+	 */
+	public static OccupancyHistory open(Path directory) {
+		return new OccupancyHistory(directory, System::currentTimeMillis);
+	}
+
+	/**
+	 * Records the changes of a collection from now on, continuing its current
+	 * day if the directory already has it.
+	 *
+	 * @param beds      The sun beds
+	 * @param directory Where the segments are
+	 * @return OccupancyHistory The history
+	 * @throws IOException If the current day's segment can not be read
+	 */
+	static OccupancyHistory follow(SunBedCollection beds, Path directory) throws IOException {
+		OccupancyHistory history = open(directory);
+		history.failures = beds::writeFailed;
+		synchronized (history) {
+			history.resume(beds.getDay());
+			history.sync(beds);
+			history.followed = beds;
+			history.listener = history.listener(beds);
+		}
+		beds.addChangeListener(history.listener);
+		return history;
+	}
+
+	/**
+	 * @return List<Integer> The days with a segment, oldest first, including the
+	 *         open day
+	 * @throws IOException If the directory can not be listed
+	 */
+	public List<Integer> getDays() throws IOException {
+		TreeMap<Integer, Path> files = segmentFiles();
+		synchronized (this) {
+			for (Integer sealed : sealing.keySet()) {
+				files.put(sealed, null);
+			}
+			if (day >= 0) {
+				files.put(day, null);
+			}
+		}
+		return new ArrayList<>(files.keySet());
+	}
+
+	/**
+	 * Closes the open day, if there is one, and opens another. The sun beds
+	 * still booked carry over and are recorded as booked at the start of the new
+	 * day. The day that ended is written by the history's thread, and queried
+	 * from memory until it is.
+	 *
+	 * @param newDay The day, after the open one
+	 * @param millis When the day ended and the next started
+	 * @throws IllegalStateException If the history has been closed
+	 */
+	public synchronized void startDay(int newDay, long millis) {
+		checkOpen();
+		if (newDay <= day) {
+			throw new IllegalArgumentException("Day " + newDay + " does not follow day " + day);
+		}
+		if (day >= 0) {
+			long end = Math.max(millis, lastMillis);
+			HistorySegmentFile.Segment ended = segment(end);
+			sealing.put(day, ended);
+			flusher.execute(() -> {
+				try {
+					seal(ended, end);
+				} catch (IOException e) {
+					failures.accept("OccupancyHistory end of day write failed!", e);
+				} finally {
+					synchronized (this) {
+						sealing.remove(ended.getDay());
+					}
+				}
+			});
+		}
+		openDay(newDay, Math.max(millis, lastMillis));
+		for (int id = booked.nextSetBit(0); id >= 0; id = booked.nextSetBit(id + 1)) {
+			append(startMillis, id, true);
+		}
+	}
+
+	/**
+	 * Records a sun bed being booked or freed on the open day. Nothing is
+	 * recorded if the history already has it in that state.
+	 *
+	 * @param millis When it happened, times before the last event count as the
+	 *               time of the last event
+	 * @param id     The ID of the sun bed
+	 * @param state  True if it was booked, false if it was freed
+	 * @throws IllegalStateException If no day has been started or the history
+	 *                               has been closed
+	 */
+	public synchronized void record(long millis, int id, boolean state) {
+		checkOpen();
+		if (day < 0) {
+			throw new IllegalStateException("No day has been started");
+		}
+		if (booked.get(id) == state) {
+			return;
+		}
+		booked.set(id, state);
+		append(Math.max(millis, lastMillis), id, state);
+		if (count - flushedCount >= FLUSH_EVENTS) {
+			flushedCount = count;
+			HistorySegmentFile.Segment segment = segment(-1);
+			int flushing = day;
+			flusher.execute(() -> {
+				try {
+					writeOpen(segment, flushing);
+				} catch (IOException e) {
+					failures.accept("OccupancyHistory write to file failed!", e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Waits for the days that have ended to be written, then writes the open
+	 * day's segment, so the events recorded so far survive a restart. The open
+	 * day is not written if it has not changed since it was last written.
+	 *
+	 * @throws IOException If it can not be written
+	 */
+	public void flush() throws IOException {
+		awaitWrites();
+		HistorySegmentFile.Segment segment;
+		int flushing;
+		synchronized (this) {
+			if (day < 0 || flushedCount == count) {
+				return;
+			}
+			flushedCount = count;
+			segment = segment(-1);
+			flushing = day;
+		}
+		writeOpen(segment, flushing);
+	}
+
+	/**
+	 * The average number of sun beds booked in each hour of a day.
+	 *
+	 * @param queryDay A day
+	 * @return double[] The average for each hour from 0:00 to 23:00, 0 for
+	 *         hours outside the day or if there is no segment for it
+	 * @throws IOException If the segment can not be read
+	 */
+	public double[] getOccupancyCurve(int queryDay) throws IOException {
+		HourTotals totals = new HourTotals();
+		HistorySegmentFile.Segment segment = segmentOf(queryDay);
+		if (segment != null) {
+			totals.add(segment, endOf(segment));
+		}
+		return totals.averages();
+	}
+
+	/**
+	 * How much of the time recorded on a range of days each sun bed was booked.
+	 *
+	 * @param fromDay The first day
+	 * @param toDay   The last day
+	 * @return double[] Indexed by sun bed ID, the fraction of the time from 0
+	 *         to 1, of length one more than the highest ID booked
+	 * @throws IOException If a segment can not be read
+	 */
+	public double[] getUtilization(int fromDay, int toDay) throws IOException {
+		long[] bookedMillis = new long[64];
+		long total = 0;
+		for (int d : daysBetween(fromDay, toDay)) {
+			HistorySegmentFile.Segment segment = segmentOf(d);
+			if (segment == null) {
+				continue;
+			}
+			long end = endOf(segment);
+			total += end - segment.getStartMillis();
+			BookedTime time = new BookedTime(bookedMillis);
+			segment.forEach(time);
+			time.finish(end);
+			bookedMillis = time.bookedMillis;
+		}
+		int length = bookedMillis.length;
+		while (length > 0 && bookedMillis[length - 1] == 0) {
+			length--;
+		}
+		double[] utilization = new double[length];
+		for (int id = 0; id < length; id++) {
+			utilization[id] = total == 0 ? 0 : (double) bookedMillis[id] / total;
+		}
+		return utilization;
+	}
+
+	/**
+	 * The hour of the day when most sun beds are booked on average over a range
+	 * of days.
+	 *
+	 * @param fromDay The first day
+	 * @param toDay   The last day
+	 * @return int The hour, from 0 to 23, -1 if nothing was ever booked
+	 * @throws IOException If a segment can not be read
+	 */
+	public int getPeakHour(int fromDay, int toDay) throws IOException {
+		HourTotals totals = new HourTotals();
+		for (int d : daysBetween(fromDay, toDay)) {
+			HistorySegmentFile.Segment segment = segmentOf(d);
+			if (segment != null) {
+				totals.add(segment, endOf(segment));
+			}
+		}
+		double[] averages = totals.averages();
+		int peak = -1;
+		for (int h = 0; h < HOURS; h++) {
+			if (averages[h] > 0 && (peak < 0 || averages[h] > averages[peak])) {
+				peak = h;
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Stops following the collection, writes the open day and stops the
+	 * flushing thread. Nothing is recorded afterwards, the history can still be
+	 * queried.
+	 *
+	 * @throws IOException If the open day can not be written
+	 */
+	public void close() throws IOException {
+		SunBedCollection beds;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			beds = followed;
+			followed = null;
+		}
+		if (beds != null) {
+			beds.removeChangeListener(listener);
+		}
+		try {
+			flush();
+		} finally {
+			flusher.shutdown();
+		}
+	}
+
+	/**
+	 * @return boolean True once <code>close()</code> has been called
+	 */
+	synchronized boolean isClosed() {
+		return closed;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("The occupancy history is closed");
+		}
+	}
+
+	/**
+	 * Waits for the writes already handed to the flushing thread.
+	 */
+	private void awaitWrites() throws IOException {
+		if (flusher.isShutdown()) {
+			return;
+		}
+		try {
+			flusher.submit(() -> {
+				// Runs once everything queued before it has
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the occupancy history to be written", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Keeps the history in step with the collection. A toggle records the
+	 * state the sun bed has when it is recorded, not the one in the change:
+	 * lock-free toggles of one sun bed may be reported out of order, and the
+	 * last one recorded must leave its final state. Any other change is found
+	 * by comparing the sun beds with what the history thinks they are. A new
+	 * day seals the old one first.
+	 */
+	private SunBedChangeListener listener(SunBedCollection beds) {
+		return change -> {
+			long now = clock.getAsLong();
+			synchronized (this) {
+				if (closed) {
+					// Changed while close() removed the listener
+					return;
+				}
+				if (beds.getDay() > day) {
+					startDay(beds.getDay(), now);
+				}
+				if (change.getType() == SunBedChange.Type.TOGGLED) {
+					recordToggled(beds, now, change.getID());
+				} else {
+					sync(beds);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Records the state a toggled sun bed is in now. Caller holds this.
+	 */
+	private void recordToggled(SunBedCollection beds, long now, int id) {
+		boolean state;
+		try {
+			state = beds.isOccupied(id);
+		} catch (IllegalArgumentException e) {
+			// Removed meanwhile, the removal's own change syncs it
+			return;
+		}
+		record(now, id, state);
+	}
+
+	/**
+	 * Records whatever differs between the collection and the history as
+	 * happening now.
+	 */
+	private synchronized void sync(SunBedCollection beds) {
+		long now = clock.getAsLong();
+		BitSet actual = new BitSet();
+		for (SunBed bed : beds.getSunBeds()) {
+			if (bed.isBooked()) {
+				actual.set(bed.getID());
+			}
+		}
+		BitSet freed = (BitSet) booked.clone();
+		freed.andNot(actual);
+		for (int id = freed.nextSetBit(0); id >= 0; id = freed.nextSetBit(id + 1)) {
+			record(now, id, false);
+		}
+		for (int id = actual.nextSetBit(0); id >= 0; id = actual.nextSetBit(id + 1)) {
+			record(now, id, true);
+		}
+	}
+
+	/**
+	 * Ends the days left open when the application last stopped, at their last
+	 * event, then continues the current day from its segment if there is one,
+	 * otherwise starts it.
+	 */
+	private synchronized void resume(int resumeDay) throws IOException {
+		HistorySegmentFile.Segment current = null;
+		for (Map.Entry<Integer, Path> e : segmentFiles().entrySet()) {
+			HistorySegmentFile.Segment segment = HistorySegmentFile.read(e.getValue());
+			if (e.getKey() == resumeDay) {
+				current = segment;
+			} else if (e.getKey() < resumeDay && segment.getEndMillis() < 0) {
+				seal(segment, segment.getLastEventMillis());
+			}
+		}
+		if (current == null) {
+			openDay(resumeDay, clock.getAsLong());
+			return;
+		}
+		openDay(resumeDay, current.getStartMillis());
+		zoneOffsetSeconds = current.getZoneOffsetSeconds();
+		current.forEach((millis, id, state) -> {
+			booked.set(id, state);
+			append(millis, id, state);
+		});
+		flushedCount = count;
+	}
+
+	/**
+	 * Writes a day that has ended, never to be written again.
+	 */
+	private void seal(HistorySegmentFile.Segment segment, long endMillis) throws IOException {
+		HistorySegmentFile.Segment sealed = segment;
+		if (segment.getEndMillis() != endMillis) {
+			// Copied into arrays to be written with its end
+			Copy copy = new Copy(segment);
+			segment.forEach(copy);
+			sealed = new HistorySegmentFile.Segment(segment.getDay(), segment.getCount(), segment.getStartMillis(),
+					endMillis, segment.getZoneOffsetSeconds(), copy.gaps, copy.ids, copy.states);
+		}
+		Files.createDirectories(directory);
+		Path temp = Paths.get(file(segment.getDay()) + ".tmp");
+		HistorySegmentFile.write(sealed, temp);
+		Files.move(temp, file(segment.getDay()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void openDay(int newDay, long millis) {
+		day = newDay;
+		startMillis = millis;
+		lastMillis = millis;
+		zoneOffsetSeconds = UNKNOWN_OFFSET;
+		count = 0;
+		flushedCount = 0;
+		// Never shared with a segment handed out before, which keeps reading it
+		gaps = new int[1024];
+		ids = new int[1024];
+		states = new long[16];
+	}
+
+	private void append(long millis, int id, boolean state) {
+		if (count == ids.length) {
+			gaps = Arrays.copyOf(gaps, count * 2);
+			ids = Arrays.copyOf(ids, count * 2);
+		}
+		if (count >>> 6 == states.length) {
+			states = Arrays.copyOf(states, states.length * 2);
+		}
+		gaps[count] = (int) Math.min(Integer.MAX_VALUE, millis - lastMillis);
+		ids[count] = id;
+		if (state) {
+			states[count >>> 6] |= 1L << count;
+		}
+		lastMillis = millis;
+		count++;
+	}
+
+	/**
+	 * The open day as a segment. The arrays are only ever appended to or
+	 * replaced, so the segment can be read without holding the lock.
+	 */
+	private HistorySegmentFile.Segment segment(long endMillis) {
+		if (zoneOffsetSeconds == UNKNOWN_OFFSET) {
+			zoneOffsetSeconds = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochMilli(startMillis))
+					.getTotalSeconds();
+		}
+		return new HistorySegmentFile.Segment(day, count, startMillis, endMillis, zoneOffsetSeconds, gaps, ids,
+				states);
+	}
+
+	/**
+	 * Writes the open day, unless it has ended and been written meanwhile.
+	 */
+	private void writeOpen(HistorySegmentFile.Segment segment, int openDay) throws IOException {
+		synchronized (flusher) {
+			synchronized (this) {
+				if (openDay != day) {
+					return;
+				}
+			}
+			Files.createDirectories(directory);
+			Path temp = Paths.get(file(openDay) + ".tmp");
+			HistorySegmentFile.write(segment, temp);
+			synchronized (this) {
+				if (openDay != day) {
+					// Ended while it was written, the sealed file must stay
+					Files.delete(temp);
+					return;
+				}
+				Files.move(temp, file(openDay), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+	}
+
+	/**
+	 * @return Segment The events of a day, from memory for the open day and
+	 *         days not yet written, null if there are none
+	 */
+	private HistorySegmentFile.Segment segmentOf(int queryDay) throws IOException {
+		synchronized (this) {
+			if (queryDay == day) {
+				return segment(-1);
+			}
+			HistorySegmentFile.Segment sealed = sealing.get(queryDay);
+			if (sealed != null) {
+				return sealed;
+			}
+		}
+		Path file = file(queryDay);
+		return Files.exists(file) ? HistorySegmentFile.read(file) : null;
+	}
+
+	/**
+	 * @return long When a segment ended, now if it is still open
+	 */
+	private long endOf(HistorySegmentFile.Segment segment) {
+		return segment.getEndMillis() >= 0 ? segment.getEndMillis() : Math.max(clock.getAsLong(), lastEvent(segment));
+	}
+
+	private long lastEvent(HistorySegmentFile.Segment segment) {
+		synchronized (this) {
+			if (segment.getDay() == day) {
+				return lastMillis;
+			}
+		}
+		return segment.getLastEventMillis();
+	}
+
+	private List<Integer> daysBetween(int fromDay, int toDay) throws IOException {
+		List<Integer> days = new ArrayList<>();
+		for (int d : getDays()) {
+			if (d >= fromDay && d <= toDay) {
+				days.add(d);
+			}
+		}
+		return days;
+	}
+
+	private TreeMap<Integer, Path> segmentFiles() throws IOException {
+		TreeMap<Integer, Path> files = new TreeMap<>();
+		if (Files.isDirectory(directory)) {
+			try (Stream<Path> list = Files.list(directory)) {
+				for (Path file : (Iterable<Path>) list::iterator) {
+					Matcher m = SEGMENT_FILE.matcher(file.getFileName().toString());
+					if (m.matches()) {
+						files.put(Integer.parseInt(m.group(1)), file);
+					}
+				}
+			}
+		}
+		return files;
+	}
+
+	private Path file(int fileDay) {
+		return directory.resolve("day-" + fileDay + ".hist");
+	}
+
+	/**
+	 * Copies the columns of a segment into arrays.
+	 */
+	private static final class Copy implements HistorySegmentFile.EventVisitor {
+		private final int[] gaps;
+		private final int[] ids;
+		private final long[] states;
+		private long previous;
+		private int at;
+
+		Copy(HistorySegmentFile.Segment segment) {
+			gaps = new int[segment.getCount()];
+			ids = new int[segment.getCount()];
+			states = new long[SnapshotFile.words(segment.getCount())];
+			previous = segment.getStartMillis();
+		}
+
+		@Override
+		public void event(long millis, int id, boolean state) {
+			gaps[at] = (int) (millis - previous);
+			ids[at] = id;
+			if (state) {
+				states[at >>> 6] |= 1L << at;
+			}
+			previous = millis;
+			at++;
+		}
+	}
+
+	/**
+	 * Adds up booked sun bed milliseconds per hour of the day, and how many
+	 * milliseconds of each hour were recorded.
+	 */
+	private static final class HourTotals implements HistorySegmentFile.EventVisitor {
+		private final double[] bedMillis = new double[HOURS];
+		private final double[] covered = new double[HOURS];
+		private long offset;
+		private long at;
+		private int bookedNow;
+		// The hour <code>at</code> is in and when it ends, so most events need
+		// no division
+		private int hour;
+		private long hourEnd;
+
+		void add(HistorySegmentFile.Segment segment, long end) {
+			offset = segment.getZoneOffsetSeconds() * 1000L;
+			at = segment.getStartMillis();
+			bookedNow = 0;
+			hourEnd = at;
+			segment.forEach(this);
+			spread(end);
+		}
+
+		@Override
+		public void event(long millis, int id, boolean state) {
+			spread(millis);
+			bookedNow += state ? 1 : -1;
+		}
+
+		/**
+		 * Adds the sun beds booked from <code>at</code> to <code>to</code> to the
+		 * hours they fall in.
+		 */
+		private void spread(long to) {
+			while (at < to) {
+				if (at >= hourEnd) {
+					long local = Math.floorMod(at + offset, DAY_MILLIS);
+					hour = (int) (local / HOUR_MILLIS);
+					hourEnd = at + HOUR_MILLIS - local % HOUR_MILLIS;
+				}
+				long until = Math.min(to, hourEnd);
+				bedMillis[hour] += (double) bookedNow * (until - at);
+				covered[hour] += until - at;
+				at = until;
+			}
+		}
+
+		double[] averages() {
+			double[] averages = new double[HOURS];
+			for (int h = 0; h < HOURS; h++) {
+				averages[h] = covered[h] == 0 ? 0 : bedMillis[h] / covered[h];
+			}
+			return averages;
+		}
+	}
+
+	/**
+	 * Adds up how long each sun bed was booked on a day.
+	 */
+	private static final class BookedTime implements HistorySegmentFile.EventVisitor {
+		private long[] bookedMillis;
+		private long[] since = new long[64];
+		private final BitSet open = new BitSet();
+
+		BookedTime(long[] bookedMillis) {
+			this.bookedMillis = bookedMillis;
+		}
+
+		@Override
+		public void event(long millis, int id, boolean state) {
+			if (id >= since.length) {
+				since = Arrays.copyOf(since, Math.max(id + 1, since.length * 2));
+			}
+			if (id >= bookedMillis.length) {
+				bookedMillis = Arrays.copyOf(bookedMillis, Math.max(id + 1, bookedMillis.length * 2));
+			}
+			if (state) {
+				since[id] = millis;
+				open.set(id);
+			} else if (open.get(id)) {
+				bookedMillis[id] += millis - since[id];
+				open.clear(id);
+			}
+		}
+
+		void finish(long end) {
+			for (int id = open.nextSetBit(0); id >= 0; id = open.nextSetBit(id + 1)) {
+				bookedMillis[id] += end - since[id];
+			}
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Counts the booked sun beds per row of the beach as they change, so the free
+ * sun beds of any range of rows, e.g. rows 3 to 7, are counted in O(log rows)
+ * however many sun beds there are. Got from a collection with
+ * <code>SunBedCollection.getRollup()</code> for a number of sun beds per row,
+ * the rows being the sun beds in position order as the grid shows them.
+ * <p>
+ * Rows can be grouped into named price tiers with <code>addTier()</code>, each
+ * counted in O(log rows) per range of rows it has. A zone of
+ * <code>SunBedZones</code> is a collection of its own with its own rollup.
+ * <p>
+ * The counts are kept in a Fenwick tree over the rows, with a copy of which
+ * sun beds are booked. A toggle updates them in O(log rows) on the thread that
+ * made it, looking at the sun bed again rather than trusting the order the
+ * changes arrive in, which lock-free toggles do not keep. Adding, removing or
+ * freeing all sun beds counts the rows again, in O(n / 64).
+ * <p>
+ * A count is of each row as it is when read, counts of several rows are not a
+ * snapshot of one instant while toggles are being made.
+ *
+ */
+public final class OccupancyRollup {
+	private final SunBedCollection beds;
+	private final int rowLength;
+	// Taken to read the sun beds when counting the rows again, shared by toggles
+	private final StampedLock rebuilding = new StampedLock();
+	private volatile Counts counts;
+	// Guarded by itself
+	private final Map<String, List<int[]>> tiers = new LinkedHashMap<>();
+
+	/**
+	 * The counts for one size of the collection, replaced when it changes.
+	 */
+	private static final class Counts {
+		private final int size;
+		private final int rows;
+		// Which positions the counts have as booked
+		private final AtomicLongArray booked;
+		// Fenwick tree of booked sun beds per row, 1-based
+		private final AtomicIntegerArray tree;
+		private final AtomicInteger total = new AtomicInteger();
+
+		Counts(int size, int rowLength, long[] words) {
+			this.size = size;
+			this.rows = (size + rowLength - 1) / rowLength;
+			this.booked = new AtomicLongArray(words);
+			int[] perRow = new int[rows + 1];
+			int all = 0;
+			for (int position = nextBooked(words, 0); position >= 0 && position < size; position = nextBooked(words,
+					position + 1)) {
+				perRow[position / rowLength + 1]++;
+				all++;
+			}
+			total.set(all);
+			// Built in O(rows) by passing each count up to its parent
+			for (int i = 1; i <= rows; i++) {
+				int parent = i + (i & -i);
+				if (parent <= rows) {
+					perRow[parent] += perRow[i];
+				}
+			}
+			this.tree = new AtomicIntegerArray(perRow);
+		}
+
+		/**
+		 * Sets a position to booked or free.
+		 *
+		 * @return boolean True if it changed
+		 */
+		boolean set(int position, boolean state, int rowLength) {
+			int w = position >>> 6;
+			long bit = 1L << position;
+			for (;;) {
+				long word = booked.get(w);
+				if (((word & bit) != 0) == state) {
+					return false;
+				}
+				if (booked.compareAndSet(w, word, word ^ bit)) {
+					break;
+				}
+			}
+			int delta = state ? 1 : -1;
+			for (int i = position / rowLength + 1; i <= rows; i += i & -i) {
+				tree.addAndGet(i, delta);
+			}
+			total.addAndGet(delta);
+			return true;
+		}
+
+		/**
+		 * @return int The booked sun beds in the first <code>n</code> rows
+		 */
+		int bookedInFirst(int n) {
+			int sum = 0;
+			for (int i = Math.min(n, rows); i > 0; i -= i & -i) {
+				sum += tree.get(i);
+			}
+			return sum;
+		}
+
+		private static int nextBooked(long[] words, int from) {
+			int w = from >>> 6;
+			if (w >= words.length) {
+				return -1;
+			}
+			long word = words[w] & (-1L << from);
+			while (word == 0) {
+				if (++w == words.length) {
+					return -1;
+				}
+				word = words[w];
+			}
+			return w * 64 + Long.numberOfTrailingZeros(word);
+		}
+	}
+
+	OccupancyRollup(SunBedCollection beds, int rowLength) {
+		if (rowLength < 1) {
+			throw new IllegalArgumentException("A row needs at least one sun bed: " + rowLength);
+		}
+		this.beds = beds;
+		this.rowLength = rowLength;
+		// Counted by rebuild() once it is listening, so no toggle is missed
+		counts = new Counts(0, rowLength, new long[0]);
+	}
+
+	/**
+	 * Keeps the counts in step with a change to the sun beds.
+	 *
+	 * @param change The change
+	 */
+	void sunBedsChanged(SunBedChange change) {
+		if (change.getType() != SunBedChange.Type.TOGGLED) {
+			rebuild();
+			return;
+		}
+		int position = change.getFrom();
+		long stamp = rebuilding.readLock();
+		try {
+			Counts c = counts;
+			if (position >= c.size) {
+				return;
+			}
+			// Whichever toggle of the sun bed looks last leaves the right state
+			for (;;) {
+				boolean state = beds.isOccupiedAt(position);
+				c.set(position, state, rowLength);
+				if (beds.isOccupiedAt(position) == state) {
+					return;
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// Removed meanwhile, counted again by the removal's own change
+		} finally {
+			rebuilding.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Counts every row again from the sun beds. Toggles wait, so none made
+	 * while the sun beds are read is missed.
+	 */
+	void rebuild() {
+		long stamp = rebuilding.writeLock();
+		try {
+			beds.readBooked((words, size) -> counts = new Counts(size, rowLength, words));
+		} finally {
+			rebuilding.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @return int The number of sun beds on each row, the last may have fewer
+	 */
+	public int getRowLength() {
+		return rowLength;
+	}
+
+	/**
+	 * @return int The number of rows
+	 */
+	public int getRowCount() {
+		return counts.rows;
+	}
+
+	/**
+	 * @return ZoneOccupancy The sun beds of every row, named "all"
+	 */
+	public ZoneOccupancy getTotalOccupancy() {
+		Counts c = counts;
+		return new ZoneOccupancy("all", c.size, Math.max(0, c.size - c.total.get()));
+	}
+
+	/**
+	 * @param row A row, from 0
+	 * @return int The number of free sun beds on the row
+	 */
+	public int getCountFree(int row) {
+		return getCountFree(row, row);
+	}
+
+	/**
+	 * @param fromRow The first row, from 0
+	 * @param toRow   The last row
+	 * @return int The number of free sun beds on the rows
+	 */
+	public int getCountFree(int fromRow, int toRow) {
+		checkRows(fromRow, toRow);
+		return occupancy(counts, null, fromRow, toRow).getCountFree();
+	}
+
+	/**
+	 * Counts a range of rows in O(log rows).
+	 *
+	 * @param fromRow The first row, from 0
+	 * @param toRow   The last row, rows past the end have no sun beds
+	 * @return ZoneOccupancy The sun beds of the rows, named e.g. "rows 3-7"
+	 * @throws IllegalArgumentException If the range is empty or starts before
+	 *                                  row 0
+	 */
+	public ZoneOccupancy getRows(int fromRow, int toRow) {
+		checkRows(fromRow, toRow);
+		Counts c = counts;
+		String name = fromRow == toRow ? "row " + fromRow : "rows " + fromRow + "-" + toRow;
+		return occupancy(c, name, fromRow, toRow);
+	}
+
+	/**
+	 * @return List<ZoneOccupancy> Every row, in order, named e.g. "row 3"
+	 */
+	public List<ZoneOccupancy> getOccupancyByRow() {
+		Counts c = counts;
+		List<ZoneOccupancy> rows = new ArrayList<>(c.rows);
+		for (int row = 0; row < c.rows; row++) {
+			rows.add(occupancy(c, "row " + row, row, row));
+		}
+		return rows;
+	}
+
+	/**
+	 * Adds a range of rows to a price tier, creating the tier if it is new. A
+	 * tier can have several ranges, which should not overlap.
+	 *
+	 * @param name    The name of the tier, e.g. "front" or "premium"
+	 * @param fromRow The first row, from 0
+	 * @param toRow   The last row
+	 */
+	public void addTier(String name, int fromRow, int toRow) {
+		checkRows(fromRow, toRow);
+		synchronized (tiers) {
+			tiers.computeIfAbsent(name, tier -> new ArrayList<>()).add(new int[] { fromRow, toRow });
+		}
+	}
+
+	/**
+	 * @param name The name of a tier
+	 */
+	public void removeTier(String name) {
+		synchronized (tiers) {
+			tiers.remove(name);
+		}
+	}
+
+	/**
+	 * @param name The name of a tier
+	 * @return ZoneOccupancy The sun beds of its rows
+	 * @throws IllegalArgumentException If there is no such tier
+	 */
+	public ZoneOccupancy getTierOccupancy(String name) {
+		List<int[]> ranges;
+		synchronized (tiers) {
+			ranges = tiers.get(name);
+			if (ranges == null) {
+				throw new IllegalArgumentException("No price tier " + name);
+			}
+			ranges = new ArrayList<>(ranges);
+		}
+		Counts c = counts;
+		ZoneOccupancy occupancy = new ZoneOccupancy(name, 0, 0);
+		for (int[] range : ranges) {
+			occupancy = occupancy.plus(occupancy(c, name, range[0], range[1]));
+		}
+		return occupancy;
+	}
+
+	/**
+	 * @return List<ZoneOccupancy> Every tier, in the order they were added
+	 */
+	public List<ZoneOccupancy> getOccupancyByTier() {
+		List<String> names;
+		synchronized (tiers) {
+			names = new ArrayList<>(tiers.keySet());
+		}
+		List<ZoneOccupancy> byTier = new ArrayList<>(names.size());
+		for (String name : names) {
+			byTier.add(getTierOccupancy(name));
+		}
+		return byTier;
+	}
+
+	private ZoneOccupancy occupancy(Counts c, String name, int fromRow, int toRow) {
+		long first = (long) fromRow * rowLength;
+		long last = Math.min(c.size, ((long) toRow + 1) * rowLength);
+		int count = (int) Math.max(0, last - first);
+		int booked = c.bookedInFirst((int) Math.min(c.rows, toRow + 1L)) - c.bookedInFirst(fromRow);
+		return new ZoneOccupancy(name, count, Math.max(0, count - booked));
+	}
+
+	private static void checkRows(int fromRow, int toRow) {
+		if (fromRow < 0 || toRow < fromRow) {
+			throw new IllegalArgumentException("No rows from " + fromRow + " to " + toRow);
+		}
+	}
+}
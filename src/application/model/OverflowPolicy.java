@@ -0,0 +1,27 @@
+package application.model;
+
+/**
+ * What the change feed does with a new event for a subscriber whose buffer is
+ * full, see <code>BedEventPublisher</code>.
+ *
+ */
+public enum OverflowPolicy {
+	/** The new event is dropped, the subscriber sees a gap in the sequence */
+	DROP,
+	/**
+	 * Only the latest state of each sun bed is buffered: an event for a sun bed
+	 * that already has one waiting is merged into it, whether or not the buffer
+	 * is full. An event that can not be merged into a full buffer is dropped.
+	 */
+	COALESCE,
+	/**
+	 * The thread making the change waits until the subscriber has room. Every
+	 * event is delivered and the other subscribers are not held up, but the
+	 * subscriber slows down every change. The changing thread may wait holding
+	 * the collection's lock, after <code>addSunBed()</code>, a batch or any
+	 * other change but <code>toggleSunBed()</code>, <code>book()</code> and
+	 * <code>release()</code>, so the subscriber's <code>onNext()</code> must
+	 * not call the collection, or it never gets the room it waits for.
+	 */
+	BLOCK
+}
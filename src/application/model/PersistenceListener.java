@@ -0,0 +1,21 @@
+package application.model;
+
+/**
+ * Told when the changes made to a <code>SunBedCollection</code> are saved or
+ * fail to save. Called on whichever thread did the write, often the
+ * persistence thread rather than the one that made the change.
+ *
+ */
+public interface PersistenceListener {
+
+	/**
+	 * @param durability Whether the changes made so far have been saved
+	 */
+	void durabilityChanged(Durability durability);
+
+	/**
+	 * @param message What was being saved
+	 * @param cause   Why it failed
+	 */
+	void writeFailed(String message, Exception cause);
+}
@@ -0,0 +1,18 @@
+package application.model;
+
+/**
+ * How <code>SunBedCollection</code> saves changes to the journal.
+ *
+ */
+public enum PersistenceMode {
+	/** Every change is written to the journal as soon as it is made */
+	IMMEDIATE,
+	/**
+	 * Changes are queued and written together once per commit window, or sooner
+	 * if enough of them are waiting. The writing is done by the persistence
+	 * thread, so making a change never waits for the disk. Call
+	 * <code>flush()</code> to wait until every change made so far is on the
+	 * disk.
+	 */
+	GROUP_COMMIT
+}
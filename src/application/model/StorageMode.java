@@ -0,0 +1,21 @@
+package application.model;
+
+/**
+ * How <code>SunBedCollection</code> holds the sun beds in memory.
+ *
+ */
+public enum StorageMode {
+	/** A list of <code>SunBed</code> objects */
+	OBJECTS,
+	/**
+	 * One bit per sun bed for its booked flag plus its ID, with the number of
+	 * booked sun beds kept up to date on every change
+	 */
+	BITSET,
+	/**
+	 * Like <code>BITSET</code> but safe to share between threads. Booking and
+	 * releasing use compare-and-set on atomic words, so two attendants can never
+	 * both book the same sun bed
+	 */
+	CONCURRENT
+}
@@ -1,5 +1,8 @@
 package application.model;
 
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * The <code>SunBed</code> objects are only accessed through the
  * <code>SunBedCollection</code>
@@ -7,16 +10,36 @@ package application.model;
  * @author Josh James
  *
  */
-public class SunBed {
+public class SunBed implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private int ID;
     private boolean booked;
 
-    private static int nextID = 1;
+    // toList() also makes sun beds on the booking server's threads
+    private static final AtomicInteger nextID = new AtomicInteger(1);
 
+    /**
+     * Creates a sun bed outside a <code>SunBedCollection</code>, with an ID
+     * from a counter of its own. The collection gives the sun beds it holds
+     * their IDs.
+     */
     public SunBed() {
-        this.ID = nextID;
+        this.ID = nextID.getAndIncrement();
         this.booked = false;
-        nextID++;
+    }
+
+    /**
+     * Recreates a sun bed held by a <code>SunBedCollection</code>. Later sun
+     * beds created with <code>new SunBed()</code> are given IDs above this one.
+     *
+     * @param id     The ID of the sun bed
+     * @param booked If the sun bed is booked
+     */
+    SunBed(int id, boolean booked) {
+        this.ID = id;
+        this.booked = booked;
+        nextID.accumulateAndGet(id + 1, Math::max);
     }
 
     /**
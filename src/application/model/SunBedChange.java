@@ -0,0 +1,97 @@
+package application.model;
+
+/**
+ * Describes one change to a <code>SunBedCollection</code>. Positions refer to
+ * the collection after the change, except for removed sun beds which refer to
+ * the positions they had.
+ *
+ */
+public class SunBedChange {
+
+	/**
+	 * The kinds of change a collection reports.
+	 */
+	public enum Type {
+		/** The sun bed at <code>getFrom()</code> was booked or freed */
+		TOGGLED,
+		/** Sun beds were added at positions <code>getFrom()</code> to <code>getTo() - 1</code> */
+		ADDED,
+		/** Sun beds at positions <code>getFrom()</code> to <code>getTo() - 1</code> were removed */
+		REMOVED,
+		/** Every sun bed was made free */
+		ALL_FREED,
+		/** Every sun bed may have changed, for example after reading the data file */
+		REPLACED
+	}
+
+	private final Type type;
+	private final int from;
+	private final int to;
+	private final int id;
+	private final boolean booked;
+
+	private SunBedChange(Type type, int from, int to, int id, boolean booked) {
+		this.type = type;
+		this.from = from;
+		this.to = to;
+		this.id = id;
+		this.booked = booked;
+	}
+
+	public static SunBedChange toggled(int index, int id, boolean booked) {
+		return new SunBedChange(Type.TOGGLED, index, index + 1, id, booked);
+	}
+
+	public static SunBedChange added(int from, int to) {
+		return new SunBedChange(Type.ADDED, from, to, 0, false);
+	}
+
+	public static SunBedChange removed(int from, int to) {
+		return new SunBedChange(Type.REMOVED, from, to, 0, false);
+	}
+
+	public static SunBedChange allFreed(int count) {
+		return new SunBedChange(Type.ALL_FREED, 0, count, 0, false);
+	}
+
+	public static SunBedChange replaced(int count) {
+		return new SunBedChange(Type.REPLACED, 0, count, 0, false);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return int The first position affected
+	 */
+	public int getFrom() {
+		return from;
+	}
+
+	/**
+	 * @return int One past the last position affected
+	 */
+	public int getTo() {
+		return to;
+	}
+
+	/**
+	 * @return int For <code>TOGGLED</code>, the ID of the sun bed, otherwise 0
+	 */
+	public int getID() {
+		return id;
+	}
+
+	/**
+	 * @return boolean For <code>TOGGLED</code>, the new state of the sun bed
+	 */
+	public boolean isBooked() {
+		return booked;
+	}
+
+	@Override
+	public String toString() {
+		return type + " [" + from + ", " + to + ")" + (type == Type.TOGGLED ? " id=" + id + " booked=" + booked : "");
+	}
+}
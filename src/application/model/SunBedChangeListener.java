@@ -0,0 +1,15 @@
+package application.model;
+
+/**
+ * Receives the changes made to a <code>SunBedCollection</code>. Listeners are
+ * called on the thread that made the change, after it has been journaled.
+ *
+ */
+@FunctionalInterface
+public interface SunBedChangeListener {
+
+	/**
+	 * @param change What changed
+	 */
+	void sunBedsChanged(SunBedChange change);
+}
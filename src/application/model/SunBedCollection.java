@@ -1,47 +1,178 @@
 /**
- * 
+ *
  */
 package application.model;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import application.util.XMLDataExchange;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import application.util.MutationJournal;
+import application.util.PhaseTimer;
+import application.util.SnapshotFile;
 
 /**
  * Manages the collection of sun beds available in the application. There is no
  * direct access to a sun bed, all access is via this class. All changes must be
  * written out to file as they happen.
- * 
+ * <p>
+ * Sun beds are addressed by ID. IDs are handed out by the collection, saved in
+ * the data file and never change, so a sun bed keeps its ID across restarts
+ * and when sun beds before it are removed. The IDs of removed sun beds are
+ * reused. A sun bed also has a position, which is where it is shown and which
+ * moves down when a sun bed before it is removed.
+ * <p>
+ * A change is applied, saved and then reported to the
+ * <code>SunBedChangeListener</code>s on the thread that made it. Changes made
+ * together with <code>addSunBeds()</code>, <code>removeSunBeds()</code>,
+ * <code>setBooked()</code> or <code>batch()</code> are saved with one write and
+ * replayed all or not at all. Once <code>readDataFromFile()</code> returns the
+ * collection is as it was when the last change was saved. How and when
+ * changes reach the disk is up to <code>SunBedStore</code>, whether they have
+ * is reported to the <code>PersistenceListener</code>s.
+ * <p>
+ * The day and the reservations made for it and the days after are saved with
+ * the sun beds. <code>endDay()</code> frees every sun bed and starts the next
+ * day.
+ * <p>
+ * With <code>StorageMode.CONCURRENT</code> the collection may be shared by
+ * several attendant terminals. <code>toggleSunBed()</code>, <code>book()</code>
+ * and <code>release()</code> are then lock-free, while adding and removing sun
+ * beds is serialised. With the other storage modes those three take no lock
+ * at all, so every change must be made from one thread, e.g. the JavaFX
+ * application thread.
+ *
  * @author Josh James
  *
  */
 public class SunBedCollection {
+
+	/**
+	 * Makes changes inside <code>batch()</code>. Only valid until
+	 * <code>batch()</code> returns.
+	 */
+	public interface Mutator {
+		/**
+		 * @param count The number of free sun beds to add to the end
+		 */
+		void addSunBeds(int count);
+
+		/**
+		 * @param count The number of sun beds to remove from the end
+		 */
+		void removeSunBeds(int count);
+
+		/**
+		 * @param id The ID of the sun bed to remove
+		 */
+		void removeSunBed(int id);
+
+		/**
+		 * @param id     The ID of the sunbed as an int
+		 * @param booked The new state of the sun bed
+		 * @return boolean False if the sun bed already was in that state
+		 */
+		boolean setBooked(int id, boolean booked);
+
+		/**
+		 * @param id The ID of the sunbed as an int
+		 */
+		void toggleSunBed(int id);
+
+		void setAllSunBedsToFree();
+
+		int getCount();
+
+		boolean isOccupied(int id);
+
+		/**
+		 * @param position The position of a sun bed
+		 * @return int Its ID
+		 */
+		int getID(int position);
+	}
+
+	private static final Logger LOGGER = LogManager.getLogger(SunBedCollection.class);
 	private static volatile SunBedCollection instance = null;
-	private List<SunBed> sunBeds;
+	// Every collection created, flushed by one shutdown hook. Weak so tools
+	// creating many collections do not keep them all alive.
+	private static final Set<SunBedCollection> created = Collections.newSetFromMap(new WeakHashMap<>());
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(SunBedCollection::closeAll, "sunbed-shutdown"));
+	}
+	private volatile SunBedStorage storage;
+	private volatile StorageMode storageMode = StorageMode.BITSET;
 	// private static final String FILE_NAME_AND_LOCATION = "sunloungers.ser";
-	private static final String FILE_NAME_AND_LOCATION = "sunloungers.xml";
+	private static final String FILE_NAME_AND_LOCATION = "sunloungers.dat";
+
+	private final SunBedStore store;
+	private final List<SunBedChangeListener> listeners = new CopyOnWriteArrayList<>();
+	// Created by the first getChangeFeed()
+	private BedEventPublisher changeFeed;
+	// Created by the first getHistory()
+	private OccupancyHistory history;
+	// Created by getRollup(), one per row length
+	private final Map<Integer, OccupancyRollup> rollups = new HashMap<>();
+	// Created by the first getUndoHistory()
+	private UndoHistory undoHistory;
+	private final SunBedMetrics metrics;
+
+	// The IDs in use and where each sun bed is, rebuilt whenever the storage is
+	private SunBedIdAllocator idAllocator = new SunBedIdAllocator();
+	private SunBedIdIndex positions = new SunBedIdIndex();
+	// Held for writing while sun beds are added or removed or the storage is
+	// replaced, and for reading while a sun bed is found by its ID and changed.
+	// Always taken last, after the collection and the journal.
+	private final StampedLock layout = new StampedLock();
+	// How many days have been ended, only changed while holding the journal
+	private volatile int day;
+	// Guarded by the collection's lock
+	private final ReservationBook reservations = new ReservationBook();
+
+	private volatile CompletableFuture<Void> loading = CompletableFuture.completedFuture(null);
 
 	/**
 	 * An instance of this class can only be created by calling the
 	 * <code>getInstance()</code> method hence the constructor is private.
+	 *
+	 * @param dataFile Where the sun beds are saved
 	 */
-	private SunBedCollection() {
+	private SunBedCollection(Path dataFile) {
 		super();
-		sunBeds = new ArrayList<>();
+		storage = new BitSetSunBedStorage();
+		metrics = new SunBedMetrics(this, dataFile.getFileName().toString());
+		store = new SunBedStore(this, dataFile, metrics);
+		synchronized (created) {
+			created.add(this);
+		}
 	}
 
 	/**
 	 * Returns an object of this class. Ensures that only one instance is created.
 	 * This is an example of the singleton design pattern.
-	 * 
+	 *
 	 * @return The collection of sunbeds
 	 */
 	public static SunBedCollection getInstance() {
 		if (instance == null) {
 			synchronized (SunBedCollection.class) {
 				if (instance == null) {
-					instance = new SunBedCollection();
+					instance = new SunBedCollection(Paths.get(FILE_NAME_AND_LOCATION));
 				}
 			}
 		}
@@ -49,167 +180,1363 @@ public class SunBedCollection {
 	}
 
 	/**
+	 * Creates a collection that is separate from the one returned by
+	 * <code>getInstance()</code> and saved to its own data file. Used by tools
+	 * that must not touch the application's sun beds. Call
+	 * <code>readDataFromFile()</code> to load it.
+	 *
+	 * @param dataFile Where the sun beds are saved
+	 * @return The new collection of sunbeds
+	 */
+	public static SunBedCollection forFile(Path dataFile) {
+		return new SunBedCollection(dataFile);
+	}
+
+	/**
+	 * With <code>StorageMode.OBJECTS</code> this is the live list, otherwise it
+	 * is a copy and changing it does not change the collection.
+	 *
 	 * @return List<SunBed> return the sunBeds
 	 */
 	public List<SunBed> getSunBeds() {
-		return sunBeds;
+		return storage.toList();
 	}
 
 	/**
+	 * Replaces every sun bed and writes a new data file straight away. The sun
+	 * beds keep their IDs, and their reservations if they had any. The list is
+	 * copied, also with <code>StorageMode.OBJECTS</code>.
+	 *
 	 * @param sunBeds the sunBeds to set
+	 * @throws IllegalArgumentException If two sun beds have the same ID
 	 */
-	public void setSunBeds(List<SunBed> sunBeds) {
-		this.sunBeds = sunBeds;
+	public synchronized void setSunBeds(List<SunBed> sunBeds) {
+		SunBedIdAllocator unique = new SunBedIdAllocator();
+		for (SunBed s : sunBeds) {
+			if (!unique.claim(s.getID())) {
+				throw new IllegalArgumentException("More than one sun bed has ID " + s.getID());
+			}
+			if (positions.get(s.getID()) < 0) {
+				// Reservations left from a removed sun bed with the same ID
+				reservations.release(s.getID());
+			}
+		}
+		replaceStorage(new ObjectSunBedStorage(sunBeds).toContents());
 		try {
 			writeDataToFile();
 		} catch (Exception e) {
-			System.out.println("SunBedCollection write to file failed!");
-			e.printStackTrace();
+			writeFailed("SunBedCollection write to file failed!", e);
 		}
+		fire(SunBedChange.replaced(storage.size()));
 	}
 
 	/**
 	 * Used to get the total number of sun beds
-	 * 
+	 *
 	 * @return int The number of sun beds in the system
 	 */
 	public int getCount() {
-		return sunBeds.size();
+		return storage.size();
 	}
 
 	/**
 	 * Returns the number of sun beds available
-	 * 
+	 *
 	 * @return Returns the number of sunbeds that are currently free
 	 */
 	public int getCountFree() {
-		int count = 0;
-		for (SunBed s : sunBeds) {
-			if (!s.isBooked()) {
-				count++;
-			}
-		}
-		return count;
+		return storage.size() - storage.countBooked();
 	}
 
 	/**
 	 * Adds a sun bed to the end of the collection
+	 *
+	 * @return int The ID of the new sun bed
 	 */
-	public void addSunBed() {
-		sunBeds.add(new SunBed());
-		try {
-			writeDataToFile();
-		} catch (Exception e) {
-			System.out.println("SunBedCollection write to file failed!");
-			e.printStackTrace();
-		}
+	public synchronized int addSunBed() {
+		int size = appendSunBeds(1);
+		store.append(MutationJournal.OP_RESIZE, size, 0);
+		fire(SunBedChange.added(size - 1, size));
+		return storage.getID(size - 1);
 	}
 
 	/**
 	 * Removes the last sun bed from the end of the collection
 	 */
-	public void removeSunBed() {
-		sunBeds.remove(sunBeds.size() - 1);
+	public synchronized void removeSunBed() {
+		int size = storage.size();
+		Objects.checkIndex(size - 1, size);
+		truncateSunBeds(size - 1);
+		store.append(MutationJournal.OP_RESIZE, size - 1, 0);
+		fire(SunBedChange.removed(size - 1, size));
+	}
+
+	/**
+	 * Removes a sun bed wherever it is. The sun beds after it move down one
+	 * position and keep their IDs.
+	 *
+	 * @param id The ID of the sunbed as an int
+	 */
+	public synchronized void removeSunBed(int id) {
+		int position = removeById(id);
+		if (position < 0) {
+			throw noSuchSunBed(id);
+		}
+		store.append(MutationJournal.OP_REMOVE_BY_ID, id, 0);
+		fire(SunBedChange.removed(position, position + 1));
+	}
+
+	/**
+	 * Adds free sun beds to the end of the collection with one write.
+	 *
+	 * @param count The number of sun beds to add
+	 */
+	public void addSunBeds(int count) {
+		batch(m -> m.addSunBeds(count));
+	}
+
+	/**
+	 * Removes sun beds from the end of the collection with one write.
+	 *
+	 * @param count The number of sun beds to remove
+	 */
+	public void removeSunBeds(int count) {
+		batch(m -> m.removeSunBeds(count));
+	}
+
+	/**
+	 * Books or frees several sun beds with one write.
+	 *
+	 * @param ids    The IDs of the sun beds
+	 * @param booked The new state of the sun beds
+	 * @return int How many sun beds changed, not counting those already in
+	 *         that state or an ID given twice
+	 */
+	public int setBooked(int[] ids, boolean booked) {
+		int[] changed = new int[1];
+		batch(m -> {
+			for (int id : ids) {
+				if (m.setBooked(id, booked)) {
+					changed[0]++;
+				}
+			}
+		});
+		return changed[0];
+	}
+
+	/**
+	 * Makes several changes as one. They are journaled with one write and
+	 * replayed all or not at all after a crash. If <code>changes</code> throws,
+	 * everything it changed is put back, nothing is saved and the exception is
+	 * passed on.
+	 * <p>
+	 * Other batches and adding or removing sun beds wait for the batch to
+	 * finish. With <code>StorageMode.CONCURRENT</code> the lock-free
+	 * <code>toggleSunBed()</code>, <code>book()</code> and <code>release()</code>
+	 * do not wait.
+	 *
+	 * @param changes Makes the changes through the <code>Mutator</code> it is
+	 *                given
+	 */
+	public synchronized void batch(Consumer<Mutator> changes) {
+		BatchMutator mutator = new BatchMutator();
 		try {
-			writeDataToFile();
-		} catch (Exception e) {
-			System.out.println("SunBedCollection write to file failed!");
-			e.printStackTrace();
+			changes.accept(mutator);
+		} catch (RuntimeException | Error e) {
+			mutator.rollback();
+			throw e;
+		} finally {
+			mutator.done = true;
+		}
+		if (mutator.records.size() == 0) {
+			return;
+		}
+		store.append(mutator.records);
+		if (undoHistory == null) {
+			fire(mutator.changes);
+		} else {
+			undoHistory.group(() -> fire(mutator.changes));
 		}
 	}
 
 	/**
 	 * Passed the id of a sun bed, returns if the sun bed is occupied.
-	 * 
+	 *
 	 * @param id The ID of the sunbed as an int
 	 * @return Returns the state of the sunbed - free or occupied
+	 * @throws IllegalArgumentException If there is no sun bed with that ID
 	 */
 	public boolean isOccupied(int id) {
-		return sunBeds.get(id).isBooked();
-		
-/*		for (SunBed s : sunBeds) {
-			System.out.println("sunbed id: " + s.getID());
-			if (s. .getID() == id) {
-				return s.isBooked();
-			}
+		int state = bookedState(id);
+		if (state < 0) {
+			throw noSuchSunBed(id);
 		}
-		throw new IllegalStateException("Can not find a sunbed matching ID:" + id);
-*/
+		return state == 1;
 	}
 
 	/**
-	 * Set all sun beds to the free state
+	 * Returns if the sun bed shown at a position is occupied, for a view that
+	 * draws the sun beds in order.
+	 *
+	 * @param position The position of the sun bed
+	 * @return Returns the state of the sunbed - free or occupied
 	 */
-	public void setAllSunBedsToFree() {
-		for (SunBed s : sunBeds) {
-			if (s.isBooked())
-				s.setBooked(false);
+	public boolean isOccupiedAt(int position) {
+		return storage.isBooked(position);
+	}
+
+	/**
+	 * @param position The position of a sun bed, from 0 to
+	 *                 <code>getCount() - 1</code>
+	 * @return int The ID of the sun bed at that position
+	 */
+	public int getID(int position) {
+		return storage.getID(position);
+	}
+
+	/**
+	 * @param id The ID of a sun bed
+	 * @return int Its position, or -1 if there is no sun bed with that ID
+	 */
+	public int getPosition(int id) {
+		long stamp = layout.tryOptimisticRead();
+		int position = positions.get(id);
+		if (layout.validate(stamp)) {
+			return position;
+		}
+		stamp = layout.readLock();
+		try {
+			return positions.get(id);
+		} finally {
+			layout.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Finds free sun beds side by side for a group. The booked flags are
+	 * scanned 64 at a time, see <code>FreeBedFinder</code>, so this takes
+	 * microseconds even with 100,000 sun beds.
+	 *
+	 * @param n How many sun beds the group needs
+	 * @return int The position of the first of the first <code>n</code> free
+	 *         sun beds in a row, or -1 if there are none
+	 */
+	public int findFreeRun(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("A group needs at least one sun bed: " + n);
+		}
+		long stamp = layout.readLock();
+		try {
+			return FreeBedFinder.findFreeRun(storage, n);
+		} finally {
+			layout.unlockRead(stamp);
 		}
+	}
 
+	/**
+	 * Finds a block of free sun beds for a group, with the sun beds laid out in
+	 * rows of <code>rowLength</code> in position order as the grid shows them.
+	 *
+	 * @param rows      How many rows of sun beds the group needs
+	 * @param cols      How many sun beds side by side on each row
+	 * @param rowLength The number of sun beds on each row of the beach
+	 * @return int The position of the top left sun bed of the first block that
+	 *         is all free, or -1 if there is none
+	 */
+	public int findFreeBlock(int rows, int cols, int rowLength) {
+		if (rows < 1 || cols < 1 || rowLength < 1) {
+			throw new IllegalArgumentException("No sun beds in a block of " + rows + " x " + cols + " on rows of "
+					+ rowLength);
+		}
+		long stamp = layout.readLock();
 		try {
-			writeDataToFile();
-		} catch (Exception e) {
-			System.out.println("SunBedCollection write to file failed!");
-			e.printStackTrace();
+			return FreeBedFinder.findFreeBlock(storage, rows, cols, rowLength);
+		} finally {
+			layout.unlockRead(stamp);
 		}
 	}
 
 	/**
-	 * Clears the sunBeds list
+	 * Reserves a sun bed for a span of hours on a day, unless any of the hours
+	 * is already reserved.
+	 *
+	 * @param id       The ID of the sunbed as an int
+	 * @param day      The day, from <code>getDay()</code> on
+	 * @param fromHour The first hour, from 0 to 23
+	 * @param toHour   The hour the reservation ends, up to 24
+	 * @return boolean False if some of the hours were already reserved, then
+	 *         nothing is reserved
+	 * @throws IllegalArgumentException If there is no sun bed with that ID, the
+	 *                                  day has ended or is too far ahead, or the
+	 *                                  hours are not a span of the day
 	 */
-	public void clearSunBeds() {
-		sunBeds.clear();
+	public synchronized boolean reserve(int id, int day, int fromHour, int toHour) {
+		int hours = ReservationBook.hours(fromHour, toHour);
+		checkReservable(id);
+		if ((reservations.get(id, day) & hours) != 0) {
+			return false;
+		}
+		reservations.reserve(id, day, hours);
+		store.append(MutationJournal.OP_RESERVE, id, day << 10 | fromHour << 5 | toHour);
+		return true;
+	}
 
+	/**
+	 * Makes a sun bed free again for a span of hours on a day.
+	 *
+	 * @param id       The ID of the sunbed as an int
+	 * @param day      The day
+	 * @param fromHour The first hour, from 0 to 23
+	 * @param toHour   The hour the reservation ends, up to 24
+	 */
+	public synchronized void cancelReservation(int id, int day, int fromHour, int toHour) {
+		int hours = ReservationBook.hours(fromHour, toHour);
+		checkReservable(id);
+		if ((reservations.get(id, day) & hours) != 0) {
+			reservations.cancel(id, day, hours);
+			store.append(MutationJournal.OP_CANCEL_RESERVATION, id, day << 10 | fromHour << 5 | toHour);
+		}
+	}
+
+	/**
+	 * @param id       The ID of the sunbed as an int
+	 * @param day      The day, from <code>getDay()</code> on
+	 * @param fromHour The first hour, from 0 to 23
+	 * @param toHour   The hour to check up to, up to 24
+	 * @return boolean True if none of the hours is reserved
+	 * @throws IllegalArgumentException As for <code>reserve()</code>
+	 */
+	public synchronized boolean isFree(int id, int day, int fromHour, int toHour) {
+		int hours = ReservationBook.hours(fromHour, toHour);
+		checkReservable(id);
+		reservations.checkDay(day);
+		return (reservations.get(id, day) & hours) == 0;
+	}
+
+	/**
+	 * Finds the sun beds that are not reserved for any of a span of hours, e.g.
+	 * 14:00 to 16:00 is <code>findFreeSunBeds(day, 14, 16)</code>. One AND per
+	 * sun bed, however many reservations there are.
+	 *
+	 * @param day      The day, from <code>getDay()</code> on
+	 * @param fromHour The first hour, from 0 to 23
+	 * @param toHour   The hour the span ends, up to 24
+	 * @return int[] The IDs of the free sun beds, in position order
+	 * @throws IllegalArgumentException If the day has ended or is too far
+	 *                                  ahead, or the hours are not a span of
+	 *                                  the day
+	 */
+	public synchronized int[] findFreeSunBeds(int day, int fromHour, int toHour) {
+		int hours = ReservationBook.hours(fromHour, toHour);
+		reservations.checkDay(day);
+		return reservations.findFree(storage, day, hours);
+	}
+
+	/**
+	 * @param id   The ID of the sunbed as an int
+	 * @param day  The day to start looking on, from <code>getDay()</code> on
+	 * @param hour The hour to start looking at, from 0 to 23
+	 * @return int The first hour from then on the sun bed is not reserved, as
+	 *         <code>day * 24 + hour</code>
+	 * @throws IllegalArgumentException As for <code>reserve()</code>
+	 */
+	public synchronized int nextFreeHour(int id, int day, int hour) {
+		ReservationBook.hours(hour, hour + 1);
+		checkReservable(id);
+		reservations.checkDay(day);
+		return reservations.nextFreeHour(id, day, hour);
+	}
+
+	private void checkReservable(int id) {
+		if (positions.get(id) < 0) {
+			throw noSuchSunBed(id);
+		}
+	}
+
+	/**
+	 * Set all sun beds to the free state
+	 */
+	public synchronized void setAllSunBedsToFree() {
+		storage.freeAll();
+		store.append(MutationJournal.OP_FREE_ALL, 0, 0);
+		fire(SunBedChange.allFreed(storage.size()));
+	}
+
+	/**
+	 * Ends the day. Every sun bed is made free and the sun beds themselves are
+	 * kept. However many sun beds there are this costs O(1) with
+	 * <code>StorageMode.BITSET</code> and one journal record. The sun beds as
+	 * they were at the end of the day are archived by a background thread,
+	 * which also writes a new data file.
+	 *
+	 * @return int The number of the day that was ended, see
+	 *         <code>readArchivedDay()</code>
+	 */
+	public synchronized int endDay() {
+		int ended = day;
 		try {
-			writeDataToFile();
+			ended = store.endDay(next -> {
+				storage.freeAll();
+				day = next;
+				reservations.dropBefore(next);
+			});
 		} catch (Exception e) {
-			System.out.println("SunBedCollection write to file failed!");
-			e.printStackTrace();
+			writeFailed("SunBedCollection end of day failed!", e);
+		}
+		fire(SunBedChange.allFreed(storage.size()));
+		if (undoHistory != null) {
+			undoHistory.reset();
+		}
+		return ended;
+	}
+
+	/**
+	 * @return int The number of the current day, 0 until
+	 *         <code>endDay()</code> is first called
+	 */
+	public int getDay() {
+		return day;
+	}
+
+	/**
+	 * Reads how the sun beds were when a day was ended. The archive of a day
+	 * just ended may still be being written, call <code>close()</code> first
+	 * to wait for it.
+	 *
+	 * @param day The number <code>endDay()</code> returned
+	 * @return SnapshotFile.Contents The sun beds at the end of that day
+	 * @throws IOException If the day was not archived
+	 */
+	public SnapshotFile.Contents readArchivedDay(int day) throws IOException {
+		return store.readArchivedDay(day);
+	}
+
+	/**
+	 * Clears the sunBeds list
+	 */
+	public synchronized void clearSunBeds() {
+		int size = storage.size();
+		truncateSunBeds(0);
+		store.append(MutationJournal.OP_RESIZE, 0, 0);
+		if (size > 0) {
+			fire(SunBedChange.removed(0, size));
 		}
 	}
 
 	/**
-	 * Passed the id of a sun bed, toggles its state between free and occupied
-	 * 
+	 * Passed the id of a sun bed, toggles its state between free and occupied.
+	 * Safe to call from several threads at once only with
+	 * <code>StorageMode.CONCURRENT</code>. With the other storage modes it
+	 * takes no lock and must be called from the one thread that makes every
+	 * change.
+	 *
 	 * @param id The ID of the sunbed as an int
 	 */
 	public void toggleSunBed(int id) {
-		
-		sunBeds.get(id).toggleBooked();
-/*		
-		for (SunBed s : sunBeds) {
-			if (s.getID() == id) {
-				s.toggleBooked();
+		long started = System.nanoTime();
+		int position;
+		boolean booked;
+		long stamp = lockForChange();
+		try {
+			position = positionOf(id);
+			booked = storage.toggle(position);
+		} finally {
+			unlockForChange(stamp);
+		}
+		store.appendBooked(id);
+		fire(SunBedChange.toggled(position, id, booked));
+		metrics.recordToggle(System.nanoTime() - started);
+	}
+
+	/**
+	 * Books a sun bed if it is free. With <code>StorageMode.CONCURRENT</code>,
+	 * when several attendants try to book the same sun bed at once exactly one
+	 * of them succeeds. The other storage modes take no lock, there it must
+	 * only be called from the one thread that makes every change.
+	 *
+	 * @param id The ID of the sunbed as an int
+	 * @return boolean True if the sun bed was free and is now booked
+	 */
+	public boolean book(int id) {
+		long started = System.nanoTime();
+		boolean booked = compareAndSet(id, false, true);
+		metrics.recordToggle(System.nanoTime() - started);
+		return booked;
+	}
+
+	/**
+	 * Makes a booked sun bed free again. Like <code>book()</code> it may only
+	 * be called from several threads at once with
+	 * <code>StorageMode.CONCURRENT</code>.
+	 *
+	 * @param id The ID of the sunbed as an int
+	 * @return boolean True if the sun bed was booked and is now free
+	 */
+	public boolean release(int id) {
+		long started = System.nanoTime();
+		boolean released = compareAndSet(id, true, false);
+		metrics.recordToggle(System.nanoTime() - started);
+		return released;
+	}
+
+	private boolean compareAndSet(int id, boolean expect, boolean update) {
+		int position;
+		long stamp = lockForChange();
+		try {
+			position = positionOf(id);
+			if (!storage.compareAndSet(position, expect, update)) {
+				return false;
 			}
+		} finally {
+			unlockForChange(stamp);
 		}
-*/
+		store.appendBooked(id);
+		fire(SunBedChange.toggled(position, id, update));
+		return true;
+	}
+
+	/**
+	 * Registers a listener to be told about every change to the sun beds. It is
+	 * called on the thread that made the change.
+	 *
+	 * @param listener The listener to add
+	 */
+	public void addChangeListener(SunBedChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener The listener to remove
+	 */
+	public void removeChangeListener(SunBedChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * The changes to the sun beds as a <code>Flow.Publisher</code>. Unlike a
+	 * change listener a subscriber is called on a thread of its own with the
+	 * events it has requested, and one that falls behind does not slow down
+	 * booking, see <code>BedEventPublisher</code>.
+	 *
+	 * @return BedEventPublisher The change feed, the same one every time
+	 */
+	public synchronized BedEventPublisher getChangeFeed() {
+		if (changeFeed == null) {
+			changeFeed = new BedEventPublisher();
+			addChangeListener(changeFeed::publish);
+		}
+		return changeFeed;
+	}
+
+	/**
+	 * Starts recording every time a sun bed is booked or freed, from now on and
+	 * across restarts, kept in a directory next to the data file. Call it after
+	 * <code>readDataFromFile()</code> so the history continues the right day.
+	 *
+	 * @return OccupancyHistory The history, the same one every time until it is
+	 *         closed
+	 * @throws IOException If the history of the current day can not be read
+	 */
+	public synchronized OccupancyHistory getHistory() throws IOException {
+		if (history == null || history.isClosed()) {
+			history = OccupancyHistory.follow(this, store.getHistoryDirectory());
+		}
+		return history;
+	}
+
+	/**
+	 * Counts the free sun beds of each row as they change, see
+	 * <code>OccupancyRollup</code>.
+	 *
+	 * @param rowLength The number of sun beds on each row of the beach
+	 * @return OccupancyRollup The rollup, the same one every time for that row
+	 *         length
+	 */
+	public synchronized OccupancyRollup getRollup(int rowLength) {
+		OccupancyRollup rollup = rollups.get(rowLength);
+		if (rollup == null) {
+			rollup = new OccupancyRollup(this, rowLength);
+			addChangeListener(rollup::sunBedsChanged);
+			rollup.rebuild();
+			rollups.put(rowLength, rollup);
+		}
+		return rollup;
+	}
+
+	/**
+	 * Starts keeping the changes made from now on so they can be undone, see
+	 * <code>UndoHistory</code>. Reading the data file or ending the day starts
+	 * it again.
+	 *
+	 * @return UndoHistory The history, the same one every time
+	 */
+	public synchronized UndoHistory getUndoHistory() {
+		if (undoHistory == null) {
+			undoHistory = new UndoHistory(this);
+			addChangeListener(undoHistory::sunBedsChanged);
+			undoHistory.reset();
+		}
+		return undoHistory;
+	}
+
+	/**
+	 * Passes a copy of the booked flags, in the layout of
+	 * <code>SnapshotFile</code>, and the number of sun beds to
+	 * <code>reader</code> while no sun beds can be added or removed.
+	 */
+	void readBooked(ObjIntConsumer<long[]> reader) {
+		long stamp = layout.readLock();
+		try {
+			int size = storage.size();
+			long[] words = new long[SnapshotFile.words(size)];
+			for (int w = 0; w < words.length; w++) {
+				words[w] = storage.getBookedWord(w);
+			}
+			reader.accept(words, size);
+		} finally {
+			layout.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Passes the storage to <code>reader</code> while no sun beds can be added
+	 * or removed. With <code>StorageMode.CONCURRENT</code> sun beds may still
+	 * be booked and freed meanwhile.
+	 */
+	<T> T readStorage(Function<SunBedStorage, T> reader) {
+		long stamp = layout.readLock();
+		try {
+			return reader.apply(storage);
+		} finally {
+			layout.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Replaces every sun bed with those of <code>contents</code>, IDs and all,
+	 * and writes a new data file, to put back sun beds that were added, removed
+	 * or moved. Unlike <code>setSunBeds()</code> the reservations of sun beds
+	 * coming back are kept.
+	 *
+	 * @param contents The sun beds as they should be
+	 */
+	synchronized void restore(SnapshotFile.Contents contents) {
+		replaceStorage(contents);
 		try {
 			writeDataToFile();
 		} catch (Exception e) {
-			System.out.println("SunBedCollection write to file failed!");
-			e.printStackTrace();
+			writeFailed("SunBedCollection write to file failed!", e);
+		}
+		fire(SunBedChange.replaced(storage.size()));
+	}
+
+	/**
+	 * @return SunBedMetrics How the collection is performing, see
+	 *         <code>SunBedMetrics</code>
+	 */
+	public SunBedMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Registers a listener to be told whether changes have been saved and about
+	 * failed writes.
+	 *
+	 * @param listener The listener to add
+	 */
+	public void addPersistenceListener(PersistenceListener listener) {
+		store.addPersistenceListener(listener);
+	}
+
+	/**
+	 * @param listener The listener to remove
+	 */
+	public void removePersistenceListener(PersistenceListener listener) {
+		store.removePersistenceListener(listener);
+	}
+
+	/**
+	 * @return Durability Whether the changes made so far have been saved
+	 */
+	public Durability getDurability() {
+		return store.getDurability();
+	}
+
+	/**
+	 * @return long How many times changes have been written to the journal
+	 *         since it was opened
+	 */
+	public long getJournalWriteCount() {
+		return store.getJournalWriteCount();
+	}
+
+	/**
+	 * @return StorageMode How the sun beds are held in memory
+	 */
+	public StorageMode getStorageMode() {
+		return storageMode;
+	}
+
+	/**
+	 * Chooses how the sun beds are held in memory, moving the current sun beds
+	 * over to the new storage.
+	 *
+	 * @param mode How the sun beds are held in memory
+	 */
+	public synchronized void setStorageMode(StorageMode mode) {
+		if (mode != storageMode) {
+			storageMode = mode;
+			long stamp = layout.writeLock();
+			try {
+				storage = createStorage(storage.toContents());
+			} finally {
+				layout.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * @return long The journal size in bytes after which it is folded into a new
+	 *         data file
+	 */
+	public long getJournalCompactionThreshold() {
+		return store.getJournalCompactionThreshold();
+	}
+
+	/**
+	 * @param bytes The journal size in bytes after which it is folded into a new
+	 *              data file
+	 */
+	public void setJournalCompactionThreshold(long bytes) {
+		store.setJournalCompactionThreshold(bytes);
+	}
+
+	/**
+	 * @return PersistenceMode How changes are saved to the journal
+	 */
+	public PersistenceMode getPersistenceMode() {
+		return store.getPersistenceMode();
+	}
+
+	/**
+	 * Chooses how changes are saved. Switching back to
+	 * <code>PersistenceMode.IMMEDIATE</code> writes out anything still queued.
+	 *
+	 * @param mode How changes are saved to the journal
+	 */
+	public synchronized void setPersistenceMode(PersistenceMode mode) {
+		store.setPersistenceMode(mode);
+	}
+
+	/**
+	 * Sets when queued changes are written in
+	 * <code>PersistenceMode.GROUP_COMMIT</code>: once every
+	 * <code>windowMillis</code>, or straight away once
+	 * <code>maxMutations</code> changes are waiting.
+	 *
+	 * @param windowMillis The commit window in milliseconds
+	 * @param maxMutations The number of queued changes that forces a write
+	 */
+	public synchronized void setGroupCommitWindow(long windowMillis, int maxMutations) {
+		store.setGroupCommitWindow(windowMillis, maxMutations);
+	}
+
+	/**
+	 * Blocks until every change made so far is on the disk.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		store.flush();
+	}
+
+	/**
+	 * Writes out every queued change and closes the journal. A change made
+	 * afterwards opens the journal again.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		store.close();
+		if (history != null) {
+			history.flush();
 		}
 	}
 
 	/**
 	 * Read sun bed data from file. If there is an error the method must throw it.
-	 * 
+	 * The journal is replayed on top of the data file, so the collection ends up
+	 * as it was when the last change was made. A missing data file is treated as
+	 * an empty collection, unless there is an XML file from an earlier version to
+	 * import. Sun beds saved by versions that did not keep their IDs apart, or
+	 * without an ID, are given new IDs and the data file is written again.
+	 *
 	 * @throws IOException
 	 */
-	@SuppressWarnings("unchecked")
 	public void readDataFromFile() throws IOException {
-		if (XMLDataExchange.readData(FILE_NAME_AND_LOCATION) instanceof List<?>) {
-			sunBeds = (List<SunBed>) XMLDataExchange.readData(FILE_NAME_AND_LOCATION);
+		readDataFromFile(new PhaseTimer());
+	}
+
+	/**
+	 * Same as <code>readDataFromFile()</code>, recording how long each phase
+	 * takes: <code>io</code> and <code>parse</code> of the data file,
+	 * <code>model build</code> and <code>journal replay</code>, and
+	 * <code>legacy import</code> if there was an XML file to import.
+	 *
+	 * @param timer Records the time of each phase
+	 * @throws IOException
+	 */
+	public synchronized void readDataFromFile(PhaseTimer timer) throws IOException {
+		long started = System.nanoTime();
+		SnapshotFile.Contents contents = store.read(timer);
+		long t = System.nanoTime();
+		int renumbered = load(contents);
+		if (renumbered > 0) {
+			LOGGER.warn("Gave {} sun beds with a missing or repeated ID a new ID", renumbered);
 		}
+		t = timer.record("model build", t);
+
+		if (store.replay(this::replay) || renumbered > 0) {
+			writeDataToFile();
+		}
+		timer.record("journal replay", t);
+		metrics.recordLoad(System.nanoTime() - started);
+		fire(SunBedChange.replaced(storage.size()));
+		if (undoHistory != null) {
+			undoHistory.reset();
+		}
+	}
+
+	/**
+	 * Starts <code>readDataFromFile()</code> on a background thread, so a window
+	 * can open while a large data file loads. Until it finishes the collection
+	 * must not be changed. Listeners are told about the loaded sun beds with a
+	 * <code>REPLACED</code> change.
+	 *
+	 * @param timer Records the time of each phase
+	 * @return CompletableFuture<Void> Completes when the sun beds are loaded,
+	 *         or with the exception that stopped them loading
+	 */
+	public CompletableFuture<Void> readDataFromFileInBackground(PhaseTimer timer) {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		loading = done;
+		Thread loader = new Thread(() -> {
+			try {
+				readDataFromFile(timer);
+				done.complete(null);
+			} catch (Throwable e) {
+				done.completeExceptionally(e);
+			}
+		}, "sunbed-loader");
+		loader.setDaemon(true);
+		loader.start();
+		return done;
+	}
+
+	/**
+	 * @return CompletableFuture<Void> The load started by
+	 *         <code>readDataFromFileInBackground()</code>, already complete if
+	 *         there is none
+	 */
+	public CompletableFuture<Void> getLoading() {
+		return loading;
+	}
+
+	/**
+	 * @return long The size in bytes of the files <code>readDataFromFile()</code>
+	 *         would read, to decide whether to load them in the background
+	 */
+	public long getStoredBytes() {
+		return store.getStoredBytes();
 	}
 
 	/**
 	 * Write sun bed data out to file. If there is an error the method must throw
-	 * it.
-	 * 
+	 * it. Once the data file is written the journal is emptied.
+	 *
 	 * @throws IOException
 	 */
-	public void writeDataToFile() throws IOException {
-		XMLDataExchange.writeData(sunBeds, FILE_NAME_AND_LOCATION);
+	public synchronized void writeDataToFile() throws IOException {
+		store.writeDataFile();
+	}
+
+	/**
+	 * Applies one journal record to the sun beds.
+	 */
+	void replay(int op, int a, int b) {
+		switch (op) {
+		case MutationJournal.OP_SET_BOOKED:
+			if (a >= 0 && a < storage.size()) {
+				storage.setBooked(a, b != 0);
+			}
+			break;
+		case MutationJournal.OP_SET_BOOKED_BY_ID:
+			int position = positions.get(a);
+			if (position >= 0) {
+				storage.setBooked(position, b != 0);
+			}
+			break;
+		case MutationJournal.OP_RESIZE:
+			if (a < storage.size()) {
+				truncateSunBeds(a);
+			} else {
+				appendSunBeds(a - storage.size());
+			}
+			break;
+		case MutationJournal.OP_REMOVE_BY_ID:
+			removeById(a);
+			break;
+		case MutationJournal.OP_FREE_ALL:
+			storage.freeAll();
+			break;
+		case MutationJournal.OP_END_DAY:
+			// Already in the data file if the archive thread got that far
+			if (a > day) {
+				storage.freeAll();
+				day = a;
+				reservations.dropBefore(a);
+			}
+			break;
+		case MutationJournal.OP_RESERVE:
+			if (b >>> 10 >= reservations.getFirstDay()) {
+				reservations.reserve(a, b >>> 10, ReservationBook.hours((b >>> 5) & 31, b & 31));
+			}
+			break;
+		case MutationJournal.OP_CANCEL_RESERVATION:
+			reservations.cancel(a, b >>> 10, ReservationBook.hours((b >>> 5) & 31, b & 31));
+			break;
+		default:
+			throw new IllegalStateException("Unknown journal operation: " + op);
+		}
+	}
+
+	/**
+	 * Tells the listeners about a change. A failing listener does not stop the
+	 * others being told.
+	 */
+	private void fire(SunBedChange change) {
+		for (SunBedChangeListener listener : listeners) {
+			try {
+				listener.sunBedsChanged(change);
+			} catch (RuntimeException e) {
+				LOGGER.error("SunBedCollection change listener failed!", e);
+			}
+		}
+	}
+
+	private void fire(List<SunBedChange> changes) {
+		for (SunBedChange change : changes) {
+			fire(change);
+		}
+	}
+
+	/**
+	 * Reports a failed write, see <code>SunBedStore.writeFailed()</code>. Also
+	 * used by the occupancy history for its own files.
+	 */
+	void writeFailed(String message, Exception cause) {
+		store.writeFailed(message, cause);
+	}
+
+	private static void closeAll() {
+		List<SunBedCollection> open;
+		synchronized (created) {
+			open = new ArrayList<>(created);
+		}
+		for (SunBedCollection collection : open) {
+			collection.closeQuietly();
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (Exception e) {
+			writeFailed("SunBedCollection write to file failed!", e);
+		}
+	}
+
+	/**
+	 * A copy of the sun beds and the day, taken while no sun beds can be added
+	 * or removed.
+	 */
+	SnapshotFile.Contents captureContents() {
+		long stamp = layout.readLock();
+		try {
+			SnapshotFile.Contents c = storage.toContents();
+			return new SnapshotFile.Contents(c.getCount(), c.getBooked(), c.getIds(), day, reservations.toInts());
+		} finally {
+			layout.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Stops sun beds being added or removed while one is found by its ID and
+	 * changed. Only needed with <code>StorageMode.CONCURRENT</code>, the other
+	 * storage modes are only changed from one thread, as the javadoc of
+	 * <code>toggleSunBed()</code>, <code>book()</code> and
+	 * <code>release()</code> requires.
+	 *
+	 * @return long The stamp to pass to <code>unlockForChange()</code>
+	 */
+	private long lockForChange() {
+		return storageMode == StorageMode.CONCURRENT ? layout.readLock() : 0L;
+	}
+
+	private void unlockForChange(long stamp) {
+		if (stamp != 0L) {
+			layout.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Reads the state of a sun bed without taking the layout lock, unless sun
+	 * beds were added or removed while reading.
+	 *
+	 * @return int 1 if the sun bed with the ID is booked, 0 if it is free, -1 if
+	 *         there is none
+	 */
+	int bookedState(int id) {
+		long stamp = layout.tryOptimisticRead();
+		try {
+			int position = positions.get(id);
+			int state = position < 0 ? -1 : storage.isBooked(position) ? 1 : 0;
+			if (layout.validate(stamp)) {
+				return state;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// Read part way through a change, read again under the lock
+		}
+		stamp = layout.readLock();
+		try {
+			int position = positions.get(id);
+			return position < 0 ? -1 : storage.isBooked(position) ? 1 : 0;
+		} finally {
+			layout.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Caller holds the layout lock, or the collection's lock which every
+	 * change to the positions is made under.
+	 */
+	private int positionOf(int id) {
+		int position = positions.get(id);
+		if (position < 0) {
+			throw noSuchSunBed(id);
+		}
+		return position;
+	}
+
+	private static IllegalArgumentException noSuchSunBed(int id) {
+		return new IllegalArgumentException("No sun bed with ID " + id);
+	}
+
+	/**
+	 * Replaces the storage with one holding <code>contents</code> and rebuilds
+	 * the IDs in use and the ID index from it. A sun bed with a missing or
+	 * repeated ID, e.g. saved before IDs were kept apart, is given a new ID in
+	 * <code>contents</code>. Doing so in position order, after every valid ID is
+	 * claimed, gives the same IDs however often the same data file is read.
+	 *
+	 * @return int The number of sun beds given a new ID
+	 */
+	private int replaceStorage(SnapshotFile.Contents contents) {
+		int count = contents.getCount();
+		int[] ids = contents.getIds();
+		SunBedIdAllocator allocator = new SunBedIdAllocator();
+		SunBedIdIndex index = new SunBedIdIndex(count);
+		int renumbered = 0;
+		for (int i = 0; i < count; i++) {
+			if (ids[i] > 0 && allocator.claim(ids[i])) {
+				index.put(ids[i], i);
+			} else {
+				ids[i] = 0;
+				renumbered++;
+			}
+		}
+		for (int i = 0; renumbered > 0 && i < count; i++) {
+			if (ids[i] == 0) {
+				ids[i] = allocator.allocate();
+				index.put(ids[i], i);
+			}
+		}
+		SunBedStorage created = createStorage(contents);
+
+		long stamp = layout.writeLock();
+		try {
+			storage = created;
+			idAllocator = allocator;
+			positions = index;
+		} finally {
+			layout.unlockWrite(stamp);
+		}
+		return renumbered;
+	}
+
+	/**
+	 * Adds free sun beds with new IDs to the end.
+	 *
+	 * @return int The number of sun beds now
+	 */
+	private int appendSunBeds(int count) {
+		long stamp = layout.writeLock();
+		try {
+			for (int i = 0; i < count; i++) {
+				int id = idAllocator.allocate();
+				// Reservations left from a removed sun bed with the same ID
+				reservations.release(id);
+				positions.put(id, storage.size());
+				storage.add(id, false);
+			}
+			return storage.size();
+		} finally {
+			layout.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Adds sun beds back to the end with the IDs and states they had, to undo
+	 * removing them.
+	 */
+	private void restoreSunBeds(int[] ids, boolean[] booked) {
+		long stamp = layout.writeLock();
+		try {
+			for (int i = 0; i < ids.length; i++) {
+				idAllocator.claim(ids[i]);
+				positions.put(ids[i], storage.size());
+				storage.add(ids[i], booked[i]);
+			}
+		} finally {
+			layout.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes sun beds from the end until <code>size</code> are left, freeing
+	 * their IDs.
+	 */
+	private void truncateSunBeds(int size) {
+		long stamp = layout.writeLock();
+		try {
+			if (size == 0) {
+				storage.clear();
+				positions.clear();
+				idAllocator.clear();
+				return;
+			}
+			while (storage.size() > size) {
+				int id = storage.getID(storage.size() - 1);
+				storage.removeLast();
+				positions.remove(id);
+				idAllocator.release(id);
+			}
+		} finally {
+			layout.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the sun bed with an ID, moving the sun beds after it down.
+	 *
+	 * @return int The position it had, or -1 if there is no sun bed with that ID
+	 */
+	private int removeById(int id) {
+		long stamp = layout.writeLock();
+		try {
+			int position = positions.remove(id);
+			if (position < 0) {
+				return -1;
+			}
+			storage.remove(position);
+			for (int i = position; i < storage.size(); i++) {
+				positions.put(storage.getID(i), i);
+			}
+			idAllocator.release(id);
+			return position;
+		} finally {
+			layout.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Creates storage of the current <code>StorageMode</code> holding the sun
+	 * beds in <code>contents</code>.
+	 */
+	private SunBedStorage createStorage(SnapshotFile.Contents contents) {
+		switch (storageMode) {
+		case OBJECTS:
+			return new ObjectSunBedStorage(contents);
+		case CONCURRENT:
+			return new AtomicBitSetSunBedStorage(contents);
+		default:
+			return new BitSetSunBedStorage(contents);
+		}
+	}
+
+	/**
+	 * Replaces every sun bed, the day and the reservations with those read from
+	 * a data file.
+	 *
+	 * @return int The number of sun beds given a new ID, see
+	 *         <code>replaceStorage()</code>
+	 * @throws IOException If the reservations are not valid
+	 */
+	int load(SnapshotFile.Contents contents) throws IOException {
+		int renumbered = replaceStorage(contents);
+		day = contents.getDay();
+		try {
+			reservations.fromInts(contents.getReservations(), day);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Bad reservations in " + store.getDataFile(), e);
+		}
+		return renumbered;
+	}
+
+	/**
+	 * Applies the changes of a batch straight away and remembers how to journal,
+	 * report and undo them. Only used while holding the collection's lock, so
+	 * no other thread adds or removes sun beds meanwhile. Lock-free toggles may
+	 * still change a sun bed the batch changed, so undoing puts a sun bed back
+	 * only if it is still as the batch left it.
+	 */
+	private final class BatchMutator implements Mutator {
+		final MutationJournal.Batch records = new MutationJournal.Batch();
+		final List<SunBedChange> changes = new ArrayList<>();
+		private final List<Runnable> undo = new ArrayList<>();
+		boolean done;
+
+		@Override
+		public void addSunBeds(int count) {
+			checkOpen();
+			if (count < 0) {
+				throw new IllegalArgumentException("Can not add " + count + " sun beds");
+			}
+			if (count == 0) {
+				return;
+			}
+			int from = storage.size();
+			undo.add(() -> truncateSunBeds(from));
+			appendSunBeds(count);
+			records.add(MutationJournal.OP_RESIZE, from + count, 0);
+			changes.add(SunBedChange.added(from, from + count));
+		}
+
+		@Override
+		public void removeSunBeds(int count) {
+			checkOpen();
+			int size = storage.size();
+			if (count < 0 || count > size) {
+				throw new IllegalArgumentException("Can not remove " + count + " of " + size + " sun beds");
+			}
+			if (count == 0) {
+				return;
+			}
+			int to = size - count;
+			rememberFrom(to);
+			truncateSunBeds(to);
+			records.add(MutationJournal.OP_RESIZE, to, 0);
+			changes.add(SunBedChange.removed(to, size));
+		}
+
+		@Override
+		public void removeSunBed(int id) {
+			checkOpen();
+			int position = positionOf(id);
+			rememberFrom(position);
+			removeById(id);
+			records.add(MutationJournal.OP_REMOVE_BY_ID, id, 0);
+			changes.add(SunBedChange.removed(position, position + 1));
+		}
+
+		/**
+		 * Saves the IDs and states of the sun beds from <code>position</code> on,
+		 * so they can be put back as they were.
+		 */
+		private void rememberFrom(int position) {
+			int count = storage.size() - position;
+			int[] ids = new int[count];
+			boolean[] booked = new boolean[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = storage.getID(position + i);
+				booked[i] = storage.isBooked(position + i);
+			}
+			undo.add(() -> {
+				truncateSunBeds(position);
+				restoreSunBeds(ids, booked);
+			});
+		}
+
+		@Override
+		public boolean setBooked(int id, boolean booked) {
+			checkOpen();
+			int position = positionOf(id);
+			if (storage.setBooked(position, booked) == booked) {
+				return false;
+			}
+			undo.add(() -> storage.compareAndSet(position, booked, !booked));
+			records.add(MutationJournal.OP_SET_BOOKED_BY_ID, id, booked ? 1 : 0);
+			changes.add(SunBedChange.toggled(position, id, booked));
+			return true;
+		}
+
+		@Override
+		public void toggleSunBed(int id) {
+			checkOpen();
+			int position = positionOf(id);
+			boolean booked = storage.toggle(position);
+			undo.add(() -> storage.compareAndSet(position, booked, !booked));
+			records.add(MutationJournal.OP_SET_BOOKED_BY_ID, id, booked ? 1 : 0);
+			changes.add(SunBedChange.toggled(position, id, booked));
+		}
+
+		@Override
+		public void setAllSunBedsToFree() {
+			checkOpen();
+			long[] booked = storage.toContents().getBooked();
+			undo.add(() -> {
+				for (int w = 0; w < booked.length; w++) {
+					for (long bits = booked[w]; bits != 0; bits &= bits - 1) {
+						storage.compareAndSet((w << 6) + Long.numberOfTrailingZeros(bits), false, true);
+					}
+				}
+			});
+			storage.freeAll();
+			records.add(MutationJournal.OP_FREE_ALL, 0, 0);
+			changes.add(SunBedChange.allFreed(storage.size()));
+		}
+
+		@Override
+		public int getCount() {
+			checkOpen();
+			return storage.size();
+		}
+
+		@Override
+		public boolean isOccupied(int id) {
+			checkOpen();
+			return storage.isBooked(positionOf(id));
+		}
+
+		@Override
+		public int getID(int position) {
+			checkOpen();
+			return storage.getID(position);
+		}
+
+		/**
+		 * Undoes the changes made so far, newest first.
+		 */
+		void rollback() {
+			for (int i = undo.size() - 1; i >= 0; i--) {
+				undo.get(i).run();
+			}
+		}
+
+		private void checkOpen() {
+			if (done) {
+				throw new IllegalStateException("The batch has finished");
+			}
+		}
 	}
 }
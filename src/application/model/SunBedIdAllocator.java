@@ -0,0 +1,98 @@
+package application.model;
+
+import java.util.Arrays;
+
+/**
+ * Hands out the IDs of the sun beds of one <code>SunBedCollection</code>. The
+ * IDs of removed sun beds go on a free list and are handed out again, lowest
+ * first. The free list is a bitset, bit <code>id % 64</code> of word
+ * <code>id / 64</code> set while <code>id</code> is free.
+ * <p>
+ * Reusing the lowest free ID means the IDs handed out only depend on the IDs
+ * in use, not on the order sun beds were removed in. The allocator therefore
+ * never needs saving: rebuilt from the IDs in the data file with
+ * <code>claim()</code>, it hands out the same IDs as before the restart, so
+ * replaying the journal gives every sun bed the ID it had.
+ * <p>
+ * Not thread safe, <code>SunBedCollection</code> guards it with its layout
+ * lock.
+ *
+ */
+class SunBedIdAllocator {
+	private long[] free = new long[1];
+	// Every ID from here on has never been handed out
+	private int next = 1;
+	// No ID below this is free
+	private int lowestFree = 1;
+
+	/**
+	 * @return int The lowest free ID, now in use
+	 */
+	int allocate() {
+		for (int w = lowestFree >>> 6; w < free.length && (w << 6) < next; w++) {
+			long word = free[w];
+			if (w == lowestFree >>> 6) {
+				word &= -1L << lowestFree;
+			}
+			if (word != 0) {
+				int id = (w << 6) + Long.numberOfTrailingZeros(word);
+				free[w] &= ~(1L << id);
+				lowestFree = id + 1;
+				return id;
+			}
+		}
+		if (next == Integer.MAX_VALUE) {
+			throw new IllegalStateException("No sun bed IDs left");
+		}
+		lowestFree = next + 1;
+		return next++;
+	}
+
+	/**
+	 * Marks an ID as in use, e.g. one read from the data file. IDs between the
+	 * highest handed out so far and this one become free.
+	 *
+	 * @param id The ID, greater than 0
+	 * @return boolean False if it was already in use
+	 */
+	boolean claim(int id) {
+		if (id <= 0) {
+			throw new IllegalArgumentException("Sun bed IDs must be positive: " + id);
+		}
+		if (id >= next) {
+			for (int skipped = next; skipped < id; skipped++) {
+				release(skipped);
+			}
+			next = id + 1;
+			return true;
+		}
+		long bit = 1L << id;
+		if ((id >>> 6) >= free.length || (free[id >>> 6] & bit) == 0) {
+			return false;
+		}
+		free[id >>> 6] &= ~bit;
+		return true;
+	}
+
+	/**
+	 * Puts the ID of a removed sun bed on the free list.
+	 *
+	 * @param id The ID
+	 */
+	void release(int id) {
+		if (id >>> 6 >= free.length) {
+			free = Arrays.copyOf(free, Math.max(free.length * 2, (id >>> 6) + 1));
+		}
+		free[id >>> 6] |= 1L << id;
+		lowestFree = Math.min(lowestFree, id);
+	}
+
+	/**
+	 * Forgets every ID, the next one handed out is 1.
+	 */
+	void clear() {
+		free = new long[1];
+		next = 1;
+		lowestFree = 1;
+	}
+}
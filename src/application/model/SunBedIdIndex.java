@@ -0,0 +1,156 @@
+package application.model;
+
+/**
+ * Maps the ID of a sun bed to its position in the <code>SunBedStorage</code>.
+ * An open addressing hash table of primitive ints with linear probing, so a
+ * lookup is O(1) and no <code>Integer</code> is ever created. IDs are always
+ * positive, 0 marks an empty slot. Removing a key shifts the keys after it
+ * back, so there are no tombstones and lookups stay short.
+ * <p>
+ * Each key sits next to its value in one array, so a lookup touches one cache
+ * line. The ID itself is the hash: <code>SunBedIdAllocator</code> hands out
+ * the lowest free ID, so the IDs in use are close to 1 to <code>size()</code>,
+ * which never collide and keep neighbouring sun beds in neighbouring slots.
+ * <p>
+ * Not thread safe, <code>SunBedCollection</code> guards it with its layout
+ * lock. A reader racing a change never loops forever or fails with an
+ * exception, so it can read optimistically and check the lock afterwards.
+ *
+ */
+class SunBedIdIndex {
+	private static final int EMPTY = 0;
+	private static final int MIN_CAPACITY = 16;
+
+	// Key at 2 * slot, value at 2 * slot + 1
+	private int[] table;
+	private int size;
+
+	SunBedIdIndex() {
+		this(0);
+	}
+
+	/**
+	 * @param expected How many IDs it will hold, so it does not have to grow
+	 */
+	SunBedIdIndex(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity >>> 1 < expected) {
+			capacity <<= 1;
+		}
+		table = new int[2 * capacity];
+	}
+
+	/**
+	 * @return int The number of IDs held
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param id The ID of a sun bed
+	 * @return int Its position, or -1 if there is no sun bed with that ID
+	 */
+	int get(int id) {
+		int[] t = table;
+		int mask = (t.length >>> 1) - 1;
+		for (int i = id & mask;; i = (i + 1) & mask) {
+			int key = t[2 * i];
+			if (key == id) {
+				return t[2 * i + 1];
+			}
+			if (key == EMPTY) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @param id       The ID of a sun bed, greater than 0
+	 * @param position Its position
+	 * @return int The position it had before, or -1 if it was not held
+	 */
+	int put(int id, int position) {
+		if (id <= 0) {
+			throw new IllegalArgumentException("Sun bed IDs must be positive: " + id);
+		}
+		int mask = mask();
+		int i = id & mask;
+		for (; table[2 * i] != EMPTY; i = (i + 1) & mask) {
+			if (table[2 * i] == id) {
+				int old = table[2 * i + 1];
+				table[2 * i + 1] = position;
+				return old;
+			}
+		}
+		if (size + 1 > (mask + 1) >>> 1) {
+			grow();
+			return put(id, position);
+		}
+		table[2 * i + 1] = position;
+		table[2 * i] = id;
+		size++;
+		return -1;
+	}
+
+	/**
+	 * @param id The ID of a sun bed
+	 * @return int The position it had, or -1 if it was not held
+	 */
+	int remove(int id) {
+		int mask = mask();
+		int i = id & mask;
+		for (; table[2 * i] != id; i = (i + 1) & mask) {
+			if (table[2 * i] == EMPTY) {
+				return -1;
+			}
+		}
+		int old = table[2 * i + 1];
+		// Move back any key after the gap that would no longer be found
+		for (int j = (i + 1) & mask; table[2 * j] != EMPTY; j = (j + 1) & mask) {
+			int home = table[2 * j] & mask;
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				table[2 * i + 1] = table[2 * j + 1];
+				table[2 * i] = table[2 * j];
+				i = j;
+			}
+		}
+		table[2 * i] = EMPTY;
+		size--;
+		return old;
+	}
+
+	/**
+	 * Removes every ID.
+	 */
+	void clear() {
+		table = new int[2 * MIN_CAPACITY];
+		size = 0;
+	}
+
+	private int mask() {
+		return (table.length >>> 1) - 1;
+	}
+
+	/**
+	 * Doubles the table. The new table is filled before it replaces the old
+	 * one, so a racing reader sees one or the other.
+	 */
+	private void grow() {
+		int[] old = table;
+		int[] grown = new int[2 * old.length];
+		int mask = (grown.length >>> 1) - 1;
+		for (int s = 0; s < old.length; s += 2) {
+			int key = old[s];
+			if (key != EMPTY) {
+				int i = key & mask;
+				while (grown[2 * i] != EMPTY) {
+					i = (i + 1) & mask;
+				}
+				grown[2 * i] = key;
+				grown[2 * i + 1] = old[s + 1];
+			}
+		}
+		table = grown;
+	}
+}
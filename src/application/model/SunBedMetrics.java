@@ -0,0 +1,288 @@
+package application.model;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import application.util.LatencyHistogram;
+
+/**
+ * How a <code>SunBedCollection</code> is performing, got with
+ * <code>getMetrics()</code>: latency histograms of toggles (including
+ * <code>book()</code> and <code>release()</code>), journal writes, loading
+ * the data file and laying out the grid of sun beds, counters of changes,
+ * bytes written and failed writes, and the number of free and booked sun
+ * beds.
+ * <p>
+ * Recording never allocates or locks, see <code>LatencyHistogram</code>, so
+ * it is always on. The metrics can be watched over JMX once
+ * <code>register()</code> has been called, and logged with log4j every so
+ * often with <code>startLogging()</code>.
+ *
+ */
+public final class SunBedMetrics implements SunBedMetricsMBean {
+	private static final Logger LOGGER = LogManager.getLogger(SunBedMetrics.class);
+
+	private final SunBedCollection beds;
+	private final String name;
+	private final LatencyHistogram toggle = new LatencyHistogram();
+	private final LatencyHistogram write = new LatencyHistogram();
+	private final LatencyHistogram load = new LatencyHistogram();
+	private final LatencyHistogram layout = new LatencyHistogram();
+	private final AtomicLong mutations = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong writeFailures = new AtomicLong();
+	// Guarded by this
+	private ObjectName registered;
+	private ScheduledExecutorService logger;
+	private ScheduledFuture<?> logging;
+
+	/**
+	 * @param beds The sun beds
+	 * @param name What to call them in JMX and the log, e.g. their data file
+	 */
+	SunBedMetrics(SunBedCollection beds, String name) {
+		this.beds = beds;
+		this.name = name;
+	}
+
+	public LatencyHistogram getToggleLatency() {
+		return toggle;
+	}
+
+	public LatencyHistogram getWriteLatency() {
+		return write;
+	}
+
+	public LatencyHistogram getLoadLatency() {
+		return load;
+	}
+
+	public LatencyHistogram getLayoutLatency() {
+		return layout;
+	}
+
+	void recordToggle(long nanos) {
+		toggle.record(nanos);
+	}
+
+	void recordMutations(int count) {
+		mutations.addAndGet(count);
+	}
+
+	void recordWrite(long nanos, long bytes) {
+		write.record(nanos);
+		bytesWritten.addAndGet(bytes);
+	}
+
+	void recordWriteFailure() {
+		writeFailures.incrementAndGet();
+	}
+
+	void recordLoad(long nanos) {
+		load.record(nanos);
+	}
+
+	/**
+	 * Records how long the view took to lay out the sun beds.
+	 *
+	 * @param nanos How long it took
+	 */
+	public void recordLayout(long nanos) {
+		layout.record(nanos);
+	}
+
+	@Override
+	public int getCount() {
+		return beds.getCount();
+	}
+
+	@Override
+	public int getCountFree() {
+		return beds.getCountFree();
+	}
+
+	@Override
+	public int getCountBooked() {
+		return Math.max(0, beds.getCount() - beds.getCountFree());
+	}
+
+	@Override
+	public String getDurability() {
+		return beds.getDurability().name();
+	}
+
+	@Override
+	public long getMutations() {
+		return mutations.get();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	@Override
+	public long getWriteFailures() {
+		return writeFailures.get();
+	}
+
+	@Override
+	public long getToggleCount() {
+		return toggle.getCount();
+	}
+
+	@Override
+	public double getToggleP50Micros() {
+		return micros(toggle.snapshot().getPercentile(50));
+	}
+
+	@Override
+	public double getToggleP99Micros() {
+		return micros(toggle.snapshot().getPercentile(99));
+	}
+
+	@Override
+	public double getToggleMaxMicros() {
+		return micros(toggle.snapshot().getMax());
+	}
+
+	@Override
+	public long getWriteCount() {
+		return write.getCount();
+	}
+
+	@Override
+	public double getWriteP50Micros() {
+		return micros(write.snapshot().getPercentile(50));
+	}
+
+	@Override
+	public double getWriteP99Micros() {
+		return micros(write.snapshot().getPercentile(99));
+	}
+
+	@Override
+	public double getWriteMaxMicros() {
+		return micros(write.snapshot().getMax());
+	}
+
+	@Override
+	public long getLoadCount() {
+		return load.getCount();
+	}
+
+	@Override
+	public double getLoadMaxMicros() {
+		return micros(load.snapshot().getMax());
+	}
+
+	@Override
+	public long getLayoutCount() {
+		return layout.getCount();
+	}
+
+	@Override
+	public double getLayoutP50Micros() {
+		return micros(layout.snapshot().getPercentile(50));
+	}
+
+	@Override
+	public double getLayoutP99Micros() {
+		return micros(layout.snapshot().getPercentile(99));
+	}
+
+	@Override
+	public double getLayoutMaxMicros() {
+		return micros(layout.snapshot().getMax());
+	}
+
+	@Override
+	public String summary() {
+		return String.format("%s: %d of %d free, %s, %d mutations, %d bytes written, %d write failures; %s; %s; %s; %s",
+				name, getCountFree(), getCount(), getDurability(), getMutations(), getBytesWritten(),
+				getWriteFailures(), latency("toggle", toggle), latency("write", write), latency("load", load),
+				latency("layout", layout));
+	}
+
+	/**
+	 * Makes the metrics visible over JMX as
+	 * <code>application.model:type=SunBedMetrics,name=&lt;name&gt;</code>. Does
+	 * nothing if they already are.
+	 *
+	 * @throws JMException If the platform MBean server refuses them, e.g.
+	 *                     because another collection has the same name
+	 */
+	public synchronized void register() throws JMException {
+		if (registered != null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("application.model:type=SunBedMetrics,name=" + ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+		registered = objectName;
+	}
+
+	/**
+	 * Takes the metrics out of JMX, if they were registered.
+	 */
+	public synchronized void unregister() {
+		if (registered == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+		} catch (JMException e) {
+			LOGGER.error("SunBedMetrics could not be unregistered!", e);
+		}
+		registered = null;
+	}
+
+	/**
+	 * Logs <code>summary()</code> at info level every <code>period</code>
+	 * seconds, on a thread of its own. Replaces any earlier schedule.
+	 *
+	 * @param period Seconds between summaries
+	 */
+	public synchronized void startLogging(long period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("The period must be at least a second: " + period);
+		}
+		stopLogging();
+		if (logger == null) {
+			logger = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "sunbed-metrics");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		logging = logger.scheduleAtFixedRate(() -> LOGGER.info(summary()), period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops logging the summary.
+	 */
+	public synchronized void stopLogging() {
+		if (logging != null) {
+			logging.cancel(false);
+			logging = null;
+		}
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+	private static String latency(String what, LatencyHistogram histogram) {
+		LatencyHistogram.Snapshot s = histogram.snapshot();
+		return String.format("%s n=%d p50=%.1fus p99=%.1fus max=%.1fus", what, s.getCount(),
+				micros(s.getPercentile(50)), micros(s.getPercentile(99)), micros(s.getMax()));
+	}
+}
@@ -0,0 +1,64 @@
+package application.model;
+
+/**
+ * What <code>SunBedMetrics</code> shows over JMX, e.g. in JConsole under
+ * <code>application.model:type=SunBedMetrics</code>. Times are in
+ * microseconds, percentiles are within 12.5% of the true value.
+ *
+ */
+public interface SunBedMetricsMBean {
+
+	/** @return int The number of sun beds */
+	int getCount();
+
+	/** @return int The number of free sun beds */
+	int getCountFree();
+
+	/** @return int The number of booked sun beds */
+	int getCountBooked();
+
+	/** @return String Whether the changes made so far have been saved */
+	String getDurability();
+
+	/** @return long How many changes have been journaled */
+	long getMutations();
+
+	/** @return long How many bytes have been written to the journal */
+	long getBytesWritten();
+
+	/** @return long How many writes to the journal have failed */
+	long getWriteFailures();
+
+	long getToggleCount();
+
+	double getToggleP50Micros();
+
+	double getToggleP99Micros();
+
+	double getToggleMaxMicros();
+
+	long getWriteCount();
+
+	double getWriteP50Micros();
+
+	double getWriteP99Micros();
+
+	double getWriteMaxMicros();
+
+	long getLoadCount();
+
+	double getLoadMaxMicros();
+
+	long getLayoutCount();
+
+	double getLayoutP50Micros();
+
+	double getLayoutP99Micros();
+
+	double getLayoutMaxMicros();
+
+	/**
+	 * @return String Everything on one line, as logged
+	 */
+	String summary();
+}
@@ -0,0 +1,109 @@
+package application.model;
+
+import java.util.List;
+import application.util.SnapshotFile;
+
+/**
+ * Holds the state of the sun beds for <code>SunBedCollection</code>. Sun beds
+ * are addressed by their position, which runs from 0 to <code>size() - 1</code>.
+ * Passing a position outside that range throws
+ * <code>IndexOutOfBoundsException</code>.
+ *
+ */
+interface SunBedStorage {
+
+	/**
+	 * @return int The number of sun beds
+	 */
+	int size();
+
+	/**
+	 * @return int The number of booked sun beds
+	 */
+	int countBooked();
+
+	/**
+	 * @param index The position of a sun bed
+	 * @return boolean If it is booked
+	 */
+	boolean isBooked(int index);
+
+	/**
+	 * @param index  The position of a sun bed
+	 * @param booked The new state
+	 * @return boolean The state before the change
+	 */
+	boolean setBooked(int index, boolean booked);
+
+	/**
+	 * Changes the state of a sun bed only if it is currently
+	 * <code>expect</code>.
+	 *
+	 * @param index  The position of a sun bed
+	 * @param expect The state it must be in
+	 * @param update The new state
+	 * @return boolean If the sun bed was in the <code>expect</code> state
+	 */
+	boolean compareAndSet(int index, boolean expect, boolean update);
+
+	/**
+	 * @param index The position of a sun bed
+	 * @return boolean The state after the change
+	 */
+	boolean toggle(int index);
+
+	/**
+	 * @param index The position of a sun bed
+	 * @return int Its ID
+	 */
+	int getID(int index);
+
+	/**
+	 * @param w A word of the booked flags, less than
+	 *          <code>SnapshotFile.words(size())</code>
+	 * @return long The booked flags of the sun beds at positions
+	 *         <code>64 * w</code> to <code>64 * w + 63</code>, one bit each in
+	 *         the layout of <code>SnapshotFile</code>
+	 */
+	long getBookedWord(int w);
+
+	/**
+	 * Adds a sun bed to the end.
+	 *
+	 * @param id     The ID of the new sun bed
+	 * @param booked If it is booked
+	 */
+	void add(int id, boolean booked);
+
+	/**
+	 * Removes the sun bed at the end.
+	 */
+	void removeLast();
+
+	/**
+	 * Removes a sun bed, the sun beds after it move down one position.
+	 *
+	 * @param index The position of the sun bed
+	 */
+	void remove(int index);
+
+	/**
+	 * Marks every sun bed as free.
+	 */
+	void freeAll();
+
+	/**
+	 * Removes every sun bed.
+	 */
+	void clear();
+
+	/**
+	 * @return List<SunBed> The sun beds as objects
+	 */
+	List<SunBed> toList();
+
+	/**
+	 * @return Contents A copy of the sun beds in snapshot form
+	 */
+	SnapshotFile.Contents toContents();
+}
@@ -0,0 +1,575 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import application.util.MutationJournal;
+import application.util.PhaseTimer;
+import application.util.SnapshotFile;
+import application.util.SunBedXmlCodec;
+
+/**
+ * The files a <code>SunBedCollection</code> is saved in: the data file, the
+ * journal of the changes made since it was written, the archive of ended days
+ * and the XML file written by earlier versions. The collection holds the sun
+ * beds and applies the journal to them, the store only reads and writes.
+ * <p>
+ * The data file is a binary snapshot, see <code>SnapshotFile</code>. The XML
+ * file is imported once if there is no snapshot. Changes are appended to a
+ * journal next to the data file rather than rewriting the whole file. Once
+ * the journal grows past <code>getJournalCompactionThreshold()</code> bytes
+ * it is folded into a new data file by a background thread. Ending the day
+ * archives the sun beds as they were, one snapshot per day.
+ * <p>
+ * In <code>PersistenceMode.GROUP_COMMIT</code> changes are queued and written
+ * together once per commit window, so a burst of changes shares one write. All
+ * writing, including starting a compaction, is then done by a single
+ * persistence thread and the thread making a change never waits for the disk.
+ * <p>
+ * Whether the changes are saved is reported to the
+ * <code>PersistenceListener</code>s, which are also told about failed writes.
+ * Without a listener failures are logged.
+ * <p>
+ * Changes are appended from whichever thread made them. Everything else is
+ * done holding the collection's lock, as a copy of the sun beds for a new data
+ * file is only taken under it. The persistence thread takes that lock itself
+ * to start a compaction.
+ *
+ */
+final class SunBedStore {
+	private static final String JOURNAL_SUFFIX = ".journal";
+	private static final String RETIRED_JOURNAL_SUFFIX = ".journal.old";
+	private static final String ARCHIVE_SUFFIX = ".days";
+	private static final String HISTORY_SUFFIX = ".history";
+	private static final long DEFAULT_JOURNAL_COMPACTION_THRESHOLD = 256 * 1024;
+	private static final long DEFAULT_GROUP_COMMIT_WINDOW_MILLIS = 50;
+	private static final int DEFAULT_GROUP_COMMIT_MAX_MUTATIONS = 256;
+	private static final Logger LOGGER = LogManager.getLogger(SunBedStore.class);
+
+	private final SunBedCollection beds;
+	private final SunBedMetrics metrics;
+	private final Path dataFile;
+	private final Path journalFile;
+	private final Path retiredJournalFile;
+	private final Path legacyDataFile;
+	private final Path archiveDirectory;
+	private volatile MutationJournal journal;
+	private long journalCompactionThreshold = DEFAULT_JOURNAL_COMPACTION_THRESHOLD;
+	private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "sunbed-journal-compactor");
+		t.setDaemon(true);
+		return t;
+	});
+	// Guarded by the collection's lock
+	private Future<?> compaction;
+
+	private volatile PersistenceMode persistenceMode = PersistenceMode.IMMEDIATE;
+	private long groupCommitWindowMillis = DEFAULT_GROUP_COMMIT_WINDOW_MILLIS;
+	private int groupCommitMaxMutations = DEFAULT_GROUP_COMMIT_MAX_MUTATIONS;
+	// The single writer in PersistenceMode.GROUP_COMMIT
+	private final ScheduledExecutorService persistence = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "sunbed-persistence");
+		t.setDaemon(true);
+		return t;
+	});
+	private ScheduledFuture<?> groupCommitTask;
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+	private final List<PersistenceListener> persistenceListeners = new CopyOnWriteArrayList<>();
+	private final AtomicReference<Durability> durability = new AtomicReference<>(Durability.SAVED);
+	// Counts changes queued in GROUP_COMMIT, so a flush can tell if more came in
+	private final AtomicLong queuedChanges = new AtomicLong();
+
+	/**
+	 * @param beds     The sun beds saved in the files
+	 * @param dataFile Where the sun beds are saved, the other files are named
+	 *                 after it
+	 * @param metrics  Records the writes
+	 */
+	SunBedStore(SunBedCollection beds, Path dataFile, SunBedMetrics metrics) {
+		this.beds = beds;
+		this.metrics = metrics;
+		this.dataFile = dataFile;
+		journalFile = Paths.get(dataFile + JOURNAL_SUFFIX);
+		retiredJournalFile = Paths.get(dataFile + RETIRED_JOURNAL_SUFFIX);
+		archiveDirectory = Paths.get(dataFile + ARCHIVE_SUFFIX);
+		String name = dataFile.getFileName().toString();
+		legacyDataFile = dataFile.resolveSibling(
+				name.endsWith(".dat") ? name.substring(0, name.length() - 4) + ".xml" : name + ".xml");
+	}
+
+	/**
+	 * @return Path Where the sun beds are saved
+	 */
+	Path getDataFile() {
+		return dataFile;
+	}
+
+	/**
+	 * @return Path The directory the occupancy history is kept in
+	 */
+	Path getHistoryDirectory() {
+		return Paths.get(dataFile + HISTORY_SUFFIX);
+	}
+
+	/**
+	 * Reads the data file, importing the XML file first if there is no data
+	 * file yet. The journal is replayed separately, with
+	 * <code>replay()</code>, once the sun beds are loaded.
+	 *
+	 * @param timer Records <code>io</code> and <code>parse</code>, and
+	 *              <code>legacy import</code> if there was an XML file
+	 * @return SnapshotFile.Contents The sun beds in the data file, none if
+	 *         there is no data file
+	 * @throws IOException
+	 */
+	SnapshotFile.Contents read(PhaseTimer timer) throws IOException {
+		awaitCompaction();
+		long t = System.nanoTime();
+		if (!Files.exists(dataFile) && Files.exists(legacyDataFile)) {
+			importLegacyDataFile();
+			timer.record("legacy import", t);
+		}
+		if (Files.exists(dataFile)) {
+			return SnapshotFile.readData(dataFile, timer);
+		}
+		return new SnapshotFile.Contents(0, new long[0], new int[0]);
+	}
+
+	/**
+	 * Applies the journal, and the one a compaction was folding in if it did
+	 * not finish, to the sun beds read from the data file.
+	 *
+	 * @param replayer Applies each record
+	 * @return boolean True if a compaction did not finish, then the data file
+	 *         should be written again
+	 * @throws IOException
+	 */
+	boolean replay(MutationJournal.Replayer replayer) throws IOException {
+		boolean unfinishedCompaction = Files.exists(retiredJournalFile);
+		MutationJournal.replay(retiredJournalFile, replayer);
+		journal().replay(replayer);
+		return unfinishedCompaction;
+	}
+
+	/**
+	 * @return long The size in bytes of the files <code>read()</code> and
+	 *         <code>replay()</code> would read
+	 */
+	long getStoredBytes() {
+		long bytes = 0;
+		for (Path file : new Path[] { Files.exists(dataFile) ? dataFile : legacyDataFile, journalFile,
+				retiredJournalFile }) {
+			try {
+				bytes += Files.exists(file) ? Files.size(file) : 0;
+			} catch (IOException e) {
+				// Counted as empty, reading it will report the problem
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes a new data file and empties the journal.
+	 *
+	 * @throws IOException
+	 */
+	void writeDataFile() throws IOException {
+		awaitCompaction();
+		// Changes racing this one stay in the new journal rather than being lost
+		SnapshotFile.Contents copy = journal().rotate(retiredJournalFile, beds::captureContents);
+		writeSnapshot(copy, dataFile);
+		Files.deleteIfExists(retiredJournalFile);
+		setDurability(Durability.SAVED);
+	}
+
+	/**
+	 * Ends the day with one journal record. The sun beds as they were are
+	 * archived and written as the new data file by the compactor thread.
+	 *
+	 * @param startDay Starts the next day, given its number, while no change
+	 *                 can be journaled
+	 * @return int The number of the day that was ended
+	 * @throws IOException
+	 */
+	int endDay(IntConsumer startDay) throws IOException {
+		awaitCompaction();
+		MutationJournal j = journal();
+		// The journal is empty for the new day, the data file and the archive
+		// are both how the day ended
+		SnapshotFile.Contents endOfDay = j.rotate(retiredJournalFile, beds::captureContents);
+		int ended = endOfDay.getDay();
+		int waiting;
+		synchronized (j) {
+			startDay.accept(ended + 1);
+			waiting = j.append(MutationJournal.OP_END_DAY, ended + 1, 0);
+		}
+		compaction = compactor.submit(() -> {
+			try {
+				Files.createDirectories(archiveDirectory);
+				writeSnapshot(endOfDay, archiveFile(endOfDay.getDay()));
+				writeSnapshot(endOfDay, dataFile);
+				Files.deleteIfExists(retiredJournalFile);
+			} catch (Exception e) {
+				writeFailed("SunBedCollection end of day archive failed!", e);
+			}
+		});
+		appended(j, waiting, 1);
+		return ended;
+	}
+
+	/**
+	 * @param day The number <code>endDay()</code> returned
+	 * @return SnapshotFile.Contents The sun beds at the end of that day
+	 * @throws IOException If the day was not archived
+	 */
+	SnapshotFile.Contents readArchivedDay(int day) throws IOException {
+		return SnapshotFile.readData(archiveFile(day));
+	}
+
+	private Path archiveFile(int day) {
+		return archiveDirectory.resolve("day-" + day + ".dat");
+	}
+
+	/**
+	 * Appends a change to the journal and starts a compaction if the journal has
+	 * grown too big.
+	 */
+	void append(int op, int a, int b) {
+		try {
+			MutationJournal j = journal();
+			appended(j, j.append(op, a, b), 1);
+		} catch (Exception e) {
+			writeFailed("SunBedCollection write to file failed!", e);
+		}
+	}
+
+	/**
+	 * Appends the records of a batch to the journal as one. Booked flags are
+	 * read again while holding the journal, as in <code>appendBooked()</code>.
+	 */
+	void append(MutationJournal.Batch records) {
+		try {
+			MutationJournal j = journal();
+			int waiting;
+			synchronized (j) {
+				for (int i = 0; i < records.size(); i++) {
+					if (records.getOp(i) == MutationJournal.OP_SET_BOOKED_BY_ID) {
+						records.setB(i, beds.bookedState(records.getA(i)) == 1 ? 1 : 0);
+					}
+				}
+				waiting = j.append(records);
+			}
+			appended(j, waiting, records.size());
+		} catch (Exception e) {
+			writeFailed("SunBedCollection write to file failed!", e);
+		}
+	}
+
+	/**
+	 * Journals the booked flag of a sun bed. The flag is read while holding the
+	 * journal, so when threads race on one sun bed the last record written for
+	 * it always holds its final state.
+	 */
+	void appendBooked(int id) {
+		try {
+			MutationJournal j = journal();
+			int waiting;
+			synchronized (j) {
+				int state = beds.bookedState(id);
+				if (state < 0) {
+					// Removed by another thread, which journals the removal
+					return;
+				}
+				waiting = j.append(MutationJournal.OP_SET_BOOKED_BY_ID, id, state);
+			}
+			appended(j, waiting, 1);
+		} catch (Exception e) {
+			writeFailed("SunBedCollection write to file failed!", e);
+		}
+	}
+
+	void addPersistenceListener(PersistenceListener listener) {
+		persistenceListeners.add(listener);
+	}
+
+	void removePersistenceListener(PersistenceListener listener) {
+		persistenceListeners.remove(listener);
+	}
+
+	Durability getDurability() {
+		return durability.get();
+	}
+
+	long getJournalWriteCount() {
+		MutationJournal j = journal;
+		return j == null ? 0 : j.getWriteCount();
+	}
+
+	long getJournalCompactionThreshold() {
+		return journalCompactionThreshold;
+	}
+
+	void setJournalCompactionThreshold(long bytes) {
+		this.journalCompactionThreshold = bytes;
+	}
+
+	PersistenceMode getPersistenceMode() {
+		return persistenceMode;
+	}
+
+	void setPersistenceMode(PersistenceMode mode) {
+		if (mode == persistenceMode) {
+			return;
+		}
+		persistenceMode = mode;
+		if (mode == PersistenceMode.GROUP_COMMIT) {
+			scheduleGroupCommit();
+		} else {
+			groupCommitTask.cancel(false);
+			flushQuietly();
+		}
+	}
+
+	void setGroupCommitWindow(long windowMillis, int maxMutations) {
+		if (windowMillis <= 0 || maxMutations <= 0) {
+			throw new IllegalArgumentException("Group commit window and size must be positive");
+		}
+		this.groupCommitWindowMillis = windowMillis;
+		this.groupCommitMaxMutations = maxMutations;
+		if (persistenceMode == PersistenceMode.GROUP_COMMIT) {
+			groupCommitTask.cancel(false);
+			scheduleGroupCommit();
+		}
+	}
+
+	/**
+	 * Blocks until every change appended so far is on the disk.
+	 *
+	 * @throws IOException
+	 */
+	void flush() throws IOException {
+		MutationJournal j = journal;
+		if (j != null) {
+			long started = System.nanoTime();
+			long bytes = j.flush();
+			metrics.recordWrite(System.nanoTime() - started, bytes);
+		}
+	}
+
+	/**
+	 * Waits for a running compaction, writes out every queued change and closes
+	 * the journal. Appending opens it again.
+	 *
+	 * @throws IOException
+	 */
+	void close() throws IOException {
+		awaitCompaction();
+		MutationJournal j = journal;
+		if (j != null) {
+			journal = null;
+			j.close();
+		}
+	}
+
+	/**
+	 * Reports a failed write to the listeners, or logs it if there are none.
+	 */
+	void writeFailed(String message, Exception cause) {
+		metrics.recordWriteFailure();
+		setDurability(Durability.FAILED);
+		if (persistenceListeners.isEmpty()) {
+			LOGGER.error(message, cause);
+			return;
+		}
+		for (PersistenceListener listener : persistenceListeners) {
+			try {
+				listener.writeFailed(message, cause);
+			} catch (RuntimeException e) {
+				LOGGER.error("SunBedCollection persistence listener failed!", e);
+			}
+		}
+	}
+
+	/**
+	 * Writes or queues the records just appended and starts a compaction if the
+	 * journal has grown too big.
+	 *
+	 * @param changes How many changes were appended
+	 */
+	private void appended(MutationJournal j, int waiting, int changes) throws IOException {
+		metrics.recordMutations(changes);
+		if (persistenceMode == PersistenceMode.IMMEDIATE) {
+			long started = System.nanoTime();
+			long bytes = j.write();
+			metrics.recordWrite(System.nanoTime() - started, bytes);
+			setDurability(Durability.SAVED);
+			if (j.size() >= journalCompactionThreshold) {
+				startCompaction();
+			}
+			return;
+		}
+		queuedChanges.incrementAndGet();
+		if (durability.compareAndSet(Durability.SAVED, Durability.PENDING)) {
+			firePersistence(Durability.PENDING);
+		}
+		if (waiting >= groupCommitMaxMutations && flushRequested.compareAndSet(false, true)) {
+			persistence.execute(this::flushQuietly);
+		}
+	}
+
+	private void scheduleGroupCommit() {
+		groupCommitTask = persistence.scheduleWithFixedDelay(this::flushQuietly, groupCommitWindowMillis,
+				groupCommitWindowMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs on the persistence thread. Writes the queued changes, reports them
+	 * saved unless more came in meanwhile, and starts a compaction if the
+	 * journal has grown too big.
+	 */
+	private void flushQuietly() {
+		flushRequested.set(false);
+		long queued = queuedChanges.get();
+		try {
+			flush();
+			if (queuedChanges.get() == queued) {
+				setDurability(Durability.SAVED);
+			}
+			MutationJournal j = journal;
+			if (j != null && j.size() >= journalCompactionThreshold) {
+				startCompaction();
+			}
+		} catch (Exception e) {
+			writeFailed("SunBedCollection write to file failed!", e);
+		}
+	}
+
+	private void setDurability(Durability state) {
+		if (durability.getAndSet(state) != state) {
+			firePersistence(state);
+		}
+	}
+
+	private void firePersistence(Durability state) {
+		for (PersistenceListener listener : persistenceListeners) {
+			try {
+				listener.durabilityChanged(state);
+			} catch (RuntimeException e) {
+				LOGGER.error("SunBedCollection persistence listener failed!", e);
+			}
+		}
+	}
+
+	/**
+	 * Moves the current journal aside and writes a copy of the sun beds as they
+	 * are now to the data file on the compactor thread. The moved journal is
+	 * only deleted once the new data file is in place.
+	 */
+	private void startCompaction() throws IOException {
+		synchronized (beds) {
+			if (compaction != null && !compaction.isDone()) {
+				return;
+			}
+			if (journal().size() < journalCompactionThreshold) {
+				// Another thread compacted while we were waiting
+				return;
+			}
+			SnapshotFile.Contents copy = journal().rotate(retiredJournalFile, beds::captureContents);
+
+			compaction = compactor.submit(() -> {
+				try {
+					writeSnapshot(copy, dataFile);
+					Files.deleteIfExists(retiredJournalFile);
+				} catch (Exception e) {
+					writeFailed("SunBedCollection journal compaction failed!", e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Waits for a running compaction so it cannot overwrite a newer data file.
+	 */
+	private void awaitCompaction() throws IOException {
+		if (compaction == null) {
+			return;
+		}
+		try {
+			compaction.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for journal compaction", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first so a crash never leaves a half written
+	 * snapshot behind.
+	 */
+	private static void writeSnapshot(SnapshotFile.Contents contents, Path file) throws IOException {
+		Path temp = Paths.get(file + ".tmp");
+		SnapshotFile.writeData(contents, temp);
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * One-time import of the XML data file written by earlier versions, along
+	 * with any journal written next to it. The XML file is left in place. It is
+	 * streamed by <code>SunBedXmlCodec</code>, which unlike
+	 * <code>XMLDataExchange</code> creates no objects named by the file, and
+	 * the sun beds are given IDs in file order.
+	 */
+	private void importLegacyDataFile() throws IOException {
+		BitSet booked = new BitSet();
+		int[] count = new int[1];
+		SunBedXmlCodec.readData(legacyDataFile, b -> booked.set(count[0]++, b));
+		long[] words = Arrays.copyOf(booked.toLongArray(), SnapshotFile.words(count[0]));
+		beds.load(new SnapshotFile.Contents(count[0], words, new int[count[0]]));
+
+		Path legacyJournal = Paths.get(legacyDataFile + JOURNAL_SUFFIX);
+		Path legacyRetiredJournal = Paths.get(legacyDataFile + RETIRED_JOURNAL_SUFFIX);
+		MutationJournal.replay(legacyRetiredJournal, beds::replay);
+		MutationJournal.replay(legacyJournal, beds::replay);
+
+		writeSnapshot(beds.captureContents(), dataFile);
+		Files.deleteIfExists(legacyRetiredJournal);
+		Files.deleteIfExists(legacyJournal);
+		LOGGER.info("Imported {} sun beds from {}", beds.getCount(), legacyDataFile);
+	}
+
+	private MutationJournal journal() throws IOException {
+		MutationJournal j = journal;
+		if (j == null) {
+			synchronized (beds) {
+				j = journal;
+				if (j == null) {
+					j = new MutationJournal(journalFile);
+					journal = j;
+				}
+			}
+		}
+		return j;
+	}
+}
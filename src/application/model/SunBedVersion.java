@@ -0,0 +1,345 @@
+package application.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import application.util.SnapshotFile;
+
+/**
+ * The sun beds as they were at one moment, kept by <code>UndoHistory</code>.
+ * Immutable, a change gives a new version that shares everything it did not
+ * change with the old one.
+ * <p>
+ * The sun beds are split into chunks of 512 positions, each a leaf holding
+ * their booked flags and their IDs in arrays of their own. The leaves hang
+ * from a trie of 32 children per node, in position order, so 100,000 sun beds
+ * are two levels deep. Booking or freeing a sun bed copies the 64 bytes of
+ * flags of its chunk and the nodes above it, about 400 bytes, and shares the
+ * IDs and every other chunk. Freeing every sun bed shares the IDs of every
+ * chunk and one array of free flags. Adding or removing sun beds copies the
+ * chunks from the first that changed, the chunks before it are shared.
+ *
+ */
+final class SunBedVersion {
+	private static final int LEAF_BITS = 9;
+	private static final int LEAF_SIZE = 1 << LEAF_BITS;
+	private static final int LEAF_WORDS = LEAF_SIZE / 64;
+	private static final int BRANCH_BITS = 5;
+	private static final int BRANCH_SIZE = 1 << BRANCH_BITS;
+	// Shared by every chunk with no booked sun bed
+	private static final long[] ALL_FREE = new long[LEAF_WORDS];
+
+	static final SunBedVersion EMPTY = new SunBedVersion(null, 0, 0);
+
+	/**
+	 * Positions <code>512 * n</code> to <code>512 * n + 511</code>, positions
+	 * past the end of the sun beds are free with ID 0. Its arrays are never
+	 * changed once it is made.
+	 */
+	private static final class Leaf {
+		final long[] booked;
+		final int[] ids;
+
+		Leaf(long[] booked, int[] ids) {
+			this.booked = isFree(booked) ? ALL_FREE : booked;
+			this.ids = ids;
+		}
+
+		private static boolean isFree(long[] words) {
+			for (long word : words) {
+				if (word != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The children of a node, <code>Leaf</code>s on the lowest level, null past
+	 * the end of the sun beds.
+	 */
+	private static final class Branch {
+		final Object[] children;
+
+		Branch(Object[] children) {
+			this.children = children;
+		}
+	}
+
+	/**
+	 * Told about each sun bed that is booked in one version and not the other.
+	 */
+	@FunctionalInterface
+	interface Difference {
+		/**
+		 * @param id     The ID of the sun bed
+		 * @param booked Its state in the other version
+		 */
+		void booked(int id, boolean booked);
+	}
+
+	// A Leaf if there is one chunk, otherwise a Branch
+	private final Object root;
+	private final int size;
+	private final int depth;
+
+	private SunBedVersion(Object root, int size, int depth) {
+		this.root = root;
+		this.size = size;
+		this.depth = depth;
+	}
+
+	/**
+	 * @return int The number of sun beds
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param position The position of a sun bed
+	 * @return boolean If it is booked
+	 */
+	boolean isBooked(int position) {
+		Leaf leaf = leaf(position >>> LEAF_BITS);
+		int i = position & (LEAF_SIZE - 1);
+		return (leaf.booked[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * @param position The position of a sun bed
+	 * @return int Its ID
+	 */
+	int getID(int position) {
+		return leaf(position >>> LEAF_BITS).ids[position & (LEAF_SIZE - 1)];
+	}
+
+	/**
+	 * Books or frees a sun bed in O(log n), copying only the path to it.
+	 *
+	 * @param position The position of a sun bed
+	 * @param booked   The new state
+	 * @return SunBedVersion The new version, this one if the sun bed already was
+	 */
+	SunBedVersion setBooked(int position, boolean booked) {
+		Objects.checkIndex(position, size);
+		if (isBooked(position) == booked) {
+			return this;
+		}
+		return new SunBedVersion(setBooked(root, depth, position, booked), size, depth);
+	}
+
+	private static Object setBooked(Object node, int level, int position, boolean booked) {
+		if (level == 0) {
+			Leaf leaf = (Leaf) node;
+			long[] words = leaf.booked.clone();
+			int i = position & (LEAF_SIZE - 1);
+			words[i >>> 6] ^= 1L << i;
+			return new Leaf(words, leaf.ids);
+		}
+		Object[] children = ((Branch) node).children.clone();
+		int child = (position >>> (LEAF_BITS + BRANCH_BITS * (level - 1))) & (BRANCH_SIZE - 1);
+		children[child] = setBooked(children[child], level - 1, position, booked);
+		return new Branch(children);
+	}
+
+	/**
+	 * Makes a version of the sun beds as they are in <code>storage</code>,
+	 * sharing every chunk and node that is the same in <code>previous</code>.
+	 * O(n), comparing each chunk with the one it may replace.
+	 *
+	 * @param storage  The sun beds, not added to or removed from while reading
+	 * @param previous The version to share with
+	 * @return SunBedVersion The new version, <code>previous</code> if nothing
+	 *         changed
+	 */
+	static SunBedVersion of(SunBedStorage storage, SunBedVersion previous) {
+		int size = storage.size();
+		int chunks = (size + LEAF_SIZE - 1) >>> LEAF_BITS;
+		Leaf[] leaves = new Leaf[chunks];
+		int previousChunks = (previous.size + LEAF_SIZE - 1) >>> LEAF_BITS;
+		for (int n = 0; n < chunks; n++) {
+			Leaf old = n < previousChunks ? previous.leaf(n) : null;
+			int from = n << LEAF_BITS;
+			int count = Math.min(LEAF_SIZE, size - from);
+			int[] ids = new int[LEAF_SIZE];
+			for (int i = 0; i < count; i++) {
+				ids[i] = storage.getID(from + i);
+			}
+			long[] booked = new long[LEAF_WORDS];
+			for (int w = 0; w < (count + 63) >>> 6; w++) {
+				booked[w] = storage.getBookedWord((from >>> 6) + w);
+			}
+			if ((count & 63) != 0) {
+				booked[(count - 1) >>> 6] &= -1L >>> (64 - (count & 63));
+			}
+			if (old != null && Arrays.equals(old.ids, ids)) {
+				ids = old.ids;
+				if (Arrays.equals(old.booked, booked)) {
+					leaves[n] = old;
+					continue;
+				}
+			}
+			leaves[n] = new Leaf(booked, ids);
+		}
+		int depth = depth(chunks);
+		Object root = chunks == 0 ? null
+				: build(leaves, 0, depth, previous.depth == depth ? previous.root : null);
+		return root == previous.root && size == previous.size ? previous : new SunBedVersion(root, size, depth);
+	}
+
+	/**
+	 * The nodes of one level from the leaves up, reusing <code>old</code>
+	 * where every child is the same.
+	 */
+	private static Object build(Leaf[] leaves, int first, int level, Object old) {
+		if (level == 0) {
+			return leaves[first];
+		}
+		Object[] oldChildren = old == null ? null : ((Branch) old).children;
+		Object[] children = new Object[BRANCH_SIZE];
+		int span = 1 << (BRANCH_BITS * (level - 1));
+		boolean same = oldChildren != null;
+		for (int i = 0; i < BRANCH_SIZE; i++) {
+			int start = first + i * span;
+			if (start < leaves.length) {
+				children[i] = build(leaves, start, level - 1, oldChildren == null ? null : oldChildren[i]);
+			}
+			same &= oldChildren != null && children[i] == oldChildren[i];
+		}
+		return same ? old : new Branch(children);
+	}
+
+	/**
+	 * Finds the sun beds booked in one version and not the other, skipping
+	 * whatever the two share, so versions a few changes apart are compared in
+	 * O(changes * log n).
+	 *
+	 * @param other   A version of the same sun beds
+	 * @param visitor Told about each sun bed with its state in
+	 *                <code>other</code>
+	 * @return boolean False, having told <code>visitor</code> nothing, if sun
+	 *         beds were added, removed or moved between the two
+	 */
+	boolean diff(SunBedVersion other, Difference visitor) {
+		if (size != other.size || depth != other.depth || !sameLayout(root, other.root, depth)) {
+			return false;
+		}
+		diff(root, other.root, depth, visitor);
+		return true;
+	}
+
+	private static boolean sameLayout(Object a, Object b, int level) {
+		if (a == b) {
+			return true;
+		}
+		if (level == 0) {
+			return ((Leaf) a).ids == ((Leaf) b).ids || Arrays.equals(((Leaf) a).ids, ((Leaf) b).ids);
+		}
+		Object[] x = ((Branch) a).children;
+		Object[] y = ((Branch) b).children;
+		for (int i = 0; i < BRANCH_SIZE; i++) {
+			if ((x[i] == null) != (y[i] == null) || x[i] != null && !sameLayout(x[i], y[i], level - 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void diff(Object a, Object b, int level, Difference visitor) {
+		if (a == b) {
+			return;
+		}
+		if (level > 0) {
+			Object[] x = ((Branch) a).children;
+			Object[] y = ((Branch) b).children;
+			for (int i = 0; i < BRANCH_SIZE && x[i] != null; i++) {
+				diff(x[i], y[i], level - 1, visitor);
+			}
+			return;
+		}
+		Leaf x = (Leaf) a;
+		Leaf y = (Leaf) b;
+		for (int w = 0; w < LEAF_WORDS; w++) {
+			for (long bits = x.booked[w] ^ y.booked[w]; bits != 0; bits &= bits - 1) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+				visitor.booked(y.ids[i], (y.booked[w] & (1L << i)) != 0);
+			}
+		}
+	}
+
+	/**
+	 * @return Contents A copy of the sun beds in snapshot form, in O(n)
+	 */
+	SnapshotFile.Contents toContents() {
+		long[] booked = new long[SnapshotFile.words(size)];
+		int[] ids = new int[size];
+		for (int n = 0; n << LEAF_BITS < size; n++) {
+			Leaf leaf = leaf(n);
+			int from = n << LEAF_BITS;
+			System.arraycopy(leaf.ids, 0, ids, from, Math.min(LEAF_SIZE, size - from));
+			System.arraycopy(leaf.booked, 0, booked, from >>> 6, Math.min(LEAF_WORDS, booked.length - (from >>> 6)));
+		}
+		return new SnapshotFile.Contents(size, booked, ids);
+	}
+
+	/**
+	 * Adds the nodes and arrays of this version not yet in <code>seen</code>.
+	 *
+	 * @param seen The parts already counted, by identity
+	 * @return long Their size in bytes, estimated for a 64-bit JVM with
+	 *         compressed pointers
+	 */
+	long countBytes(Set<Object> seen) {
+		return countBytes(root, depth, seen);
+	}
+
+	/**
+	 * @return Set<Object> An empty set to pass to <code>countBytes()</code>
+	 */
+	static Set<Object> newSeenSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
+	private static long countBytes(Object node, int level, Set<Object> seen) {
+		if (node == null || !seen.add(node)) {
+			return 0;
+		}
+		if (level == 0) {
+			Leaf leaf = (Leaf) node;
+			long bytes = 24;
+			bytes += seen.add(leaf.booked) ? 16 + 8 * LEAF_WORDS : 0;
+			bytes += seen.add(leaf.ids) ? 16 + 4 * LEAF_SIZE : 0;
+			return bytes;
+		}
+		Object[] children = ((Branch) node).children;
+		long bytes = 16 + 16 + 4 * BRANCH_SIZE;
+		for (Object child : children) {
+			bytes += countBytes(child, level - 1, seen);
+		}
+		return bytes;
+	}
+
+	private Leaf leaf(int n) {
+		Object node = root;
+		for (int level = depth; level > 0; level--) {
+			node = ((Branch) node).children[(n >>> (BRANCH_BITS * (level - 1))) & (BRANCH_SIZE - 1)];
+		}
+		return (Leaf) node;
+	}
+
+	/**
+	 * @return int The levels of branches needed above <code>chunks</code>
+	 *         leaves
+	 */
+	private static int depth(int chunks) {
+		int depth = 0;
+		for (long capacity = 1; capacity < chunks; capacity <<= BRANCH_BITS) {
+			depth++;
+		}
+		return depth;
+	}
+}
@@ -0,0 +1,211 @@
+package application.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The beach split into named zones, e.g. <code>pool</code>,
+ * <code>front-row</code> and <code>vip</code>. Each zone is a
+ * <code>SunBedCollection</code> of its own, with its own storage, lock,
+ * journal and data file <code>&lt;zone&gt;.dat</code> in the zones'
+ * directory, so a change in one zone never waits for or rewrites another.
+ * <p>
+ * The zones are read in parallel, and the aggregate queries count every zone
+ * in parallel on the common fork/join pool. Each zone is counted as it is at
+ * that moment, a total is not a snapshot of all zones at one instant.
+ *
+ */
+public class SunBedZones {
+	private static final String DATA_FILE_SUFFIX = ".dat";
+	private static final Pattern ZONE_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+	private final Path directory;
+	// Sorted by name, so zones are always listed in the same order
+	private final ConcurrentSkipListMap<String, SunBedCollection> zones = new ConcurrentSkipListMap<>();
+
+	private SunBedZones(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Creates the zones kept in a directory. Call <code>readDataFromFile()</code>
+	 * to load them.
+	 *
+	 * @param directory Where the data files of the zones are, created when the
+	 *                  first zone is added
+	 * @return SunBedZones The zones
+	 */
+	public static SunBedZones forDirectory(Path directory) {
+		return new SunBedZones(directory);
+	}
+
+	/**
+	 * Reads every zone with a data file in the directory, all at once on the
+	 * common fork/join pool. Zones already read are read again.
+	 *
+	 * @throws IOException If any zone can not be read
+	 */
+	public synchronized void readDataFromFile() throws IOException {
+		List<String> names = new ArrayList<>();
+		if (Files.isDirectory(directory)) {
+			try (Stream<Path> files = Files.list(directory)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					String name = file.getFileName().toString();
+					if (name.endsWith(DATA_FILE_SUFFIX)) {
+						String zone = name.substring(0, name.length() - DATA_FILE_SUFFIX.length());
+						if (ZONE_NAME.matcher(zone).matches()) {
+							names.add(zone);
+						}
+					}
+				}
+			}
+		}
+		try {
+			names.parallelStream().forEach(zone -> {
+				try {
+					zone(zone).readDataFromFile();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Adds a zone, or returns it if there already is one with that name. The
+	 * data file of a new zone is written straight away.
+	 *
+	 * @param name The name of the zone, letters, digits, <code>-</code> and
+	 *             <code>_</code> only as it names its data file
+	 * @return SunBedCollection The sun beds of the zone
+	 * @throws IOException If the zone's data file exists and can not be read
+	 */
+	public synchronized SunBedCollection addZone(String name) throws IOException {
+		if (name == null || !ZONE_NAME.matcher(name).matches()) {
+			throw new IllegalArgumentException("Not a zone name: " + name);
+		}
+		SunBedCollection zone = zones.get(name);
+		if (zone == null) {
+			Files.createDirectories(directory);
+			zone = zone(name);
+			zone.readDataFromFile();
+			if (!Files.exists(directory.resolve(name + DATA_FILE_SUFFIX))) {
+				// So readDataFromFile() finds the zone before its journal is
+				// first compacted
+				zone.writeDataToFile();
+			}
+		}
+		return zone;
+	}
+
+	/**
+	 * @param name The name of a zone
+	 * @return SunBedCollection The sun beds of the zone
+	 * @throws IllegalArgumentException If there is no zone with that name
+	 */
+	public SunBedCollection getZone(String name) {
+		SunBedCollection zone = zones.get(name);
+		if (zone == null) {
+			throw new IllegalArgumentException("No zone called " + name);
+		}
+		return zone;
+	}
+
+	/**
+	 * @return List<String> The names of the zones, sorted
+	 */
+	public List<String> getZoneNames() {
+		return new ArrayList<>(zones.keySet());
+	}
+
+	/**
+	 * @return int The number of sun beds in every zone
+	 */
+	public int getCount() {
+		return getTotalOccupancy().getCount();
+	}
+
+	/**
+	 * @return int The number of free sun beds in every zone
+	 */
+	public int getCountFree() {
+		return getTotalOccupancy().getCountFree();
+	}
+
+	/**
+	 * Counts the sun beds of every zone in parallel.
+	 *
+	 * @return List<ZoneOccupancy> The sun beds of each zone, sorted by name
+	 */
+	public List<ZoneOccupancy> getOccupancyByZone() {
+		return zones.entrySet().parallelStream()
+				.map(zone -> occupancy(zone.getKey(), zone.getValue()))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Counts the sun beds of every zone in parallel and adds them up.
+	 *
+	 * @return ZoneOccupancy The sun beds of all the zones, named "all"
+	 */
+	public ZoneOccupancy getTotalOccupancy() {
+		return zones.values().parallelStream()
+				.map(zone -> occupancy("all", zone))
+				.reduce(new ZoneOccupancy("all", 0, 0), ZoneOccupancy::plus);
+	}
+
+	/**
+	 * Ends the day in every zone, see <code>SunBedCollection.endDay()</code>.
+	 */
+	public void endDay() {
+		zones.values().parallelStream().forEach(SunBedCollection::endDay);
+	}
+
+	/**
+	 * Writes out every queued change of every zone and closes their journals.
+	 *
+	 * @throws IOException If any zone can not be closed, the others are still
+	 *                     closed
+	 */
+	public void close() throws IOException {
+		IOException failed = null;
+		for (SunBedCollection zone : zones.values()) {
+			try {
+				zone.close();
+			} catch (IOException e) {
+				if (failed == null) {
+					failed = e;
+				} else {
+					failed.addSuppressed(e);
+				}
+			}
+		}
+		if (failed != null) {
+			throw failed;
+		}
+	}
+
+	private SunBedCollection zone(String name) {
+		return zones.computeIfAbsent(name,
+				zone -> SunBedCollection.forFile(directory.resolve(zone + DATA_FILE_SUFFIX)));
+	}
+
+	/**
+	 * The free count is read after the count, so a sun bed added in between
+	 * could make it the larger of the two.
+	 */
+	private static ZoneOccupancy occupancy(String name, SunBedCollection zone) {
+		int count = zone.getCount();
+		return new ZoneOccupancy(name, count, Math.min(count, zone.getCountFree()));
+	}
+}
@@ -0,0 +1,257 @@
+package application.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+/**
+ * Takes back changes to the sun beds and makes them again, for an attendant
+ * who tapped the wrong sun bed. Got from a collection with
+ * <code>SunBedCollection.getUndoHistory()</code>, which records every change
+ * from then on. Each toggle, <code>book()</code>, <code>release()</code>,
+ * batch, adding or removing sun beds and freeing them all is one step, from
+ * whichever attendant made it.
+ * <p>
+ * Every step keeps the sun beds as they were after it as a
+ * <code>SunBedVersion</code>, which shares all it did not change with the
+ * step before. A toggle of 100,000 sun beds costs about 400 bytes, so the
+ * default of 500 steps keeps a few hundred kilobytes rather than a copy of the
+ * sun beds per step. Undoing or redoing a toggle finds what changed by
+ * skipping the parts two versions share, in O(log n), and books or frees the
+ * sun beds that differ with one write. A step that added, removed or moved sun
+ * beds is put back by replacing the sun beds, in O(n), and written as a new
+ * data file.
+ * <p>
+ * Undoing is a change like any other, saved and reported to the listeners.
+ * A new change after undoing drops the steps that could have been redone.
+ * The history starts again when the data file is read and when the day ends,
+ * a day that has been archived is not taken back.
+ *
+ */
+public final class UndoHistory {
+	private static final int DEFAULT_LIMIT = 500;
+
+	private final SunBedCollection beds;
+	// Guarded by this, like everything below
+	private SunBedVersion current = SunBedVersion.EMPTY;
+	private final Deque<SunBedVersion> undo = new ArrayDeque<>();
+	private final Deque<SunBedVersion> redo = new ArrayDeque<>();
+	private int limit = DEFAULT_LIMIT;
+	// Changes fired while undoing or while a batch is reported are not steps
+	private boolean applying;
+	private int grouping;
+
+	UndoHistory(SunBedCollection beds) {
+		this.beds = beds;
+	}
+
+	/**
+	 * Keeps a version in step with a change to the sun beds and records it as
+	 * a step.
+	 *
+	 * @param change The change
+	 */
+	synchronized void sunBedsChanged(SunBedChange change) {
+		if (applying) {
+			return;
+		}
+		// Anything but a toggle reads every sun bed, sharing what did not change
+		SunBedVersion next = change.getType() == SunBedChange.Type.TOGGLED ? toggled(change.getID()) : read();
+		if (next != current) {
+			step(next);
+		}
+	}
+
+	/**
+	 * The state of a toggled sun bed is read again rather than taken from the
+	 * change, lock-free toggles of one sun bed may be reported out of order.
+	 */
+	private SunBedVersion toggled(int id) {
+		try {
+			int position = beds.getPosition(id);
+			if (position < 0 || position >= current.size() || current.getID(position) != id) {
+				// Removed or moved, the change that did it reads every sun bed
+				return current;
+			}
+			boolean booked = beds.isOccupiedAt(position);
+			if (beds.getID(position) != id) {
+				return current;
+			}
+			return current.setBooked(position, booked);
+		} catch (IndexOutOfBoundsException e) {
+			// Removed meanwhile, as above
+			return current;
+		}
+	}
+
+	private SunBedVersion read() {
+		return beds.readStorage(storage -> SunBedVersion.of(storage, current));
+	}
+
+	private void step(SunBedVersion next) {
+		current = next;
+		if (grouping > 0) {
+			return;
+		}
+		undo.addLast(next);
+		while (undo.size() > limit + 1) {
+			undo.removeFirst();
+		}
+		redo.clear();
+	}
+
+	/**
+	 * Reports the changes of a batch, which become one step.
+	 *
+	 * @param fire Tells the listeners about each change
+	 */
+	synchronized void group(Runnable fire) {
+		SunBedVersion before = current;
+		grouping++;
+		try {
+			fire.run();
+		} finally {
+			grouping--;
+		}
+		if (current != before) {
+			step(current);
+		}
+	}
+
+	/**
+	 * Starts again from the sun beds as they are, with nothing to undo or redo.
+	 */
+	synchronized void reset() {
+		current = read();
+		undo.clear();
+		redo.clear();
+		undo.addLast(current);
+	}
+
+	/**
+	 * Puts the sun beds back as they were before the last step.
+	 *
+	 * @return boolean False if there was nothing to undo
+	 */
+	public boolean undo() {
+		synchronized (beds) {
+			synchronized (this) {
+				if (undo.size() < 2) {
+					return false;
+				}
+				redo.addLast(undo.removeLast());
+				apply(undo.getLast());
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Makes the last step undone again.
+	 *
+	 * @return boolean False if there was nothing to redo
+	 */
+	public boolean redo() {
+		synchronized (beds) {
+			synchronized (this) {
+				if (redo.isEmpty()) {
+					return false;
+				}
+				SunBedVersion next = redo.removeLast();
+				undo.addLast(next);
+				apply(next);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Changes the sun beds to <code>target</code>. Caller holds the
+	 * collection's lock and then this one, the order changes are reported in,
+	 * so no sun beds are added or removed meanwhile.
+	 */
+	private void apply(SunBedVersion target) {
+		SunBedVersion from = current;
+		boolean[] sameLayout = new boolean[1];
+		applying = true;
+		try {
+			beds.batch(m -> sameLayout[0] = from.diff(target, m::setBooked));
+			if (!sameLayout[0]) {
+				beds.restore(target.toContents());
+			}
+		} finally {
+			applying = false;
+		}
+		current = target;
+	}
+
+	/**
+	 * @return boolean True if there is a step to undo
+	 */
+	public synchronized boolean canUndo() {
+		return undo.size() > 1;
+	}
+
+	/**
+	 * @return boolean True if there is an undone step to redo
+	 */
+	public synchronized boolean canRedo() {
+		return !redo.isEmpty();
+	}
+
+	/**
+	 * @return int The number of steps that can be undone
+	 */
+	public synchronized int getUndoCount() {
+		return undo.size() - 1;
+	}
+
+	/**
+	 * @return int The number of steps that can be redone
+	 */
+	public synchronized int getRedoCount() {
+		return redo.size();
+	}
+
+	/**
+	 * @return int The most steps kept, the oldest are dropped first
+	 */
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param steps The most steps to keep
+	 */
+	public synchronized void setLimit(int steps) {
+		if (steps < 1) {
+			throw new IllegalArgumentException("Keep at least one step: " + steps);
+		}
+		limit = steps;
+		while (undo.size() > limit + 1) {
+			undo.removeFirst();
+		}
+		while (redo.size() > limit) {
+			redo.removeFirst();
+		}
+	}
+
+	/**
+	 * Walks every version kept, counting the parts they share once, so takes
+	 * O(n) and is meant for tools.
+	 *
+	 * @return long Roughly how many bytes the history keeps, including the
+	 *         current version
+	 */
+	public synchronized long getRetainedBytes() {
+		Set<Object> seen = SunBedVersion.newSeenSet();
+		long bytes = current.countBytes(seen);
+		for (SunBedVersion version : undo) {
+			bytes += version.countBytes(seen);
+		}
+		for (SunBedVersion version : redo) {
+			bytes += version.countBytes(seen);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,62 @@
+package application.model;
+
+/**
+ * How many sun beds a zone of the beach has and how many of them are free, as
+ * counted by <code>SunBedZones</code>, or rows or a price tier as counted by
+ * <code>OccupancyRollup</code>. Totals over several zones are made with
+ * <code>plus()</code>.
+ *
+ */
+public final class ZoneOccupancy {
+	private final String zone;
+	private final int count;
+	private final int free;
+
+	/**
+	 * @param zone  The name of the zone, or a name for several zones together
+	 * @param count The number of sun beds
+	 * @param free  The number of free sun beds
+	 */
+	public ZoneOccupancy(String zone, int count, int free) {
+		this.zone = zone;
+		this.count = count;
+		this.free = free;
+	}
+
+	public String getZone() {
+		return zone;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getCountFree() {
+		return free;
+	}
+
+	public int getCountBooked() {
+		return count - free;
+	}
+
+	/**
+	 * @return double The percentage of the sun beds that are booked, 0 if there
+	 *         are none
+	 */
+	public double getOccupancy() {
+		return count == 0 ? 0 : 100.0 * (count - free) / count;
+	}
+
+	/**
+	 * @param other The sun beds of another zone
+	 * @return ZoneOccupancy The sun beds of both zones, named after this one
+	 */
+	public ZoneOccupancy plus(ZoneOccupancy other) {
+		return new ZoneOccupancy(zone, count + other.count, free + other.free);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d of %d free (%.1f%% occupied)", zone, free, count, getOccupancy());
+	}
+}
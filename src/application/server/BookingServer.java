@@ -0,0 +1,442 @@
+package application.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import application.model.PersistenceMode;
+import application.model.StorageMode;
+import application.model.SunBed;
+import application.model.SunBedCollection;
+
+/**
+ * Serves a <code>SunBedCollection</code> over HTTP as JSON, so kiosks around
+ * the beach can book sun beds without the JavaFX window. Started with
+ * <code>Launcher --server [port]</code>. Uses the JDK's own
+ * <code>com.sun.net.httpserver</code>, nothing else.
+ * <p>
+ * The API, every path under <code>/sunbeds</code>:
+ * <ul>
+ * <li><code>GET /sunbeds</code> every sun bed, in position order</li>
+ * <li><code>GET /sunbeds/free</code> how many sun beds there are and how many
+ * are free</li>
+ * <li><code>GET /sunbeds/{id}</code> one sun bed</li>
+ * <li><code>POST /sunbeds/{id}/toggle</code>, <code>/book</code> and
+ * <code>/release</code> change one sun bed. Booking a booked sun bed or
+ * releasing a free one is <code>409 Conflict</code>.</li>
+ * <li><code>POST /sunbeds/book</code> and <code>/release</code> with a JSON
+ * array of IDs change them all at once, or none if any ID is unknown.
+ * <code>changed</code> is how many were not already booked or free.</li>
+ * <li><code>POST /sunbeds/add?count=n</code> and
+ * <code>/remove?count=n</code> add or remove sun beds at the end</li>
+ * <li><code>POST /sunbeds/free-all</code> makes every sun bed free</li>
+ * </ul>
+ * <p>
+ * Every <code>GET</code> has an <code>ETag</code> that changes whenever any
+ * sun bed does, so a kiosk polling with <code>If-None-Match</code> is sent
+ * <code>304 Not Modified</code> and no body until something changes. The list
+ * of sun beds is rendered once per change however many kiosks ask for it.
+ * <p>
+ * Each request runs on a virtual thread of its own where the JVM has them,
+ * otherwise on a pool of threads.
+ *
+ */
+public class BookingServer {
+	public static final int DEFAULT_PORT = 8080;
+	private static final String CONTEXT = "/sunbeds";
+	private static final int MAX_BODY_BYTES = 1 << 20;
+	// How often the metrics summary is logged
+	private static final long METRICS_LOG_SECONDS = 60;
+	private static final Logger LOGGER = LogManager.getLogger(BookingServer.class);
+
+	private final SunBedCollection beds;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	// Changed by every change to the sun beds, the ETag of every GET
+	private final AtomicLong version = new AtomicLong();
+	// Tells apart the ETags of different runs of the server
+	private final String etagPrefix = Long.toString(System.currentTimeMillis(), 36);
+	private volatile Rendered rendered;
+
+	/**
+	 * The list of sun beds as sent for one version.
+	 */
+	private static final class Rendered {
+		private final long version;
+		private final byte[] body;
+
+		Rendered(long version, byte[] body) {
+			this.version = version;
+			this.body = body;
+		}
+	}
+
+	private BookingServer(SunBedCollection beds, HttpServer server, ExecutorService executor) {
+		this.beds = beds;
+		this.server = server;
+		this.executor = executor;
+	}
+
+	/**
+	 * Starts serving a collection, which should already have been read.
+	 *
+	 * @param beds The sun beds
+	 * @param port The port to listen on, 0 for any free port
+	 * @return BookingServer The running server
+	 * @throws IOException If the port can not be listened on
+	 */
+	public static BookingServer start(SunBedCollection beds, int port) throws IOException {
+		// Otherwise Nagle's algorithm holds back each small response until the
+		// kiosk's delayed ACK, 40 ms on Linux. Read when the first server is
+		// created.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		ExecutorService executor = requestExecutor();
+		BookingServer booking = new BookingServer(beds, server, executor);
+		beds.addChangeListener(change -> booking.version.incrementAndGet());
+		server.createContext(CONTEXT, booking::handle);
+		server.setExecutor(executor);
+		server.start();
+		return booking;
+	}
+
+	/**
+	 * @return int The port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops taking requests and waits up to a second for those running to
+	 * finish.
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the server on the application's sun beds until the JVM is stopped.
+	 *
+	 * @param args The port to listen on, by default <code>DEFAULT_PORT</code>
+	 */
+	public static void main(String[] args) {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		SunBedCollection beds = SunBedCollection.getInstance();
+		// Many kiosks book at once, let them share writes and not wait for each
+		// other's toggles
+		beds.setStorageMode(StorageMode.CONCURRENT);
+		beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+		try {
+			beds.readDataFromFile();
+		} catch (Exception e) {
+			if (beds.getStoredBytes() > 0) {
+				// Damaged or unreadable, never written over with no sun beds
+				LOGGER.error("Reading the data file failed! Nothing was changed, fix or move the data file and its"
+						+ " journal.", e);
+				System.exit(1);
+			}
+			try {
+				beds.writeDataToFile();
+			} catch (Exception ex) {
+				LOGGER.error("Creating the data file failed!", ex);
+				System.exit(1);
+			}
+		}
+		try {
+			beds.getHistory();
+		} catch (Exception e) {
+			LOGGER.warn("Occupancy history not kept: {}", e.getMessage());
+		}
+		try {
+			beds.getMetrics().register();
+		} catch (Exception e) {
+			LOGGER.warn("Metrics not available over JMX: {}", e.getMessage());
+		}
+		beds.getMetrics().startLogging(METRICS_LOG_SECONDS);
+		try {
+			BookingServer server = start(beds, port);
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "sunbed-http-stop"));
+			System.out.println("Serving " + beds.getCount() + " sun beds on http://localhost:" + server.getPort()
+					+ CONTEXT);
+		} catch (IOException e) {
+			LOGGER.error("BookingServer could not listen on port " + port + "!", e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * One thread per request: a virtual thread where the JVM has them (Java 21
+	 * on), found by reflection so the server still runs on older JVMs, which get
+	 * a pool of threads instead.
+	 */
+	private static ExecutorService requestExecutor() {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger threads = new AtomicInteger();
+			return Executors.newFixedThreadPool(Math.max(8, 4 * Runtime.getRuntime().availableProcessors()), r -> {
+				Thread t = new Thread(r, "sunbed-http-" + threads.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			route(exchange);
+		} catch (HttpError e) {
+			sendError(exchange, e.status, e.getMessage());
+		} catch (RuntimeException e) {
+			LOGGER.error("BookingServer request failed!", e);
+			sendError(exchange, 500, "Internal error");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void route(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		String[] parts = path.substring(CONTEXT.length()).split("/");
+		// "/sunbeds" splits into [""], "/sunbeds/1/book" into ["", "1", "book"]
+		if (parts.length > 0 && !parts[0].isEmpty()) {
+			throw new HttpError(404, "No such resource: " + path);
+		}
+		if (parts.length <= 1) {
+			requireMethod(method, "GET");
+			sendGet(exchange, this::listBody);
+		} else if (parts.length == 2) {
+			String name = parts[1];
+			if (name.equals("free")) {
+				requireMethod(method, "GET");
+				sendGet(exchange, () -> Json.object().field("count", beds.getCount())
+						.field("free", beds.getCountFree()).field("day", beds.getDay()).toBytes());
+			} else if (name.equals("book") || name.equals("release")) {
+				requireMethod(method, "POST");
+				int[] ids = Json.parseIntArray(readBody(exchange));
+				int changed;
+				try {
+					changed = beds.setBooked(ids, name.equals("book"));
+				} catch (IllegalArgumentException e) {
+					throw new HttpError(404, e.getMessage());
+				}
+				sendJson(exchange, 200, Json.object().field("changed", changed).field("free", beds.getCountFree())
+						.toBytes());
+			} else if (name.equals("add") || name.equals("remove")) {
+				requireMethod(method, "POST");
+				int count = countParameter(exchange.getRequestURI());
+				try {
+					if (name.equals("add")) {
+						beds.addSunBeds(count);
+					} else {
+						beds.removeSunBeds(count);
+					}
+				} catch (IllegalArgumentException e) {
+					throw new HttpError(400, e.getMessage());
+				}
+				sendJson(exchange, 200, Json.object().field("count", beds.getCount())
+						.field("free", beds.getCountFree()).toBytes());
+			} else if (name.equals("free-all")) {
+				requireMethod(method, "POST");
+				beds.setAllSunBedsToFree();
+				sendJson(exchange, 200, Json.object().field("count", beds.getCount())
+						.field("free", beds.getCountFree()).toBytes());
+			} else {
+				int id = parseId(name);
+				requireMethod(method, "GET");
+				sendGet(exchange, () -> bedBody(id));
+			}
+		} else if (parts.length == 3) {
+			int id = parseId(parts[1]);
+			requireMethod(method, "POST");
+			boolean changed;
+			try {
+				switch (parts[2]) {
+				case "toggle":
+					beds.toggleSunBed(id);
+					changed = true;
+					break;
+				case "book":
+					changed = beds.book(id);
+					break;
+				case "release":
+					changed = beds.release(id);
+					break;
+				default:
+					throw new HttpError(404, "No such resource: " + path);
+				}
+			} catch (IllegalArgumentException e) {
+				throw new HttpError(404, e.getMessage());
+			}
+			if (!changed) {
+				throw new HttpError(409, "Sun bed " + id + " is already " + (parts[2].equals("book") ? "booked" : "free"));
+			}
+			sendJson(exchange, 200, bedBody(id));
+		} else {
+			throw new HttpError(404, "No such resource: " + path);
+		}
+	}
+
+	private byte[] listBody() {
+		long v = version.get();
+		Rendered last = rendered;
+		if (last != null && last.version == v) {
+			return last.body;
+		}
+		List<SunBed> list = beds.getSunBeds();
+		Json json = Json.object().field("count", list.size()).field("free", beds.getCountFree())
+				.field("day", beds.getDay()).array("sunBeds");
+		for (SunBed bed : list) {
+			json.objectElement().field("id", bed.getID()).field("booked", bed.isBooked()).end();
+		}
+		byte[] body = json.end().toBytes();
+		rendered = new Rendered(v, body);
+		return body;
+	}
+
+	private byte[] bedBody(int id) {
+		int position = beds.getPosition(id);
+		if (position < 0) {
+			throw new HttpError(404, "No sun bed with ID " + id);
+		}
+		try {
+			return Json.object().field("id", id).field("position", position).field("booked", beds.isOccupied(id))
+					.toBytes();
+		} catch (IllegalArgumentException e) {
+			throw new HttpError(404, e.getMessage());
+		}
+	}
+
+	/**
+	 * The body of a GET, or <code>304 Not Modified</code> if the client has the
+	 * current version. The version is read before the sun beds, so a body never
+	 * has an ETag newer than itself.
+	 */
+	private void sendGet(HttpExchange exchange, Body body) throws IOException {
+		String etag = "\"" + etagPrefix + "-" + version.get() + "\"";
+		exchange.getResponseHeaders().set("ETag", etag);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		if (matches(exchange.getRequestHeaders(), etag)) {
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+		sendJson(exchange, 200, body.get());
+	}
+
+	private static boolean matches(Headers headers, String etag) {
+		List<String> values = headers.get("If-None-Match");
+		if (values == null) {
+			return false;
+		}
+		for (String value : values) {
+			for (String tag : value.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if (tag.equals(etag) || tag.equals("*")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void sendJson(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		sendJson(exchange, status, Json.object().field("error", message).toBytes());
+	}
+
+	private static void requireMethod(String method, String expected) {
+		if (!method.equals(expected)) {
+			throw new HttpError(405, method + " not allowed, use " + expected);
+		}
+	}
+
+	private static int parseId(String text) {
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			throw new HttpError(404, "Not a sun bed ID: " + text);
+		}
+	}
+
+	private static int countParameter(URI uri) {
+		String query = uri.getRawQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				if (parameter.startsWith("count=")) {
+					try {
+						int count = Integer.parseInt(parameter.substring(6));
+						if (count >= 0) {
+							return count;
+						}
+					} catch (NumberFormatException e) {
+						// Reported below
+					}
+				}
+			}
+		}
+		throw new HttpError(400, "count must be given as a number of sun beds");
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+			if (body.length > MAX_BODY_BYTES) {
+				throw new HttpError(413, "Request body is over " + MAX_BODY_BYTES + " bytes");
+			}
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+
+	@FunctionalInterface
+	private interface Body {
+		byte[] get();
+	}
+
+	/**
+	 * Ends a request with an error status and message.
+	 */
+	static final class HttpError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private final int status;
+
+		HttpError(int status, String message) {
+			super(message, null, false, false);
+			this.status = status;
+		}
+	}
+}
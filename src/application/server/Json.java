@@ -0,0 +1,171 @@
+package application.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes the little JSON the booking server sends, and reads the arrays of
+ * IDs it is sent, without a JSON library. Objects and arrays are opened with
+ * <code>object()</code>, <code>objectElement()</code> and
+ * <code>array()</code> and closed with
+ * <code>end()</code>, anything still open is closed by
+ * <code>toBytes()</code>:
+ *
+ * <pre>
+ * Json.object().field("free", 3).array("sunBeds").objectElement().field("id", 1).end().toBytes()
+ * </pre>
+ *
+ */
+final class Json {
+	private final StringBuilder text = new StringBuilder(64);
+	// For each open object or array, whether it has anything in it yet and
+	// whether it is an array
+	private boolean[] started = new boolean[8];
+	private boolean[] arrays = new boolean[8];
+	private int depth;
+
+	private Json() {
+		super();
+	}
+
+	/**
+	 * @return Json A new JSON object
+	 */
+	static Json object() {
+		return new Json().open('{', false);
+	}
+
+	/**
+	 * Opens an object inside the array being written.
+	 *
+	 * @return Json This
+	 */
+	Json objectElement() {
+		separate();
+		return open('{', false);
+	}
+
+	/**
+	 * Opens an array as the value of a field.
+	 *
+	 * @param name The name of the field
+	 * @return Json This
+	 */
+	Json array(String name) {
+		name(name);
+		return open('[', true);
+	}
+
+	Json field(String name, long value) {
+		name(name);
+		text.append(value);
+		return this;
+	}
+
+	Json field(String name, boolean value) {
+		name(name);
+		text.append(value);
+		return this;
+	}
+
+	Json field(String name, String value) {
+		name(name);
+		if (value == null) {
+			text.append("null");
+		} else {
+			string(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Closes the object or array opened last.
+	 *
+	 * @return Json This
+	 */
+	Json end() {
+		depth--;
+		text.append(arrays[depth] ? ']' : '}');
+		return this;
+	}
+
+	/**
+	 * @return byte[] The JSON in UTF-8, with everything still open closed
+	 */
+	byte[] toBytes() {
+		while (depth > 0) {
+			end();
+		}
+		return text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads an array of IDs, either on its own as <code>[1, 2, 3]</code> or as
+	 * the only array of an object such as <code>{"ids": [1, 2, 3]}</code>.
+	 *
+	 * @param body The JSON
+	 * @return int[] The IDs
+	 * @throws BookingServer.HttpError If the body holds no array of integers
+	 */
+	static int[] parseIntArray(String body) {
+		int open = body.indexOf('[');
+		int close = body.indexOf(']', open + 1);
+		if (open < 0 || close < 0) {
+			throw new BookingServer.HttpError(400, "Expected a JSON array of sun bed IDs");
+		}
+		String content = body.substring(open + 1, close).trim();
+		if (content.isEmpty()) {
+			return new int[0];
+		}
+		String[] values = content.split(",");
+		int[] ids = new int[values.length];
+		try {
+			for (int i = 0; i < values.length; i++) {
+				ids[i] = Integer.parseInt(values[i].trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new BookingServer.HttpError(400, "Not a sun bed ID: " + e.getMessage());
+		}
+		return ids;
+	}
+
+	private Json open(char bracket, boolean array) {
+		if (depth == started.length) {
+			started = Arrays.copyOf(started, depth * 2);
+			arrays = Arrays.copyOf(arrays, depth * 2);
+		}
+		started[depth] = false;
+		arrays[depth] = array;
+		depth++;
+		text.append(bracket);
+		return this;
+	}
+
+	private void separate() {
+		if (started[depth - 1]) {
+			text.append(',');
+		}
+		started[depth - 1] = true;
+	}
+
+	private void name(String name) {
+		separate();
+		string(name);
+		text.append(':');
+	}
+
+	private void string(String value) {
+		text.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				text.append('\\').append(c);
+			} else if (c < 0x20) {
+				text.append(String.format("\\u%04x", (int) c));
+			} else {
+				text.append(c);
+			}
+		}
+		text.append('"');
+	}
+}
@@ -0,0 +1,289 @@
+package application.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads and writes one day of the occupancy history: every time a sun bed was
+ * booked or freed that day, stored as three columns rather than as rows, so a
+ * query only reads the columns it needs and each column compresses well:
+ *
+ * <pre>
+ * offset  size         field
+ * 0       4            magic "SBH1"
+ * 4       4            format version
+ * 8       4            day, as numbered by the sun bed collection
+ * 12      4            number of events (n)
+ * 16      8            when the day started, in milliseconds since the epoch
+ * 24      8            when the day ended, -1 while it is still open
+ * 32      4            offset of local time from UTC at the start, in seconds
+ * 36      4            size of the time column in bytes (t)
+ * 40      t            time column, the milliseconds since the event before
+ *                      (the start for the first) as unsigned LEB128 varints
+ * ...     4 * n        ID column, the sun bed of each event
+ * ...     8 * words    state column, bit i of word i / 64 is set if event i
+ *                      booked the sun bed and clear if it freed it
+ * </pre>
+ *
+ * All values are little-endian. Events are in time order, so the gaps are
+ * small and most take one or two bytes instead of eight. A file is written to
+ * a temporary file and moved into place, so it is never seen half written.
+ * Files are read whole into a buffer of their own, one day at a time, so
+ * querying a season never holds more than one day. They are not mapped: on
+ * Windows a file that is still mapped can not be replaced, and the open day's
+ * file is replaced every time it is written.
+ *
+ */
+public class HistorySegmentFile {
+
+	public static final int MAGIC = 0x31484253; // "SBH1" read little-endian
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 40;
+
+	private HistorySegmentFile() {
+		throw new IllegalStateException("HistorySegmentFile Utility Class");
+	}
+
+	/**
+	 * Receives the events of a day in time order.
+	 */
+	@FunctionalInterface
+	public interface EventVisitor {
+		/**
+		 * @param millis When it happened, in milliseconds since the epoch
+		 * @param id     The ID of the sun bed
+		 * @param booked True if the sun bed was booked, false if it was freed
+		 */
+		void event(long millis, int id, boolean booked);
+	}
+
+	/**
+	 * One day of events, either read from a file or about to be written to one.
+	 */
+	public static class Segment {
+		private final int day;
+		private final int count;
+		private final long startMillis;
+		private final long endMillis;
+		private final int zoneOffsetSeconds;
+		// Either the columns as arrays, or the file as read
+		private final int[] gaps;
+		private final int[] ids;
+		private final long[] states;
+		private final ByteBuffer file;
+
+		/**
+		 * @param day               The day
+		 * @param count             The number of events
+		 * @param startMillis       When the day started
+		 * @param endMillis         When it ended, -1 while it is open
+		 * @param zoneOffsetSeconds Offset of local time from UTC
+		 * @param gaps              Milliseconds since the event before, at least
+		 *                          <code>count</code> long
+		 * @param ids               The sun bed of each event
+		 * @param states            Bit i set if event i booked the sun bed, at
+		 *                          least <code>SnapshotFile.words(count)</code>
+		 *                          long
+		 */
+		public Segment(int day, int count, long startMillis, long endMillis, int zoneOffsetSeconds, int[] gaps,
+				int[] ids, long[] states) {
+			this.day = day;
+			this.count = count;
+			this.startMillis = startMillis;
+			this.endMillis = endMillis;
+			this.zoneOffsetSeconds = zoneOffsetSeconds;
+			this.gaps = gaps;
+			this.ids = ids;
+			this.states = states;
+			this.file = null;
+		}
+
+		private Segment(ByteBuffer file) throws IOException {
+			if (file.limit() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+				throw new IOException("Not an occupancy history file");
+			}
+			if (file.getInt(4) != VERSION) {
+				throw new IOException("Unsupported occupancy history version " + file.getInt(4));
+			}
+			this.day = file.getInt(8);
+			this.count = file.getInt(12);
+			this.startMillis = file.getLong(16);
+			this.endMillis = file.getLong(24);
+			this.zoneOffsetSeconds = file.getInt(32);
+			int timeBytes = file.getInt(36);
+			long expected = (long) HEADER_SIZE + timeBytes + 4L * count + 8L * SnapshotFile.words(count);
+			if (count < 0 || timeBytes < 0 || file.limit() != expected) {
+				throw new IOException("Occupancy history file is " + file.limit() + " bytes, expected " + expected);
+			}
+			this.gaps = null;
+			this.ids = null;
+			this.states = null;
+			this.file = file;
+		}
+
+		public int getDay() {
+			return day;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		/**
+		 * @return long When the day ended, -1 while it is still open
+		 */
+		public long getEndMillis() {
+			return endMillis;
+		}
+
+		public int getZoneOffsetSeconds() {
+			return zoneOffsetSeconds;
+		}
+
+		/**
+		 * @return long When the last event happened, the start if there are none
+		 */
+		public long getLastEventMillis() {
+			long[] last = { startMillis };
+			forEach((millis, id, booked) -> last[0] = millis);
+			return last[0];
+		}
+
+		/**
+		 * Passes every event to the visitor in time order, decoding the columns
+		 * as it goes.
+		 *
+		 * @param visitor Receives the events
+		 */
+		public void forEach(EventVisitor visitor) {
+			long millis = startMillis;
+			if (file == null) {
+				for (int i = 0; i < count; i++) {
+					millis += gaps[i];
+					visitor.event(millis, ids[i], (states[i >>> 6] & (1L << i)) != 0);
+				}
+				return;
+			}
+			int time = HEADER_SIZE;
+			int idAt = HEADER_SIZE + file.getInt(36);
+			int stateAt = idAt + 4 * count;
+			long word = 0;
+			for (int i = 0; i < count; i++) {
+				long gap = 0;
+				for (int shift = 0;; shift += 7) {
+					byte b = file.get(time++);
+					gap |= (long) (b & 0x7f) << shift;
+					if (b >= 0) {
+						break;
+					}
+				}
+				millis += gap;
+				if ((i & 63) == 0) {
+					word = file.getLong(stateAt + 8 * (i >>> 6));
+				}
+				visitor.event(millis, file.getInt(idAt + 4 * i), (word & (1L << i)) != 0);
+			}
+		}
+	}
+
+	/**
+	 * Reads a history file into a buffer, closing the file before returning so
+	 * it can be replaced while the segment is still being read.
+	 *
+	 * @param path The file
+	 * @return Segment The day of events in the file
+	 * @throws IOException If the file can not be read or is not a history file
+	 */
+	public static Segment read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Occupancy history file is too big: " + size + " bytes");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("Occupancy history file ended after " + buffer.position() + " bytes");
+				}
+			}
+			buffer.flip();
+			return new Segment(buffer.order(ByteOrder.LITTLE_ENDIAN));
+		}
+	}
+
+	/**
+	 * Writes a day of events with a single <code>FileChannel</code> write.
+	 *
+	 * @param segment The events
+	 * @param path    The file, replaced if it exists
+	 * @throws IOException If the file can not be written
+	 */
+	public static void write(Segment segment, Path path) throws IOException {
+		Columns columns = new Columns(segment);
+		segment.forEach(columns);
+		int count = segment.count;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + columns.timeBytes + 4 * count + 8 * columns.states.length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(segment.day).putInt(count).putLong(segment.startMillis)
+				.putLong(segment.endMillis).putInt(segment.zoneOffsetSeconds).putInt(columns.timeBytes);
+		buffer.put(columns.times, 0, columns.timeBytes);
+		buffer.asIntBuffer().put(columns.ids);
+		buffer.position(buffer.position() + 4 * count);
+		buffer.asLongBuffer().put(columns.states);
+		buffer.position(0);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Builds the columns of a file from the events of a segment.
+	 */
+	private static final class Columns implements EventVisitor {
+		private byte[] times;
+		private int timeBytes;
+		private final int[] ids;
+		private final long[] states;
+		private long previous;
+		private int at;
+
+		Columns(Segment segment) {
+			times = new byte[Math.max(16, 2 * segment.count)];
+			ids = new int[segment.count];
+			states = new long[SnapshotFile.words(segment.count)];
+			previous = segment.startMillis;
+		}
+
+		@Override
+		public void event(long millis, int id, boolean booked) {
+			if (timeBytes + 10 > times.length) {
+				times = Arrays.copyOf(times, times.length * 2);
+			}
+			long gap = millis - previous;
+			previous = millis;
+			while ((gap & ~0x7fL) != 0) {
+				times[timeBytes++] = (byte) ((gap & 0x7f) | 0x80);
+				gap >>>= 7;
+			}
+			times[timeBytes++] = (byte) gap;
+			ids[at] = id;
+			if (booked) {
+				states[at >>> 6] |= 1L << at;
+			}
+			at++;
+		}
+	}
+}
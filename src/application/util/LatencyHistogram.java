@@ -0,0 +1,147 @@
+package application.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long something takes, in nanoseconds, in buckets that grow with
+ * the value: each power of two is split into 8 buckets, so a percentile is
+ * never more than 12.5% above the true value. Values from 0 to about 18
+ * minutes have a bucket of their own, longer ones count in the last bucket.
+ * <p>
+ * <code>record()</code> is a few shifts and atomic increments, it never
+ * allocates or locks, so it can be called on every toggle from any number of
+ * threads. Reading is done on a <code>Snapshot</code>, which is only
+ * consistent with itself if nothing is recorded while it is taken.
+ *
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Values from 2^MAX_EXPONENT on count in the last bucket
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos How long it took, negative counts as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(Math.min(value, MAX_VALUE)));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value)) {
+			m = max.get();
+		}
+	}
+
+	/**
+	 * @return long How many values have been recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return Snapshot A copy of the counts to read the percentiles from
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, count.get(), total.get(), max.get());
+	}
+
+	/**
+	 * Values below 8 have a bucket each. Above that bucket
+	 * <code>(e - 2) * 8 + s</code> holds the values whose highest bit is bit
+	 * <code>e</code> and whose next 3 bits are <code>s</code>.
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return long The highest value that counts in a bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * The counts of a histogram at one moment.
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long total;
+		private final long max;
+
+		Snapshot(long[] counts, long count, long total, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return double The mean in nanoseconds, 0 if nothing was recorded
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) total / count;
+		}
+
+		/**
+		 * @return long The longest value recorded in nanoseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @param percentile From 0 to 100, e.g. 99 for the 99th percentile
+		 * @return long The highest value of the bucket the percentile falls in,
+		 *         at most <code>getMax()</code>, 0 if nothing was recorded
+		 */
+		public long getPercentile(double percentile) {
+			long seen = 0;
+			for (long c : counts) {
+				seen += c;
+			}
+			if (seen == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * seen));
+			long at = 0;
+			for (int i = 0; i < counts.length; i++) {
+				at += counts[i];
+				if (at >= rank) {
+					return Math.min(highestValue(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,481 @@
+/**
+ *
+ */
+package application.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of changes made to the sun beds. Every change is written
+ * as a small fixed-size record, so the cost of saving a change does not depend
+ * on how many sun beds there are. On start up the journal is replayed on top of
+ * the last snapshot.
+ * <p>
+ * A record is four ints: the operation, two arguments and a checksum of the
+ * first three. Replay stops at the first record with a bad checksum, which is
+ * what a write torn by a crash looks like, and the tail is cut off.
+ * <p>
+ * Every operation sets state rather than changing it relative to what was
+ * there, so replaying records that are already part of the snapshot gives the
+ * same result as replaying them once.
+ * <p>
+ * Records appended together with <code>append(Batch)</code> are preceded by an
+ * <code>OP_BATCH</code> record and are replayed all or not at all.
+ *
+ */
+public class MutationJournal implements Closeable {
+
+	/** Size in bytes of one record */
+	public static final int RECORD_SIZE = 16;
+
+	/**
+	 * Sets the booked flag of the sun bed at position <code>a</code> to
+	 * <code>b != 0</code>. Written by earlier versions, replaced by
+	 * <code>OP_SET_BOOKED_BY_ID</code>.
+	 */
+	public static final int OP_SET_BOOKED = 1;
+	/** Grows (with free sun beds) or shrinks the collection to <code>a</code> sun beds */
+	public static final int OP_RESIZE = 2;
+	/** Marks every sun bed as free */
+	public static final int OP_FREE_ALL = 3;
+	/** The next <code>a</code> records are one batch, never passed to a <code>Replayer</code> */
+	public static final int OP_BATCH = 4;
+	/** Sets the booked flag of the sun bed with ID <code>a</code> to <code>b != 0</code>, if there is one */
+	public static final int OP_SET_BOOKED_BY_ID = 5;
+	/** Removes the sun bed with ID <code>a</code> if there is one, the sun beds after it move down */
+	public static final int OP_REMOVE_BY_ID = 6;
+	/** Ends the day, <code>a</code> is the number of days ended and every sun bed is free */
+	public static final int OP_END_DAY = 7;
+	/**
+	 * Reserves the sun bed with ID <code>a</code> for a span of hours packed in
+	 * <code>b</code> as <code>day << 10 | from << 5 | to</code>, hours
+	 * <code>from</code> to <code>to - 1</code>
+	 */
+	public static final int OP_RESERVE = 8;
+	/** Cancels the reservation of the sun bed with ID <code>a</code> for the hours packed in <code>b</code> */
+	public static final int OP_CANCEL_RESERVATION = 9;
+
+	/**
+	 * Receives the records of a journal as it is replayed.
+	 */
+	public interface Replayer {
+		void apply(int op, int a, int b);
+	}
+
+	/**
+	 * Records collected to be appended together. Not thread safe.
+	 */
+	public static final class Batch {
+		private int[] records = new int[3 * 16];
+		private int size;
+
+		/**
+		 * @param op The operation, one of the <code>OP_</code> constants
+		 * @param a  The first argument
+		 * @param b  The second argument
+		 */
+		public void add(int op, int a, int b) {
+			if (op == OP_BATCH) {
+				throw new IllegalArgumentException("Batches can not be nested");
+			}
+			if (3 * size == records.length) {
+				records = Arrays.copyOf(records, records.length * 2);
+			}
+			records[3 * size] = op;
+			records[3 * size + 1] = a;
+			records[3 * size + 2] = b;
+			size++;
+		}
+
+		/**
+		 * @return int The number of records in the batch
+		 */
+		public int size() {
+			return size;
+		}
+
+		public int getOp(int i) {
+			return records[3 * i];
+		}
+
+		public int getA(int i) {
+			return records[3 * i + 1];
+		}
+
+		/**
+		 * Changes the second argument of a record already in the batch, e.g. to
+		 * the state a sun bed has just before the batch is appended.
+		 */
+		public void setB(int i, int b) {
+			records[3 * i + 2] = b;
+		}
+	}
+
+	private final Path path;
+	private final CRC32 crc = new CRC32();
+	// Records appended but not yet written, guarded by this
+	private ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 256);
+	// Buffer being written while new records go to pending, guarded by io
+	private ByteBuffer writing = ByteBuffer.allocate(RECORD_SIZE * 256);
+	// Set while writing is being written, so a failed write is finished first next time
+	private boolean writeUnfinished;
+	// Held while touching the file so appends never wait on the disk
+	private final Object io = new Object();
+	private FileChannel channel;
+	// Bytes in the file, kept separately so size() never waits on the disk
+	private volatile long fileSize;
+	private volatile long writeCount;
+
+	/**
+	 * Opens the journal, creating the file if needed. New records are appended
+	 * after the records already in the file.
+	 *
+	 * @param path The location of the journal file
+	 * @throws IOException
+	 */
+	public MutationJournal(Path path) throws IOException {
+		this.path = path;
+		this.channel = open(path);
+		this.fileSize = channel.size();
+	}
+
+	private static FileChannel open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		return channel;
+	}
+
+	/**
+	 * Appends one record to the journal. The record is only buffered, it reaches
+	 * the file on the next <code>write()</code> or <code>flush()</code>.
+	 *
+	 * @param op The operation, one of the <code>OP_</code> constants
+	 * @param a  The first argument
+	 * @param b  The second argument
+	 * @return int The number of records waiting to be written
+	 */
+	public synchronized int append(int op, int a, int b) {
+		reserve(1);
+		put(op, a, b);
+		return pending.position() / RECORD_SIZE;
+	}
+
+	/**
+	 * Appends the records of a batch so they are replayed all or not at all. A
+	 * batch of one record is appended as a plain record.
+	 *
+	 * @param batch The records to append
+	 * @return int The number of records waiting to be written
+	 */
+	public synchronized int append(Batch batch) {
+		int count = batch.size();
+		if (count > 1) {
+			reserve(count + 1);
+			put(OP_BATCH, count, 0);
+		} else {
+			reserve(count);
+		}
+		int[] records = batch.records;
+		for (int i = 0; i < 3 * count; i += 3) {
+			put(records[i], records[i + 1], records[i + 2]);
+		}
+		return pending.position() / RECORD_SIZE;
+	}
+
+	private void reserve(int records) {
+		if (pending.remaining() < records * RECORD_SIZE) {
+			int capacity = pending.capacity();
+			while (capacity - pending.position() < records * RECORD_SIZE) {
+				capacity *= 2;
+			}
+			ByteBuffer bigger = ByteBuffer.allocate(capacity);
+			pending.flip();
+			bigger.put(pending);
+			pending = bigger;
+		}
+	}
+
+	private void put(int op, int a, int b) {
+		int start = pending.position();
+		pending.putInt(op).putInt(a).putInt(b);
+		crc.reset();
+		crc.update(pending.array(), start, 12);
+		pending.putInt((int) crc.getValue());
+	}
+
+	/**
+	 * Hands the buffered records to the operating system without waiting for
+	 * them to reach the disk.
+	 *
+	 * @return long The number of bytes written
+	 * @throws IOException
+	 */
+	public long write() throws IOException {
+		synchronized (io) {
+			return writePending();
+		}
+	}
+
+	/**
+	 * Writes the buffered records and blocks until they are on the disk. Every
+	 * record appended before this call survives a crash once it returns.
+	 *
+	 * @return long The number of bytes written
+	 * @throws IOException
+	 */
+	public long flush() throws IOException {
+		synchronized (io) {
+			if (!channel.isOpen()) {
+				// close() already flushed everything
+				return 0;
+			}
+			long written = writePending();
+			channel.force(false);
+			return written;
+		}
+	}
+
+	/**
+	 * Writes the pending records. If an earlier write failed part way, the rest
+	 * of it is written first, so no record is lost or written twice.
+	 */
+	private long writePending() throws IOException {
+		long written = 0;
+		if (writeUnfinished) {
+			written += drainWriting();
+		}
+		synchronized (this) {
+			swapPending();
+		}
+		writing.flip();
+		return written + drainWriting();
+	}
+
+	/**
+	 * Makes the pending records the ones to write and starts an empty pending
+	 * buffer. Caller holds <code>io</code> and then this, with nothing left
+	 * to write.
+	 */
+	private void swapPending() {
+		ByteBuffer swap = writing;
+		writing = pending;
+		pending = swap;
+	}
+
+	private long drainWriting() throws IOException {
+		if (writing.hasRemaining()) {
+			writeCount++;
+		}
+		writeUnfinished = true;
+		long written = 0;
+		while (writing.hasRemaining()) {
+			int n = channel.write(writing);
+			fileSize += n;
+			written += n;
+		}
+		writing.clear();
+		writeUnfinished = false;
+		return written;
+	}
+
+	/**
+	 * @return long How many times buffered records have been written to the
+	 *         file since the journal was opened
+	 */
+	public long getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 * Replays every valid record in this journal and cuts off a torn tail if
+	 * there is one.
+	 *
+	 * @param replayer Receives the records in the order they were written
+	 * @return The number of records replayed
+	 * @throws IOException
+	 */
+	public int replay(Replayer replayer) throws IOException {
+		synchronized (io) {
+			writePending();
+			long valid = replay(channel, replayer);
+			if (valid < channel.size()) {
+				channel.truncate(valid);
+			}
+			channel.position(valid);
+			fileSize = valid;
+			return (int) (valid / RECORD_SIZE);
+		}
+	}
+
+	/**
+	 * Replays every valid record of the journal file at <code>path</code>
+	 * without changing the file. Does nothing if the file does not exist.
+	 *
+	 * @param path     The location of the journal file
+	 * @param replayer Receives the records in the order they were written
+	 * @return The number of records replayed
+	 * @throws IOException
+	 */
+	public static int replay(Path path, Replayer replayer) throws IOException {
+		if (!Files.exists(path)) {
+			return 0;
+		}
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			return (int) (replay(in, replayer) / RECORD_SIZE);
+		}
+	}
+
+	/**
+	 * @return long The length of the valid records. A batch cut short counts as
+	 *         invalid from its <code>OP_BATCH</code> record on.
+	 */
+	private static long replay(FileChannel in, Replayer replayer) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+		CRC32 check = new CRC32();
+		long position = 0;
+		in.position(0);
+		// Records of the batch being read, applied once it is complete
+		Batch batch = new Batch();
+		int batchRemaining = 0;
+
+		while (in.read(buffer) > 0 || buffer.position() > 0) {
+			buffer.flip();
+			if (buffer.remaining() < RECORD_SIZE) {
+				break;
+			}
+			while (buffer.remaining() >= RECORD_SIZE) {
+				check.reset();
+				check.update(buffer.array(), buffer.position(), 12);
+				int op = buffer.getInt();
+				int a = buffer.getInt();
+				int b = buffer.getInt();
+				if (buffer.getInt() != (int) check.getValue()) {
+					return position;
+				}
+				if (op == OP_BATCH) {
+					if (batchRemaining > 0 || a < 0) {
+						return position;
+					}
+					batchRemaining = a;
+					batch.size = 0;
+					if (a == 0) {
+						position += RECORD_SIZE;
+					}
+				} else if (batchRemaining > 0) {
+					batch.add(op, a, b);
+					if (--batchRemaining == 0) {
+						for (int i = 0; i < 3 * batch.size; i += 3) {
+							replayer.apply(batch.records[i], batch.records[i + 1], batch.records[i + 2]);
+						}
+						position += RECORD_SIZE * (batch.size + 1L);
+					}
+				} else {
+					replayer.apply(op, a, b);
+					position += RECORD_SIZE;
+				}
+			}
+			buffer.compact();
+		}
+		return position;
+	}
+
+	/**
+	 * @return long The size of the journal in bytes, including records not yet
+	 *         written
+	 * @throws IOException
+	 */
+	public long size() throws IOException {
+		synchronized (this) {
+			return fileSize + pending.position();
+		}
+	}
+
+	/**
+	 * Moves the records appended so far to <code>retired</code> and starts an
+	 * empty journal. Used when the journal is being folded into a new snapshot.
+	 * If <code>retired</code> is still there because an earlier fold failed, the
+	 * records are added to the end of it instead.
+	 * <p>
+	 * <code>capture</code> is called while appends are held back, so what it
+	 * copies matches exactly the records moved to <code>retired</code>. The
+	 * records pending are written before, and those appended while the first
+	 * were written after, so appends are only held back for the copy.
+	 *
+	 * @param retired Where to move the current journal file
+	 * @param capture Copies the state the moved records lead to
+	 * @return The value returned by <code>capture</code>
+	 * @throws IOException
+	 */
+	public <T> T rotate(Path retired, Supplier<T> capture) throws IOException {
+		synchronized (io) {
+			writePending();
+			T captured;
+			synchronized (this) {
+				swapPending();
+				captured = capture.get();
+			}
+			writing.flip();
+			drainWriting();
+			if (Files.exists(retired)) {
+				try (FileChannel out = FileChannel.open(retired, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+					long size = channel.size();
+					for (long done = 0; done < size;) {
+						done += channel.transferTo(done, size - done, out);
+					}
+				}
+				channel.truncate(0);
+				channel.position(0);
+				fileSize = 0;
+				return captured;
+			}
+			channel.close();
+			Files.move(path, retired, StandardCopyOption.ATOMIC_MOVE);
+			channel = open(path);
+			fileSize = 0;
+			return captured;
+		}
+	}
+
+	/**
+	 * Removes every record from the journal, including those not yet written.
+	 * Only safe once a snapshot holding all of them has been written.
+	 *
+	 * @throws IOException
+	 */
+	public void reset() throws IOException {
+		synchronized (io) {
+			synchronized (this) {
+				pending.clear();
+			}
+			writing.clear();
+			writeUnfinished = false;
+			channel.truncate(0);
+			channel.position(0);
+			fileSize = 0;
+		}
+	}
+
+	/**
+	 * Flushes the buffered records and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (io) {
+			if (channel.isOpen()) {
+				flush();
+				channel.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package application.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adds up how long each phase of a piece of work takes, e.g. reading the data
+ * file while the application starts. Phases can be timed on different threads.
+ *
+ */
+public class PhaseTimer {
+	private final long startNanos = System.nanoTime();
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+
+	/**
+	 * Adds the time since <code>sinceNanos</code> to a phase. Returns the time
+	 * now so the next phase can start from it:
+	 *
+	 * <pre>
+	 * long t = System.nanoTime();
+	 * read();
+	 * t = timer.record("io", t);
+	 * parse();
+	 * timer.record("parse", t);
+	 * </pre>
+	 *
+	 * @param phase      The name of the phase
+	 * @param sinceNanos When the phase started, from <code>System.nanoTime()</code>
+	 * @return long <code>System.nanoTime()</code> now
+	 */
+	public long record(String phase, long sinceNanos) {
+		long now = System.nanoTime();
+		add(phase, now - sinceNanos);
+		return now;
+	}
+
+	/**
+	 * @param phase The name of the phase
+	 * @param nanos Time to add to it
+	 */
+	public synchronized void add(String phase, long nanos) {
+		phases.merge(phase, nanos, Long::sum);
+	}
+
+	/**
+	 * @param phase The name of the phase
+	 * @return long The time recorded for it in nanoseconds, 0 if none
+	 */
+	public synchronized long getNanos(String phase) {
+		return phases.getOrDefault(phase, 0L);
+	}
+
+	/**
+	 * @return long Nanoseconds since the timer was created
+	 */
+	public long getElapsedNanos() {
+		return System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * @return String Every phase in the order first recorded, e.g.
+	 *         <code>io 1.2 ms, parse 0.4 ms (250.3 ms in all)</code>
+	 */
+	public synchronized String summary() {
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			if (text.length() > 0) {
+				text.append(", ");
+			}
+			text.append(String.format("%s %.1f ms", phase.getKey(), phase.getValue() / 1e6));
+		}
+		return text.append(String.format(" (%.1f ms in all)", getElapsedNanos() / 1e6)).toString();
+	}
+}
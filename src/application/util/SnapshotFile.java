@@ -0,0 +1,307 @@
+/**
+ *
+ */
+package application.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the binary snapshot of the sun beds. The file is a header
+ * followed by a packed bitmap of the booked flags, the ID of every sun bed and
+ * the reservations:
+ *
+ * <pre>
+ * offset  size         field
+ * 0       4            magic "SBD1"
+ * 4       4            format version
+ * 8       4            number of sun beds (n)
+ * 12      4            day, the number of days ended so far
+ * 16      8            CRC32 of everything after the header
+ * 24      8 * words    booked bitmap, bit i of word i / 64 is sun bed i
+ * ...     4 * n        sun bed IDs
+ * ...     4            number of reservation ints (r)
+ * ...     4 * r        reservations, as saved by the sun bed collection
+ * </pre>
+ *
+ * All values are little-endian. The file is written with a single
+ * <code>FileChannel</code> write and read back in one streaming pass, so there
+ * is no per sun bed parsing. Snapshots written before days were counted have
+ * 0 in the day field, which reads as the first day. Version 1 snapshots end
+ * after the IDs and read as having no reservations.
+ * If unable to read or write the file the method must throw an error.
+ *
+ */
+public class SnapshotFile {
+
+	public static final int MAGIC = 0x31444253; // "SBD1" read little-endian
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 24;
+	// Bytes read at a time, so a large snapshot never needs a buffer its size
+	private static final int READ_CHUNK = 64 * 1024;
+
+	private SnapshotFile() {
+		throw new IllegalStateException("SnapshotFile Utility Class");
+	}
+
+	/**
+	 * The contents of a snapshot: how many sun beds there are, which are booked,
+	 * their IDs, which day it is and the reservations.
+	 */
+	public static class Contents {
+		private final int count;
+		private final long[] booked;
+		private final int[] ids;
+		private final int day;
+		private final int[] reservations;
+
+		/**
+		 * @param count  The number of sun beds
+		 * @param booked The booked bitmap, at least <code>words(count)</code> long
+		 * @param ids    The ID of each sun bed, at least <code>count</code> long
+		 */
+		public Contents(int count, long[] booked, int[] ids) {
+			this(count, booked, ids, 0);
+		}
+
+		/**
+		 * @param count  The number of sun beds
+		 * @param booked The booked bitmap, at least <code>words(count)</code> long
+		 * @param ids    The ID of each sun bed, at least <code>count</code> long
+		 * @param day    The number of days ended before these bookings were made
+		 */
+		public Contents(int count, long[] booked, int[] ids, int day) {
+			this(count, booked, ids, day, new int[0]);
+		}
+
+		/**
+		 * @param count        The number of sun beds
+		 * @param booked       The booked bitmap, at least <code>words(count)</code>
+		 *                     long
+		 * @param ids          The ID of each sun bed, at least <code>count</code>
+		 *                     long
+		 * @param day          The number of days ended before these bookings were
+		 *                     made
+		 * @param reservations The reservations, written and read as they are
+		 */
+		public Contents(int count, long[] booked, int[] ids, int day, int[] reservations) {
+			this.count = count;
+			this.booked = booked;
+			this.ids = ids;
+			this.day = day;
+			this.reservations = reservations;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public long[] getBooked() {
+			return booked;
+		}
+
+		public int[] getIds() {
+			return ids;
+		}
+
+		public int getDay() {
+			return day;
+		}
+
+		public int[] getReservations() {
+			return reservations;
+		}
+
+		/**
+		 * @param index The position of the sun bed
+		 * @return boolean If the sun bed at <code>index</code> is booked
+		 */
+		public boolean isBooked(int index) {
+			return (booked[index >>> 6] & (1L << index)) != 0;
+		}
+	}
+
+	/**
+	 * @param count A number of sun beds
+	 * @return int The number of longs needed to hold a bit for each of them
+	 */
+	public static int words(int count) {
+		return (count + 63) >>> 6;
+	}
+
+	/**
+	 * Writes a snapshot to <code>fileDestination</code>, replacing the file if it
+	 * exists.
+	 *
+	 * @param contents        The sun beds to write
+	 * @param fileDestination Where to write them
+	 * @throws IOException
+	 */
+	public static void writeData(Contents contents, Path fileDestination) throws IOException {
+		int count = contents.getCount();
+		int words = words(count);
+		int[] reservations = contents.getReservations();
+		ByteBuffer buffer = ByteBuffer
+				.allocateDirect(HEADER_SIZE + 8 * words + 4 * count + 4 + 4 * reservations.length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+
+		buffer.position(HEADER_SIZE);
+		buffer.asLongBuffer().put(contents.getBooked(), 0, words);
+		buffer.position(HEADER_SIZE + 8 * words);
+		buffer.asIntBuffer().put(contents.getIds(), 0, count);
+		buffer.position(HEADER_SIZE + 8 * words + 4 * count);
+		buffer.putInt(reservations.length);
+		buffer.asIntBuffer().put(reservations);
+
+		buffer.position(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(buffer);
+
+		buffer.clear();
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(contents.getDay()).putLong(crc.getValue());
+		buffer.clear();
+
+		try (FileChannel out = FileChannel.open(fileDestination, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(false);
+		}
+	}
+
+	/**
+	 * Reads a snapshot, checking its header and checksum.
+	 *
+	 * @param fileLocation The snapshot to read
+	 * @return Contents The sun beds in the snapshot
+	 * @throws IOException If the file cannot be read or is not a valid snapshot
+	 */
+	public static Contents readData(Path fileLocation) throws IOException {
+		return readData(fileLocation, new PhaseTimer());
+	}
+
+	/**
+	 * Reads a snapshot in one pass through a small buffer, checking the checksum
+	 * and copying into the arrays of the <code>Contents</code> as each chunk
+	 * arrives. Time spent waiting for the file is recorded as <code>io</code>,
+	 * the rest as <code>parse</code>.
+	 *
+	 * @param fileLocation The snapshot file
+	 * @param timer        Records the <code>io</code> and <code>parse</code> time
+	 * @return Contents The sun beds in the file
+	 * @throws IOException If the file can not be read, or is not a complete
+	 *                     snapshot
+	 */
+	public static Contents readData(Path fileLocation, PhaseTimer timer) throws IOException {
+		long started = System.nanoTime();
+		long ioNanos = 0;
+		try (FileChannel in = FileChannel.open(fileLocation, StandardOpenOption.READ)) {
+			long size = in.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				throw new IOException("Not a sun bed snapshot: " + fileLocation);
+			}
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(size, READ_CHUNK))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			long t = System.nanoTime();
+			while (buffer.position() < HEADER_SIZE && in.read(buffer) >= 0) {
+				// keep reading until the header is in
+			}
+			ioNanos += System.nanoTime() - t;
+			buffer.flip();
+
+			int magic = buffer.getInt();
+			int version = buffer.getInt();
+			int count = buffer.getInt();
+			int day = buffer.getInt();
+			long checksum = buffer.getLong();
+			if (magic != MAGIC) {
+				throw new IOException("Not a sun bed snapshot: " + fileLocation);
+			}
+			if (version > VERSION) {
+				throw new IOException("Unsupported snapshot version " + version + ": " + fileLocation);
+			}
+			int words = words(count);
+			long beds = HEADER_SIZE + 8L * words + 4L * count;
+			if (count < 0 || (version < 2 ? size != beds : size < beds + 4)) {
+				throw new IOException("Truncated sun bed snapshot: " + fileLocation);
+			}
+
+			CRC32 crc = new CRC32();
+			long[] booked = new long[words];
+			int[] ids = new int[count];
+			// Older versions have no reservations to read
+			int[] reservations = version < 2 ? new int[0] : null;
+			int w = 0;
+			int i = 0;
+			int r = 0;
+			while (true) {
+				int n = Math.min(words - w, buffer.remaining() / 8);
+				if (n > 0) {
+					buffer.asLongBuffer().get(booked, w, n);
+					w += n;
+					consume(buffer, crc, 8 * n);
+				}
+				if (w == words) {
+					n = Math.min(count - i, buffer.remaining() / 4);
+					if (n > 0) {
+						buffer.asIntBuffer().get(ids, i, n);
+						i += n;
+						consume(buffer, crc, 4 * n);
+					}
+				}
+				if (i == count && reservations == null && buffer.remaining() >= 4) {
+					int length = buffer.getInt(buffer.position());
+					if (length < 0 || size != beds + 4 + 4L * length) {
+						throw new IOException("Truncated sun bed snapshot: " + fileLocation);
+					}
+					consume(buffer, crc, 4);
+					reservations = new int[length];
+				}
+				if (i == count && reservations != null) {
+					n = Math.min(reservations.length - r, buffer.remaining() / 4);
+					if (n > 0) {
+						buffer.asIntBuffer().get(reservations, r, n);
+						r += n;
+						consume(buffer, crc, 4 * n);
+					}
+					if (r == reservations.length) {
+						break;
+					}
+				}
+				buffer.compact();
+				t = System.nanoTime();
+				int read = in.read(buffer);
+				ioNanos += System.nanoTime() - t;
+				buffer.flip();
+				if (read < 0) {
+					throw new IOException("Truncated sun bed snapshot: " + fileLocation);
+				}
+			}
+			if (crc.getValue() != checksum) {
+				throw new IOException("Sun bed snapshot checksum mismatch: " + fileLocation);
+			}
+			return new Contents(count, booked, ids, day, reservations);
+		} finally {
+			timer.add("io", ioNanos);
+			timer.add("parse", System.nanoTime() - started - ioNanos);
+		}
+	}
+
+	/**
+	 * Adds the next <code>bytes</code> of the buffer to the checksum and moves
+	 * past them.
+	 */
+	private static void consume(ByteBuffer buffer, CRC32 crc, int bytes) {
+		int end = buffer.position() + bytes;
+		int limit = buffer.limit();
+		buffer.limit(end);
+		crc.update(buffer);
+		buffer.limit(limit);
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package application.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import application.model.SunBed;
+
+/**
+ * Reads and writes the <code>sunloungers.xml</code> file written by earlier
+ * versions with <code>XMLDataExchange</code>, without
+ * <code>java.beans.XMLDecoder</code>. The file is the document
+ * <code>XMLEncoder</code> writes for an <code>ArrayList</code> of
+ * <code>SunBed</code>s:
+ *
+ * <pre>
+ * &lt;java version="11.0.2" class="java.beans.XMLDecoder"&gt;
+ *  &lt;object class="java.util.ArrayList"&gt;
+ *   &lt;void method="add"&gt;
+ *    &lt;object class="application.model.SunBed"/&gt;
+ *   &lt;/void&gt;
+ *   &lt;void method="add"&gt;
+ *    &lt;object class="application.model.SunBed"&gt;
+ *     &lt;void property="booked"&gt;
+ *      &lt;boolean&gt;true&lt;/boolean&gt;
+ *     &lt;/void&gt;
+ *    &lt;/object&gt;
+ *   &lt;/void&gt;
+ *  &lt;/object&gt;
+ * &lt;/java&gt;
+ * </pre>
+ *
+ * Reading streams the elements with a <code>XMLStreamReader</code> and never
+ * creates an object named by the file. Anything but the elements and classes
+ * above is rejected, so a crafted file can not run code the way it can with
+ * <code>XMLDecoder</code>. DTDs and external entities are switched off.
+ * <p>
+ * Writing produces the same bytes as <code>XMLEncoder</code>. As every element
+ * is one of two fixed fragments, they are copied into a reused buffer rather
+ * than going through an XML writer. IDs are not in the file, because
+ * <code>XMLEncoder</code> leaves out properties without a setter.
+ * If unable to read or write the file the method must throw an error.
+ *
+ */
+public class SunBedXmlCodec {
+
+	private static final String LIST_CLASS = "java.util.ArrayList";
+	private static final String SUN_BED_CLASS = "application.model.SunBed";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] FREE = ("  <void method=\"add\">\n" + "   <object class=\"" + SUN_BED_CLASS
+			+ "\"/>\n" + "  </void>\n").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] BOOKED = ("  <void method=\"add\">\n" + "   <object class=\"" + SUN_BED_CLASS
+			+ "\">\n" + "    <void property=\"booked\">\n" + "     <boolean>true</boolean>\n" + "    </void>\n"
+			+ "   </object>\n" + "  </void>\n").getBytes(StandardCharsets.UTF_8);
+
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newFactory();
+	static {
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	private SunBedXmlCodec() {
+		throw new IllegalStateException("SunBedXmlCodec Utility Class");
+	}
+
+	/**
+	 * Receives the sun beds of a file as they are read.
+	 */
+	public interface Handler {
+		/**
+		 * @param booked If the next sun bed in the file is booked
+		 */
+		void sunBed(boolean booked);
+	}
+
+	/**
+	 * Reads the sun beds of a file into new <code>SunBed</code> objects.
+	 *
+	 * @param fileLocation The XML file
+	 * @return List<SunBed> The sun beds in file order
+	 * @throws IOException If the file can not be read or is not a sun bed file
+	 */
+	public static List<SunBed> readData(Path fileLocation) throws IOException {
+		List<SunBed> sunBeds = new ArrayList<>();
+		readData(fileLocation, booked -> {
+			SunBed s = new SunBed();
+			s.setBooked(booked);
+			sunBeds.add(s);
+		});
+		return sunBeds;
+	}
+
+	/**
+	 * Streams the sun beds of a file to <code>handler</code> without building
+	 * them all first.
+	 *
+	 * @param fileLocation The XML file
+	 * @param handler      Receives each sun bed in file order
+	 * @return int The number of sun beds read
+	 * @throws IOException If the file can not be read or is not a sun bed file
+	 */
+	public static int readData(Path fileLocation, Handler handler) throws IOException {
+		try (InputStream in = Files.newInputStream(fileLocation)) {
+			XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(in);
+			try {
+				return read(xml, handler);
+			} finally {
+				xml.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Not a sun bed file: " + fileLocation + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Walks <code>java / object(ArrayList) / void(add) / object(SunBed)</code>,
+	 * failing on anything else.
+	 */
+	private static int read(XMLStreamReader xml, Handler handler) throws XMLStreamException {
+		xml.nextTag();
+		expect(xml, "java", null, null);
+		xml.nextTag();
+		expect(xml, "object", "class", LIST_CLASS);
+
+		int count = 0;
+		while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			expect(xml, "void", "method", "add");
+			xml.nextTag();
+			expect(xml, "object", "class", SUN_BED_CLASS);
+			boolean booked = false;
+			while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				expect(xml, "void", "property", "booked");
+				xml.nextTag();
+				expect(xml, "boolean", null, null);
+				booked = Boolean.parseBoolean(xml.getElementText().trim());
+				xml.nextTag(); // </void>
+			}
+			xml.nextTag(); // </void>
+			handler.sunBed(booked);
+			count++;
+		}
+		xml.nextTag(); // </java>
+		return count;
+	}
+
+	/**
+	 * Fails unless the reader is on a start tag with the given name and, if
+	 * <code>attribute</code> is not null, that attribute set to
+	 * <code>value</code>. Other attributes such as <code>id</code> are not
+	 * allowed on <code>object</code> and <code>void</code>.
+	 */
+	private static void expect(XMLStreamReader xml, String element, String attribute, String value)
+			throws XMLStreamException {
+		if (!element.equals(xml.getLocalName())) {
+			throw new XMLStreamException("Unexpected element <" + xml.getLocalName() + ">", xml.getLocation());
+		}
+		if (attribute == null) {
+			return;
+		}
+		if (xml.getAttributeCount() != 1 || !attribute.equals(xml.getAttributeLocalName(0))
+				|| !value.equals(xml.getAttributeValue(0))) {
+			String found = xml.getAttributeCount() != 1 ? xml.getAttributeCount() + " attributes"
+					: xml.getAttributeLocalName(0) + "=\"" + xml.getAttributeValue(0) + "\"";
+			throw new XMLStreamException("Unexpected <" + element + "> with " + found + ", only " + attribute + "=\""
+					+ value + "\" is allowed", xml.getLocation());
+		}
+	}
+
+	/**
+	 * Writes sun beds in the format <code>XMLEncoder</code> uses.
+	 *
+	 * @param sunBeds         The sun beds to write
+	 * @param fileDestination The XML file
+	 * @throws IOException
+	 */
+	public static void writeData(List<SunBed> sunBeds, Path fileDestination) throws IOException {
+		writeData(sunBeds.size(), i -> sunBeds.get(i).isBooked(), fileDestination);
+	}
+
+	/**
+	 * Writes the sun beds of a snapshot in the format <code>XMLEncoder</code>
+	 * uses.
+	 *
+	 * @param contents        The sun beds to write
+	 * @param fileDestination The XML file
+	 * @throws IOException
+	 */
+	public static void writeData(SnapshotFile.Contents contents, Path fileDestination) throws IOException {
+		writeData(contents.getCount(), contents::isBooked, fileDestination);
+	}
+
+	private static void writeData(int count, IntPredicate booked, Path fileDestination) throws IOException {
+		try (FileChannel out = FileChannel.open(fileDestination, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			put(out, buffer, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<java version=\""
+					+ System.getProperty("java.version") + "\" class=\"java.beans.XMLDecoder\">\n")
+							.getBytes(StandardCharsets.UTF_8));
+			if (count == 0) {
+				put(out, buffer, (" <object class=\"" + LIST_CLASS + "\"/>\n").getBytes(StandardCharsets.UTF_8));
+			} else {
+				put(out, buffer, (" <object class=\"" + LIST_CLASS + "\">\n").getBytes(StandardCharsets.UTF_8));
+				for (int i = 0; i < count; i++) {
+					put(out, buffer, booked.test(i) ? BOOKED : FREE);
+				}
+				put(out, buffer, " </object>\n".getBytes(StandardCharsets.UTF_8));
+			}
+			put(out, buffer, "</java>\n".getBytes(StandardCharsets.UTF_8));
+			drain(out, buffer);
+		}
+	}
+
+	private static void put(FileChannel out, ByteBuffer buffer, byte[] bytes) throws IOException {
+		if (buffer.remaining() < bytes.length) {
+			drain(out, buffer);
+		}
+		buffer.put(bytes);
+	}
+
+	private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+}
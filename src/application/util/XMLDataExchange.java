@@ -12,6 +12,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 
 /**
+ * Saves any object as XML with <code>java.beans.XMLEncoder</code>. Reading
+ * runs whatever the file tells <code>XMLDecoder</code> to, so only use it on
+ * trusted files. Sun bed files are read with <code>SunBedXmlCodec</code>.
+ * 
  * @author John Mc
  *
  */
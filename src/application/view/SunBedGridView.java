@@ -0,0 +1,360 @@
+package application.view;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongConsumer;
+import javafx.collections.ObservableListBase;
+import javafx.css.PseudoClass;
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+
+/**
+ * Grid of sun bed buttons that only creates nodes for the rows that fit in the
+ * viewport. It is a <code>ListView</code> with one item per row of the grid, so
+ * the row cells and their buttons are recycled as the user scrolls and the
+ * number of nodes does not depend on the number of sun beds.
+ * <p>
+ * Booked sun beds get the <code>:booked</code> pseudo-class, the colours are
+ * in <code>mainStyle.css</code>. Sun beds are drawn in position order and each
+ * button is labelled with the ID of its sun bed. Sun beds suggested for a
+ * group booking with <code>setSuggested()</code> get the
+ * <code>:suggested</code> pseudo-class.
+ * <p>
+ * Changes are applied incrementally. <code>updateSunBed()</code> restyles one
+ * button if it is on screen. Changing the number of sun beds, resizing and
+ * <code>invalidateSunBeds()</code> only mark the grid dirty, and the work is
+ * done once in the next layout pass however many changes came in before it.
+ * Must only be used on the JavaFX application thread.
+ *
+ */
+public class SunBedGridView extends ListView<Integer> {
+
+	public static final double BUTTON_WIDTH = 100;
+	public static final double BUTTON_HEIGHT = 80;
+	public static final double GAP = 4;
+	public static final double PADDING = 15;
+	// Room left for the vertical scroll bar
+	private static final double SCROLL_BAR_WIDTH = 20;
+
+	private static final PseudoClass BOOKED = PseudoClass.getPseudoClass("booked");
+	private static final PseudoClass SUGGESTED = PseudoClass.getPseudoClass("suggested");
+
+	private int sunBedCount;
+	private int columns = 1;
+	private IntPredicate bookedLookup = i -> false;
+	private IntUnaryOperator idLookup = i -> i + 1;
+	private IntPredicate suggested = i -> false;
+	private IntConsumer onSunBedClicked = i -> {
+	};
+	private LongConsumer layoutTimer = nanos -> {
+	};
+
+	private final RowIndexes rows = new RowIndexes();
+	// Cells the list view has created and not thrown away yet
+	private final Set<RowCell> cells = Collections.newSetFromMap(new WeakHashMap<>());
+	private boolean layoutDirty;
+	private boolean cellsDirty;
+
+	public SunBedGridView() {
+		getStyleClass().add("sun-bed-grid");
+		setFixedCellSize(BUTTON_HEIGHT + GAP);
+		setFocusTraversable(false);
+		setCellFactory(list -> new RowCell());
+		setPadding(new Insets(PADDING - GAP, PADDING, PADDING, PADDING));
+		setItems(rows);
+		widthProperty().addListener((obs, oldVal, newVal) -> {
+			layoutDirty = true;
+			requestLayout();
+		});
+	}
+
+	/**
+	 * @param lookup Tells the grid whether the sun bed at a position is booked
+	 */
+	public void setBookedLookup(IntPredicate lookup) {
+		this.bookedLookup = lookup;
+		invalidateSunBeds();
+	}
+
+	/**
+	 * @param lookup Tells the grid the ID of the sun bed at a position
+	 */
+	public void setIdLookup(IntUnaryOperator lookup) {
+		this.idLookup = lookup;
+		invalidateSunBeds();
+	}
+
+	/**
+	 * Highlights the sun beds suggested for a group booking.
+	 *
+	 * @param suggested Tells the grid whether the sun bed at a position is
+	 *                  suggested, <code>i -> false</code> to clear it
+	 */
+	public void setSuggested(IntPredicate suggested) {
+		this.suggested = suggested;
+		invalidateSunBeds();
+	}
+
+	/**
+	 * Scrolls the row of a sun bed into view.
+	 *
+	 * @param index The position of the sun bed
+	 */
+	public void scrollToSunBed(int index) {
+		if (layoutDirty) {
+			layoutDirty = false;
+			relayout();
+		}
+		scrollTo(index / columns);
+	}
+
+	/**
+	 * @param handler Called with the ID of a sun bed when its button is
+	 *                clicked
+	 */
+	public void setOnSunBedClicked(IntConsumer handler) {
+		this.onSunBedClicked = handler;
+	}
+
+	/**
+	 * @return int The number of sun beds shown
+	 */
+	public int getSunBedCount() {
+		return sunBedCount;
+	}
+
+	/**
+	 * @param count The number of sun beds to show
+	 */
+	public void setSunBedCount(int count) {
+		if (count != sunBedCount) {
+			this.sunBedCount = count;
+			layoutDirty = true;
+			requestLayout();
+		}
+	}
+
+	/**
+	 * Restyles the button of one sun bed if it is on screen.
+	 *
+	 * @param index The position of the sun bed
+	 */
+	public void updateSunBed(int index) {
+		if (index < 0 || index >= sunBedCount || layoutDirty) {
+			// Drawn from scratch in the next layout pass anyway
+			return;
+		}
+		int row = index / columns;
+		for (RowCell cell : cells) {
+			Integer item = cell.getItem();
+			if (!cell.isEmpty() && item != null && item == row) {
+				cell.updateButton(index - row * columns);
+			}
+		}
+	}
+
+	/**
+	 * Marks every button on screen to be restyled in the next layout pass, for
+	 * when many sun beds have changed at once.
+	 */
+	public void invalidateSunBeds() {
+		cellsDirty = true;
+		requestLayout();
+	}
+
+	/**
+	 * @return int The number of sun beds on each row
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @param timer Told how many nanoseconds each layout pass of the grid took
+	 */
+	public void setLayoutTimer(LongConsumer timer) {
+		this.layoutTimer = timer;
+	}
+
+	/**
+	 * Applies everything that has changed since the last pulse before the list
+	 * lays out its cells.
+	 */
+	@Override
+	protected void layoutChildren() {
+		long started = System.nanoTime();
+		if (layoutDirty) {
+			layoutDirty = false;
+			relayout();
+		}
+		if (cellsDirty) {
+			cellsDirty = false;
+			for (RowCell cell : cells) {
+				cell.render();
+			}
+		}
+		super.layoutChildren();
+		layoutTimer.accept(System.nanoTime() - started);
+	}
+
+	/**
+	 * Works out how many buttons fit on a row and sets the number of rows. Only
+	 * the cells on screen are redrawn, and the list keeps its cells.
+	 */
+	private void relayout() {
+		double width = getWidth() == 0 ? getPrefWidth() : getWidth();
+		int fit = Math.max(1, (int) ((width - 2 * PADDING - SCROLL_BAR_WIDTH + GAP) / (BUTTON_WIDTH + GAP)));
+		int rowCount = (sunBedCount + fit - 1) / fit;
+		if (fit == columns && rows.size() == rowCount) {
+			// Resizing within the same number of columns needs no new layout,
+			// but the last row may have gained or lost sun beds
+			cellsDirty = true;
+			return;
+		}
+		columns = fit;
+		rows.resize(rowCount);
+		cellsDirty = true;
+	}
+
+	/**
+	 * The list 0, 1, ... rows - 1 without storing it. Resizing it tells the list
+	 * which rows were added or removed, so the list keeps its cells rather than
+	 * rebuilding them.
+	 */
+	private static final class RowIndexes extends ObservableListBase<Integer> {
+		private int size;
+
+		void resize(int rows) {
+			int old = size;
+			if (rows == old) {
+				return;
+			}
+			beginChange();
+			size = rows;
+			if (rows > old) {
+				nextAdd(old, rows);
+			} else {
+				nextRemove(rows, new Range(rows, old));
+			}
+			endChange();
+		}
+
+		@Override
+		public Integer get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+			}
+			return index;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * The rows from, from + 1, ... to - 1 that were removed.
+	 */
+	private static final class Range extends AbstractList<Integer> {
+		private final int from;
+		private final int to;
+
+		Range(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public Integer get(int index) {
+			return from + index;
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+	}
+
+	/**
+	 * One row of the grid. Its buttons are created once and reused for
+	 * whichever row it is showing.
+	 */
+	private final class RowCell extends ListCell<Integer> {
+		private final HBox box = new HBox(GAP);
+
+		RowCell() {
+			setPadding(Insets.EMPTY);
+			setText(null);
+			cells.add(this);
+		}
+
+		@Override
+		protected void updateItem(Integer row, boolean empty) {
+			super.updateItem(row, empty);
+			render();
+		}
+
+		/**
+		 * Draws every button for the row this cell is showing.
+		 */
+		void render() {
+			Integer row = getItem();
+			if (isEmpty() || row == null || row >= rows.size()) {
+				setGraphic(null);
+				return;
+			}
+			while (box.getChildren().size() < columns) {
+				box.getChildren().add(createButton(box.getChildren().size()));
+			}
+			for (int col = 0; col < box.getChildren().size(); col++) {
+				Button btn = (Button) box.getChildren().get(col);
+				int index = row * columns + col;
+				boolean shown = col < columns && index < sunBedCount;
+				btn.setVisible(shown);
+				btn.setManaged(shown);
+				if (shown) {
+					btn.setText(Integer.toString(idLookup.applyAsInt(index)));
+					btn.pseudoClassStateChanged(BOOKED, bookedLookup.test(index));
+					btn.pseudoClassStateChanged(SUGGESTED, suggested.test(index));
+				}
+			}
+			setGraphic(box);
+		}
+
+		/**
+		 * Restyles the button in one column of this row.
+		 */
+		void updateButton(int col) {
+			if (col < box.getChildren().size()) {
+				Button btn = (Button) box.getChildren().get(col);
+				int index = getItem() * columns + col;
+				btn.pseudoClassStateChanged(BOOKED, bookedLookup.test(index));
+				btn.pseudoClassStateChanged(SUGGESTED, suggested.test(index));
+			}
+		}
+
+		private Button createButton(int col) {
+			Button btn = new Button();
+			btn.setPrefWidth(BUTTON_WIDTH);
+			btn.setPrefHeight(BUTTON_HEIGHT);
+			btn.setMinSize(BUTTON_WIDTH, BUTTON_HEIGHT);
+			btn.setId("sun_bed_btn_style");
+			btn.setOnAction(e -> {
+				Integer row = getItem();
+				if (row != null && row * columns + col < sunBedCount) {
+					onSunBedClicked.accept(idLookup.applyAsInt(row * columns + col));
+				}
+			});
+			return btn;
+		}
+	}
+}
@@ -1,60 +1,112 @@
 package application.view;
 
+import application.model.Durability;
+import application.model.PersistenceListener;
+import application.model.SunBedChange;
 import application.model.SunBedCollection;
-import javafx.event.ActionEvent;
+import application.model.UndoHistory;
+import javafx.application.Platform;
+import javafx.css.PseudoClass;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
-import javafx.geometry.Insets;
 import javafx.scene.control.* ;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.* ;
 import javafx.scene.image.ImageView ;
 
 import java.net.URL;
+import java.util.Optional;
 import java.util.ResourceBundle;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 
 /**
  * Controller for the main Sun Lounger screen.
- * Draws the sunbeds, adds and removes sunbeds and 
- * clears all sunbeds making them available for hire.
+ * Draws the sunbeds, adds and removes sunbeds, finds free sunbeds
+ * side by side for groups and ends the day making all sunbeds
+ * available for hire. A sunbed tapped by mistake can be undone.
  *
  */
 public class SunBedViewController implements Initializable
 {
-	public AnchorPane rootAnchorPane, homeAnchorPane, sunbedsAnchorPane;
+	public AnchorPane rootAnchorPane, homeAnchorPane;
 	public TabPane tabPane ;
 	public Tab homeTab, sunbedsTab;
 	public VBox vbox ;
-	public HBox hbox ;
-	public ScrollPane scrollPane ;
-	public Label prompt ;
-	public TextField textField;
-	public Button submitBtn, endDayBtn ;
+	public HBox hbox, findHbox, undoHbox ;
+	public Label prompt, durabilityLabel ;
+	public TextField textField, groupField ;
+	public Button submitBtn, findBtn, endDayBtn, undoBtn, redoBtn ;
 	public ImageView logoImageView ;
 
 	@FXML
-	GridPane gridPane ;
+	SunBedGridView sunBedGrid ;
+
+	private static final Logger LOGGER = LogManager.getLogger(SunBedViewController.class) ;
+	private static final PseudoClass PENDING = PseudoClass.getPseudoClass("pending") ;
+	private static final PseudoClass FAILED = PseudoClass.getPseudoClass("failed") ;
+	private static final KeyCombination UNDO = new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN) ;
+	private static final KeyCombination REDO = new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN) ;
 
 	private int numOfSunBeds ;
+	private Alert writeFailedAlert ;
+	private UndoHistory undoHistory ;
 
 
 	/**
 	 * Calls the <code>SunBedCollection</code> class to get details about the sunbeds that need to be rendered
 	 * and then draws them in the UI.
-	 * A GridPane is created in the first tab (i.e. "sunbedsTab") that will contain the buttons(which represent the sunbeds).
-	 * Whenever the root layout is resized, the drawSunBeds method is called to reposition the buttons so that
-	 * they all fit inside the window properly.
+	 * The sun beds tab (i.e. "sunbedsTab") holds a SunBedGridView that shows the buttons (which represent the sunbeds).
+	 * The grid only creates buttons for the rows that are visible and repositions them itself whenever it is resized.
+	 * Each button is labelled with the ID of its sunbed, which stays the same when sunbeds before it are removed.
+	 * The controller listens to the <code>SunBedCollection</code> and passes each change on to the grid, so only
+	 * the buttons that changed are redrawn.
+	 * Saving happens on the persistence thread; "durabilityLabel" shows whether the changes have been saved and a
+	 * failed write is reported in a dialog.
+	 * The "undoBtn" and "redoBtn" buttons, or Ctrl+Z and Ctrl+Y, take back and make again the changes made since the
+	 * day started, see <code>UndoHistory</code>.
 	 */
 	@Override
 	public void initialize(URL arg0, ResourceBundle arg1)
 	{
-		this.gridPane = new GridPane() ;
-		this.sunbedsAnchorPane.getChildren().add(gridPane) ;
+		this.sunBedGrid.setBookedLookup(index -> SunBedCollection.getInstance().isOccupiedAt(index)) ;
+		this.sunBedGrid.setIdLookup(index -> SunBedCollection.getInstance().getID(index)) ;
+		this.sunBedGrid.setOnSunBedClicked(this::buttonClicked) ;
+		this.sunBedGrid.setLayoutTimer(SunBedCollection.getInstance().getMetrics()::recordLayout) ;
+		// Before the grid's listener, so the buttons see the step a change makes
+		this.undoHistory = SunBedCollection.getInstance().getUndoHistory() ;
+		SunBedCollection.getInstance().addChangeListener(change ->
+		{
+			if(Platform.isFxApplicationThread()) sunBedsChanged(change) ;
+			else Platform.runLater(() -> sunBedsChanged(change)) ;
+		}) ;
+		SunBedCollection.getInstance().addPersistenceListener(new PersistenceListener()
+		{
+			@Override
+			public void durabilityChanged(Durability durability)
+			{
+				Platform.runLater(() -> showDurability(SunBedCollection.getInstance().getDurability())) ;
+			}
 
-		this.rootAnchorPane.widthProperty().addListener((obs, oldVal, newVal) -> drawSunBeds()) ;
+			@Override
+			public void writeFailed(String message, Exception cause)
+			{
+				Platform.runLater(() -> showWriteFailed(message, cause)) ;
+			}
+		}) ;
+		this.durabilityLabel.setId("durability_label_style") ;
+		showDurability(SunBedCollection.getInstance().getDurability()) ;
+
+		// Registered above first, so no change is missed between the two
+		this.numOfSunBeds = SunBedCollection.getInstance().getCount() ;
+		drawSunBeds() ;
+		if(!SunBedCollection.getInstance().getLoading().isDone()) showLoading() ;
 
 		this.textField.setOnKeyPressed(keyEvent ->
 		{
@@ -62,15 +114,32 @@ public class SunBedViewController implements Initializable
 		}) ;
 
 		this.submitBtn.setId("submit_btn_style") ;
+		this.findBtn.setId("find_btn_style") ;
 		this.endDayBtn.setId("end_day_btn_style") ;
+		showUndo() ;
+
+		this.rootAnchorPane.addEventFilter(KeyEvent.KEY_PRESSED, keyEvent ->
+		{
+			// The text fields keep their own undo
+			if(keyEvent.getTarget() instanceof TextInputControl) return ;
+			if(UNDO.match(keyEvent)) undo() ;
+			else if(REDO.match(keyEvent)) redo() ;
+			else return ;
+			keyEvent.consume() ;
+		}) ;
 
 		endDayBtn.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>(){
 		       @Override
 		       public void handle(MouseEvent e){
 		    	  System.out.println("End Button pressed!");
-		          SunBedCollection.getInstance().clearSunBeds();
-		          numOfSunBeds = SunBedCollection.getInstance().getCount() ;
-		          drawSunBeds() ;
+		          // The end of a day can not be undone, so ask first
+		          Alert confirm = new Alert(Alert.AlertType.CONFIRMATION) ;
+		          confirm.setTitle("Sun Bed Manager") ;
+		          confirm.setHeaderText("End the day and make every sunbed free?") ;
+		          confirm.setContentText("The sunbeds stay, but this can not be undone.") ;
+		          Optional<ButtonType> answer = confirm.showAndWait() ;
+		          // Frees every sunbed for tomorrow, the layout stays
+		          if(answer.isPresent() && answer.get() == ButtonType.OK) SunBedCollection.getInstance().endDay() ;
 		       }
 		   });
 		
@@ -82,7 +151,6 @@ public class SunBedViewController implements Initializable
 		/* For the light theme use these */
 		this.prompt.setStyle("-fx-text-fill: black") ;
 		this.homeAnchorPane.setStyle("-fx-background-color: linear-gradient(gray, white, white, gray)") ;
-		this.sunbedsAnchorPane.setStyle("-fx-background-color: linear-gradient(gray, white, white, gray)") ;
 	}
 
 
@@ -112,121 +180,248 @@ public class SunBedViewController implements Initializable
 
 	/**
 	 * This method is called once the user clicks the "submitBtn" or ENTER key after entering a number in the text field.
-	 * The method will get the text entered and set it as the number of sunbeds to draw
+	 * The method will get the text entered and add that many sunbeds in one go, so they are saved with a single
+	 * write and the grid catches up with all of them in one layout pass.
 	 */
 	public void submit()
 	{
 		if(!textField.getText().isBlank())
 		{
-			this.numOfSunBeds = Integer.parseInt(textField.getText()) ;
+			int toAdd = Integer.parseInt(textField.getText()) ;
 			textField.setText("");
 
 			System.out.println("Creating sun beds");
-			for(int i = 0 ; i < this.numOfSunBeds ; i++) {
-				SunBedCollection.getInstance().addSunBed() ;
-			}
+			SunBedCollection.getInstance().addSunBeds(toAdd) ;
 
-			drawSunBeds() ;
 			this.tabPane.getSelectionModel().select(sunbedsTab) ;
 		}
 	}
 
 
 	/**
-	 * This method will draw a number of buttons using the value held in the variable "numOfSunBeds".
-	 * The buttons represent the sunbeds.
-	 * The buttons are positioned depending on the size of the root layout.
-	 * Before drawing the button, the state (occupied or not) of the sunbed will be used to determine the background color
-	 * of the button.
+	 * This method is called once the user clicks the "findBtn" or ENTER key after entering the size of a group in
+	 * "groupField", either a number of sunbeds side by side (e.g. "4") or rows by sunbeds on each row (e.g. "2x3").
+	 * The first free sunbeds that fit are highlighted in the grid and scrolled into view. Sunbeds side by side and blocks
+	 * are found on rows as long as the grid shows them.
 	 */
-	private void drawSunBeds()
+	public void findSunBeds()
 	{
-		int buttonWidth = 100 ;
-		int buttonHeight = 80 ;
-		int hGap = 4 ;
-		int vGap = 4 ;
-		int padding = 15 ;
+		String group = groupField.getText().trim().toLowerCase() ;
+		if(group.isEmpty()) return ;
+
+		int rows = 1, cols ;
+		try
+		{
+			int x = group.indexOf('x') ;
+			if(x < 0) cols = Integer.parseInt(group) ;
+			else
+			{
+				rows = Integer.parseInt(group.substring(0, x).trim()) ;
+				cols = Integer.parseInt(group.substring(x + 1).trim()) ;
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			rows = cols = 0 ;
+		}
+		if(rows < 1 || cols < 1)
+		{
+			showGroupAlert("Not a group size: " + group + ", enter e.g. 4 or 2x3") ;
+			return ;
+		}
 
-		int cellCount, row, col, maxNumOfRows, maxNumOfCols, numOfBtnsHorizontally ;
-		double widthOfRoot ;
+		final int rowLength = sunBedGrid.getColumns() ;
+		// Sunbeds side by side are a block of one row, so they never wrap onto the next row
+		int first = SunBedCollection.getInstance().findFreeBlock(rows, cols, rowLength) ;
+		if(first < 0)
+		{
+			sunBedGrid.setSuggested(i -> false) ;
+			showGroupAlert("No free sunbeds for a group of " + group) ;
+			return ;
+		}
 
-		gridPane.getChildren().clear() ;
-		gridPane.setHgap(hGap) ;
-		gridPane.setVgap(vGap) ;
-		gridPane.setPadding(new Insets(padding)) ;
+		final int row = first / rowLength, col = first % rowLength ;
+		final int groupRows = rows, groupCols = cols ;
+		sunBedGrid.setSuggested(i -> i / rowLength - row >= 0 && i / rowLength - row < groupRows
+				&& i % rowLength - col >= 0 && i % rowLength - col < groupCols) ;
+		this.tabPane.getSelectionModel().select(sunbedsTab) ;
+		sunBedGrid.scrollToSunBed(first) ;
+	}
 
 
-		// Get the width of the scene
-		widthOfRoot = (this.rootAnchorPane.getWidth() == 0)?
-				this.rootAnchorPane.getPrefWidth() : this.rootAnchorPane.getWidth() ;
+	/**
+	 * Tells the attendant why no sunbeds were found for the group they entered.
+	 *
+	 * @param message What was wrong
+	 */
+	private void showGroupAlert(String message)
+	{
+		Alert alert = new Alert(Alert.AlertType.INFORMATION) ;
+		alert.setTitle("Sun Bed Manager") ;
+		alert.setHeaderText(message) ;
+		alert.show() ;
+	}
 
-		// Calculate the number of buttons on each row.
-		numOfBtnsHorizontally = (int) (widthOfRoot - 2*padding) / buttonWidth ;
 
-		maxNumOfRows = numOfSunBeds ;
-		maxNumOfCols = (int) ((widthOfRoot - 2*padding) - (numOfBtnsHorizontally-1)*hGap) / buttonWidth ;
+	/**
+	 * This method will show a number of buttons using the value held in the variable "numOfSunBeds".
+	 * The buttons represent the sunbeds.
+	 * The grid positions the buttons depending on its width and only creates buttons for the rows on screen.
+	 * The state (occupied or not) of each sunbed is used to determine the background color of its button.
+	 */
+	private void drawSunBeds()
+	{
+		sunBedGrid.setSunBedCount(this.numOfSunBeds) ;
+	}
 
-		cellCount = 0 ;
-		row = 0 ;
-		while(cellCount < this.numOfSunBeds && row < maxNumOfRows)
-		{
-			col = 0 ;
-			while(cellCount < this.numOfSunBeds && col < maxNumOfCols)
-			{
-				Button btn = new Button(Integer.toString(cellCount+1)) ;
-				btn.setPrefWidth(buttonWidth) ;
-				btn.setPrefHeight(buttonHeight) ;
-				btn.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE) ;
-				btn.setOnAction(this::buttonClicked) ;
-				btn.setId("sun_bed_btn_style") ;
-
-//				if(SunBedCollection.getInstance().isOccupied(cellCount+1))
-				if(SunBedCollection.getInstance().isOccupied(cellCount))
-				{
-					btn.setStyle("-fx-background-color: orange;" +
-								 "-fx-text-fill: black;") ;
-				}
-				else
-				{
-					btn.setStyle("-fx-background-color: #393e46;" +
-								 "-fx-text-fill: white;") ;
-				}
-
-				GridPane.setConstraints(btn, col, row) ;
-
-				gridPane.getChildren().add(btn) ;
-
-				cellCount++ ;
-				col++ ;
-			}
 
-			row++ ;
+	/**
+	 * Applies one change to the sunbeds to the grid. Runs on the JavaFX application thread.
+	 * A toggle restyles just that sunbed's button. Any other change only marks the grid dirty, so a burst of
+	 * changes (e.g. adding many sunbeds) is drawn once in the next pulse. Any change but a toggle also clears the
+	 * sunbeds suggested for a group.
+	 * @param change what changed in the <code>SunBedCollection</code>.
+	 */
+	private void sunBedsChanged(SunBedChange change)
+	{
+		showUndo() ;
+		switch(change.getType())
+		{
+			case TOGGLED:
+				sunBedGrid.updateSunBed(change.getFrom()) ;
+				break ;
+			case ALL_FREED:
+				sunBedGrid.setSuggested(i -> false) ;
+				break ;
+			default:
+				// The suggested sunbeds may have moved
+				sunBedGrid.setSuggested(i -> false) ;
+				this.numOfSunBeds = SunBedCollection.getInstance().getCount() ;
+				drawSunBeds() ;
+				sunBedGrid.invalidateSunBeds() ;
+				break ;
 		}
 	}
 
 
 	/**
-	 * This method is called when the user clicks on a button that's in the second tab (i.e. "sunBedsTab").
-	 * The sunbed whose id is identified by the button's text will have it's state toggled.
-	 * The background colour of the button will then be changed depending on the sunbed's state.
-	 * Grey (hex: #393e46) indicates that the sunbed is available and orange indicates that it's occupied.
-	 * @param actionEvent is used to get the text that's been set to the button. This text represents the sunbed's id.
+	 * A large data file is still being read in the background. Stops the user changing the sunbeds until it has
+	 * been read, the grid is drawn by the <code>REPLACED</code> change the collection sends when it is done.
 	 */
-	private void buttonClicked(ActionEvent actionEvent)
+	private void showLoading()
 	{
-		String btnText = ((Button) actionEvent.getSource()).getText() ;
-		int sunBedId = Integer.parseInt(btnText) - 1;
+		String promptText = this.prompt.getText() ;
+		this.prompt.setText("Loading sun beds...") ;
+		setControlsDisabled(true) ;
+		SunBedCollection.getInstance().getLoading().whenComplete((loaded, e) -> Platform.runLater(() ->
+		{
+			this.prompt.setText(promptText) ;
+			setControlsDisabled(false) ;
+		})) ;
+	}
 
-		SunBedCollection.getInstance().toggleSunBed(sunBedId) ;
 
-		if(SunBedCollection.getInstance().isOccupied(sunBedId))
+	private void setControlsDisabled(boolean disabled)
+	{
+		this.textField.setDisable(disabled) ;
+		this.submitBtn.setDisable(disabled) ;
+		this.groupField.setDisable(disabled) ;
+		this.findBtn.setDisable(disabled) ;
+		this.endDayBtn.setDisable(disabled) ;
+		this.sunBedGrid.setDisable(disabled) ;
+		if(disabled)
 		{
-			((Button) actionEvent.getSource()).setStyle("-fx-background-color: orange;" +
-														"-fx-text-fill: black;") ;
-		} else
+			this.undoBtn.setDisable(true) ;
+			this.redoBtn.setDisable(true) ;
+		}
+		else showUndo() ;
+	}
+
+
+	/**
+	 * Called when the user clicks the "undoBtn" or presses Ctrl+Z. Takes back the last change to the sunbeds, whoever
+	 * made it; the grid is redrawn by the changes the collection reports.
+	 */
+	public void undo()
+	{
+		if(!this.undoBtn.isDisabled()) this.undoHistory.undo() ;
+		showUndo() ;
+	}
+
+
+	/**
+	 * Called when the user clicks the "redoBtn" or presses Ctrl+Y. Makes the last change undone again.
+	 */
+	public void redo()
+	{
+		if(!this.redoBtn.isDisabled()) this.undoHistory.redo() ;
+		showUndo() ;
+	}
+
+
+	/**
+	 * Enables the undo and redo buttons only while there is something to undo or redo. Runs on the JavaFX
+	 * application thread.
+	 */
+	private void showUndo()
+	{
+		if(!SunBedCollection.getInstance().getLoading().isDone()) return ;
+		this.undoBtn.setDisable(!this.undoHistory.canUndo()) ;
+		this.redoBtn.setDisable(!this.undoHistory.canRedo()) ;
+	}
+
+
+	/**
+	 * Shows whether the changes made so far have been saved. Runs on the JavaFX application thread.
+	 * @param durability the state reported by the <code>SunBedCollection</code>.
+	 */
+	private void showDurability(Durability durability)
+	{
+		switch(durability)
 		{
-			((Button) actionEvent.getSource()).setStyle("-fx-background-color: #393e46;" +
-														"-fx-text-fill: white;") ;
+			case PENDING:
+				durabilityLabel.setText("Saving...") ;
+				break ;
+			case FAILED:
+				durabilityLabel.setText("Changes not saved!") ;
+				break ;
+			default:
+				durabilityLabel.setText("All changes saved") ;
+				break ;
 		}
+		durabilityLabel.pseudoClassStateChanged(PENDING, durability == Durability.PENDING) ;
+		durabilityLabel.pseudoClassStateChanged(FAILED, durability == Durability.FAILED) ;
+	}
+
+
+	/**
+	 * Tells the user a write failed. Only one dialog is shown at a time, later failures while it is open are only
+	 * logged. The changes stay in memory and are written again with the next write.
+	 * @param message what was being saved.
+	 * @param cause why it failed.
+	 */
+	private void showWriteFailed(String message, Exception cause)
+	{
+		LOGGER.error(message, cause) ;
+		if(writeFailedAlert != null && writeFailedAlert.isShowing()) return ;
+
+		writeFailedAlert = new Alert(Alert.AlertType.ERROR) ;
+		writeFailedAlert.setTitle("Sun Bed Manager") ;
+		writeFailedAlert.setHeaderText("Changes to the sun beds could not be saved") ;
+		writeFailedAlert.setContentText(cause.getMessage() + "\n\nThe changes are kept and will be saved again automatically.") ;
+		writeFailedAlert.show() ;
+	}
+
+
+	/**
+	 * This method is called when the user clicks on a button that's in the second tab (i.e. "sunBedsTab").
+	 * The sunbed the button shows will have it's state toggled, found by its ID rather than where the button is.
+	 * The collection reports the change and only that button is redrawn, its background colour depends on the sunbed's state.
+	 * Grey (hex: #393e46) indicates that the sunbed is available and orange indicates that it's occupied.
+	 * @param sunBedId the ID of the sunbed whose button was clicked.
+	 */
+	private void buttonClicked(int sunBedId)
+	{
+		SunBedCollection.getInstance().toggleSunBed(sunBedId) ;
 	}
 }
@@ -5,6 +5,8 @@ module app.sunlounger2 {
 	requires java.desktop;
 	requires org.apache.logging.log4j;
 	requires javafx.base;
+	requires jdk.httpserver;
+	requires java.management;
 	exports application.view;
 	exports application.model;
 	opens application;
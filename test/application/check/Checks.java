@@ -0,0 +1,75 @@
+package application.check;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * What the checks under <code>test</code> share. Each check is a program that
+ * calls <code>check()</code> for everything it checks and ends with
+ * <code>exit()</code>, which prints PASSED or FAILED and exits with status 1
+ * if any check failed. A check is kept in the package of what it checks, so
+ * it can reach what that package does not make public.
+ * <p>
+ * The checks are not part of the application's module. They are compiled on
+ * the class path against the classes of <code>src</code> and run on it, e.g.
+ * <code>java -cp bin:test-bin:&lt;log4j jars&gt; application.model.UndoCheck</code>.
+ *
+ */
+public final class Checks {
+
+	private static final AtomicInteger failures = new AtomicInteger();
+
+	private Checks() {
+		throw new IllegalStateException("Checks Utility Class");
+	}
+
+	/**
+	 * Counts a failure and prints it unless <code>condition</code> holds. Safe
+	 * to call from any thread.
+	 *
+	 * @param condition What should be true
+	 * @param message   What went wrong if it is not
+	 */
+	public static void check(boolean condition, String message) {
+		if (!condition) {
+			failures.incrementAndGet();
+			System.out.println("FAILED: " + message);
+		}
+	}
+
+	/**
+	 * @return int How many checks have failed so far
+	 */
+	public static int getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Deletes a directory the check made and everything in it.
+	 *
+	 * @param dir The directory
+	 * @throws IOException
+	 */
+	public static void deleteTree(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	/**
+	 * Prints whether every check passed and exits, with status 1 if any failed.
+	 */
+	public static void exit() {
+		System.out.println(failures.get() == 0 ? "PASSED" : "FAILED");
+		System.exit(failures.get() == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,195 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import application.check.Checks;
+import application.util.MutationJournal;
+import application.util.SnapshotFile;
+
+/**
+ * Checks that the bulk changes of <code>SunBedCollection</code> are saved with
+ * one journal write each, that a failed batch changes nothing and that a batch
+ * cut short by a crash is not replayed, and that sun beds keep their IDs when
+ * one before them is removed, and that ending the day keeps the sun beds and
+ * archives the day. Exits with status 1 if any check fails.
+ * <p>
+ * Usage: <code>BulkMutationCheck [sunBeds]</code>, by default 2000 sun beds.
+ *
+ */
+public class BulkMutationCheck {
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+		Path dir = Files.createTempDirectory("sunbed-bulk");
+		Path dataFile = dir.resolve("bulk.dat");
+		Path journalFile = Path.of(dataFile + ".journal");
+		try {
+			SunBedCollection beds = SunBedCollection.forFile(dataFile);
+			beds.readDataFromFile();
+
+			long writes = beds.getJournalWriteCount();
+			for (int i = 0; i < count; i++) {
+				beds.addSunBed();
+			}
+			long oneByOne = beds.getJournalWriteCount() - writes;
+			System.out.printf("addSunBed() x %d: %d writes%n", count, oneByOne);
+			beds.clearSunBeds();
+
+			writes = beds.getJournalWriteCount();
+			beds.addSunBeds(count);
+			checkWrites(beds, writes, "addSunBeds(" + count + ")");
+			Checks.check(beds.getCount() == count, "count " + beds.getCount() + " after adding " + count);
+
+			int[] ids = new int[count / 2];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = beds.getID(2 * i);
+			}
+			writes = beds.getJournalWriteCount();
+			beds.setBooked(ids, true);
+			checkWrites(beds, writes, "setBooked(" + ids.length + " ids)");
+			Checks.check(beds.getCountFree() == count - ids.length, "free count " + beds.getCountFree());
+
+			writes = beds.getJournalWriteCount();
+			beds.batch(m -> {
+				m.removeSunBeds(10);
+				m.toggleSunBed(m.getID(1));
+				m.addSunBeds(5);
+			});
+			checkWrites(beds, writes, "batch()");
+			Checks.check(beds.getCount() == count - 5, "count " + beds.getCount() + " after batch");
+
+			writes = beds.getJournalWriteCount();
+			int before = beds.getCount();
+			int freeBefore = beds.getCountFree();
+			try {
+				beds.batch(m -> {
+					m.setAllSunBedsToFree();
+					m.removeSunBed(m.getID(7));
+					m.removeSunBeds(3);
+					m.addSunBeds(1);
+					m.removeSunBeds(before + 1);
+				});
+				Checks.check(false, "batch removing too many sun beds did not fail");
+			} catch (IllegalArgumentException expected) {
+				// The batch must have been undone
+			}
+			Checks.check(beds.getJournalWriteCount() == writes, "failed batch was written");
+			Checks.check(beds.getCount() == before && beds.getCountFree() == freeBefore, "failed batch was not undone");
+			checkIds(beds, "after failed batch");
+
+			// Reload what was saved and compare
+			boolean[] expected = new boolean[beds.getCount()];
+			for (int i = 0; i < expected.length; i++) {
+				expected[i] = beds.isOccupiedAt(i);
+			}
+			beds.close();
+			SunBedCollection reloaded = SunBedCollection.forFile(dataFile);
+			reloaded.readDataFromFile();
+			checkSame(reloaded, expected, "reloaded");
+
+			// A batch torn by a crash leaves the sun beds as they were before it
+			reloaded.writeDataToFile();
+			reloaded.addSunBeds(1);
+			reloaded.setBooked(new int[] { reloaded.getID(1), reloaded.getID(3), reloaded.getID(5) }, true);
+			reloaded.close();
+			try (FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+				journal.truncate(journal.size() - MutationJournal.RECORD_SIZE);
+			}
+			SunBedCollection torn = SunBedCollection.forFile(dataFile);
+			torn.readDataFromFile();
+			boolean[] grown = Arrays.copyOf(expected, expected.length + 1);
+			checkSame(torn, grown, "after torn batch");
+
+			// Removing a sun bed from the middle leaves the other IDs alone, its
+			// ID is the next one handed out, and all of it survives a reload
+			int middle = torn.getCount() / 2;
+			int removed = torn.getID(middle);
+			int[] kept = new int[torn.getCount() - 1];
+			for (int i = 0; i < kept.length; i++) {
+				kept[i] = torn.getID(i < middle ? i : i + 1);
+			}
+			torn.removeSunBed(removed);
+			Checks.check(torn.getPosition(removed) == -1, "removed sun bed " + removed + " still has a position");
+			checkIds(torn, kept, "after removing sun bed " + removed);
+			int added = torn.addSunBed();
+			Checks.check(added == removed, "new sun bed got ID " + added + " rather than the freed " + removed);
+			int[] all = Arrays.copyOf(kept, kept.length + 1);
+			all[kept.length] = added;
+			torn.close();
+			SunBedCollection again = SunBedCollection.forFile(dataFile);
+			again.readDataFromFile();
+			checkIds(again, all, "reloaded after removing sun bed " + removed);
+
+			// Ending the day frees every sun bed with one write, keeps the
+			// layout and archives how the day ended
+			again.setBooked(new int[] { again.getID(0), again.getID(2) }, true);
+			int bookedAtEnd = again.getCount() - again.getCountFree();
+			writes = again.getJournalWriteCount();
+			int ended = again.endDay();
+			checkWrites(again, writes, "endDay()");
+			Checks.check(again.getCountFree() == again.getCount(), "sun beds still booked after endDay()");
+			checkIds(again, all, "after endDay()");
+			again.toggleSunBed(again.getID(1));
+			again.close();
+			SunBedCollection nextDay = SunBedCollection.forFile(dataFile);
+			nextDay.readDataFromFile();
+			Checks.check(nextDay.getDay() == ended + 1,
+					"day " + nextDay.getDay() + " reloaded after ending day " + ended);
+			checkIds(nextDay, all, "reloaded after endDay()");
+			Checks.check(nextDay.getCountFree() == nextDay.getCount() - 1 && nextDay.isOccupiedAt(1),
+					"reloaded the wrong sun beds booked after endDay()");
+			SnapshotFile.Contents archived = nextDay.readArchivedDay(ended);
+			int archivedBooked = 0;
+			for (long word : archived.getBooked()) {
+				archivedBooked += Long.bitCount(word);
+			}
+			Checks.check(archived.getCount() == all.length && archivedBooked == bookedAtEnd,
+					"archive of day " + ended + " has " + archivedBooked + " of " + archived.getCount()
+							+ " booked, expected " + bookedAtEnd + " of " + all.length);
+			nextDay.close();
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	private static void checkWrites(SunBedCollection beds, long before, String what) {
+		long writes = beds.getJournalWriteCount() - before;
+		System.out.printf("%s: %d writes%n", what, writes);
+		Checks.check(writes == 1, what + " took " + writes + " writes");
+	}
+
+	private static void checkSame(SunBedCollection beds, boolean[] expected, String what) {
+		Checks.check(beds.getCount() == expected.length,
+				what + ": count " + beds.getCount() + " expected " + expected.length);
+		for (int i = 0; i < Math.min(expected.length, beds.getCount()); i++) {
+			Checks.check(beds.isOccupiedAt(i) == expected[i], what + ": sun bed " + i + " in the wrong state");
+		}
+	}
+
+	/**
+	 * Every sun bed is found at its own position by its ID.
+	 */
+	private static void checkIds(SunBedCollection beds, String what) {
+		for (int i = 0; i < beds.getCount(); i++) {
+			Checks.check(beds.getPosition(beds.getID(i)) == i,
+					what + ": sun bed " + beds.getID(i) + " not at position " + i);
+		}
+	}
+
+	private static void checkIds(SunBedCollection beds, int[] expected, String what) {
+		Checks.check(beds.getCount() == expected.length,
+				what + ": count " + beds.getCount() + " expected " + expected.length);
+		for (int i = 0; i < Math.min(expected.length, beds.getCount()); i++) {
+			Checks.check(beds.getID(i) == expected[i],
+					what + ": position " + i + " has ID " + beds.getID(i) + " expected "
+					+ expected[i]);
+		}
+		checkIds(beds, what);
+	}
+}
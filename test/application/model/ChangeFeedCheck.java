@@ -0,0 +1,287 @@
+package application.model;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import application.check.Checks;
+
+/**
+ * Checks the change feed of <code>SunBedCollection</code> while several
+ * threads toggle sun beds: that a subscriber taking a millisecond per event
+ * does not slow the toggling down, that a coalescing subscriber ends up with
+ * the state of every sun bed, and that a blocking subscriber is delivered
+ * every event in order. Then that a blocking subscriber requesting nothing
+ * holds up the changing thread but not the other subscribers or subscribing.
+ * Exits with status 1 if any check fails.
+ * <p>
+ * Usage: <code>ChangeFeedCheck [threads] [toggles]</code>, by default 4
+ * threads making 50,000 toggles each.
+ *
+ */
+public class ChangeFeedCheck {
+
+	private static final int SUN_BEDS = 1_000;
+	private static final long SLOW_SUBSCRIBER_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int toggles = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+
+		Path dir = Files.createTempDirectory("sunbed-feed");
+		Path dataFile = dir.resolve("feed.dat");
+		try {
+			SunBedCollection beds = SunBedCollection.forFile(dataFile);
+			beds.setStorageMode(StorageMode.CONCURRENT);
+			beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+			beds.readDataFromFile();
+			beds.addSunBeds(SUN_BEDS);
+			int[] ids = new int[SUN_BEDS];
+			for (int i = 0; i < SUN_BEDS; i++) {
+				ids[i] = beds.getID(i);
+			}
+			BedEventPublisher feed = beds.getChangeFeed();
+
+			long alone = toggle(beds, ids, threads, toggles);
+			System.out.printf("%d toggles without subscribers: %d ms%n", threads * toggles, alone / 1_000_000);
+
+			Recorder slow = new Recorder(SLOW_SUBSCRIBER_NANOS, 1);
+			Recorder coalescing = new Recorder(0, Long.MAX_VALUE);
+			feed.subscribe(slow, OverflowPolicy.DROP, 64);
+			feed.subscribe(coalescing, OverflowPolicy.COALESCE, SUN_BEDS);
+			boolean[] state = new boolean[beds.getCount()];
+			for (int i = 0; i < state.length; i++) {
+				state[i] = beds.isOccupiedAt(i);
+			}
+			long watched = toggle(beds, ids, threads, toggles);
+			System.out.printf("%d toggles with a slow and a coalescing subscriber: %d ms, %d dropped%n",
+					threads * toggles, watched / 1_000_000, feed.getDroppedCount());
+			// Had the slow subscriber held up the toggling it would take a
+			// millisecond per toggle
+			Checks.check(watched < threads * toggles * SLOW_SUBSCRIBER_NANOS / 10,
+					"the slow subscriber held up the toggling");
+			Checks.check(slow.events.size() < threads * toggles,
+					"the slow subscriber got every event, none were dropped");
+
+			Recorder blocking = new Recorder(0, 16);
+			feed.subscribe(blocking, OverflowPolicy.BLOCK, 16);
+			slow.subscription.cancel();
+			long blocked = toggle(beds, ids, threads, toggles);
+			System.out.printf("%d toggles with a blocking subscriber: %d ms%n", threads * toggles,
+					blocked / 1_000_000);
+
+			feed.close();
+			Checks.check(coalescing.completed.await(10, TimeUnit.SECONDS), "coalescing subscriber not completed");
+			Checks.check(blocking.completed.await(10, TimeUnit.SECONDS), "blocking subscriber not completed");
+
+			// Each sun bed's events must follow on from each other and end
+			// in its current state
+			for (BedEvent event : coalescing.events) {
+				int position = beds.getPosition(event.getID());
+				Checks.check(event.getType() == SunBedChange.Type.TOGGLED, "unexpected event " + event);
+				Checks.check(state[position] == event.wasBooked(), "event " + event + " does not follow on");
+				state[position] = event.isBooked();
+			}
+			for (int i = 0; i < state.length; i++) {
+				Checks.check(state[i] == beds.isOccupiedAt(i), "coalesced state of sun bed " + ids[i] + " is wrong");
+			}
+			System.out.printf("coalescing subscriber: %d events for %d toggles%n", coalescing.events.size(),
+					2L * threads * toggles);
+
+			Checks.check(blocking.events.size() == threads * toggles,
+					"blocking subscriber got " + blocking.events.size() + " of " + threads * toggles + " events");
+			for (int i = 1; i < blocking.events.size(); i++) {
+				long previous = blocking.events.get(i - 1).getSequence();
+				if (blocking.events.get(i).getSequence() != previous + 1) {
+					Checks.check(false, "blocking subscriber got event " + blocking.events.get(i).getSequence()
+							+ " after " + previous);
+					break;
+				}
+			}
+			beds.clearSunBeds();
+			beds.close();
+
+			stalled(dir.resolve("stalled.dat"));
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	/**
+	 * Every thread toggles its own share of the sun beds, so the changes of a
+	 * sun bed are all made by one thread.
+	 *
+	 * @return long How long the toggling took, in nanoseconds
+	 */
+	private static long toggle(SunBedCollection beds, int[] ids, int threads, int toggles)
+			throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> running = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int first = t;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				for (int i = 0, bed = first; i < toggles; i++) {
+					beds.toggleSunBed(ids[bed]);
+					bed += threads;
+					if (bed >= ids.length) {
+						bed = first;
+					}
+				}
+			}, "feed-" + t);
+			thread.start();
+			running.add(thread);
+		}
+		long started = System.nanoTime();
+		start.countDown();
+		for (Thread thread : running) {
+			thread.join();
+		}
+		return System.nanoTime() - started;
+	}
+
+	/**
+	 * A blocking subscriber with a buffer of one event that requests none, so
+	 * the second toggle waits for it. Meanwhile another subscriber must still
+	 * be delivered both toggles and subscribing must not wait, and cancelling
+	 * must let the toggling go on.
+	 */
+	private static void stalled(Path dataFile) throws Exception {
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.readDataFromFile();
+		beds.addSunBeds(1);
+		int id = beds.getID(0);
+		BedEventPublisher feed = beds.getChangeFeed();
+		Idle idle = new Idle();
+		feed.subscribe(idle, OverflowPolicy.BLOCK, 1);
+		Checks.check(idle.subscribed.await(10, TimeUnit.SECONDS), "blocking subscriber not subscribed");
+		CountDownLatch received = new CountDownLatch(2);
+		feed.subscribe(new Flow.Subscriber<BedEvent>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(BedEvent event) {
+				received.countDown();
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				Checks.check(false, "subscriber failed: " + throwable);
+			}
+
+			@Override
+			public void onComplete() {
+				// Nothing to do
+			}
+		}, OverflowPolicy.DROP, 64);
+
+		Thread toggling = new Thread(() -> {
+			for (int i = 0; i < 3; i++) {
+				beds.toggleSunBed(id);
+			}
+		}, "feed-stalled");
+		toggling.start();
+		Checks.check(received.await(10, TimeUnit.SECONDS), "a stalled blocking subscriber held up the others");
+		Thread subscribing = new Thread(() -> feed.subscribe(new Idle(), OverflowPolicy.DROP, 1), "feed-subscribe");
+		subscribing.start();
+		subscribing.join(10_000);
+		Checks.check(!subscribing.isAlive(), "subscribing waited for a stalled blocking subscriber");
+		Checks.check(toggling.isAlive(), "the toggling did not wait for the blocking subscriber");
+		idle.subscription.cancel();
+		toggling.join(10_000);
+		Checks.check(!toggling.isAlive(), "cancelling the blocking subscriber did not let the toggling go on");
+		System.out.println("a stalled blocking subscriber held up only the toggling");
+		feed.close();
+		beds.close();
+	}
+
+	/**
+	 * Subscribes and requests nothing.
+	 */
+	private static final class Idle implements Flow.Subscriber<BedEvent> {
+		private final CountDownLatch subscribed = new CountDownLatch(1);
+		private volatile Flow.Subscription subscription;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscribed.countDown();
+		}
+
+		@Override
+		public void onNext(BedEvent event) {
+			Checks.check(false, "an idle subscriber was sent " + event);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			Checks.check(false, "subscriber failed: " + throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			// Nothing to do
+		}
+	}
+
+	/**
+	 * Keeps every event it is delivered, taking <code>nanos</code> over each and
+	 * requesting <code>batch</code> at a time.
+	 */
+	private static final class Recorder implements Flow.Subscriber<BedEvent> {
+		private final long nanos;
+		private final long batch;
+		private final List<BedEvent> events = new ArrayList<>();
+		private final CountDownLatch completed = new CountDownLatch(1);
+		private volatile Flow.Subscription subscription;
+		private long outstanding;
+
+		Recorder(long nanos, long batch) {
+			this.nanos = nanos;
+			this.batch = batch;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			outstanding = batch;
+			subscription.request(batch);
+		}
+
+		@Override
+		public void onNext(BedEvent event) {
+			events.add(event);
+			if (nanos > 0) {
+				LockSupport.parkNanos(nanos);
+			}
+			if (batch != Long.MAX_VALUE && --outstanding == 0) {
+				outstanding = batch;
+				subscription.request(batch);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			Checks.check(false, "subscriber failed: " + throwable);
+			completed.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+	}
+}
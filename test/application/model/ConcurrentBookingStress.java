@@ -0,0 +1,248 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import application.check.Checks;
+
+/**
+ * Hammers a <code>StorageMode.CONCURRENT</code> collection from many threads
+ * and checks that nothing is double booked, no toggle is lost, removing sun
+ * beds from the middle while others are toggled finds every sun bed by its ID,
+ * and the state saved to disk matches memory. Exits with status 1 if any check
+ * fails.
+ * <p>
+ * Usage: <code>ConcurrentBookingStress [threads] [rounds]</code>, by default
+ * one thread per processor (at least 4) and 20 rounds.
+ *
+ */
+public class ConcurrentBookingStress {
+
+	private static final int EXCLUSIVE_BEDS = 10_000;
+	private static final int CONTENDED_BEDS = 64;
+	private static final int OPERATIONS_PER_THREAD = 200_000;
+	// Every this many sun beds one is removed and added again while toggling
+	private static final int CHURN_SPACING = 100;
+	private static final int CHURN_OPERATIONS = 2_000;
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0])
+				: Math.max(4, Runtime.getRuntime().availableProcessors());
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		Path dir = Files.createTempDirectory("sunbed-stress");
+		Path dataFile = dir.resolve("stress.dat");
+		try {
+			for (int round = 1; round <= rounds; round++) {
+				SunBedCollection beds = SunBedCollection.forFile(dataFile);
+				beds.setStorageMode(StorageMode.CONCURRENT);
+				beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+				beds.readDataFromFile();
+
+				exclusiveBooking(beds, threads);
+				bookAndRelease(beds, threads);
+				toggleParity(beds, threads, dataFile);
+				removeWhileToggling(beds, threads);
+				beds.clearSunBeds();
+				beds.close();
+				System.out.printf("round %d of %d done, %d failures%n", round, rounds, Checks.getFailures());
+			}
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	/**
+	 * Every thread tries to book every sun bed. Each one must be won by exactly
+	 * one thread.
+	 */
+	private static void exclusiveBooking(SunBedCollection beds, int threads) throws InterruptedException {
+		int[] ids = resize(beds, EXCLUSIVE_BEDS);
+		AtomicIntegerArray winners = new AtomicIntegerArray(EXCLUSIVE_BEDS);
+		run(threads, t -> {
+			int start = ThreadLocalRandom.current().nextInt(EXCLUSIVE_BEDS);
+			for (int i = 0; i < EXCLUSIVE_BEDS; i++) {
+				int bed = (start + i) % EXCLUSIVE_BEDS;
+				if (beds.book(ids[bed])) {
+					winners.incrementAndGet(bed);
+				}
+			}
+		});
+		for (int bed = 0; bed < EXCLUSIVE_BEDS; bed++) {
+			Checks.check(winners.get(bed) == 1, "sun bed " + bed + " booked " + winners.get(bed) + " times");
+		}
+		Checks.check(beds.getCountFree() == 0, "free count " + beds.getCountFree() + " after booking every sun bed");
+	}
+
+	/**
+	 * Threads book and release a few sun beds. Whoever books a sun bed must be
+	 * its only holder until they release it.
+	 */
+	private static void bookAndRelease(SunBedCollection beds, int threads) throws InterruptedException {
+		int[] ids = resize(beds, CONTENDED_BEDS);
+		beds.setAllSunBedsToFree();
+		AtomicIntegerArray holders = new AtomicIntegerArray(CONTENDED_BEDS);
+		AtomicLong bookings = new AtomicLong();
+		run(threads, t -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < OPERATIONS_PER_THREAD / 4; i++) {
+				int bed = random.nextInt(CONTENDED_BEDS);
+				if (beds.book(ids[bed])) {
+					bookings.incrementAndGet();
+					Checks.check(holders.compareAndSet(bed, 0, t + 1), "sun bed " + bed + " double booked");
+					holders.set(bed, 0);
+					Checks.check(beds.release(ids[bed]), "sun bed " + bed + " released by someone else");
+				}
+			}
+		});
+		Checks.check(beds.getCountFree() == CONTENDED_BEDS,
+				"free count " + beds.getCountFree() + " after releasing all");
+		Checks.check(bookings.get() > 0, "no bookings made");
+	}
+
+	/**
+	 * Threads toggle random sun beds. Each sun bed must end up booked exactly
+	 * when it was toggled an odd number of times, and reloading it from disk
+	 * must give the same state.
+	 */
+	private static void toggleParity(SunBedCollection beds, int threads, Path dataFile)
+			throws InterruptedException, IOException {
+		int[] ids = resize(beds, EXCLUSIVE_BEDS);
+		beds.setAllSunBedsToFree();
+		AtomicIntegerArray toggles = new AtomicIntegerArray(EXCLUSIVE_BEDS);
+		run(threads, t -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+				int bed = random.nextInt(EXCLUSIVE_BEDS);
+				beds.toggleSunBed(ids[bed]);
+				toggles.incrementAndGet(bed);
+			}
+		});
+
+		int booked = 0;
+		for (int bed = 0; bed < EXCLUSIVE_BEDS; bed++) {
+			boolean odd = (toggles.get(bed) & 1) == 1;
+			Checks.check(beds.isOccupied(ids[bed]) == odd, "sun bed " + bed + " lost a toggle");
+			booked += odd ? 1 : 0;
+		}
+		Checks.check(beds.getCountFree() == EXCLUSIVE_BEDS - booked, "free count " + beds.getCountFree() + " expected "
+				+ (EXCLUSIVE_BEDS - booked));
+
+		beds.close();
+		SunBedCollection reloaded = SunBedCollection.forFile(dataFile);
+		reloaded.readDataFromFile();
+		for (int bed = 0; bed < EXCLUSIVE_BEDS; bed++) {
+			Checks.check(reloaded.isOccupied(ids[bed]) == beds.isOccupied(ids[bed]),
+					"sun bed " + bed + " saved in the wrong state");
+		}
+		reloaded.close();
+	}
+
+	/**
+	 * One thread keeps removing sun beds spread over the collection and adding
+	 * them back at the end, moving every sun bed after them, while the others
+	 * toggle the rest by ID. No toggle may land on the wrong sun bed and every
+	 * sun bed must still be found at its position by its ID.
+	 */
+	private static void removeWhileToggling(SunBedCollection beds, int threads) throws InterruptedException {
+		int[] ids = resize(beds, EXCLUSIVE_BEDS);
+		beds.setAllSunBedsToFree();
+		int[] churned = new int[EXCLUSIVE_BEDS / CHURN_SPACING];
+		int[] stable = new int[EXCLUSIVE_BEDS - churned.length];
+		for (int bed = 0, c = 0, s = 0; bed < EXCLUSIVE_BEDS; bed++) {
+			if (bed % CHURN_SPACING == 0) {
+				churned[c++] = ids[bed];
+			} else {
+				stable[s++] = ids[bed];
+			}
+		}
+		AtomicIntegerArray toggles = new AtomicIntegerArray(stable.length);
+		run(threads, t -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (t == 0) {
+				for (int i = 0; i < CHURN_OPERATIONS; i++) {
+					int c = random.nextInt(churned.length);
+					beds.removeSunBed(churned[c]);
+					churned[c] = beds.addSunBed();
+				}
+				return;
+			}
+			for (int i = 0; i < OPERATIONS_PER_THREAD / 4; i++) {
+				int bed = random.nextInt(stable.length);
+				beds.toggleSunBed(stable[bed]);
+				toggles.incrementAndGet(bed);
+			}
+		});
+
+		int booked = 0;
+		for (int bed = 0; bed < stable.length; bed++) {
+			boolean odd = (toggles.get(bed) & 1) == 1;
+			Checks.check(beds.isOccupied(stable[bed]) == odd,
+					"sun bed " + stable[bed] + " lost a toggle while others moved");
+			booked += odd ? 1 : 0;
+		}
+		for (int id : churned) {
+			Checks.check(!beds.isOccupied(id), "sun bed " + id + " was never toggled but is booked");
+		}
+		Checks.check(beds.getCount() == EXCLUSIVE_BEDS, "count " + beds.getCount() + " after removing and adding");
+		Checks.check(beds.getCountFree() == EXCLUSIVE_BEDS - booked, "free count " + beds.getCountFree() + " expected "
+				+ (EXCLUSIVE_BEDS - booked));
+		for (int position = 0; position < beds.getCount(); position++) {
+			int id = beds.getID(position);
+			Checks.check(beds.getPosition(id) == position, "sun bed " + id + " not found at position " + position);
+		}
+	}
+
+	/**
+	 * @return int[] The ID of the sun bed at each position
+	 */
+	private static int[] resize(SunBedCollection beds, int count) {
+		while (beds.getCount() > count) {
+			beds.removeSunBed();
+		}
+		while (beds.getCount() < count) {
+			beds.addSunBed();
+		}
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = beds.getID(i);
+		}
+		return ids;
+	}
+
+	private interface Worker {
+		void run(int thread);
+	}
+
+	/**
+	 * Starts all threads at once and waits for them to finish.
+	 */
+	private static void run(int threads, Worker worker) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> running = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int id = t;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+					worker.run(id);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}, "stress-" + t);
+			thread.start();
+			running.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : running) {
+			thread.join();
+		}
+	}
+}
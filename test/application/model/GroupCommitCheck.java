@@ -0,0 +1,180 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import application.check.Checks;
+import application.util.MutationJournal;
+
+/**
+ * Checks <code>PersistenceMode.GROUP_COMMIT</code>: several threads toggle
+ * sun beds at once, some of them calling <code>flush()</code> as they go, and
+ * after <code>close()</code> the data file read again must have every toggle
+ * that returned. Then the journal is left ending in a torn record, once with
+ * half a record written after the last one and once with the last record cut
+ * short, and reading it again must keep every record before the tear and cut
+ * the tail off. Exits with status 1 if any check fails.
+ * <p>
+ * Usage: <code>GroupCommitCheck [threads] [toggles]</code>, by default 4
+ * threads of 20,000 toggles each.
+ *
+ */
+public class GroupCommitCheck {
+
+	private static final int SUN_BEDS = 1_000;
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int toggles = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+		Path dir = Files.createTempDirectory("sunbed-group");
+		Path dataFile = dir.resolve("group.dat");
+		Path journalFile = Path.of(dataFile + ".journal");
+		try {
+			boolean[] expected = concurrent(dataFile, threads, toggles);
+			tornTail(dataFile, journalFile, expected);
+			tornLast(dataFile, journalFile, expected);
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	/**
+	 * Each thread toggles sun beds of its own, so the state it saw last when
+	 * <code>toggleSunBed()</code> returned is the one that must be saved.
+	 *
+	 * @return boolean[] The state of every sun bed, in position order
+	 */
+	private static boolean[] concurrent(Path dataFile, int threads, int toggles) throws Exception {
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.setStorageMode(StorageMode.CONCURRENT);
+		beds.readDataFromFile();
+		beds.addSunBeds(SUN_BEDS);
+		beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+		// A short window and a small group, so many commits happen meanwhile
+		beds.setGroupCommitWindow(2, 64);
+		long writes = beds.getJournalWriteCount();
+
+		boolean[] expected = new boolean[SUN_BEDS];
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> running = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int first = t;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < toggles; i++) {
+					int position = first + threads * random.nextInt((SUN_BEDS - first + threads - 1) / threads);
+					beds.toggleSunBed(beds.getID(position));
+					expected[position] = beds.isOccupiedAt(position);
+					if (first == 0 && i % 5_000 == 4_999) {
+						try {
+							beds.flush();
+						} catch (IOException e) {
+							Checks.check(false, "flush() while toggling: " + e);
+						}
+					}
+				}
+			}, "group-" + t);
+			thread.start();
+			running.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : running) {
+			thread.join();
+		}
+		beds.flush();
+		Checks.check(beds.getDurability() != Durability.FAILED, "durability " + beds.getDurability());
+		long commits = beds.getJournalWriteCount() - writes;
+		beds.close();
+		System.out.printf("%d toggles from %d threads in %d writes%n", threads * toggles, threads, commits);
+		Checks.check(commits < (long) threads * toggles, "every toggle took a write of its own");
+
+		SunBedCollection reloaded = SunBedCollection.forFile(dataFile);
+		reloaded.readDataFromFile();
+		checkSame(reloaded, expected, "reloaded after group commit");
+		reloaded.close();
+		return expected;
+	}
+
+	/**
+	 * Half a record written after the last one, as a crash part way through a
+	 * write leaves it, is cut off and everything before it kept.
+	 */
+	private static void tornTail(Path dataFile, Path journalFile, boolean[] expected) throws IOException {
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.readDataFromFile();
+		beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+		for (int position = 0; position < SUN_BEDS; position += 7) {
+			beds.toggleSunBed(beds.getID(position));
+			expected[position] = !expected[position];
+		}
+		beds.close();
+		long size = Files.size(journalFile);
+		try (FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND)) {
+			journal.write(ByteBuffer.wrap(new byte[MutationJournal.RECORD_SIZE / 2]));
+		}
+
+		SunBedCollection torn = SunBedCollection.forFile(dataFile);
+		torn.readDataFromFile();
+		checkSame(torn, expected, "after half a record");
+		Checks.check(Files.size(journalFile) == size,
+				"journal of " + Files.size(journalFile) + " bytes after replay, expected " + size);
+		torn.close();
+		System.out.println("half a record after the last one cut off");
+	}
+
+	/**
+	 * The last record cut short loses only the toggle it held.
+	 */
+	private static void tornLast(Path dataFile, Path journalFile, boolean[] expected) throws IOException {
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.readDataFromFile();
+		beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+		for (int position = 1; position < SUN_BEDS; position += 11) {
+			beds.toggleSunBed(beds.getID(position));
+			expected[position] = !expected[position];
+		}
+		beds.flush();
+		int last = SUN_BEDS - 1;
+		beds.toggleSunBed(beds.getID(last));
+		beds.close();
+		try (FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+			journal.truncate(journal.size() - MutationJournal.RECORD_SIZE / 2);
+		}
+
+		SunBedCollection torn = SunBedCollection.forFile(dataFile);
+		torn.readDataFromFile();
+		checkSame(torn, expected, "after the last record cut short");
+		Checks.check(Files.size(journalFile) % MutationJournal.RECORD_SIZE == 0,
+				"journal of " + Files.size(journalFile) + " bytes after replay");
+		torn.close();
+		System.out.println("last record cut short dropped");
+	}
+
+	private static void checkSame(SunBedCollection beds, boolean[] expected, String what) {
+		Checks.check(beds.getCount() == expected.length,
+				what + ": count " + beds.getCount() + " expected " + expected.length);
+		int wrong = 0;
+		for (int i = 0; i < Math.min(expected.length, beds.getCount()); i++) {
+			if (beds.isOccupiedAt(i) != expected[i]) {
+				wrong++;
+			}
+		}
+		Checks.check(wrong == 0, what + ": " + wrong + " sun beds in the wrong state");
+	}
+}
@@ -0,0 +1,128 @@
+package application.model;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import application.check.Checks;
+import application.util.LatencyHistogram;
+import application.util.MutationJournal;
+
+/**
+ * Checks the metrics of <code>SunBedCollection</code>: that the percentiles of
+ * <code>LatencyHistogram</code> are within 12.5% of the true ones, that
+ * recording allocates nothing, that toggles, changes and bytes written are
+ * all counted, and that the metrics can be read over JMX. Exits with status 1
+ * if any check fails.
+ * <p>
+ * Usage: <code>MetricsCheck [toggles]</code>, by default 10,000 toggles.
+ *
+ */
+public class MetricsCheck {
+
+	private static final int RECORDINGS = 1_000_000;
+
+	public static void main(String[] args) throws Exception {
+		int toggles = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+
+		percentiles();
+		allocation();
+
+		Path dir = Files.createTempDirectory("sunbed-metrics");
+		Path dataFile = dir.resolve("metrics.dat");
+		try {
+			counters(dataFile, toggles);
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	/**
+	 * Latencies spread over five orders of magnitude, as toggles and writes are.
+	 */
+	private static void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Random random = new Random(42);
+		long[] values = new long[RECORDINGS];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(4 + 12 * random.nextDouble() * random.nextDouble());
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		for (double p : new double[] { 0, 50, 90, 99, 99.9, 100 }) {
+			long exact = values[Math.max(0, (int) Math.ceil(p / 100 * values.length) - 1)];
+			long reported = snapshot.getPercentile(p);
+			System.out.printf("p%s: %d ns, exactly %d ns%n", p, reported, exact);
+			Checks.check(reported >= exact && reported <= exact * 1.125 + 1,
+					"p" + p + " is " + reported + " but should be " + exact);
+		}
+		Checks.check(snapshot.getCount() == RECORDINGS, "count " + snapshot.getCount());
+		Checks.check(snapshot.getMax() == values[values.length - 1], "max " + snapshot.getMax());
+	}
+
+	private static void allocation() throws JMException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// Warm up so the loop is compiled before it is measured
+		for (int i = 0; i < RECORDINGS; i++) {
+			histogram.record(i);
+		}
+		long before = allocatedBytes();
+		for (int i = 0; i < RECORDINGS; i++) {
+			histogram.record(i * 31L);
+		}
+		long allocated = allocatedBytes() - before;
+		System.out.printf("%d recordings allocated %d bytes%n", RECORDINGS, allocated);
+		// Reading the counter allocates a little itself
+		Checks.check(allocated < 4096, RECORDINGS + " recordings allocated " + allocated + " bytes");
+	}
+
+	private static void counters(Path dataFile, int toggles) throws IOException, JMException {
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.setPersistenceMode(PersistenceMode.IMMEDIATE);
+		beds.readDataFromFile();
+		beds.addSunBeds(100);
+		SunBedMetrics metrics = beds.getMetrics();
+		long mutations = metrics.getMutations();
+		long bytes = metrics.getBytesWritten();
+		long writes = metrics.getWriteCount();
+		for (int i = 0; i < toggles; i++) {
+			beds.toggleSunBed(beds.getID(i % 100));
+		}
+		Checks.check(metrics.getToggleCount() == toggles, "toggle count " + metrics.getToggleCount());
+		Checks.check(metrics.getMutations() - mutations == toggles,
+				"mutations " + (metrics.getMutations() - mutations));
+		Checks.check(metrics.getWriteCount() - writes == toggles, "writes " + (metrics.getWriteCount() - writes));
+		Checks.check(metrics.getBytesWritten() - bytes == (long) toggles * MutationJournal.RECORD_SIZE,
+				"bytes written " + (metrics.getBytesWritten() - bytes));
+		Checks.check(metrics.getLoadCount() == 1, "load count " + metrics.getLoadCount());
+		Checks.check(metrics.getCountFree() + metrics.getCountBooked() == 100, "free and booked do not add up");
+
+		metrics.register();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("application.model:type=SunBedMetrics,name=\"metrics.dat\"");
+		Object count = server.getAttribute(name, "ToggleCount");
+		Checks.check(Long.valueOf(toggles).equals(count), "ToggleCount over JMX is " + count);
+		Object p99 = server.getAttribute(name, "ToggleP99Micros");
+		Checks.check(p99 instanceof Double && (Double) p99 > 0, "ToggleP99Micros over JMX is " + p99);
+		System.out.println(server.invoke(name, "summary", new Object[0], new String[0]));
+		metrics.unregister();
+		Checks.check(!server.isRegistered(name), "still registered after unregister()");
+		beds.close();
+	}
+
+	/**
+	 * Asked over JMX, so the check needs nothing outside java.management.
+	 */
+	private static long allocatedBytes() throws JMException {
+		return (Long) ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName("java.lang:type=Threading"),
+				"getThreadAllocatedBytes", new Object[] { Thread.currentThread().getId() },
+				new String[] { long.class.getName() });
+	}
+}
@@ -0,0 +1,170 @@
+package application.model;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import application.check.Checks;
+import application.util.HistorySegmentFile;
+
+/**
+ * Checks <code>OccupancyHistory</code>: the occupancy curve, utilization and
+ * peak hour of days with known bookings, a day that ended queried before and
+ * after it is written, and the same answers from the files once the history is
+ * opened again. Then a collection's history resumed after a restart, sealing
+ * the day left open, and closing it, after which the collection must go on
+ * changing without it. Exits with status 1 if any check fails.
+ * <p>
+ * Usage: <code>OccupancyHistoryCheck</code>
+ *
+ */
+public class OccupancyHistoryCheck {
+
+	private static final long HOUR = 3_600_000L;
+	private static final double EPSILON = 1e-9;
+
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("sunbed-history");
+		try {
+			knownEvents(dir.resolve("known"));
+			resume(dir.resolve("resume.dat"));
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	/**
+	 * Two days starting at local midnight: on day 1 sun bed 1 is booked from
+	 * 9:00 to 11:00, sun bed 2 from 10:00 to 13:00 and sun bed 4 from 23:00 to
+	 * 1:00 on day 2, when sun bed 3 is also booked from 10:00 to 10:30.
+	 */
+	private static void knownEvents(Path directory) throws Exception {
+		long day1 = LocalDate.of(2026, 7, 1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		long day2 = day1 + 24 * HOUR;
+		OccupancyHistory history = OccupancyHistory.open(directory);
+		history.startDay(1, day1);
+		history.record(day1 + 9 * HOUR, 1, true);
+		history.record(day1 + 10 * HOUR, 2, true);
+		// Booking a booked sun bed records nothing
+		history.record(day1 + 10 * HOUR, 2, true);
+		history.record(day1 + 11 * HOUR, 1, false);
+		history.record(day1 + 13 * HOUR, 2, false);
+		history.record(day1 + 23 * HOUR, 4, true);
+		history.startDay(2, day2);
+		// Queried from memory, it may not be written yet
+		checkDays(history, "day 1 ended");
+		history.record(day2 + HOUR, 4, false);
+		history.record(day2 + 10 * HOUR, 3, true);
+		history.record(day2 + 10 * HOUR + HOUR / 2, 3, false);
+		history.startDay(3, day2 + 24 * HOUR);
+		history.flush();
+		for (int d = 1; d <= 2; d++) {
+			Path file = directory.resolve("day-" + d + ".hist");
+			Checks.check(Files.exists(file), "day " + d + " not written");
+			if (Files.exists(file)) {
+				Checks.check(HistorySegmentFile.read(file).getEndMillis() >= 0, "day " + d + " not sealed");
+			}
+		}
+		checkDays(history, "written");
+		checkUsage(history, "written");
+		history.close();
+		try {
+			history.record(day2 + 25 * HOUR, 5, true);
+			Checks.check(false, "recorded after close()");
+		} catch (IllegalStateException expected) {
+			// Closed
+		}
+
+		OccupancyHistory reopened = OccupancyHistory.open(directory);
+		Checks.check(reopened.getDays().equals(List.of(1, 2)), "days " + reopened.getDays() + " opened again");
+		checkDays(reopened, "opened again");
+		checkUsage(reopened, "opened again");
+		reopened.close();
+		System.out.println("known events: curve, utilization and peak hour right");
+	}
+
+	private static void checkDays(OccupancyHistory history, String when) throws Exception {
+		double[] curve = new double[OccupancyHistory.HOURS];
+		curve[9] = 1;
+		curve[10] = 2;
+		curve[11] = 1;
+		curve[12] = 1;
+		curve[23] = 1;
+		checkClose(history.getOccupancyCurve(1), curve, when + ": curve of day 1");
+		checkClose(history.getUtilization(1, 1), new double[] { 0, 2 / 24.0, 3 / 24.0, 0, 1 / 24.0 },
+				when + ": utilization of day 1");
+		Checks.check(history.getPeakHour(1, 1) == 10, when + ": peak hour of day 1 " + history.getPeakHour(1, 1));
+	}
+
+	private static void checkUsage(OccupancyHistory history, String when) throws Exception {
+		double[] curve = new double[OccupancyHistory.HOURS];
+		// Sun bed 4 carried over from day 1
+		curve[0] = 1;
+		curve[10] = 0.5;
+		checkClose(history.getOccupancyCurve(2), curve, when + ": curve of day 2");
+		checkClose(history.getUtilization(1, 2), new double[] { 0, 2 / 48.0, 3 / 48.0, 0.5 / 48, 2 / 48.0 },
+				when + ": utilization of days 1 to 2");
+		// Hour 10 averages (2 + 0.5) / 2, more than any other
+		Checks.check(history.getPeakHour(1, 2) == 10, when + ": peak hour of days 1 to 2 " + history.getPeakHour(1, 2));
+		Checks.check(history.getPeakHour(5, 9) == -1, when + ": peak hour of days without a segment");
+	}
+
+	/**
+	 * The history of a collection is continued after a restart. A day left
+	 * open when the day ended without the history is sealed at its last event.
+	 * Once closed the collection changes without it and gives a new one.
+	 */
+	private static void resume(Path dataFile) throws Exception {
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.readDataFromFile();
+		beds.addSunBeds(10);
+		int booked = beds.getID(3);
+		OccupancyHistory history = beds.getHistory();
+		int day = beds.getDay();
+		beds.toggleSunBed(booked);
+		beds.close();
+
+		SunBedCollection restarted = SunBedCollection.forFile(dataFile);
+		restarted.readDataFromFile();
+		history = restarted.getHistory();
+		Checks.check(history.getDays().equals(List.of(day)), "days " + history.getDays() + " after a restart");
+		double[] utilization = history.getUtilization(day, day);
+		Checks.check(utilization.length == booked + 1 && utilization[booked] > 0,
+				"utilization " + Arrays.toString(utilization) + " after a restart, expected sun bed " + booked);
+		restarted.close();
+
+		// The day ends while nothing follows it
+		SunBedCollection again = SunBedCollection.forFile(dataFile);
+		again.readDataFromFile();
+		again.endDay();
+		history = again.getHistory();
+		Checks.check(history.getDays().equals(List.of(day, day + 1)),
+				"days " + history.getDays() + " after the day ended unfollowed");
+		Path left = Path.of(dataFile + ".history").resolve("day-" + day + ".hist");
+		Checks.check(HistorySegmentFile.read(left).getEndMillis() >= 0, "day " + day + " left open not sealed");
+
+		history.close();
+		for (int i = 0; i < 10; i++) {
+			// Must not reach the closed history
+			again.toggleSunBed(booked);
+		}
+		again.endDay();
+		OccupancyHistory next = again.getHistory();
+		Checks.check(next != history, "getHistory() gave the closed history");
+		Checks.check(next.getDays().contains(day + 2), "days " + next.getDays() + " of the new history");
+		next.close();
+		again.close();
+		System.out.println("resumed after a restart, the day left open sealed and closed");
+	}
+
+	private static void checkClose(double[] actual, double[] expected, String what) {
+		boolean same = actual.length == expected.length;
+		for (int i = 0; same && i < actual.length; i++) {
+			same = Math.abs(actual[i] - expected[i]) < EPSILON;
+		}
+		Checks.check(same, what + " " + Arrays.toString(actual) + ", expected " + Arrays.toString(expected));
+	}
+}
@@ -0,0 +1,159 @@
+package application.model;
+
+import java.util.Arrays;
+import application.check.Checks;
+
+/**
+ * Checks <code>ReservationBook</code>: the bounds of a span of hours, the days
+ * that can be reserved, the next free hour across midnight and over several
+ * days, the sun beds free for some hours, and the reservations saved with
+ * <code>toInts()</code> read back with <code>fromInts()</code>. Exits with
+ * status 1 if any check fails.
+ * <p>
+ * Usage: <code>ReservationBookCheck</code>
+ *
+ */
+public class ReservationBookCheck {
+
+	public static void main(String[] args) {
+		hours();
+		days();
+		nextFreeHour();
+		findFree();
+		saved();
+		Checks.exit();
+	}
+
+	private static void hours() {
+		Checks.check(ReservationBook.hours(0, 24) == ReservationBook.ALL_HOURS, "hours 0 to 24 not all hours");
+		Checks.check(ReservationBook.hours(0, 1) == 1, "hours 0 to 1");
+		Checks.check(ReservationBook.hours(23, 24) == 1 << 23, "hours 23 to 24");
+		Checks.check(ReservationBook.hours(9, 12) == 0b1110_0000_0000, "hours 9 to 12");
+		int[][] wrong = { { -1, 3 }, { 0, 25 }, { 5, 5 }, { 6, 5 }, { 24, 24 } };
+		for (int[] span : wrong) {
+			try {
+				ReservationBook.hours(span[0], span[1]);
+				Checks.check(false, "hours " + span[0] + " to " + span[1] + " taken");
+			} catch (IllegalArgumentException expected) {
+				// Not a span
+			}
+		}
+		System.out.println("spans of hours bounded");
+	}
+
+	private static void days() {
+		ReservationBook book = new ReservationBook();
+		book.dropBefore(10);
+		Checks.check(book.getFirstDay() == 10, "first day " + book.getFirstDay());
+		book.checkDay(10);
+		book.checkDay(10 + ReservationBook.MAX_DAYS_AHEAD);
+		checkDayRefused(book, 9, "an ended day");
+		checkDayRefused(book, 11 + ReservationBook.MAX_DAYS_AHEAD, "a day too far ahead");
+		checkDayRefused(book, Integer.MAX_VALUE, "the last int");
+		try {
+			book.reserve(1, 9, ReservationBook.hours(9, 10));
+			Checks.check(false, "reserved on an ended day");
+		} catch (IllegalArgumentException expected) {
+			// Ended
+		}
+
+		book.reserve(1, 12, ReservationBook.hours(9, 10));
+		book.reserve(1, 14, ReservationBook.hours(9, 10));
+		book.dropBefore(13);
+		Checks.check(book.get(1, 12) == 0, "reservation of a dropped day kept");
+		Checks.check(book.get(1, 14) == ReservationBook.hours(9, 10), "reservation after the dropped day lost");
+		// Dropping further than anything is reserved keeps nothing
+		book.dropBefore(1_000);
+		Checks.check(book.get(1, 14) == 0 && book.getFirstDay() == 1_000, "reservations kept after dropping all");
+		System.out.println("ended days and days too far ahead refused");
+	}
+
+	private static void nextFreeHour() {
+		ReservationBook book = new ReservationBook();
+		Checks.check(book.nextFreeHour(1, 0, 9) == 9, "free sun bed not free at 9");
+		// From 20:00 on day 1 to 6:00 on day 2
+		book.reserve(1, 1, ReservationBook.hours(20, 24));
+		book.reserve(1, 2, ReservationBook.hours(0, 6));
+		Checks.check(book.nextFreeHour(1, 1, 21) == 2 * ReservationBook.HOURS + 6,
+				"next free hour across midnight " + book.nextFreeHour(1, 1, 21));
+		Checks.check(book.nextFreeHour(1, 1, 8) == ReservationBook.HOURS + 8, "free before the reservation");
+		Checks.check(book.nextFreeHour(1, 1, 23) == 2 * ReservationBook.HOURS + 6, "from the last hour of a day");
+		// Two whole days and the first hour of the third, sun bed 3 untouched
+		book.reserve(2, 1, ReservationBook.ALL_HOURS);
+		book.reserve(2, 2, ReservationBook.ALL_HOURS);
+		book.reserve(2, 3, ReservationBook.hours(0, 1));
+		Checks.check(book.nextFreeHour(2, 1, 0) == 3 * ReservationBook.HOURS + 1,
+				"next free hour over whole days " + book.nextFreeHour(2, 1, 0));
+		Checks.check(book.nextFreeHour(3, 1, 0) == ReservationBook.HOURS, "sun bed without reservations");
+
+		book.cancel(1, 2, ReservationBook.hours(0, 3));
+		Checks.check(book.nextFreeHour(1, 1, 21) == 2 * ReservationBook.HOURS, "cancelled hours not free");
+		book.release(2);
+		Checks.check(book.get(2, 1) == 0 && book.get(2, 3) == 0, "released ID still reserved");
+		System.out.println("next free hour right across midnight");
+	}
+
+	private static void findFree() {
+		SunBedStorage storage = new BitSetSunBedStorage();
+		for (int id = 1; id <= 6; id++) {
+			storage.add(id, false);
+		}
+		ReservationBook book = new ReservationBook();
+		book.reserve(2, 5, ReservationBook.hours(10, 12));
+		book.reserve(4, 5, ReservationBook.hours(11, 13));
+		book.reserve(6, 6, ReservationBook.hours(10, 12));
+		int[] free = book.findFree(storage, 5, ReservationBook.hours(11, 12));
+		Checks.check(Arrays.equals(free, new int[] { 1, 3, 5, 6 }), "free at 11 on day 5 " + Arrays.toString(free));
+		free = book.findFree(storage, 5, ReservationBook.hours(8, 10));
+		Checks.check(free.length == 6, "free at 8 on day 5 " + Arrays.toString(free));
+		free = book.findFree(storage, 7, ReservationBook.ALL_HOURS);
+		Checks.check(free.length == 6, "free all of day 7 " + Arrays.toString(free));
+		System.out.println("free sun beds found");
+	}
+
+	private static void saved() {
+		ReservationBook book = new ReservationBook();
+		book.dropBefore(20);
+		book.reserve(3, 20, ReservationBook.hours(9, 17));
+		book.reserve(700, 21, ReservationBook.hours(0, 24));
+		book.reserve(5, 25, ReservationBook.hours(12, 13));
+		// Reserved and cancelled, a day with nothing left is not saved
+		book.reserve(8, 22, ReservationBook.hours(1, 2));
+		book.cancel(8, 22, ReservationBook.hours(1, 2));
+		int[] ints = book.toInts();
+		Checks.check(ints.length == 2 + 4 + 2 + 701 + 2 + 6, "saved as " + ints.length + " ints");
+
+		ReservationBook read = new ReservationBook();
+		read.fromInts(ints, 20);
+		Checks.check(Arrays.equals(read.toInts(), ints), "reservations differ once read");
+		Checks.check(read.get(3, 20) == ReservationBook.hours(9, 17) && read.get(700, 21) == ReservationBook.ALL_HOURS
+				&& read.get(5, 25) == ReservationBook.hours(12, 13) && read.get(8, 22) == 0,
+				"reservations read wrong");
+		// Read as if the day ended since they were saved
+		read.fromInts(ints, 21);
+		Checks.check(read.get(3, 20) == 0 && read.get(700, 21) == ReservationBook.ALL_HOURS,
+				"ended day read from saved reservations");
+		read.fromInts(new int[0], 30);
+		Checks.check(read.toInts().length == 0 && read.getFirstDay() == 30, "no reservations read");
+
+		int[][] wrong = { { 20 }, { 20, 5, 1 }, { 20, -1 } };
+		for (int[] bad : wrong) {
+			try {
+				read.fromInts(bad, 20);
+				Checks.check(false, "reservations " + Arrays.toString(bad) + " read");
+			} catch (IllegalArgumentException expected) {
+				// Cut short
+			}
+		}
+		System.out.println("saved reservations read back");
+	}
+
+	private static void checkDayRefused(ReservationBook book, int day, String what) {
+		try {
+			book.checkDay(day);
+			Checks.check(false, what + " taken");
+		} catch (IllegalArgumentException expected) {
+			// Refused
+		}
+	}
+}
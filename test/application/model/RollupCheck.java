@@ -0,0 +1,199 @@
+package application.model;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import application.check.Checks;
+
+/**
+ * Checks <code>OccupancyRollup</code> against counting the sun beds one by
+ * one: after several threads have toggled, booked and released sun beds while
+ * another added, removed and freed them, every row, ranges of rows, the price
+ * tiers and the total must all be right. Also times counting a range of rows
+ * with the rollup and by looking at every sun bed. Exits with status 1 if any
+ * check fails.
+ * <p>
+ * Usage: <code>RollupCheck [threads] [operations]</code>, by default 4
+ * threads making 200,000 changes each.
+ *
+ */
+public class RollupCheck {
+
+	private static final int SUN_BEDS = 10_000;
+	private static final int ROW_LENGTH = 37;
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+		Path dir = Files.createTempDirectory("sunbed-rollup");
+		Path dataFile = dir.resolve("rollup.dat");
+		try {
+			SunBedCollection beds = SunBedCollection.forFile(dataFile);
+			beds.setStorageMode(StorageMode.CONCURRENT);
+			beds.setPersistenceMode(PersistenceMode.GROUP_COMMIT);
+			beds.readDataFromFile();
+			beds.addSunBeds(SUN_BEDS);
+			OccupancyRollup rollup = beds.getRollup(ROW_LENGTH);
+			rollup.addTier("front", 0, 9);
+			rollup.addTier("premium", 10, 19);
+			rollup.addTier("premium", 100, 109);
+			Checks.check(rollup == beds.getRollup(ROW_LENGTH), "a second rollup for the same row length");
+
+			concurrentChanges(beds, threads, operations);
+			compare(beds, rollup);
+			timing(beds, rollup);
+			beds.close();
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	private static void concurrentChanges(SunBedCollection beds, int threads, int operations)
+			throws InterruptedException {
+		AtomicBoolean changing = new AtomicBoolean(true);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> running = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Thread thread = new Thread(() -> {
+				await(start);
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < operations; i++) {
+					try {
+						int id = beds.getID(random.nextInt(beds.getCount()));
+						switch (random.nextInt(3)) {
+						case 0:
+							beds.toggleSunBed(id);
+							break;
+						case 1:
+							beds.book(id);
+							break;
+						default:
+							beds.release(id);
+							break;
+						}
+					} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+						// The sun bed was removed meanwhile
+					}
+				}
+			}, "rollup-" + t);
+			thread.start();
+			running.add(thread);
+		}
+		Thread structure = new Thread(() -> {
+			await(start);
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; changing.get(); i++) {
+				switch (i % 4) {
+				case 0:
+					beds.addSunBeds(1 + random.nextInt(50));
+					break;
+				case 1:
+					beds.removeSunBeds(1 + random.nextInt(50));
+					break;
+				case 2:
+					try {
+						beds.removeSunBed(beds.getID(random.nextInt(beds.getCount())));
+					} catch (IllegalArgumentException e) {
+						// Removed by someone else
+					}
+					break;
+				default:
+					if (i % 40 == 3) {
+						beds.setAllSunBedsToFree();
+					}
+					break;
+				}
+				Thread.yield();
+			}
+		}, "rollup-structure");
+		structure.start();
+		start.countDown();
+		for (Thread thread : running) {
+			thread.join();
+		}
+		changing.set(false);
+		structure.join();
+	}
+
+	private static void compare(SunBedCollection beds, OccupancyRollup rollup) {
+		int count = beds.getCount();
+		boolean[] booked = new boolean[count];
+		int free = 0;
+		for (int p = 0; p < count; p++) {
+			booked[p] = beds.isOccupiedAt(p);
+			free += booked[p] ? 0 : 1;
+		}
+		System.out.printf("%d sun beds, %d free, %d rows%n", count, free, rollup.getRowCount());
+		ZoneOccupancy total = rollup.getTotalOccupancy();
+		Checks.check(total.getCount() == count && total.getCountFree() == free, "total " + total);
+		Checks.check(rollup.getRowCount() == (count + ROW_LENGTH - 1) / ROW_LENGTH,
+				"row count " + rollup.getRowCount());
+		List<ZoneOccupancy> rows = rollup.getOccupancyByRow();
+		for (int row = 0; row < rows.size(); row++) {
+			int expected = freeIn(booked, row, row);
+			Checks.check(rows.get(row).getCountFree() == expected,
+					"row " + row + " has " + rows.get(row).getCountFree() + " free, expected " + expected);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < 1000; i++) {
+			int from = random.nextInt(rows.size() + 5);
+			int to = from + random.nextInt(20);
+			Checks.check(rollup.getCountFree(from, to) == freeIn(booked, from, to), "rows " + from + "-" + to);
+		}
+		Checks.check(rollup.getTierOccupancy("front").getCountFree() == freeIn(booked, 0, 9), "front tier");
+		ZoneOccupancy premium = rollup.getTierOccupancy("premium");
+		Checks.check(premium.getCountFree() == freeIn(booked, 10, 19) + freeIn(booked, 100, 109),
+				"premium tier " + premium);
+		Checks.check(rollup.getOccupancyByTier().size() == 2, "tiers " + rollup.getOccupancyByTier());
+	}
+
+	private static void timing(SunBedCollection beds, OccupancyRollup rollup) {
+		int rows = rollup.getRowCount();
+		long sum = 0;
+		for (int warm = 0; warm < 2; warm++) {
+			long t = System.nanoTime();
+			for (int i = 0; i < 100_000; i++) {
+				sum += rollup.getCountFree(i % rows, i % rows + 20);
+			}
+			long withRollup = System.nanoTime() - t;
+			t = System.nanoTime();
+			for (int i = 0; i < 1_000; i++) {
+				int from = (i % rows) * ROW_LENGTH;
+				int to = Math.min(beds.getCount(), from + 21 * ROW_LENGTH);
+				for (int p = from; p < to; p++) {
+					sum += beds.isOccupiedAt(p) ? 0 : 1;
+				}
+			}
+			long scanning = System.nanoTime() - t;
+			if (warm == 1) {
+				System.out.printf("21 rows counted in %.0f ns with the rollup, %.0f ns one sun bed at a time (%d)%n",
+						withRollup / 100_000.0, scanning / 1_000.0, sum % 10);
+			}
+		}
+	}
+
+	/**
+	 * @return int The free sun beds on the rows, counted one by one
+	 */
+	private static int freeIn(boolean[] booked, int fromRow, int toRow) {
+		int free = 0;
+		for (int p = fromRow * ROW_LENGTH; p < Math.min(booked.length, (toRow + 1) * ROW_LENGTH); p++) {
+			free += booked[p] ? 0 : 1;
+		}
+		return free;
+	}
+
+	private static void await(CountDownLatch start) {
+		try {
+			start.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
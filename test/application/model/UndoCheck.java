@@ -0,0 +1,229 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import application.check.Checks;
+
+/**
+ * Checks <code>UndoHistory</code>: after a mix of toggles, batches, adding,
+ * removing and freeing sun beds, undoing every step must give back the sun
+ * beds as they were before each one, redoing them as they were after, and the
+ * data file read again the same. Then several threads toggle at once and
+ * undoing everything must leave every sun bed free. Also prints how much
+ * memory hundreds of steps of 100,000 sun beds keep and how long undoing and
+ * redoing a toggle takes. Exits with status 1 if any check fails.
+ * <p>
+ * Usage: <code>UndoCheck [steps] [threads]</code>, by default 300 steps and
+ * 4 threads.
+ *
+ */
+public class UndoCheck {
+
+	private static final int SUN_BEDS = 100_000;
+
+	public static void main(String[] args) throws Exception {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+		Path dir = Files.createTempDirectory("sunbed-undo");
+		try {
+			steps(dir.resolve("steps.dat"), steps);
+			concurrent(dir.resolve("concurrent.dat"), threads);
+			memory(dir.resolve("memory.dat"), steps);
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	/**
+	 * Undoes and redoes every step of a random mix, comparing the sun beds with
+	 * those saved before and after each.
+	 */
+	private static void steps(Path dataFile, int steps) throws IOException {
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.readDataFromFile();
+		beds.addSunBeds(2_000);
+		UndoHistory history = beds.getUndoHistory();
+		history.setLimit(steps);
+		List<long[]> states = new ArrayList<>();
+		states.add(state(beds));
+		Random random = new Random(42);
+		for (int i = 0; i < steps; i++) {
+			change(beds, random);
+			long[] after = state(beds);
+			if (Arrays.equals(after, states.get(states.size() - 1))) {
+				// Changed nothing, so not a step
+				continue;
+			}
+			states.add(after);
+		}
+		Checks.check(history.getUndoCount() == states.size() - 1,
+				"undo count " + history.getUndoCount() + ", expected " + (states.size() - 1));
+		for (int i = states.size() - 2; i >= 0; i--) {
+			Checks.check(history.undo(), "undo of step " + (i + 1));
+			Checks.check(Arrays.equals(state(beds), states.get(i)), "after undoing step " + (i + 1));
+		}
+		Checks.check(!history.undo(), "undo with nothing left");
+		for (int i = 1; i < states.size(); i++) {
+			Checks.check(history.redo(), "redo of step " + i);
+			Checks.check(Arrays.equals(state(beds), states.get(i)), "after redoing step " + i);
+		}
+		Checks.check(!history.redo(), "redo with nothing left");
+
+		// Undone, then a new change drops the redo
+		history.undo();
+		history.undo();
+		long[] undone = state(beds);
+		beds.addSunBeds(3);
+		Checks.check(!history.canRedo(), "redo after a new change");
+		history.undo();
+		Checks.check(Arrays.equals(state(beds), undone), "undo of the change after undoing");
+		long[] saved = state(beds);
+		beds.close();
+
+		SunBedCollection again = SunBedCollection.forFile(dataFile);
+		again.readDataFromFile();
+		Checks.check(Arrays.equals(state(again), saved), "the data file read again");
+		Checks.check(!again.getUndoHistory().canUndo(), "undo right after reading the data file");
+		again.close();
+		System.out.printf("%d steps undone and redone%n", states.size() - 1);
+	}
+
+	private static void change(SunBedCollection beds, Random random) {
+		int count = beds.getCount();
+		int roll = random.nextInt(100);
+		if (count == 0 || roll < 2) {
+			beds.addSunBeds(1 + random.nextInt(600));
+		} else if (roll < 70) {
+			beds.toggleSunBed(beds.getID(random.nextInt(count)));
+		} else if (roll < 78) {
+			beds.book(beds.getID(random.nextInt(count)));
+		} else if (roll < 84) {
+			beds.release(beds.getID(random.nextInt(count)));
+		} else if (roll < 90) {
+			int[] ids = new int[1 + random.nextInt(20)];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = beds.getID(random.nextInt(count));
+			}
+			beds.setBooked(ids, random.nextBoolean());
+		} else if (roll < 94) {
+			beds.removeSunBed(beds.getID(random.nextInt(count)));
+		} else if (roll < 96) {
+			beds.removeSunBeds(random.nextInt(Math.min(count, 300) + 1));
+		} else if (roll < 99) {
+			beds.setAllSunBedsToFree();
+		} else {
+			beds.clearSunBeds();
+		}
+	}
+
+	/**
+	 * @return long[] The ID and state of every sun bed, in position order
+	 */
+	private static long[] state(SunBedCollection beds) {
+		long[] state = new long[beds.getCount()];
+		for (int p = 0; p < state.length; p++) {
+			state[p] = (long) beds.getID(p) << 1 | (beds.isOccupiedAt(p) ? 1 : 0);
+		}
+		return state;
+	}
+
+	/**
+	 * Several threads toggle at once, reported out of order, then every step
+	 * is undone.
+	 */
+	private static void concurrent(Path dataFile, int threads) throws Exception {
+		int perThread = 2_000;
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.setStorageMode(StorageMode.CONCURRENT);
+		beds.readDataFromFile();
+		beds.addSunBeds(1_000);
+		UndoHistory history = beds.getUndoHistory();
+		history.setLimit(threads * perThread);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> running = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < perThread; i++) {
+					// Few sun beds, so threads often toggle the same one
+					beds.toggleSunBed(beds.getID(random.nextInt(64)));
+				}
+			}, "undo-" + t);
+			thread.start();
+			running.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : running) {
+			thread.join();
+		}
+		long[] after = state(beds);
+		history.undo();
+		history.redo();
+		Checks.check(Arrays.equals(state(beds), after), "undo and redo after concurrent toggles");
+		int undone = 0;
+		while (history.undo()) {
+			undone++;
+		}
+		Checks.check(beds.getCountFree() == beds.getCount(),
+				"after undoing " + undone + " concurrent toggles " + beds.getCountFree() + " free of "
+						+ beds.getCount());
+		beds.close();
+		System.out.printf("%d concurrent toggles undone%n", undone);
+	}
+
+	/**
+	 * How much hundreds of toggles of a large beach keep, and how long undoing
+	 * and redoing one takes.
+	 */
+	private static void memory(Path dataFile, int steps) throws IOException {
+		SunBedCollection beds = SunBedCollection.forFile(dataFile);
+		beds.readDataFromFile();
+		beds.addSunBeds(SUN_BEDS);
+		UndoHistory history = beds.getUndoHistory();
+		long base = history.getRetainedBytes();
+		Random random = new Random(7);
+		for (int i = 0; i < steps; i++) {
+			beds.toggleSunBed(beds.getID(random.nextInt(SUN_BEDS)));
+		}
+		long kept = history.getRetainedBytes() - base;
+		long copy = SUN_BEDS * 4L + SUN_BEDS / 8;
+		System.out.printf("%d toggles of %,d sun beds keep %,d bytes, %d per step, a copy per step would be %,d%n",
+				steps, SUN_BEDS, kept, kept / steps, copy * steps);
+		Checks.check(kept < steps * 1024L, "memory kept per step " + kept / steps);
+
+		for (int warm = 0; warm < 2; warm++) {
+			int rounds = 2_000;
+			long t = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				history.undo();
+				history.redo();
+			}
+			if (warm == 1) {
+				System.out.printf("undo and redo of a toggle of %,d sun beds in %.1f us%n", SUN_BEDS,
+						(System.nanoTime() - t) / 1_000.0 / rounds);
+			}
+		}
+		long[] before = state(beds);
+		beds.setAllSunBedsToFree();
+		long t = System.nanoTime();
+		history.undo();
+		System.out.printf("undo of freeing every sun bed in %.1f us%n", (System.nanoTime() - t) / 1_000.0);
+		Checks.check(Arrays.equals(state(beds), before), "undo of freeing every sun bed");
+		beds.close();
+	}
+}
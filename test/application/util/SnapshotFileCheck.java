@@ -0,0 +1,152 @@
+package application.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import application.check.Checks;
+
+/**
+ * Checks <code>SnapshotFile</code>: snapshots of many sizes, including ones
+ * larger than a read chunk, read back as they were written; a file with the
+ * wrong magic, a bad checksum, a newer version or cut short is refused; and a
+ * version 1 snapshot, written before reservations were kept, reads with none.
+ * Exits with status 1 if any check fails.
+ * <p>
+ * Usage: <code>SnapshotFileCheck</code>
+ *
+ */
+public class SnapshotFileCheck {
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("sunbed-snapshot");
+		try {
+			roundTrip(dir.resolve("round.dat"));
+			refused(dir.resolve("bad.dat"));
+			version1(dir.resolve("v1.dat"));
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	private static void roundTrip(Path file) throws IOException {
+		Random random = new Random(42);
+		for (int count : new int[] { 0, 1, 63, 64, 65, 1_000, 200_000 }) {
+			SnapshotFile.Contents written = contents(random, count, 1 + random.nextInt(300));
+			SnapshotFile.writeData(written, file);
+			SnapshotFile.Contents read = SnapshotFile.readData(file);
+			checkSame(read, written, count + " sun beds");
+		}
+		System.out.println("snapshots read back as written");
+	}
+
+	private static void refused(Path file) throws IOException {
+		SnapshotFile.Contents contents = contents(new Random(7), 500, 3);
+		SnapshotFile.writeData(contents, file);
+		byte[] good = Files.readAllBytes(file);
+
+		byte[] bytes = good.clone();
+		bytes[0] ^= 1;
+		checkRefused(file, bytes, "wrong magic");
+
+		bytes = good.clone();
+		bytes[SnapshotFile.HEADER_SIZE + 3] ^= 0x10;
+		checkRefused(file, bytes, "a flipped bit in the bitmap");
+
+		bytes = good.clone();
+		bytes[bytes.length - 1] ^= 0x10;
+		checkRefused(file, bytes, "a flipped bit in the reservations");
+
+		bytes = good.clone();
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4, SnapshotFile.VERSION + 1);
+		checkRefused(file, bytes, "a newer version");
+
+		checkRefused(file, Arrays.copyOf(good, good.length - 4), "the last int cut off");
+		checkRefused(file, Arrays.copyOf(good, good.length + 4), "four bytes too many");
+		checkRefused(file, Arrays.copyOf(good, SnapshotFile.HEADER_SIZE - 1), "less than a header");
+		System.out.println("damaged snapshots refused");
+	}
+
+	/**
+	 * A version 1 snapshot, the header, the bitmap and the IDs and nothing
+	 * more, built by hand as earlier versions wrote it.
+	 */
+	private static void version1(Path file) throws IOException {
+		int count = 130;
+		SnapshotFile.Contents contents = contents(new Random(3), count, 0);
+		int words = SnapshotFile.words(count);
+		ByteBuffer buffer = ByteBuffer.allocate(SnapshotFile.HEADER_SIZE + 8 * words + 4 * count)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(SnapshotFile.HEADER_SIZE);
+		for (int w = 0; w < words; w++) {
+			buffer.putLong(contents.getBooked()[w]);
+		}
+		for (int i = 0; i < count; i++) {
+			buffer.putInt(contents.getIds()[i]);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), SnapshotFile.HEADER_SIZE, buffer.capacity() - SnapshotFile.HEADER_SIZE);
+		buffer.putInt(0, SnapshotFile.MAGIC).putInt(4, 1).putInt(8, count).putInt(12, contents.getDay()).putLong(16,
+				crc.getValue());
+		Files.write(file, buffer.array());
+
+		SnapshotFile.Contents read = SnapshotFile.readData(file);
+		checkSame(read, contents, "version 1");
+		Checks.check(read.getReservations().length == 0, "version 1 read with reservations");
+
+		// Written again it becomes the current version, with the same sun beds
+		SnapshotFile.writeData(read, file);
+		int version = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN).getInt(4);
+		Checks.check(version == SnapshotFile.VERSION, "version 1 written again as version " + version);
+		checkSame(SnapshotFile.readData(file), contents, "version 1 written again");
+		System.out.println("version 1 snapshot read");
+	}
+
+	/**
+	 * @return Contents Random sun beds, booked bits only for sun beds there are
+	 */
+	private static SnapshotFile.Contents contents(Random random, int count, int reservations) {
+		long[] booked = new long[SnapshotFile.words(count)];
+		for (int w = 0; w < booked.length; w++) {
+			booked[w] = random.nextLong();
+		}
+		if ((count & 63) != 0) {
+			booked[booked.length - 1] &= -1L >>> (64 - (count & 63));
+		}
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = i + 1 + random.nextInt(3) * count;
+		}
+		int[] ints = new int[reservations];
+		for (int i = 0; i < reservations; i++) {
+			ints[i] = random.nextInt();
+		}
+		return new SnapshotFile.Contents(count, booked, ids, random.nextInt(1_000), ints);
+	}
+
+	private static void checkSame(SnapshotFile.Contents read, SnapshotFile.Contents written, String what) {
+		Checks.check(read.getCount() == written.getCount(), what + ": count " + read.getCount());
+		Checks.check(read.getDay() == written.getDay(), what + ": day " + read.getDay());
+		Checks.check(Arrays.equals(read.getBooked(), written.getBooked()), what + ": booked flags differ");
+		Checks.check(Arrays.equals(read.getIds(), written.getIds()), what + ": IDs differ");
+		if (written.getReservations().length > 0) {
+			Checks.check(Arrays.equals(read.getReservations(), written.getReservations()),
+					what + ": reservations differ");
+		}
+	}
+
+	private static void checkRefused(Path file, byte[] bytes, String what) throws IOException {
+		Files.write(file, bytes);
+		try {
+			SnapshotFile.readData(file);
+			Checks.check(false, "snapshot with " + what + " was read");
+		} catch (IOException expected) {
+			// Refused
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package application.util;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import application.check.Checks;
+import application.model.SunBed;
+
+/**
+ * Checks <code>SunBedXmlCodec</code>: sun beds written from a list or a
+ * snapshot read back the same, files written by <code>XMLEncoder</code> are
+ * read and files written by the codec are read by <code>XMLDecoder</code>.
+ * Files with a DTD, an entity or any element, class or attribute outside the
+ * format are refused. Exits with status 1 if any check fails.
+ * <p>
+ * Usage: <code>SunBedXmlCodecCheck</code>
+ *
+ */
+public class SunBedXmlCodecCheck {
+
+	private static final String HEAD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<java version=\"11.0.2\" class=\"java.beans.XMLDecoder\">\n";
+	private static final String LIST = " <object class=\"java.util.ArrayList\">\n";
+	private static final String FREE = "  <void method=\"add\">\n   <object class=\"application.model.SunBed\"/>\n"
+			+ "  </void>\n";
+	private static final String TAIL = " </object>\n</java>\n";
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("sunbed-xml");
+		try {
+			roundTrip(dir.resolve("round.xml"));
+			encoder(dir.resolve("encoder.xml"));
+			refused(dir);
+		} finally {
+			Checks.deleteTree(dir);
+		}
+		Checks.exit();
+	}
+
+	private static void roundTrip(Path file) throws IOException {
+		Random random = new Random(11);
+		for (int count : new int[] { 0, 1, 70, 5_000 }) {
+			boolean[] booked = new boolean[count];
+			List<SunBed> sunBeds = new ArrayList<>();
+			long[] words = new long[SnapshotFile.words(count)];
+			for (int i = 0; i < count; i++) {
+				booked[i] = random.nextBoolean();
+				SunBed s = new SunBed();
+				s.setBooked(booked[i]);
+				sunBeds.add(s);
+				if (booked[i]) {
+					words[i >>> 6] |= 1L << i;
+				}
+			}
+			SunBedXmlCodec.writeData(sunBeds, file);
+			checkBooked(SunBedXmlCodec.readData(file), booked, count + " sun beds from a list");
+
+			SunBedXmlCodec.writeData(new SnapshotFile.Contents(count, words, new int[count]), file);
+			checkBooked(SunBedXmlCodec.readData(file), booked, count + " sun beds from a snapshot");
+			int[] seen = new int[1];
+			int read = SunBedXmlCodec.readData(file, b -> seen[0]++);
+			Checks.check(read == count && seen[0] == count, "streamed " + seen[0] + " of " + count + " sun beds");
+		}
+		System.out.println("sun beds read back as written");
+	}
+
+	/**
+	 * Files stay exchangeable with versions that used
+	 * <code>XMLEncoder</code> and <code>XMLDecoder</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void encoder(Path file) throws IOException {
+		boolean[] booked = { true, false, false, true, true };
+		ArrayList<SunBed> sunBeds = new ArrayList<>();
+		for (boolean b : booked) {
+			SunBed s = new SunBed();
+			s.setBooked(b);
+			sunBeds.add(s);
+		}
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+				XMLEncoder encoder = new XMLEncoder(out)) {
+			encoder.writeObject(sunBeds);
+		}
+		checkBooked(SunBedXmlCodec.readData(file), booked, "written by XMLEncoder");
+
+		SunBedXmlCodec.writeData(sunBeds, file);
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+				XMLDecoder decoder = new XMLDecoder(in)) {
+			checkBooked((List<SunBed>) decoder.readObject(), booked, "read by XMLDecoder");
+		}
+		System.out.println("exchangeable with XMLEncoder and XMLDecoder");
+	}
+
+	private static void refused(Path dir) throws IOException {
+		Path secret = dir.resolve("secret.txt");
+		Files.write(secret, "true".getBytes(StandardCharsets.UTF_8));
+		String booked = "  <void method=\"add\">\n   <object class=\"application.model.SunBed\">\n"
+				+ "    <void property=\"booked\">\n     <boolean>&xxe;</boolean>\n    </void>\n   </object>\n"
+				+ "  </void>\n";
+		checkRefused(dir, "<?xml version=\"1.0\"?>\n<!DOCTYPE java [<!ENTITY xxe SYSTEM \"" + secret.toUri()
+				+ "\">]>\n" + HEAD.substring(HEAD.indexOf("<java")) + LIST + booked + TAIL, "an external entity");
+		checkRefused(dir, "<?xml version=\"1.0\"?>\n<!DOCTYPE java [<!ENTITY xxe \"true\">]>\n"
+				+ HEAD.substring(HEAD.indexOf("<java")) + LIST + booked + TAIL, "an internal entity");
+		checkRefused(dir, HEAD + LIST + booked + TAIL, "an undeclared entity");
+
+		checkRefused(dir, HEAD + " <object class=\"java.lang.ProcessBuilder\">\n  <array class=\"java.lang.String\" "
+				+ "length=\"1\"/>\n  <void method=\"start\"/>\n </object>\n</java>\n", "a ProcessBuilder");
+		checkRefused(dir, HEAD + LIST + "  <void method=\"add\">\n   <object class=\"java.lang.Runtime\"/>\n"
+				+ "  </void>\n" + TAIL, "another class in the list");
+		checkRefused(dir, HEAD + LIST + FREE + "  <void method=\"clear\"/>\n" + TAIL, "a method other than add");
+		checkRefused(dir, HEAD + LIST + "  <void method=\"add\">\n   <object class=\"application.model.SunBed\">\n"
+				+ "    <void property=\"ID\">\n     <int>7</int>\n    </void>\n   </object>\n  </void>\n" + TAIL,
+				"a property other than booked");
+		checkRefused(dir, HEAD + LIST + "  <void method=\"add\" id=\"x\">\n"
+				+ "   <object class=\"application.model.SunBed\"/>\n  </void>\n" + TAIL, "an extra attribute");
+		checkRefused(dir, HEAD + LIST + "  <string>add</string>\n" + TAIL, "an unexpected element");
+		checkRefused(dir, "<?xml version=\"1.0\"?>\n<list>\n" + LIST + FREE + " </object>\n</list>\n",
+				"another root element");
+		checkRefused(dir, HEAD + LIST + FREE, "a file cut short");
+		checkRefused(dir, "", "an empty file");
+		System.out.println("files outside the format refused");
+	}
+
+	private static void checkBooked(List<SunBed> sunBeds, boolean[] booked, String what) {
+		boolean same = sunBeds.size() == booked.length;
+		for (int i = 0; same && i < booked.length; i++) {
+			same = sunBeds.get(i).isBooked() == booked[i];
+		}
+		Checks.check(same, what + ": " + sunBeds.size() + " sun beds differ from the " + booked.length + " written");
+	}
+
+	private static void checkRefused(Path dir, String xml, String what) throws IOException {
+		Path file = dir.resolve("refused.xml");
+		Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+		try {
+			List<SunBed> sunBeds = SunBedXmlCodec.readData(file);
+			Checks.check(false, "file with " + what + " was read as " + sunBeds.size() + " sun beds");
+		} catch (IOException expected) {
+			// Refused
+		}
+	}
+}